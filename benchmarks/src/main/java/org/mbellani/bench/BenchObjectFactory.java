@@ -0,0 +1,38 @@
+package org.mbellani.bench;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mbellani.pool.ObjectFactory;
+
+/**
+ * Cheap objects so the benchmarks measure the pool rather than the factory.
+ */
+public class BenchObjectFactory implements ObjectFactory<String> {
+
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    @Override
+    public String create() {
+        return "obj-" + sequence.incrementAndGet();
+    }
+
+    @Override
+    public void destroy(String t) {
+    }
+
+    @Override
+    public boolean validate(String t) {
+        return true;
+    }
+
+    @Override
+    public byte[] serialize(String t) {
+        return t.getBytes();
+    }
+
+    @Override
+    public String deserialize(byte[] bytes) {
+        return new String(bytes);
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.mbellani.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mbellani.pool.Config;
+import org.mbellani.pool.ZKObjectPool;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Borrow followed by return, the common case, across pool sizes, participant counts and thread counts. Threads are
+ * spread round robin over the participants, which all share one embedded ZooKeeper. Borrows that find the pool
+ * exhausted are reported separately as the {@code exhausted} secondary result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BorrowReturnBenchmark {
+
+    @Param({ "8", "64" })
+    public int poolSize;
+
+    @Param({ "1", "3" })
+    public int participants;
+
+    private EmbeddedZk zk;
+    private List<ZKObjectPool<String>> pools = Lists.newArrayList();
+    private AtomicInteger assigned = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        zk = new EmbeddedZk().start();
+        Config config = new Config.Builder("bench-borrow-return").initSize(poolSize).size(poolSize)
+                .zkConnectString(zk.connectString()).build();
+        for (int i = 0; i < participants; i++) {
+            ZKObjectPool<String> pool = new ZKObjectPool<String>(config);
+            pool.setFactory(new BenchObjectFactory());
+            pool.initialize();
+            pools.add(pool);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (ZKObjectPool<String> pool : pools) {
+            pool.shutdown();
+        }
+        zk.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class Participant {
+        ZKObjectPool<String> pool;
+
+        @Setup(Level.Trial)
+        public void setup(BorrowReturnBenchmark bench) {
+            pool = bench.pools.get(bench.assigned.getAndIncrement() % bench.pools.size());
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Outcome {
+        public long borrowed;
+        public long exhausted;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            borrowed = 0;
+            exhausted = 0;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String borrowReturn_1thread(Participant p, Outcome o) {
+        return borrowReturn(p.pool, o);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String borrowReturn_4threads(Participant p, Outcome o) {
+        return borrowReturn(p.pool, o);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String borrowReturn_16threads(Participant p, Outcome o) {
+        return borrowReturn(p.pool, o);
+    }
+
+    static String borrowReturn(ZKObjectPool<String> pool, Outcome o) {
+        String obj = pool.borrow();
+        if (obj != null) {
+            pool.returnObject(obj);
+            o.borrowed++;
+        } else {
+            o.exhausted++;
+        }
+        return obj;
+    }
+
+}
@@ -0,0 +1,84 @@
+package org.mbellani.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.ZKObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Several participants destroying every object they borrow, so each borrow has to create a new one and every create
+ * and destroy goes through the permit counter while the pool is at its size. Run it on two revisions to compare how
+ * adding objects performs under contention, the objects that lost the race for the last place and the pool size seen
+ * when the trial ends are printed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class CapacityChurnBenchmark {
+
+    private static final int PARTICIPANTS = 4;
+
+    @Param({ "4", "16" })
+    public int poolSize;
+
+    private EmbeddedZk zk;
+    private ZKObjectPool<String>[] pools;
+
+    @SuppressWarnings("unchecked")
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        zk = new EmbeddedZk().start();
+        pools = new ZKObjectPool[PARTICIPANTS];
+        for (int i = 0; i < PARTICIPANTS; i++) {
+            pools[i] = new ZKObjectPool<String>(new Config.Builder("bench-capacity").initSize(0).size(poolSize)
+                    .zkConnectString(zk.connectString()).build());
+            pools[i].setFactory(new BenchObjectFactory());
+            pools[i].initialize();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        long rejections = 0;
+        for (ZKObjectPool<String> pool : pools) {
+            rejections += pool.getMetrics().counter(PoolMetrics.CAPACITY_REJECTIONS).getCount();
+        }
+        System.out.printf("%nobjects that did not fit: %d, pool size %d of %d%n", rejections,
+                pools[0].getStore().count(Area.MASTER), poolSize);
+        for (ZKObjectPool<String> pool : pools) {
+            pool.shutdown();
+        }
+        zk.stop();
+    }
+
+    @Benchmark
+    public String borrowDestroy() {
+        ZKObjectPool<String> pool = pools[(int) (Thread.currentThread().getId() % PARTICIPANTS)];
+        String obj = pool.borrow();
+        if (obj != null) {
+            pool.invalidate(obj);
+        }
+        return obj;
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.mbellani.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.ZKObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Many threads of one participant racing for the few unused nodes of a small pool, where the node picked by
+ * {@code selectNodeIndex} is most often already claimed by someone else. The claim collision count of the run is
+ * printed when the trial ends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class ClaimContentionBenchmark {
+
+    @Param({ "4", "16", "64" })
+    public int poolSize;
+
+    private EmbeddedZk zk;
+    private ZKObjectPool<String> pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        zk = new EmbeddedZk().start();
+        pool = new ZKObjectPool<String>(new Config.Builder("bench-contention").initSize(poolSize).size(poolSize)
+                .zkConnectString(zk.connectString()).build());
+        pool.setFactory(new BenchObjectFactory());
+        pool.initialize();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        PoolMetrics metrics = pool.getMetrics();
+        System.out.printf("%nclaim collisions: %d over %d borrows%n",
+                metrics.counter(PoolMetrics.CLAIM_COLLISIONS).getCount(),
+                metrics.histogram(PoolMetrics.BORROW).getCount());
+        pool.shutdown();
+        zk.stop();
+    }
+
+    @Benchmark
+    public String borrowReturn() {
+        String obj = pool.borrow();
+        if (obj != null) {
+            pool.returnObject(obj);
+        }
+        return obj;
+    }
+
+}
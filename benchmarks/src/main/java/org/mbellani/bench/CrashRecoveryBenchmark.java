@@ -0,0 +1,85 @@
+package org.mbellani.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.pool.Config;
+import org.mbellani.pool.ZKObjectPool;
+import org.mbellani.pool.ZKPoolStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time from a participant losing its session while holding objects until a surviving participant has put every one
+ * of them back in the unused area.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CrashRecoveryBenchmark {
+
+    private static final int SIZE = 32;
+
+    @Param({ "1", "16" })
+    public int held;
+
+    private EmbeddedZk zk;
+    private Config config;
+    private ZKObjectPool<String> survivor;
+    private ZKObjectPool<String> crashed;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        zk = new EmbeddedZk().start();
+        config = new Config.Builder("bench-crash").initSize(SIZE).size(SIZE).zkConnectString(zk.connectString())
+                .build();
+        survivor = new ZKObjectPool<String>(config);
+        survivor.setFactory(new BenchObjectFactory());
+        survivor.initialize();
+    }
+
+    @Setup(Level.Invocation)
+    public void join() {
+        crashed = new ZKObjectPool<String>(config);
+        crashed.setFactory(new BenchObjectFactory());
+        crashed.initialize();
+        for (int i = 0; i < held; i++) {
+            crashed.borrow();
+        }
+    }
+
+    @Benchmark
+    public int recover() throws Exception {
+        ((ZKPoolStore) crashed.getStore()).getZk().close();
+        int unused;
+        while ((unused = survivor.getUnused()) < SIZE) {
+            Thread.sleep(1);
+        }
+        return unused;
+    }
+
+    @TearDown(Level.Invocation)
+    public void leave() {
+        crashed.shutdown();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        survivor.shutdown();
+        zk.stop();
+    }
+
+}
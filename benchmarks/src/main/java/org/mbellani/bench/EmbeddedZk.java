@@ -0,0 +1,48 @@
+package org.mbellani.bench;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+
+import org.apache.zookeeper.server.NIOServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import com.google.common.io.Files;
+
+/**
+ * Standalone ZooKeeper server in the benchmark JVM, set up the same way the tests' {@code ZkServer} is but with a
+ * fresh data directory per trial so snapshots of earlier runs don't skew the numbers.
+ */
+public class EmbeddedZk {
+
+    private NIOServerCnxnFactory factory;
+    private File dir;
+
+    public EmbeddedZk start() throws Exception {
+        dir = Files.createTempDir();
+        ZooKeeperServer server = new ZooKeeperServer(dir, dir, 2000);
+        factory = new NIOServerCnxnFactory();
+        factory.configure(new InetSocketAddress("127.0.0.1", 0), 1000);
+        factory.startup(server);
+        return this;
+    }
+
+    public String connectString() {
+        return String.format("127.0.0.1:%s", factory.getLocalPort());
+    }
+
+    public void stop() throws Exception {
+        factory.shutdown();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
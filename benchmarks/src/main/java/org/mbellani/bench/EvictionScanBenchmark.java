@@ -0,0 +1,76 @@
+package org.mbellani.bench;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.pool.Config;
+import org.mbellani.pool.PoolStore;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.ZKObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Longs;
+
+/**
+ * The part of an eviction run that grows with the pool: reading the modification time of every unused node and
+ * ordering them oldest first, as {@code PoolCleanup} does before testing any object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EvictionScanBenchmark {
+
+    @Param({ "16", "128", "512" })
+    public int unused;
+
+    private EmbeddedZk zk;
+    private ZKObjectPool<String> pool;
+    private PoolStore store;
+    private Ordering<Entry<String, Long>> sorter = new Ordering<Entry<String, Long>>() {
+        @Override
+        public int compare(Entry<String, Long> left, Entry<String, Long> right) {
+            return Longs.compare(left.getValue(), right.getValue());
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        zk = new EmbeddedZk().start();
+        pool = new ZKObjectPool<String>(new Config.Builder("bench-eviction").initSize(unused).size(unused)
+                .zkConnectString(zk.connectString()).build());
+        pool.setFactory(new BenchObjectFactory());
+        pool.initialize();
+        store = pool.getStore();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        pool.shutdown();
+        zk.stop();
+    }
+
+    @Benchmark
+    public List<Entry<String, Long>> scan() {
+        Map<String, Long> mtimes = store.modifiedTimes(Area.UNUSED);
+        return sorter.immutableSortedCopy(mtimes.entrySet());
+    }
+
+}
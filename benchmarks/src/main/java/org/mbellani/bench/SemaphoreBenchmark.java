@@ -0,0 +1,103 @@
+package org.mbellani.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.pool.Config;
+import org.mbellani.pool.DistributedSemaphore;
+import org.mbellani.pool.DistributedSemaphore.Permits;
+import org.mbellani.pool.ZKObjectPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Acquiring and releasing a permit against borrowing and returning a dummy object of a pool the same size, the two
+ * ways of capping concurrency across participants. Attempts that find everything taken count as operations too,
+ * like in {@link BorrowReturnBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SemaphoreBenchmark {
+
+    @Param({ "8", "64" })
+    public int permits;
+
+    private EmbeddedZk zk;
+    private DistributedSemaphore semaphore;
+    private ZKObjectPool<String> pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        zk = new EmbeddedZk().start();
+        semaphore = new DistributedSemaphore(new Config.Builder("bench-semaphore").size(permits)
+                .zkConnectString(zk.connectString()).build());
+        semaphore.initialize();
+        pool = new ZKObjectPool<String>(new Config.Builder("bench-semaphore-pool").initSize(permits).size(permits)
+                .zkConnectString(zk.connectString()).build());
+        pool.setFactory(new BenchObjectFactory());
+        pool.initialize();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        semaphore.shutdown();
+        pool.shutdown();
+        zk.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Permits acquireRelease_1thread() {
+        return acquireRelease();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Permits acquireRelease_16threads() {
+        return acquireRelease();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String borrowReturn_1thread() {
+        return borrowReturn();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String borrowReturn_16threads() {
+        return borrowReturn();
+    }
+
+    private Permits acquireRelease() {
+        Permits p = semaphore.tryAcquire();
+        if (p != null) {
+            semaphore.release(p);
+        }
+        return p;
+    }
+
+    private String borrowReturn() {
+        String obj = pool.borrow();
+        if (obj != null) {
+            pool.returnObject(obj);
+        }
+        return obj;
+    }
+
+}
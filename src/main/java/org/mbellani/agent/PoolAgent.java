@@ -0,0 +1,611 @@
+package org.mbellani.agent;
+
+import static org.mbellani.agent.Protocol.BORROW;
+import static org.mbellani.agent.Protocol.EMPTY;
+import static org.mbellani.agent.Protocol.ERROR;
+import static org.mbellani.agent.Protocol.HEADER;
+import static org.mbellani.agent.Protocol.INVALIDATE;
+import static org.mbellani.agent.Protocol.MAX_FRAME;
+import static org.mbellani.agent.Protocol.MAX_OBJECT;
+import static org.mbellani.agent.Protocol.OK;
+import static org.mbellani.agent.Protocol.RETURN;
+import static org.mbellani.agent.Protocol.STATS;
+import static org.mbellani.agent.Protocol.UNKNOWN_LEASE;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.pool.Config;
+import org.mbellani.pool.ObjectFactory;
+import org.mbellani.pool.ZKObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Long running participant lending objects of one pool to local processes over a loopback socket, so short lived
+ * clients don't pay for a zookeeper session, registration and the maintenance tasks. Objects returned by clients are
+ * kept in a warm local tier, still claimed from the pool, and lent again without going to zookeeper. Leases of a client
+ * that disconnects go back to the agent the same way ephemeral claims go away with a session.
+ *
+ * A single selector thread parses frames and serves warm tier hits straight out of per connection buffers, anything
+ * needing zookeeper is handed to a small worker pool and answered once it completes. Warm objects are validated like
+ * a borrow before they are lent again and go back to the pool once idle for longer than the pool lets objects idle.
+ */
+public class PoolAgent<T> implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PoolAgent.class);
+    private static final int DEFAULT_WARM_SIZE = 8;
+    private static final int WORKERS = 4;
+
+    private final ZKObjectPool<T> pool;
+    private final ObjectFactory<T> factory;
+    private final int warmSize;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ExecutorService workers;
+    private final ConcurrentLinkedQueue<Completion> completed = new ConcurrentLinkedQueue<Completion>();
+    private final ArrayDeque<Lease> warm = new ArrayDeque<Lease>();
+    private final ArrayDeque<Lease> freeLeases = new ArrayDeque<Lease>();
+    private final ArrayDeque<Completion> freeCompletions = new ArrayDeque<Completion>();
+    private Lease[] leases = new Lease[16];
+    private int leaseCount;
+    private volatile boolean running;
+
+    public PoolAgent(ZKObjectPool<T> pool, InetSocketAddress address, int warmSize) throws IOException {
+        this.pool = pool;
+        this.factory = pool.getFactory();
+        this.warmSize = warmSize;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.configureBlocking(false);
+        server.socket().bind(address);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        workers = Executors.newFixedThreadPool(WORKERS,
+                new ThreadFactoryBuilder().setNameFormat("pool-agent-worker-%d").setDaemon(true).build());
+    }
+
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) server.socket().getLocalSocketAddress();
+    }
+
+    public Thread start() {
+        running = true;
+        Thread t = new Thread(this, "pool-agent-" + pool.getConfig().getName());
+        t.start();
+        return t;
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        LOGGER.info("Pool agent serving {} on {}", pool.getConfig().getName(), getAddress());
+        try {
+            while (running) {
+                long idle = idleMillis();
+                selector.select(idle > 0 ? Math.max(1, idle / 2) : 0);
+                retireIdle();
+                drainCompleted();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        service((Connection) key.attachment());
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Pool agent stopped unexpectedly", e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = server.accept();
+        if (ch == null) {
+            return;
+        }
+        ch.configureBlocking(false);
+        ch.socket().setTcpNoDelay(true);
+        Connection conn = new Connection(ch);
+        conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+    }
+
+    private void service(Connection conn) {
+        try {
+            if (conn.ch.read(conn.in) < 0) {
+                close(conn);
+                return;
+            }
+            process(conn);
+            flush(conn);
+        } catch (IOException e) {
+            LOGGER.debug("Dropping client connection", e);
+            close(conn);
+        }
+    }
+
+    /**
+     * Handles every complete frame in the read buffer for which there is room to answer.
+     */
+    private void process(Connection conn) {
+        ByteBuffer in = conn.in;
+        in.flip();
+        while (in.remaining() >= 4 && conn.out.remaining() >= MAX_FRAME) {
+            int length = in.getInt(in.position());
+            if (in.remaining() < 4 + length) {
+                break;
+            }
+            int end = in.position() + 4 + length;
+            in.getInt();
+            byte op = in.get();
+            int requestId = in.getInt();
+            switch (op) {
+            case BORROW:
+                borrow(conn, requestId);
+                break;
+            case RETURN:
+                giveBack(conn, requestId, in.getInt(), false);
+                break;
+            case INVALIDATE:
+                giveBack(conn, requestId, in.getInt(), true);
+                break;
+            case STATS:
+                stats(conn, requestId);
+                break;
+            default:
+                respond(conn, ERROR, requestId);
+            }
+            in.position(end);
+        }
+        in.compact();
+    }
+
+    /**
+     * Lends a warm object right away while its last validation still counts, anything else goes through a worker.
+     */
+    private void borrow(Connection conn, int requestId) {
+        Lease lease = warm.pollFirst();
+        if (lease != null && validatedRecently(lease)) {
+            lend(conn, requestId, lease);
+            return;
+        }
+        Completion c = completion(conn, BORROW, requestId);
+        c.lease = lease;
+        dispatch(c);
+    }
+
+    private void giveBack(final Connection conn, final int requestId, int leaseId, boolean invalidate) {
+        final Lease lease = leaseId >= 0 && leaseId < leaseCount ? leases[leaseId] : null;
+        if (lease == null || lease.conn != conn) {
+            respond(conn, UNKNOWN_LEASE, requestId);
+            return;
+        }
+        lease.conn = null;
+        if (!invalidate) {
+            release(lease);
+            respond(conn, OK, requestId);
+            return;
+        }
+        free(lease);
+        Completion c = completion(conn, INVALIDATE, requestId);
+        c.obj = obj(lease);
+        dispatch(c);
+    }
+
+    private void stats(Connection conn, int requestId) {
+        dispatch(completion(conn, STATS, requestId));
+    }
+
+    private Completion completion(Connection conn, byte op, int requestId) {
+        Completion c = freeCompletions.pollFirst();
+        if (c == null) {
+            c = new Completion(this);
+        }
+        c.conn = conn;
+        c.op = op;
+        c.requestId = requestId;
+        return c;
+    }
+
+    /**
+     * Runs on a worker, the selector thread picks the completion up from there.
+     */
+    private void serve(Completion c) {
+        try {
+            switch (c.op) {
+            case BORROW:
+                if (c.lease != null) {
+                    c.ok = pool.revalidate(obj(c.lease));
+                    if (c.ok) {
+                        break;
+                    }
+                }
+                T obj = pool.borrow();
+                c.obj = obj;
+                c.data = obj == null ? null : factory.serialize(obj);
+                break;
+            case INVALIDATE:
+                c.ok = pool.invalidate(obj(c));
+                break;
+            case STATS:
+                c.stats[0] = pool.getSize();
+                c.stats[1] = pool.getUsed();
+                c.stats[2] = pool.getUnused();
+                c.stats[3] = pool.getZombies();
+                break;
+            case RETURN:
+                pool.returnObject(obj(c));
+                break;
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error serving agent request {}", c.op, e);
+        }
+        completed.add(c);
+        selector.wakeup();
+    }
+
+    private void dispatch(Completion c) {
+        if (c.conn != null) {
+            c.conn.pending++;
+        }
+        workers.execute(c);
+    }
+
+    private void recycle(Completion c) {
+        c.conn = null;
+        c.obj = null;
+        c.data = null;
+        c.lease = null;
+        c.ok = false;
+        freeCompletions.addFirst(c);
+    }
+
+    /**
+     * Hands completions to their connections, each answered as far as its own output buffer has room so a slow
+     * client only holds up its own responses.
+     */
+    private void drainCompleted() {
+        Completion c;
+        while ((c = completed.poll()) != null) {
+            Connection conn = c.conn;
+            if (conn == null) {
+                recycle(c);
+                continue;
+            }
+            conn.done.add(c);
+            answer(conn);
+            if (conn.open && conn.out.position() > 0) {
+                try {
+                    flush(conn);
+                } catch (IOException e) {
+                    close(conn);
+                }
+            }
+        }
+    }
+
+    private void answer(Connection conn) {
+        Completion c;
+        while ((c = conn.done.peek()) != null && (!conn.open || conn.out.remaining() >= MAX_FRAME)) {
+            conn.done.poll();
+            conn.pending--;
+            if (c.op == BORROW) {
+                answerBorrow(conn, c);
+            } else if (c.op == INVALIDATE) {
+                respondIfOpen(conn, c.ok ? OK : ERROR, c.requestId);
+            } else if (c.op == STATS && conn.open) {
+                ByteBuffer out = conn.out;
+                out.putInt(HEADER - 4 + 16).put(OK).putInt(c.requestId);
+                for (int s : c.stats) {
+                    out.putInt(s);
+                }
+            }
+            recycle(c);
+        }
+    }
+
+    private void answerBorrow(Connection conn, Completion c) {
+        Lease lease = c.lease;
+        if (lease != null && c.ok) {
+            lease.validatedAt = System.currentTimeMillis();
+        } else {
+            if (lease != null) {
+                // failed validation, no longer borrowed from the pool.
+                free(lease);
+            }
+            if (c.obj == null) {
+                respondIfOpen(conn, EMPTY, c.requestId);
+                return;
+            }
+            if (c.data.length > MAX_OBJECT) {
+                LOGGER.error("Object of {} bytes is too large to lend through the agent", c.data.length);
+                returnToPool(obj(c));
+                respondIfOpen(conn, ERROR, c.requestId);
+                return;
+            }
+            lease = allocate(obj(c), c.data);
+        }
+        if (conn.open) {
+            lend(conn, c.requestId, lease);
+        } else {
+            release(lease);
+        }
+    }
+
+    private void lend(Connection conn, int requestId, Lease lease) {
+        lease.conn = conn;
+        ByteBuffer out = conn.out;
+        out.putInt(HEADER - 4 + 4 + lease.data.length).put(OK).putInt(requestId).putInt(lease.id).put(lease.data);
+    }
+
+    private void respondIfOpen(Connection conn, byte status, int requestId) {
+        if (conn.open) {
+            respond(conn, status, requestId);
+        }
+    }
+
+    private void respond(Connection conn, byte status, int requestId) {
+        conn.out.putInt(HEADER - 4).put(status).putInt(requestId);
+    }
+
+    private void flush(Connection conn) throws IOException {
+        ByteBuffer out = conn.out;
+        out.flip();
+        conn.ch.write(out);
+        boolean more = out.hasRemaining();
+        out.compact();
+        if (more) {
+            conn.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            conn.key.interestOps(SelectionKey.OP_READ);
+            if (!conn.done.isEmpty() || conn.in.position() > 0) {
+                // completions and frames left unanswered while the output was full.
+                answer(conn);
+                process(conn);
+                if (conn.out.position() > 0) {
+                    flush(conn);
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the object claimed in the warm tier if there is room, otherwise gives it back to the pool.
+     */
+    private void release(Lease lease) {
+        lease.conn = null;
+        if (warm.size() < warmSize && running) {
+            lease.idleSince = System.currentTimeMillis();
+            warm.addFirst(lease);
+        } else {
+            free(lease);
+            returnToPool(obj(lease));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T obj(Lease lease) {
+        return (T) lease.obj;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T obj(Completion c) {
+        return (T) c.obj;
+    }
+
+    private void returnToPool(T obj) {
+        Completion c = completion(null, RETURN, 0);
+        c.obj = obj;
+        dispatch(c);
+    }
+
+    private boolean validatedRecently(Lease lease) {
+        Config config = pool.getConfig();
+        if (!config.isTestOnBorrow()) {
+            return true;
+        }
+        long ttl = config.getIntrvlUnit().toMillis(config.getValidationTtl());
+        return ttl > 0 && System.currentTimeMillis() - lease.validatedAt < ttl;
+    }
+
+    private long idleMillis() {
+        Config config = pool.getConfig();
+        Long maxIdle = config.getMaxIdleIntrvl();
+        return maxIdle == null ? 0 : config.getIntrvlUnit().toMillis(maxIdle);
+    }
+
+    /**
+     * Gives warm objects idle for longer than the pool lets objects idle back to it, for its evictor to deal with.
+     */
+    private void retireIdle() {
+        long maxIdle = idleMillis();
+        if (maxIdle <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Lease lease;
+        while ((lease = warm.peekLast()) != null && now - lease.idleSince >= maxIdle) {
+            warm.pollLast();
+            free(lease);
+            returnToPool(obj(lease));
+        }
+    }
+
+    private Lease allocate(T obj, byte[] data) {
+        Lease lease = freeLeases.pollFirst();
+        if (lease == null) {
+            if (leaseCount == leases.length) {
+                leases = Arrays.copyOf(leases, leaseCount * 2);
+            }
+            lease = new Lease(leaseCount);
+            leases[leaseCount++] = lease;
+        }
+        lease.obj = obj;
+        lease.data = data;
+        // validated by the borrow that brought it in.
+        lease.validatedAt = System.currentTimeMillis();
+        return lease;
+    }
+
+    private void free(Lease lease) {
+        freeLeases.addFirst(lease);
+    }
+
+    private void close(Connection conn) {
+        conn.open = false;
+        conn.key.cancel();
+        try {
+            conn.ch.close();
+        } catch (IOException e) {
+            // nothing more to do with it.
+        }
+        for (int i = 0; i < leaseCount; i++) {
+            if (leases[i].conn == conn) {
+                release(leases[i]);
+            }
+        }
+        answer(conn);
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                close((Connection) key.attachment());
+            }
+        }
+        Lease lease;
+        while ((lease = warm.pollFirst()) != null) {
+            free(lease);
+            returnToPool(obj(lease));
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+            server.close();
+            selector.close();
+        } catch (Exception e) {
+            LOGGER.warn("Error closing the pool agent", e);
+        }
+        LOGGER.info("Pool agent stopped");
+    }
+
+    private static final class Lease {
+        final int id;
+        Object obj;
+        byte[] data;
+        Connection conn;
+        long validatedAt;
+        long idleSince;
+
+        Lease(int id) {
+            this.id = id;
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel ch;
+        final ByteBuffer in = ByteBuffer.allocateDirect(4 * MAX_FRAME);
+        final ByteBuffer out = ByteBuffer.allocateDirect(4 * MAX_FRAME);
+        final ArrayDeque<Completion> done = new ArrayDeque<Completion>();
+        SelectionKey key;
+        boolean open = true;
+        int pending;
+
+        Connection(SocketChannel ch) {
+            this.ch = ch;
+        }
+    }
+
+    /**
+     * A request served by a worker and answered by the selector thread, recycled once answered.
+     */
+    private static final class Completion implements Runnable {
+        final PoolAgent<?> agent;
+        final int[] stats = new int[4];
+        Connection conn;
+        byte op;
+        int requestId;
+        Object obj;
+        byte[] data;
+        Lease lease;
+        boolean ok;
+
+        Completion(PoolAgent<?> agent) {
+            this.agent = agent;
+        }
+
+        @Override
+        public void run() {
+            agent.serve(this);
+        }
+    }
+
+    /**
+     * Runs an agent, {@code PoolAgent <pool name> <zk connect string> <size> <factory class> [port] [warm size]}.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: PoolAgent <pool name> <zk connect string> <size> <factory class> "
+                    + "[port] [warm size]");
+            System.exit(1);
+        }
+        int size = Integer.parseInt(args[2]);
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        int warmSize = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_WARM_SIZE;
+        Config config = new Config.Builder(args[0]).size(size).zkConnectString(args[1]).build();
+        final ZKObjectPool<Object> pool = new ZKObjectPool<Object>(config);
+        pool.setFactory(factory(args[3]));
+        pool.initialize();
+        final PoolAgent<Object> agent = new PoolAgent<Object>(pool, new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), warmSize);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                agent.shutdown();
+            }
+        });
+        Thread t = agent.start();
+        t.join();
+        pool.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ObjectFactory<Object> factory(String className) {
+        ObjectFactory<Object> factory = null;
+        try {
+            factory = Class.forName(className).asSubclass(ObjectFactory.class).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return factory;
+    }
+
+}
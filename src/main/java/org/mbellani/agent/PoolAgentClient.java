@@ -0,0 +1,190 @@
+package org.mbellani.agent;
+
+import static org.mbellani.agent.Protocol.BORROW;
+import static org.mbellani.agent.Protocol.HEADER;
+import static org.mbellani.agent.Protocol.INVALIDATE;
+import static org.mbellani.agent.Protocol.MAX_FRAME;
+import static org.mbellani.agent.Protocol.OK;
+import static org.mbellani.agent.Protocol.RETURN;
+import static org.mbellani.agent.Protocol.STATS;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mbellani.pool.ObjectFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * Borrows objects through a {@link PoolAgent} instead of joining the pool, meant for short lived processes. Requests
+ * are written back to back and answers read afterwards, so {@link #borrow(int)} costs a single round trip. Closing the
+ * client, or the process dying, hands everything still borrowed back to the agent.
+ */
+public class PoolAgentClient<T> implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PoolAgentClient.class);
+    private static final int PIPELINE_DEPTH = 32;
+
+    private final ObjectFactory<T> factory;
+    private final SocketChannel ch;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(MAX_FRAME);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(MAX_FRAME);
+    private final Map<T, Integer> leases = new IdentityHashMap<T, Integer>();
+    private int requestId;
+
+    public PoolAgentClient(InetSocketAddress agent, ObjectFactory<T> factory) throws IOException {
+        this.factory = factory;
+        this.ch = SocketChannel.open(agent);
+        ch.socket().setTcpNoDelay(true);
+    }
+
+    public synchronized T borrow() {
+        List<T> borrowed = borrow(1);
+        return borrowed.isEmpty() ? null : borrowed.get(0);
+    }
+
+    /**
+     * Pipelines {@code count} borrows, returns the objects the pool could lend. The agent may answer them in any order.
+     */
+    public synchronized List<T> borrow(int count) {
+        List<T> borrowed = Lists.newArrayListWithCapacity(count);
+        for (int sent = 0; sent < count; sent += PIPELINE_DEPTH) {
+            borrow(Math.min(PIPELINE_DEPTH, count - sent), borrowed);
+        }
+        return borrowed;
+    }
+
+    private void borrow(int count, List<T> borrowed) {
+        try {
+            int first = requestId;
+            for (int i = 0; i < count; i++) {
+                request(BORROW, -1);
+            }
+            send();
+            for (int i = 0; i < count; i++) {
+                byte status = receive(first, count);
+                if (status == OK) {
+                    int lease = in.getInt();
+                    byte[] data = new byte[in.remaining()];
+                    in.get(data);
+                    T obj = factory.deserialize(data);
+                    leases.put(obj, lease);
+                    borrowed.add(obj);
+                }
+            }
+        } catch (IOException e) {
+            Throwables.propagate(e);
+        }
+    }
+
+    public synchronized void returnObject(T object) {
+        giveBack(object, RETURN);
+    }
+
+    public synchronized boolean invalidate(T object) {
+        return giveBack(object, INVALIDATE);
+    }
+
+    /**
+     * Pool size, used, unused and zombie counts as seen by the agent.
+     */
+    public synchronized int[] stats() {
+        int[] stats = new int[4];
+        try {
+            int id = request(STATS, -1);
+            send();
+            receive(id, 1);
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] = in.getInt();
+            }
+        } catch (IOException e) {
+            Throwables.propagate(e);
+        }
+        return stats;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!leases.isEmpty()) {
+            LOGGER.warn("Closing with {} objects still borrowed, the agent will take them back", leases.size());
+        }
+        ch.close();
+    }
+
+    private boolean giveBack(T object, byte op) {
+        Integer lease = leases.remove(object);
+        if (lease == null) {
+            LOGGER.error("No lease found for object {} ", object);
+            return false;
+        }
+        boolean ok = false;
+        try {
+            int id = request(op, lease);
+            send();
+            ok = receive(id, 1) == OK;
+        } catch (IOException e) {
+            Throwables.propagate(e);
+        }
+        return ok;
+    }
+
+    private int request(byte op, int lease) throws IOException {
+        if (out.remaining() < HEADER + 4) {
+            send();
+        }
+        int id = requestId++;
+        out.putInt(HEADER - 4 + (lease >= 0 ? 4 : 0)).put(op).putInt(id);
+        if (lease >= 0) {
+            out.putInt(lease);
+        }
+        return id;
+    }
+
+    private void send() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            ch.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Reads the next frame, which must answer one of {@code count} requests starting at {@code firstId}, leaving
+     * {@link #in} positioned at its payload, and returns its status.
+     */
+    private byte receive(int firstId, int count) throws IOException {
+        in.clear();
+        in.limit(4);
+        fill();
+        int length = in.getInt(0);
+        in.limit(4 + length);
+        fill();
+        in.flip();
+        in.getInt();
+        byte status = in.get();
+        int id = in.getInt();
+        if (id < firstId || id >= firstId + count) {
+            throw new IOException("Unexpected response to request " + id);
+        }
+        return status;
+    }
+
+    private void fill() throws IOException {
+        while (in.hasRemaining()) {
+            if (ch.read(in) < 0) {
+                throw new EOFException("Pool agent closed the connection");
+            }
+        }
+    }
+
+}
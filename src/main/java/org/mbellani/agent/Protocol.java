@@ -0,0 +1,37 @@
+package org.mbellani.agent;
+
+/**
+ * Wire format spoken between {@link PoolAgent} and {@link PoolAgentClient}. Every frame starts with an int holding the
+ * length of the rest of the frame, followed by an op (requests) or status (responses) byte and the request id the
+ * client picked, responses echo the id so requests can be pipelined.
+ *
+ * <pre>
+ * BORROW     request: -                 response: OK lease(int) object bytes | EMPTY
+ * RETURN     request: lease(int)        response: OK | UNKNOWN_LEASE
+ * INVALIDATE request: lease(int)        response: OK | ERROR | UNKNOWN_LEASE
+ * STATS      request: -                 response: OK size used unused zombies (ints)
+ * </pre>
+ */
+final class Protocol {
+
+    static final byte BORROW = 1;
+    static final byte RETURN = 2;
+    static final byte INVALIDATE = 3;
+    static final byte STATS = 4;
+
+    static final byte OK = 0;
+    static final byte EMPTY = 1;
+    static final byte ERROR = 2;
+    static final byte UNKNOWN_LEASE = 3;
+
+    /**
+     * Length prefix, op or status and request id.
+     */
+    static final int HEADER = 4 + 1 + 4;
+    static final int MAX_OBJECT = 64 * 1024;
+    static final int MAX_FRAME = HEADER + 4 + MAX_OBJECT;
+
+    private Protocol() {
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.mbellani.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The JDK's zlib deflate. Payloads that look alike, say objects that only differ in a few fields, compress a lot
+ * better with a preset dictionary holding what they have in common, a typical payload does well. The zlib stream names
+ * the dictionary it needs so a payload is never decoded with the wrong one.
+ */
+public class DeflateCodec implements PayloadCodec {
+
+    static final String NAME = "deflate";
+    private static final int BUFFER_SIZE = 4096;
+
+    private final int level;
+    private final byte[] dictionary;
+    private final long dictionaryId;
+
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION, null);
+    }
+
+    public DeflateCodec(int level, byte[] dictionary) {
+        this.level = level;
+        this.dictionary = dictionary;
+        this.dictionaryId = dictionary == null ? 0 : adler(dictionary);
+    }
+
+    /**
+     * Codecs with a dictionary go by another name, a participant without the dictionary can't read their payloads.
+     */
+    @Override
+    public String getName() {
+        return dictionary == null ? NAME : NAME + "-" + Long.toHexString(dictionaryId);
+    }
+
+    @Override
+    public byte[] encode(byte[] payload) {
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, payload.length / 2));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decode(byte[] encoded) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(encoded);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(encoded.length * 2);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                out.write(buffer, 0, n);
+                if (n > 0 || inflater.finished()) {
+                    continue;
+                }
+                if (inflater.needsDictionary()) {
+                    if (dictionary == null || (inflater.getAdler() & 0xffffffffL) != dictionaryId) {
+                        throw new IllegalStateException("Payload needs dictionary "
+                                + Integer.toHexString(inflater.getAdler()) + " which this codec does not have");
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated payload");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt payload", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static long adler(byte[] data) {
+        Adler32 adler = new Adler32();
+        adler.update(data, 0, data.length);
+        return adler.getValue();
+    }
+
+}
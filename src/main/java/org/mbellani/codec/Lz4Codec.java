@@ -0,0 +1,167 @@
+package org.mbellani.codec;
+
+import java.util.Arrays;
+
+/**
+ * Byte oriented LZ77 in the LZ4 block format, prefixed with the payload length. Compresses less than
+ * {@link DeflateCodec} but several times faster both ways, for pools whose payloads are read on every borrow. Greedy
+ * matching through a single hash table, as the LZ4 reference does on its fast setting.
+ */
+public class Lz4Codec implements PayloadCodec {
+
+    static final String NAME = "lz4";
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int RUN_MASK = 15;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(byte[] src) {
+        int n = src.length;
+        byte[] dst = new byte[4 + n + n / 255 + 16];
+        writeIntBE(dst, 0, n);
+        int op = 4;
+        int anchor = 0;
+        int ip = 0;
+        int[] table = new int[1 << HASH_LOG];
+        Arrays.fill(table, -1);
+        int matchLimit = n - LAST_LITERALS;
+        while (ip < n - MF_LIMIT) {
+            int sequence = readInt(src, ip);
+            int h = hash(sequence);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+            int length = MIN_MATCH;
+            while (ip + length < matchLimit && src[ref + length] == src[ip + length]) {
+                length++;
+            }
+            op = writeSequence(src, anchor, ip - anchor, dst, op, ip - ref, length);
+            ip += length;
+            anchor = ip;
+        }
+        op = writeLiterals(src, anchor, n - anchor, dst, op, 0);
+        return Arrays.copyOf(dst, op);
+    }
+
+    @Override
+    public byte[] decode(byte[] src) {
+        if (src.length < 5) {
+            throw new IllegalStateException("Truncated payload");
+        }
+        int n = readIntBE(src, 0);
+        if (n < 0) {
+            throw new IllegalStateException("Corrupt payload, negative length");
+        }
+        byte[] dst = new byte[n];
+        int ip = 4;
+        int op = 0;
+        try {
+            for (;;) {
+                int token = src[ip++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip >= src.length) {
+                    break;
+                }
+                int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+                ip += 2;
+                int length = token & RUN_MASK;
+                if (length == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        length += b;
+                    } while (b == 255);
+                }
+                length += MIN_MATCH;
+                int ref = op - offset;
+                if (offset == 0 || ref < 0) {
+                    throw new IllegalStateException("Corrupt payload, bad match offset " + offset);
+                }
+                // byte by byte, a match may overlap what it copies.
+                for (int i = 0; i < length; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalStateException("Corrupt payload", e);
+        }
+        if (op != dst.length) {
+            throw new IllegalStateException("Corrupt payload, decoded " + op + " of " + dst.length + " bytes");
+        }
+        return dst;
+    }
+
+    private static int writeSequence(byte[] src, int from, int literals, byte[] dst, int op, int offset, int length) {
+        int matchCode = length - MIN_MATCH;
+        op = writeLiterals(src, from, literals, dst, op, Math.min(matchCode, RUN_MASK));
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        if (matchCode >= RUN_MASK) {
+            op = writeLength(dst, op, matchCode - RUN_MASK);
+        }
+        return op;
+    }
+
+    /**
+     * The token with the literal count and the given match code, then the literals.
+     */
+    private static int writeLiterals(byte[] src, int from, int literals, byte[] dst, int op, int matchCode) {
+        dst[op++] = (byte) (Math.min(literals, RUN_MASK) << 4 | matchCode);
+        if (literals >= RUN_MASK) {
+            op = writeLength(dst, op, literals - RUN_MASK);
+        }
+        System.arraycopy(src, from, dst, op, literals);
+        return op + literals;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int readIntBE(byte[] b, int i) {
+        return (b[i] & 0xff) << 24 | (b[i + 1] & 0xff) << 16 | (b[i + 2] & 0xff) << 8 | (b[i + 3] & 0xff);
+    }
+
+    private static void writeIntBE(byte[] b, int i, int value) {
+        b[i] = (byte) (value >>> 24);
+        b[i + 1] = (byte) (value >>> 16);
+        b[i + 2] = (byte) (value >>> 8);
+        b[i + 3] = (byte) value;
+    }
+
+}
@@ -0,0 +1,18 @@
+package org.mbellani.codec;
+
+/**
+ * Turns the bytes an object factory serializes an object to into what the pool stores and back. Participants of a pool
+ * have to agree on the codec, the one the pool was created with is recorded along with it.
+ */
+public interface PayloadCodec {
+
+    /**
+     * Identifies the codec in the pool record, two codecs of the same name must read each other's payloads.
+     */
+    String getName();
+
+    byte[] encode(byte[] payload);
+
+    byte[] decode(byte[] encoded);
+
+}
@@ -0,0 +1,47 @@
+package org.mbellani.codec;
+
+/**
+ * The built in codecs.
+ */
+public final class PayloadCodecs {
+
+    /**
+     * Stores payloads as they are, what pools did before codecs.
+     */
+    public static final PayloadCodec NONE = new PayloadCodec() {
+        @Override
+        public String getName() {
+            return "none";
+        }
+
+        @Override
+        public byte[] encode(byte[] payload) {
+            return payload;
+        }
+
+        @Override
+        public byte[] decode(byte[] encoded) {
+            return encoded;
+        }
+    };
+
+    private PayloadCodecs() {
+    }
+
+    /**
+     * The built in codec of that name without a dictionary, null for a codec that is not built in.
+     */
+    public static PayloadCodec forName(String name) {
+        if (NONE.getName().equals(name)) {
+            return NONE;
+        }
+        if (DeflateCodec.NAME.equals(name)) {
+            return new DeflateCodec();
+        }
+        if (Lz4Codec.NAME.equals(name)) {
+            return new Lz4Codec();
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,37 @@
+package org.mbellani.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic event count.
+ */
+public final class Counter {
+
+    private final boolean enabled;
+    private final AtomicLong count = new AtomicLong();
+
+    public Counter() {
+        this(true);
+    }
+
+    Counter(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void inc() {
+        if (enabled) {
+            count.incrementAndGet();
+        }
+    }
+
+    public void inc(long n) {
+        if (enabled) {
+            count.addAndGet(n);
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+}
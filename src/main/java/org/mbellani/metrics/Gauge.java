@@ -0,0 +1,10 @@
+package org.mbellani.metrics;
+
+/**
+ * Value read when reported, implementations must answer from local state and never go to the coordination store.
+ */
+public interface Gauge {
+
+    long getValue();
+
+}
@@ -0,0 +1,41 @@
+package org.mbellani.metrics;
+
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes one line per pool to the log, latencies in microseconds.
+ */
+public class LoggingExporter implements MetricsExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoggingExporter.class);
+
+    @Override
+    public void export(PoolMetrics metrics) {
+        if (!LOGGER.isInfoEnabled()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("pool ").append(metrics.getPool());
+        for (Entry<String, Histogram> e : metrics.getHistograms().entrySet()) {
+            Histogram h = e.getValue();
+            sb.append(' ').append(e.getKey()).append("[n=").append(h.getCount()).append(" p50=")
+                    .append(micros(h.getValueAtPercentile(50))).append(" p99=")
+                    .append(micros(h.getValueAtPercentile(99))).append(" max=").append(micros(h.getMax())).append(']');
+        }
+        for (Entry<String, Counter> e : metrics.getCounters().entrySet()) {
+            sb.append(' ').append(e.getKey()).append('=').append(e.getValue().getCount());
+        }
+        for (Entry<String, Gauge> e : metrics.getGauges().entrySet()) {
+            sb.append(' ').append(e.getKey()).append('=').append(e.getValue().getValue());
+        }
+        LOGGER.info(sb.toString());
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+}
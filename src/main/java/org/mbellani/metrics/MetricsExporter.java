@@ -0,0 +1,10 @@
+package org.mbellani.metrics;
+
+/**
+ * Pushes the metrics of a pool to an external system, called periodically from the pool's reporter thread.
+ */
+public interface MetricsExporter {
+
+    void export(PoolMetrics metrics);
+
+}
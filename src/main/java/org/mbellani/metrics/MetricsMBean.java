@@ -0,0 +1,116 @@
+package org.mbellani.metrics;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Exposes every metric of a {@link PoolMetrics} as a read only attribute, histograms as {@code <name>.count},
+ * {@code .mean}, {@code .p50}, {@code .p90}, {@code .p99}, {@code .p999} and {@code .max} in nanoseconds. Metrics
+ * registered after the MBean show up the next time its info is read.
+ */
+class MetricsMBean implements DynamicMBean {
+
+    private static final String[] STATS = { "count", "mean", "p50", "p90", "p99", "p999", "max" };
+
+    private final PoolMetrics metrics;
+
+    MetricsMBean(PoolMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Counter counter = metrics.getCounters().get(attribute);
+        if (counter != null) {
+            return counter.getCount();
+        }
+        Gauge gauge = metrics.getGauges().get(attribute);
+        if (gauge != null) {
+            return gauge.getValue();
+        }
+        int dot = attribute.lastIndexOf('.');
+        Histogram h = dot > 0 ? metrics.getHistograms().get(attribute.substring(0, dot)) : null;
+        if (h != null) {
+            String stat = attribute.substring(dot + 1);
+            switch (stat) {
+            case "count":
+                return h.getCount();
+            case "mean":
+                return h.getMean();
+            case "p50":
+                return h.getValueAtPercentile(50);
+            case "p90":
+                return h.getValueAtPercentile(90);
+            case "p99":
+                return h.getValueAtPercentile(99);
+            case "p999":
+                return h.getValueAtPercentile(99.9);
+            case "max":
+                return h.getMax();
+            default:
+                break;
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            try {
+                list.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException e) {
+                // left out, as the contract allows.
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attrs = Lists.newArrayList();
+        for (String name : metrics.getHistograms().keySet()) {
+            for (String stat : STATS) {
+                String type = stat.equals("mean") ? Double.class.getName() : Long.class.getName();
+                attrs.add(new MBeanAttributeInfo(name + "." + stat, type, stat + " of " + name
+                        + (stat.equals("count") ? "" : " in nanoseconds"), true, false, false));
+            }
+        }
+        for (Entry<String, Counter> e : metrics.getCounters().entrySet()) {
+            attrs.add(new MBeanAttributeInfo(e.getKey(), Long.class.getName(), "count of " + e.getKey(), true, false,
+                    false));
+        }
+        for (String name : metrics.getGauges().keySet()) {
+            attrs.add(new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics of pool " + metrics.getPool(),
+                attrs.toArray(new MBeanAttributeInfo[attrs.size()]), null, new MBeanOperationInfo[0], null);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Pool metrics are read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException(actionName);
+    }
+
+}
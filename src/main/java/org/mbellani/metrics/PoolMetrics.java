@@ -0,0 +1,217 @@
+package org.mbellani.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Named metrics of one pool instance. Components look their metrics up once and keep the returned instance, recording
+ * on it is then allocation free. Latencies are recorded in nanoseconds.
+ */
+public class PoolMetrics {
+
+    public static final String BORROW = "borrow";
+    public static final String RETURN = "return";
+    public static final String VALIDATE = "validate";
+    public static final String VALIDATE_ON_BORROW = "validate.borrow";
+    public static final String VALIDATE_ON_RETURN = "validate.return";
+    public static final String VALIDATE_WHILE_IDLE = "validate.idle";
+    public static final String CREATE = "create";
+    public static final String DESERIALIZE = "deserialize";
+    public static final String ZOMBIE_RECOVERY = "zombies.recovery";
+    public static final String CREATE_PERMIT_WAIT = "create.permit.wait";
+    public static final String PERMIT_WAIT = "permits.wait";
+
+    public static final String CLAIM_COLLISIONS = "claim.collisions";
+    public static final String RETRIES = "zk.retries";
+    public static final String BORROW_RETRIES = "borrow.retries";
+    public static final String RETRIES_EXHAUSTED = "retries.exhausted";
+    public static final String CONNECTION_LOSSES = "zk.connection.losses";
+    public static final String EVICTIONS = "evictions";
+    public static final String ABANDONED = "abandoned";
+    public static final String BORROW_MISSES = "borrow.misses";
+    public static final String RETIRED = "capacity.retired";
+    public static final String CAPACITY_REJECTIONS = "capacity.rejections";
+    public static final String CREATE_THROTTLED = "create.throttled";
+    public static final String BREAKER_CREATE_REJECTED = "breaker.create.rejected";
+    public static final String BREAKER_VALIDATE_REJECTED = "breaker.validate.rejected";
+    public static final String BREAKER_DESTROY_REJECTED = "breaker.destroy.rejected";
+    public static final String VALIDATIONS_SKIPPED = "validations.skipped";
+    public static final String ZOMBIES_MARKED = "zombies.marked";
+    public static final String ZOMBIES_REVIVED = "zombies.revived";
+    public static final String ZOMBIES_DROPPED = "zombies.dropped";
+    public static final String ZOMBIE_CHECK_TIMEOUTS = "zombies.check.timeouts";
+    public static final String CLAIMS_RECOVERED = "claims.recovered";
+    public static final String CLAIMS_LOST = "claims.lost";
+    public static final String LEASE_HITS = "lease.hits";
+    public static final String DEGRADED_BORROWS = "degraded.borrows";
+    public static final String DEGRADED_FENCED = "degraded.fenced";
+    public static final String LEASE_CLAIMS_LOST = "lease.claims.lost";
+    public static final String PAYLOAD_BYTES = "payload.bytes";
+    public static final String PAYLOAD_STORED_BYTES = "payload.stored.bytes";
+    public static final String KEYS_RETIRED = "keys.retired";
+    public static final String TOTAL_REJECTIONS = "keys.total.rejections";
+    public static final String LOCAL_HOST_HITS = "locality.host.hits";
+    public static final String LOCAL_RACK_HITS = "locality.rack.hits";
+    public static final String LOCAL_MISSES = "locality.misses";
+    public static final String SHARED_BORROWS = "shared.borrows";
+    public static final String DRAINS = "shared.drains";
+    public static final String PERMITS_ACQUIRED = "permits.acquired";
+    public static final String PERMIT_TIMEOUTS = "permits.timeouts";
+    public static final String PERMITS_RECOVERED = "permits.recovered";
+    public static final String PERMITS_LOST = "permits.lost";
+
+    public static final String BORROWED = "borrowed";
+    public static final String CAPACITY = "capacity";
+    public static final String CONFIG_VERSION = "config.version";
+    public static final String LEASED = "leased";
+    public static final String CODEC_RATIO = "codec.ratio";
+    public static final String KEYS = "keys";
+    public static final String LOCAL_HIT_RATIO = "locality.hit.ratio";
+    public static final String SHARED_HELD = "shared.held";
+    public static final String PERMITS_HELD = "permits.held";
+    public static final String BREAKER_CREATE_STATE = "breaker.create.state";
+    public static final String BREAKER_VALIDATE_STATE = "breaker.validate.state";
+    public static final String BREAKER_DESTROY_STATE = "breaker.destroy.state";
+    public static final String BREAKER_DESTROY_PENDING = "breaker.destroy.pending";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PoolMetrics.class);
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private final String pool;
+    private final boolean enabled;
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+    private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<MetricsExporter>();
+    private ObjectName mbeanName;
+
+    public PoolMetrics(String pool, boolean enabled) {
+        this.pool = pool;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Metrics that record nothing, for components used outside a pool.
+     */
+    public static PoolMetrics disabled() {
+        return new PoolMetrics(null, false);
+    }
+
+    public String getPool() {
+        return pool;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram h = histograms.get(name);
+        if (h == null) {
+            Histogram existing = histograms.putIfAbsent(name, h = new Histogram(enabled));
+            h = existing != null ? existing : h;
+        }
+        return h;
+    }
+
+    public Counter counter(String name) {
+        Counter c = counters.get(name);
+        if (c == null) {
+            Counter existing = counters.putIfAbsent(name, c = new Counter(enabled));
+            c = existing != null ? existing : c;
+        }
+        return c;
+    }
+
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    public Map<String, Counter> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Gauge> getGauges() {
+        return gauges;
+    }
+
+    public void addExporter(MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    public List<MetricsExporter> getExporters() {
+        return ImmutableList.copyOf(exporters);
+    }
+
+    /**
+     * Hands the current values to every exporter, a failing exporter does not keep the others from running.
+     */
+    public void export() {
+        if (!enabled) {
+            return;
+        }
+        for (MetricsExporter exporter : exporters) {
+            try {
+                exporter.export(this);
+            } catch (Exception e) {
+                LOGGER.warn("Exporter {} failed", exporter.getClass().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as
+     * {@code org.mbellani.pool:type=PoolMetrics,name=<pool>,instance=<n>}, several pools with the same name may live
+     * in one JVM.
+     */
+    public synchronized void registerMBean() {
+        if (!enabled || mbeanName != null) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName("org.mbellani.pool:type=PoolMetrics,name=" + ObjectName.quote(pool)
+                    + ",instance=" + INSTANCES.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(this), name);
+            mbeanName = name;
+        } catch (Exception e) {
+            LOGGER.warn("Could not register metrics MBean for pool {}", pool, e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(mbeanName)) {
+                server.unregisterMBean(mbeanName);
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Could not unregister metrics MBean {}", mbeanName, e);
+        }
+        mbeanName = null;
+    }
+
+    public synchronized ObjectName getMBeanName() {
+        return mbeanName;
+    }
+
+}
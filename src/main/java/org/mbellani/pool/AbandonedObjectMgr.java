@@ -0,0 +1,79 @@
+package org.mbellani.pool;
+
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reclaims objects this participant handed out and never got back. Their used nodes live as long as the session, so
+ * without this a borrower that hangs or forgets to return keeps a place in the pool for good. Only looks at local
+ * borrows, claims of other participants are theirs to reclaim.
+ */
+public class AbandonedObjectMgr<T> implements ObjectPoolTask<T>, Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbandonedObjectMgr.class);
+    private ZKObjectPool<T> pool;
+    private TaskScheduler scheduler;
+    private ScheduledFuture<?> check;
+
+    public AbandonedObjectMgr(ZKObjectPool<T> pool) {
+        this.pool = pool;
+        scheduler = pool.newScheduler();
+    }
+
+    @Override
+    public synchronized void start() {
+        Config cfg = pool.getConfig();
+        if (cfg.abandonedRemovalEnabled()) {
+            // checking twice per timeout catches a leak at most half a timeout late.
+            long period = Math.max(1, cfg.getRemoveAbandonedTimeout() / 2);
+            check = scheduler.scheduleAtFixedRate(this, period, period, cfg.getIntrvlUnit());
+        }
+    }
+
+    @Override
+    public synchronized void configChanged() {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        if (check != null) {
+            check.cancel(false);
+            check = null;
+        }
+        start();
+    }
+
+    @Override
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Override
+    public void run() {
+        Config cfg = pool.getConfig();
+        long timeout = cfg.getIntrvlUnit().toNanos(cfg.getRemoveAbandonedTimeout());
+        long now = System.nanoTime();
+        int reclaimed = 0;
+        try {
+            for (Map.Entry<T, Borrow> e : pool.getBorrowed().entrySet()) {
+                Borrow borrow = e.getValue();
+                if (now - borrow.getStartNanos() > timeout) {
+                    LOGGER.warn("Object {} borrowed by {} at {} was abandoned, reclaiming",
+                            new Object[] { e.getKey(), borrow.getThread(), borrow.getStartMillis(), borrow.getSite() });
+                    if (pool.reclaimAbandoned(e.getKey(), borrow)) {
+                        reclaimed++;
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            LOGGER.error("Error reclaiming abandoned objects ", e);
+        }
+        if (reclaimed > 0) {
+            LOGGER.info("Reclaimed {} abandoned objects", reclaimed);
+        }
+    }
+
+}
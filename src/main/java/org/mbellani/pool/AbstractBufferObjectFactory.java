@@ -0,0 +1,33 @@
+package org.mbellani.pool;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Base for {@link BufferObjectFactory} implementations, answering the array based serialization methods through the
+ * buffer based ones for callers that still use them.
+ */
+public abstract class AbstractBufferObjectFactory<T> implements BufferObjectFactory<T> {
+
+    private static final int INITIAL_SIZE = 256;
+
+    @Override
+    public byte[] serialize(T t) {
+        for (int size = INITIAL_SIZE;; size *= 2) {
+            ByteBuffer out = ByteBuffer.allocate(size);
+            try {
+                serialize(t, out);
+                return Arrays.copyOf(out.array(), out.position());
+            } catch (BufferOverflowException e) {
+                // try again with more room.
+            }
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) {
+        return deserialize(ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.mbellani.pool;
+
+import com.google.common.base.Charsets;
+
+/**
+ * An object this participant has handed out: which node it came from, who took it and when. The borrow site is only
+ * captured for sampled borrows, it is null otherwise.
+ */
+public class Borrow {
+
+    private final String node;
+    private final String thread;
+    private final long startMillis;
+    private final long startNanos;
+    private final Throwable site;
+
+    Borrow(String node, String thread, long startMillis, long startNanos, Throwable site) {
+        this.node = node;
+        this.thread = thread;
+        this.startMillis = startMillis;
+        this.startNanos = startNanos;
+        this.site = site;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    /**
+     * When the object was borrowed, in milliseconds since the epoch.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    long getStartNanos() {
+        return startNanos;
+    }
+
+    public Throwable getSite() {
+        return site;
+    }
+
+    /**
+     * What goes with the claim into the used node, readable by any participant.
+     */
+    static byte[] describe(String participant, String thread, long startMillis) {
+        return ("participant=" + participant + "\nthread=" + thread + "\nsince=" + startMillis)
+                .getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * The participant a claim described by {@link #describe(String, String, long)} belongs to, null if it does not
+     * name one.
+     */
+    static String participant(byte[] info) {
+        for (String line : new String(info, Charsets.UTF_8).split("\n")) {
+            if (line.startsWith("participant=")) {
+                return line.substring("participant=".length());
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "Borrow [node=" + node + ", thread=" + thread + ", since=" + startMillis + "]";
+    }
+
+}
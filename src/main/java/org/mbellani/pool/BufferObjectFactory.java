@@ -0,0 +1,25 @@
+package org.mbellani.pool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link ObjectFactory} serializing through buffers rather than arrays of its own. The pool hands out reusable buffers
+ * to write objects into and reads them back from read-only views over the stored bytes, so a factory that encodes its
+ * fields straight into and out of the buffer allocates nothing for serialization. The pool uses these methods instead
+ * of the array based ones, {@link AbstractBufferObjectFactory} implements the latter in terms of the former.
+ */
+public interface BufferObjectFactory<T> extends ObjectFactory<T> {
+
+    /**
+     * Writes the object from the buffer's position on. Throws {@link java.nio.BufferOverflowException} if it does not
+     * fit, the pool calls again with a buffer twice the size.
+     */
+    void serialize(T t, ByteBuffer out);
+
+    /**
+     * Reads an object from the buffer's remaining bytes. The view is only good during the call, the object must not
+     * keep it.
+     */
+    T deserialize(ByteBuffer in);
+
+}
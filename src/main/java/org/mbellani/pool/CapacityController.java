@@ -0,0 +1,245 @@
+package org.mbellani.pool;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.metrics.Counter;
+import org.mbellani.metrics.Histogram;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.Feature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Grows and shrinks the pool capacity with the load. Every participant reports its borrows, misses and borrow time of
+ * the last interval as a pool property and follows the capacity property. The participant registered longest, the one
+ * with the lowest id, adds the reports up and moves the capacity when enough checks in a row agree and the last move
+ * is past its cooldown. Shrinking retires the longest idle objects until the pool fits the new capacity, objects in
+ * use are left alone.
+ */
+public class CapacityController<T> implements ObjectPoolTask<T>, Runnable {
+
+    static final String CAPACITY = "capacity";
+    private static final String LOAD = "load-";
+    private static final Logger LOGGER = LoggerFactory.getLogger(CapacityController.class);
+
+    private ZKObjectPool<T> pool;
+    private Config cfg;
+    private PoolStore store;
+    private TaskScheduler scheduler;
+    private Histogram borrowTime;
+    private Counter misses;
+    private Load reported = new Load(0, 0, 0);
+    private int upVotes;
+    private int downVotes;
+    private long lastChange;
+
+    public CapacityController(ZKObjectPool<T> pool) {
+        this.pool = pool;
+        this.cfg = pool.getConfig();
+        this.store = pool.getStore();
+        PoolMetrics metrics = pool.getMetrics();
+        borrowTime = metrics.histogram(PoolMetrics.BORROW);
+        misses = metrics.counter(PoolMetrics.BORROW_MISSES);
+        scheduler = pool.newScheduler();
+    }
+
+    @Override
+    public void start() {
+        if (!cfg.autoscaleEnabled()) {
+            return;
+        }
+        if (!store.supports(Feature.PROPERTIES)) {
+            LOGGER.warn("Autoscaling needs pool properties, which the store does not support, keeping the size fixed");
+            return;
+        }
+        follow();
+        scheduler.scheduleAtFixedRate(this, cfg.getAutoscaleIntrvl(), cfg.getAutoscaleIntrvl(), cfg.getIntrvlUnit());
+    }
+
+    @Override
+    public void shutdown() {
+        scheduler.shutdown();
+        if (cfg.autoscaleEnabled() && pool.getId() != null) {
+            try {
+                store.removeProperty(LOAD + pool.getId());
+            }
+            catch (Exception e) {
+                LOGGER.debug("Could not remove load report", e);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            report();
+            follow();
+            if (pool.isLeader()) {
+                decide(store.children(Area.PARTICIPANTS));
+            }
+        }
+        catch (Exception e) {
+            LOGGER.error("Error adjusting pool capacity ", e);
+        }
+    }
+
+    private void report() {
+        Load total = new Load(borrowTime.getCount(), misses.getCount(), borrowTime.getSum());
+        Load interval = total.minus(reported);
+        reported = total;
+        String name = LOAD + pool.getId();
+        Versioned current = store.getProperty(name);
+        store.setProperty(name, interval.toBytes(), current == null ? Versioned.NONE : current.getVersion());
+    }
+
+    /**
+     * Keeps the capacity within a changed min and max size, the leader moves the capacity property along.
+     */
+    @Override
+    public void configChanged() {
+        if (!cfg.autoscaleEnabled()) {
+            return;
+        }
+        try {
+            follow();
+            int capacity = pool.getCapacity();
+            if (pool.isLeader() && capacity != clamp(capacity) && resize(clamp(capacity))) {
+                pool.retireIdle();
+            }
+        }
+        catch (Exception e) {
+            LOGGER.error("Error applying changed size limits ", e);
+        }
+    }
+
+    private Versioned follow() {
+        Versioned current = store.getProperty(CAPACITY);
+        if (current != null) {
+            pool.setCapacity(clamp(parse(current.getData())));
+        }
+        return current;
+    }
+
+    private int clamp(int capacity) {
+        return Math.max(cfg.getMinSize(), Math.min(cfg.getMaxSize(), capacity));
+    }
+
+    private void decide(List<String> participants) {
+        Load load = collect(participants);
+        PoolStats stats = pool.snapshot(true);
+        if (!coolingDown()) {
+            vote(load, stats);
+            int current = pool.getCapacity();
+            int step = Math.max(1, (int) Math.round(current * cfg.getScaleStep()));
+            int target = current;
+            if (upVotes >= cfg.getScaleHysteresis()) {
+                target = Math.min(cfg.getMaxSize(), current + step);
+            }
+            else if (downVotes >= cfg.getScaleHysteresis()) {
+                target = Math.max(cfg.getMinSize(), current - step);
+            }
+            if (target != current && resize(target)) {
+                upVotes = 0;
+                downVotes = 0;
+                lastChange = System.nanoTime();
+            }
+        }
+        pool.retireIdle();
+    }
+
+    private void vote(Load load, PoolStats stats) {
+        double missRate = load.borrows == 0 ? 0 : (double) load.misses / load.borrows;
+        boolean slow = cfg.getScaleUpWaitMillis() > 0 && load.borrows > 0
+                && TimeUnit.NANOSECONDS.toMillis(load.wait / load.borrows) >= cfg.getScaleUpWaitMillis();
+        double idle = stats.getSize() == 0 ? 0 : (double) stats.getUnused() / stats.getSize();
+        if (missRate > cfg.getScaleUpMissRate() || slow) {
+            upVotes++;
+            downVotes = 0;
+        }
+        else if (load.misses == 0 && idle > cfg.getScaleDownIdleRatio()) {
+            downVotes++;
+            upVotes = 0;
+        }
+        else {
+            upVotes = 0;
+            downVotes = 0;
+        }
+    }
+
+    private boolean coolingDown() {
+        return lastChange != 0
+                && System.nanoTime() - lastChange < cfg.getIntrvlUnit().toNanos(cfg.getScaleCooldown());
+    }
+
+    /**
+     * Adds up the reports of live participants and drops the ones left behind by participants that are gone.
+     */
+    private Load collect(List<String> participants) {
+        Load total = new Load(0, 0, 0);
+        for (String property : store.properties()) {
+            if (!property.startsWith(LOAD)) {
+                continue;
+            }
+            if (participants.contains(property.substring(LOAD.length()))) {
+                Versioned report = store.getProperty(property);
+                if (report != null) {
+                    total = total.plus(Load.parse(report.getData()));
+                }
+            }
+            else {
+                store.removeProperty(property);
+            }
+        }
+        return total;
+    }
+
+    private boolean resize(int target) {
+        Versioned current = follow();
+        int from = pool.getCapacity();
+        byte[] data = String.valueOf(target).getBytes(Charsets.UTF_8);
+        if (store.setProperty(CAPACITY, data, current == null ? Versioned.NONE : current.getVersion())) {
+            pool.setCapacity(target);
+            LOGGER.info("Pool capacity changed from {} to {}", from, target);
+            return true;
+        }
+        return false;
+    }
+
+    private static int parse(byte[] data) {
+        return Integer.parseInt(new String(data, Charsets.UTF_8));
+    }
+
+    private static class Load {
+        private final long borrows;
+        private final long misses;
+        private final long wait;
+
+        Load(long borrows, long misses, long wait) {
+            this.borrows = borrows;
+            this.misses = misses;
+            this.wait = wait;
+        }
+
+        Load plus(Load other) {
+            return new Load(borrows + other.borrows, misses + other.misses, wait + other.wait);
+        }
+
+        Load minus(Load other) {
+            return new Load(borrows - other.borrows, misses - other.misses, wait - other.wait);
+        }
+
+        byte[] toBytes() {
+            return (borrows + "," + misses + "," + wait).getBytes(Charsets.UTF_8);
+        }
+
+        static Load parse(byte[] data) {
+            String[] parts = new String(data, Charsets.UTF_8).split(",");
+            return new Load(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        }
+    }
+
+}
@@ -0,0 +1,317 @@
+package org.mbellani.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.metrics.Counter;
+import org.mbellani.metrics.Gauge;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.Feature;
+import org.mbellani.pool.PoolStore.PropertyListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Stops calling one {@link ObjectFactory} operation while its backend is failing or slow, so borrowers fail fast
+ * instead of waiting on a timeout for every object. The breaker opens once the failure or the slow call rate over the
+ * latest {@link Config#getBreakerWindow()} calls reaches its threshold and rejects calls for
+ * {@link Config#getBreakerOpenIntrvl()}. Then a single call goes through as a probe, from the one participant that
+ * claimed the breaker property first, and its outcome closes or opens the breaker again. A successful probe is
+ * published so the other participants close theirs too.
+ */
+class CircuitBreaker implements PropertyListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+    private static final String PROBING = "probing";
+    private static final String CLOSED = "closed";
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * Thrown instead of calling the factory while the breaker is open, without a stack trace as it is expected.
+     */
+    @SuppressWarnings("serial")
+    static class OpenException extends RuntimeException {
+        OpenException(String operation) {
+            super("The " + operation + " circuit breaker is open", null, false, false);
+        }
+    }
+
+    private final String operation;
+    private final ZKObjectPool<?> pool;
+    private final Config cfg;
+    private final Counter rejected;
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int calls;
+    private volatile State state = State.CLOSED;
+    private long openedAt;
+    private long closedAt;
+    private boolean probing;
+    private boolean claiming;
+    private volatile boolean running;
+    private volatile boolean shared;
+
+    CircuitBreaker(String operation, ZKObjectPool<?> pool, String stateMetric, String rejectedMetric) {
+        this.operation = operation;
+        this.pool = pool;
+        this.cfg = pool.getConfig();
+        this.failed = new boolean[cfg.getBreakerWindow()];
+        this.slow = new boolean[cfg.getBreakerWindow()];
+        this.rejected = pool.getMetrics().counter(rejectedMetric);
+        pool.getMetrics().gauge(stateMetric, new Gauge() {
+            @Override
+            public long getValue() {
+                return state.ordinal();
+            }
+        });
+    }
+
+    /**
+     * Follows the probes of the other participants, once the pool registered. Without pool properties to share them
+     * through every participant probes for itself.
+     */
+    void start() {
+        running = true;
+        shared = pool.getStore().supports(Feature.PROPERTIES);
+        watch();
+    }
+
+    void shutdown() {
+        running = false;
+    }
+
+    State getState() {
+        return state;
+    }
+
+    /**
+     * Lets a call through or throws {@link OpenException}. Returns true for the probe of a half open breaker, which
+     * has to be handed back to {@link #record(long, boolean, boolean)}. The probe is claimed in the store outside the
+     * monitor, the calls coming in meanwhile are rejected rather than waiting on it.
+     */
+    boolean acquire() {
+        if (!cfg.breakerEnabled()) {
+            return false;
+        }
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return false;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probing) {
+                    throw reject();
+                }
+                probing = true;
+                return true;
+            }
+            if (claiming || System.nanoTime() - openedAt < openNanos()) {
+                throw reject();
+            }
+            claiming = true;
+        }
+        boolean claimed = false;
+        try {
+            claimed = claimProbe();
+        } finally {
+            synchronized (this) {
+                claiming = false;
+            }
+        }
+        return probeClaimed(claimed);
+    }
+
+    private synchronized boolean probeClaimed(boolean claimed) {
+        if (state != State.OPEN) {
+            // closed by the probe of another participant meanwhile.
+            return false;
+        }
+        if (!claimed) {
+            // another participant probes, check again after it had the time to.
+            openedAt = System.nanoTime();
+            throw reject();
+        }
+        state = State.HALF_OPEN;
+        probing = true;
+        LOGGER.info("Probing the {} circuit breaker", operation);
+        return true;
+    }
+
+    /**
+     * Records the outcome of a call let through, {@code start} being when it was made.
+     */
+    void record(long start, boolean failure, boolean probe) {
+        if (!cfg.breakerEnabled()) {
+            return;
+        }
+        boolean tooSlow = isSlow(System.nanoTime() - start);
+        if (!probe) {
+            recordCall(failure, tooSlow);
+        } else if (probed(!failure && !tooSlow)) {
+            // published outside the monitor, the calls of this participant don't wait on the store.
+            publishClosed();
+        }
+    }
+
+    private synchronized boolean probed(boolean passed) {
+        probing = false;
+        if (passed) {
+            close();
+        } else {
+            open();
+        }
+        return passed;
+    }
+
+    private synchronized void recordCall(boolean failure, boolean tooSlow) {
+        if (state != State.CLOSED) {
+            // made before the breaker opened.
+            return;
+        }
+        failed[next] = failure;
+        slow[next] = tooSlow;
+        next = (next + 1) % failed.length;
+        calls = Math.min(calls + 1, failed.length);
+        if (calls >= Math.max(1, cfg.getBreakerMinCalls())) {
+            if (tripped(failed, cfg.getBreakerFailureRate()) || tripped(slow, cfg.getBreakerSlowCallRate())) {
+                open();
+            }
+        }
+    }
+
+    @Override
+    public void changed(String property) {
+        if (!running || pool.getStore().isShutdown()) {
+            return;
+        }
+        try {
+            Versioned current = watch();
+            String[] value = current == null ? null : decode(current.getData());
+            if (value != null && CLOSED.equals(value[0]) && !value[1].equals(pool.getId())) {
+                closedByProbe(Long.parseLong(value[2]));
+            }
+        }
+        catch (Exception e) {
+            LOGGER.error("Error following the {} circuit breaker ", operation, e);
+        }
+    }
+
+    private synchronized void closedByProbe(long when) {
+        if (state != State.CLOSED && when > closedAt) {
+            LOGGER.info("The {} circuit breaker was closed by a probe of another participant", operation);
+            close();
+        }
+    }
+
+    private boolean tripped(boolean[] outcomes, double rate) {
+        if (rate <= 0) {
+            return false;
+        }
+        int count = 0;
+        for (int i = 0; i < calls; i++) {
+            if (outcomes[i]) {
+                count++;
+            }
+        }
+        return count * 100.0 / calls >= rate;
+    }
+
+    private boolean isSlow(long nanos) {
+        Long threshold = cfg.getBreakerSlowCallDuration();
+        return threshold != null && nanos > cfg.getIntrvlUnit().toNanos(threshold);
+    }
+
+    private long openNanos() {
+        return cfg.getIntrvlUnit().toNanos(cfg.getBreakerOpenIntrvl());
+    }
+
+    private OpenException reject() {
+        rejected.inc();
+        return new OpenException(operation);
+    }
+
+    private void open() {
+        if (state != State.OPEN) {
+            LOGGER.warn("Opening the {} circuit breaker, failing calls fast for {} {}", new Object[] { operation,
+                    cfg.getBreakerOpenIntrvl(), cfg.getIntrvlUnit() });
+        }
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        reset();
+    }
+
+    private void close() {
+        if (state != State.CLOSED) {
+            LOGGER.info("Closing the {} circuit breaker", operation);
+        }
+        state = State.CLOSED;
+        closedAt = System.currentTimeMillis();
+        probing = false;
+        reset();
+    }
+
+    private void reset() {
+        next = 0;
+        calls = 0;
+    }
+
+    /**
+     * Takes the probe unless another participant still registered claimed it within the open interval.
+     */
+    private boolean claimProbe() {
+        if (!shared) {
+            return true;
+        }
+        PoolStore store = pool.getStore();
+        Versioned current = store.getProperty(property());
+        if (current != null) {
+            String[] value = decode(current.getData());
+            long age = System.currentTimeMillis() - Long.parseLong(value[2]);
+            if (PROBING.equals(value[0]) && !value[1].equals(pool.getId())
+                    && age < TimeUnit.NANOSECONDS.toMillis(openNanos())
+                    && store.children(Area.PARTICIPANTS).contains(value[1])) {
+                return false;
+            }
+        }
+        return store.setProperty(property(), encode(PROBING), current == null ? Versioned.NONE : current.getVersion());
+    }
+
+    private void publishClosed() {
+        if (!shared) {
+            // the others find out on their own.
+            return;
+        }
+        try {
+            PoolStore store = pool.getStore();
+            Versioned current = store.getProperty(property());
+            store.setProperty(property(), encode(CLOSED), current == null ? Versioned.NONE : current.getVersion());
+        }
+        catch (Exception e) {
+            LOGGER.warn("Could not publish the closed {} circuit breaker", operation, e);
+        }
+    }
+
+    private Versioned watch() {
+        return shared ? pool.getStore().getProperty(property(), this) : null;
+    }
+
+    private String property() {
+        return "breaker." + operation;
+    }
+
+    /**
+     * State, participant and the time it was written.
+     */
+    private byte[] encode(String value) {
+        return (value + " " + pool.getId() + " " + System.currentTimeMillis()).getBytes(Charsets.UTF_8);
+    }
+
+    private static String[] decode(byte[] data) {
+        return new String(data, Charsets.UTF_8).split(" ");
+    }
+
+}
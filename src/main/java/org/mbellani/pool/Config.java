@@ -2,23 +2,105 @@ package org.mbellani.pool;
 
 import static com.google.common.base.Preconditions.checkState;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
-public class Config {
+import org.mbellani.codec.PayloadCodec;
+import org.mbellani.metrics.MetricsExporter;
+import org.mbellani.utils.RetryPolicy;
+import org.mbellani.zk.ZKClient;
+
+import com.google.common.collect.Lists;
+
+public class Config implements Cloneable {
 
 	public static final Long DEFAULT_MAX_IDLE_INTRVL = 300L;
 	private static final Long DEFAULT_ZOMBIE_DETECTION = 30L;
 	private static final TimeUnit DEFAULT_TIME_UNIT = TimeUnit.SECONDS;
+	private static final int DEFAULT_MAPPED_SLOT_SIZE = 1024;
+	private static final int DEFAULT_MAPPED_SESSIONS = 64;
+	private static final Long DEFAULT_METRICS_REPORT_INTRVL = 60L;
+	private static final Long DEFAULT_STATS_MAX_STALENESS = 1L;
+	private static final int DEFAULT_ZOMBIE_VALIDATION_THREADS = 4;
+	private static final Long DEFAULT_ZOMBIE_VALIDATION_TIMEOUT = 5L;
+	private static final Long DEFAULT_ZOMBIE_BACKOFF = 1L;
+	private static final Long DEFAULT_ZOMBIE_MAX_BACKOFF = 60L;
+	private static final double DEFAULT_SCALE_UP_MISS_RATE = 0.05;
+	private static final double DEFAULT_SCALE_DOWN_IDLE_RATIO = 0.5;
+	private static final double DEFAULT_SCALE_STEP = 0.25;
+	private static final int DEFAULT_SCALE_HYSTERESIS = 3;
+	private static final Long DEFAULT_SCALE_COOLDOWN = 60L;
+	private static final Long DEFAULT_CREATE_WAIT_TIMEOUT = 5L;
+	private static final int DEFAULT_BREAKER_WINDOW = 20;
+	private static final int DEFAULT_BREAKER_MIN_CALLS = 10;
+	private static final Long DEFAULT_BREAKER_OPEN_INTRVL = 30L;
+	private static final Long DEFAULT_CRASH_RESTORE_DELAY = 0L;
+	private static final Long DEFAULT_DEGRADED_MAX_INTRVL = 5L;
+	public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+	private static final Long DEFAULT_KEY_IDLE_INTRVL = 300L;
+	private static final Long DEFAULT_LOCALITY_WAIT = 0L;
+	private static final Long DEFAULT_DRAIN_WAIT = 0L;
 
 	private String name;
 	private int initSize;
-	private int size;
+	private volatile int size;
 	private String zkConnectString;
-	private Long evictIntrvl;
-	private Long zombieDetectionIntrvl = DEFAULT_ZOMBIE_DETECTION;
-	private Long maxIdleIntrvl = DEFAULT_MAX_IDLE_INTRVL;
-	private Integer numTestsPerEviction;
+	private volatile Long evictIntrvl;
+	private volatile Long zombieDetectionIntrvl = DEFAULT_ZOMBIE_DETECTION;
+	private volatile Long maxIdleIntrvl = DEFAULT_MAX_IDLE_INTRVL;
+	private volatile Integer numTestsPerEviction;
 	private TimeUnit intrvlUnit = DEFAULT_TIME_UNIT;
+	private StoreType storeType = StoreType.ZOOKEEPER;
+	private String mappedFile;
+	private int mappedSlotSize = DEFAULT_MAPPED_SLOT_SIZE;
+	private int mappedSessions = DEFAULT_MAPPED_SESSIONS;
+	private boolean metricsEnabled = true;
+	private Long metricsReportIntrvl = DEFAULT_METRICS_REPORT_INTRVL;
+	private List<MetricsExporter> metricsExporters = Lists.newArrayList();
+	private Long statsMaxStaleness = DEFAULT_STATS_MAX_STALENESS;
+	private volatile boolean testOnBorrow = true;
+	private volatile boolean testOnReturn;
+	private volatile boolean testWhileIdle;
+	private volatile Long validationTtl = 0L;
+	private volatile int zombieValidationThreads = DEFAULT_ZOMBIE_VALIDATION_THREADS;
+	private volatile Long zombieValidationTimeout = DEFAULT_ZOMBIE_VALIDATION_TIMEOUT;
+	private volatile Long zombieBackoff = DEFAULT_ZOMBIE_BACKOFF;
+	private volatile Long zombieMaxBackoff = DEFAULT_ZOMBIE_MAX_BACKOFF;
+	private volatile Long removeAbandonedTimeout = 0L;
+	private int borrowSiteSampling;
+	private Long autoscaleIntrvl;
+	private volatile int minSize = 1;
+	private volatile int maxSize;
+	private double scaleUpMissRate = DEFAULT_SCALE_UP_MISS_RATE;
+	private long scaleUpWaitMillis;
+	private double scaleDownIdleRatio = DEFAULT_SCALE_DOWN_IDLE_RATIO;
+	private double scaleStep = DEFAULT_SCALE_STEP;
+	private int scaleHysteresis = DEFAULT_SCALE_HYSTERESIS;
+	private Long scaleCooldown = DEFAULT_SCALE_COOLDOWN;
+	private volatile int maxConcurrentCreates;
+	private volatile double createRate;
+	private volatile Long createWaitTimeout = DEFAULT_CREATE_WAIT_TIMEOUT;
+	private volatile double breakerFailureRate;
+	private volatile double breakerSlowCallRate;
+	private volatile Long breakerSlowCallDuration;
+	private int breakerWindow = DEFAULT_BREAKER_WINDOW;
+	private int breakerMinCalls = DEFAULT_BREAKER_MIN_CALLS;
+	private volatile Long breakerOpenIntrvl = DEFAULT_BREAKER_OPEN_INTRVL;
+	private volatile boolean breakerServeUnvalidated;
+	private RetryPolicy retryPolicy = new RetryPolicy.Builder().build();
+	private volatile Long crashRestoreDelay = DEFAULT_CRASH_RESTORE_DELAY;
+	private int leaseSize;
+	private volatile Long degradedMaxIntrvl = DEFAULT_DEGRADED_MAX_INTRVL;
+	private String journalFile;
+	private PayloadCodec codec;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int maxTotal;
+	private volatile Long keyIdleIntrvl = DEFAULT_KEY_IDLE_INTRVL;
+	private volatile boolean preferLocal;
+	private volatile String rack;
+	private volatile Long localityWait = DEFAULT_LOCALITY_WAIT;
+	private int maxSharers;
+	private volatile Long drainWait = DEFAULT_DRAIN_WAIT;
 
 	public Config(String name) {
 		this.name = name;
@@ -96,6 +178,576 @@ public class Config {
 		this.intrvlUnit = intrvlUnit;
 	}
 
+	public StoreType getStoreType() {
+		return storeType;
+	}
+
+	public void setStoreType(StoreType storeType) {
+		this.storeType = storeType;
+	}
+
+	public String getMappedFile() {
+		return mappedFile;
+	}
+
+	public void setMappedFile(String mappedFile) {
+		this.mappedFile = mappedFile;
+	}
+
+	public int getMappedSlotSize() {
+		return mappedSlotSize;
+	}
+
+	public void setMappedSlotSize(int mappedSlotSize) {
+		this.mappedSlotSize = mappedSlotSize;
+	}
+
+	public int getMappedSessions() {
+		return mappedSessions;
+	}
+
+	public void setMappedSessions(int mappedSessions) {
+		this.mappedSessions = mappedSessions;
+	}
+
+	public boolean isMetricsEnabled() {
+		return metricsEnabled;
+	}
+
+	public void setMetricsEnabled(boolean metricsEnabled) {
+		this.metricsEnabled = metricsEnabled;
+	}
+
+	public Long getMetricsReportIntrvl() {
+		return metricsReportIntrvl;
+	}
+
+	public void setMetricsReportIntrvl(Long metricsReportIntrvl) {
+		this.metricsReportIntrvl = metricsReportIntrvl;
+	}
+
+	public List<MetricsExporter> getMetricsExporters() {
+		return metricsExporters;
+	}
+
+	public void setMetricsExporters(List<MetricsExporter> metricsExporters) {
+		this.metricsExporters = metricsExporters;
+	}
+
+	public Long getStatsMaxStaleness() {
+		return statsMaxStaleness;
+	}
+
+	public void setStatsMaxStaleness(Long statsMaxStaleness) {
+		this.statsMaxStaleness = statsMaxStaleness;
+	}
+
+	public boolean isTestOnBorrow() {
+		return testOnBorrow;
+	}
+
+	public void setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+	}
+
+	public boolean isTestOnReturn() {
+		return testOnReturn;
+	}
+
+	public void setTestOnReturn(boolean testOnReturn) {
+		this.testOnReturn = testOnReturn;
+	}
+
+	/**
+	 * Validates unused objects that are not old enough to be evicted during eviction runs, so it only takes effect
+	 * with an eviction interval set.
+	 */
+	public boolean isTestWhileIdle() {
+		return testWhileIdle;
+	}
+
+	public void setTestWhileIdle(boolean testWhileIdle) {
+		this.testWhileIdle = testWhileIdle;
+	}
+
+	/**
+	 * An object validated by this participant less than this long ago, in {@link #getIntrvlUnit()}, is taken as
+	 * valid without asking the factory. 0 validates every time.
+	 */
+	public Long getValidationTtl() {
+		return validationTtl;
+	}
+
+	public void setValidationTtl(Long validationTtl) {
+		this.validationTtl = validationTtl;
+	}
+
+	/**
+	 * How many zombies are revalidated at the same time.
+	 */
+	public int getZombieValidationThreads() {
+		return zombieValidationThreads;
+	}
+
+	public void setZombieValidationThreads(int zombieValidationThreads) {
+		this.zombieValidationThreads = zombieValidationThreads;
+	}
+
+	/**
+	 * How long revalidating a single zombie may take, in {@link #getIntrvlUnit()}, before it is given up on and
+	 * treated as still dead.
+	 */
+	public Long getZombieValidationTimeout() {
+		return zombieValidationTimeout;
+	}
+
+	public void setZombieValidationTimeout(Long zombieValidationTimeout) {
+		this.zombieValidationTimeout = zombieValidationTimeout;
+	}
+
+	/**
+	 * How long after it is noticed a zombie is first revalidated, in {@link #getIntrvlUnit()}. The wait doubles each
+	 * time it is still dead, up to {@link #getZombieMaxBackoff()}.
+	 */
+	public Long getZombieBackoff() {
+		return zombieBackoff;
+	}
+
+	public void setZombieBackoff(Long zombieBackoff) {
+		this.zombieBackoff = zombieBackoff;
+	}
+
+	public Long getZombieMaxBackoff() {
+		return zombieMaxBackoff;
+	}
+
+	public void setZombieMaxBackoff(Long zombieMaxBackoff) {
+		this.zombieMaxBackoff = zombieMaxBackoff;
+	}
+
+	/**
+	 * Objects kept borrowed longer than this, in {@link #getIntrvlUnit()}, are taken to be leaked and are destroyed
+	 * to free their place in the pool. 0 never reclaims borrowed objects.
+	 */
+	public Long getRemoveAbandonedTimeout() {
+		return removeAbandonedTimeout;
+	}
+
+	public void setRemoveAbandonedTimeout(Long removeAbandonedTimeout) {
+		this.removeAbandonedTimeout = removeAbandonedTimeout;
+	}
+
+	/**
+	 * Records the stack of one in this many borrows, so abandoned objects can be traced back to the code that
+	 * borrowed them. 0 records none, 1 records every borrow.
+	 */
+	public int getBorrowSiteSampling() {
+		return borrowSiteSampling;
+	}
+
+	public void setBorrowSiteSampling(int borrowSiteSampling) {
+		this.borrowSiteSampling = borrowSiteSampling;
+	}
+
+	/**
+	 * How often, in {@link #getIntrvlUnit()}, the pool capacity is reconsidered. Unset keeps the capacity at
+	 * {@link #getSize()} for good.
+	 */
+	public Long getAutoscaleIntrvl() {
+		return autoscaleIntrvl;
+	}
+
+	public void setAutoscaleIntrvl(Long autoscaleIntrvl) {
+		this.autoscaleIntrvl = autoscaleIntrvl;
+	}
+
+	/**
+	 * Lowest capacity autoscaling shrinks the pool to.
+	 */
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Highest capacity autoscaling grows the pool to, 0 stays at {@link #getSize()}.
+	 */
+	public int getMaxSize() {
+		return maxSize > 0 ? maxSize : size;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Share of borrows coming back empty handed across the pool above which it grows.
+	 */
+	public double getScaleUpMissRate() {
+		return scaleUpMissRate;
+	}
+
+	public void setScaleUpMissRate(double scaleUpMissRate) {
+		this.scaleUpMissRate = scaleUpMissRate;
+	}
+
+	/**
+	 * Mean borrow time above which the pool grows, 0 leaves borrow time out of it.
+	 */
+	public long getScaleUpWaitMillis() {
+		return scaleUpWaitMillis;
+	}
+
+	public void setScaleUpWaitMillis(long scaleUpWaitMillis) {
+		this.scaleUpWaitMillis = scaleUpWaitMillis;
+	}
+
+	/**
+	 * Share of the pool sitting unused above which it shrinks, as long as no borrow misses.
+	 */
+	public double getScaleDownIdleRatio() {
+		return scaleDownIdleRatio;
+	}
+
+	public void setScaleDownIdleRatio(double scaleDownIdleRatio) {
+		this.scaleDownIdleRatio = scaleDownIdleRatio;
+	}
+
+	/**
+	 * Share of the current capacity added or taken away at a time, at least one object.
+	 */
+	public double getScaleStep() {
+		return scaleStep;
+	}
+
+	public void setScaleStep(double scaleStep) {
+		this.scaleStep = scaleStep;
+	}
+
+	/**
+	 * How many checks in a row have to agree before the capacity changes.
+	 */
+	public int getScaleHysteresis() {
+		return scaleHysteresis;
+	}
+
+	public void setScaleHysteresis(int scaleHysteresis) {
+		this.scaleHysteresis = scaleHysteresis;
+	}
+
+	/**
+	 * Quiet time after a capacity change, in {@link #getIntrvlUnit()}.
+	 */
+	public Long getScaleCooldown() {
+		return scaleCooldown;
+	}
+
+	public void setScaleCooldown(Long scaleCooldown) {
+		this.scaleCooldown = scaleCooldown;
+	}
+
+	/**
+	 * How many objects all participants together may be creating at the same time, 0 leaves it to each participant.
+	 */
+	public int getMaxConcurrentCreates() {
+		return maxConcurrentCreates;
+	}
+
+	public void setMaxConcurrentCreates(int maxConcurrentCreates) {
+		this.maxConcurrentCreates = maxConcurrentCreates;
+	}
+
+	/**
+	 * How many objects per second this participant may create, short bursts of up to a second's worth included. 0
+	 * does not limit the rate.
+	 */
+	public double getCreateRate() {
+		return createRate;
+	}
+
+	public void setCreateRate(double createRate) {
+		this.createRate = createRate;
+	}
+
+	/**
+	 * How long, in {@link #getIntrvlUnit()}, a borrow that has to create an object waits for a creation permit or a
+	 * returned object before coming back empty handed.
+	 */
+	public Long getCreateWaitTimeout() {
+		return createWaitTimeout;
+	}
+
+	public void setCreateWaitTimeout(Long createWaitTimeout) {
+		this.createWaitTimeout = createWaitTimeout;
+	}
+
+	public boolean creationLimited() {
+		return maxConcurrentCreates > 0 || createRate > 0;
+	}
+
+	/**
+	 * Percentage of failed factory calls among the last {@link #getBreakerWindow()} that opens the breaker of that
+	 * operation, 0 leaves it closed no matter how many fail.
+	 */
+	public double getBreakerFailureRate() {
+		return breakerFailureRate;
+	}
+
+	public void setBreakerFailureRate(double breakerFailureRate) {
+		this.breakerFailureRate = breakerFailureRate;
+	}
+
+	/**
+	 * Percentage of factory calls slower than {@link #getBreakerSlowCallDuration()} that opens the breaker, 0 does not
+	 * look at how long calls take.
+	 */
+	public double getBreakerSlowCallRate() {
+		return breakerSlowCallRate;
+	}
+
+	public void setBreakerSlowCallRate(double breakerSlowCallRate) {
+		this.breakerSlowCallRate = breakerSlowCallRate;
+	}
+
+	/**
+	 * How long, in {@link #getIntrvlUnit()}, a factory call may take before it counts as slow.
+	 */
+	public Long getBreakerSlowCallDuration() {
+		return breakerSlowCallDuration;
+	}
+
+	public void setBreakerSlowCallDuration(Long breakerSlowCallDuration) {
+		this.breakerSlowCallDuration = breakerSlowCallDuration;
+	}
+
+	/**
+	 * How many of the latest calls the failure and slow call rates are taken over.
+	 */
+	public int getBreakerWindow() {
+		return breakerWindow;
+	}
+
+	public void setBreakerWindow(int breakerWindow) {
+		this.breakerWindow = breakerWindow;
+	}
+
+	/**
+	 * How many calls a breaker needs to have seen before the rates count.
+	 */
+	public int getBreakerMinCalls() {
+		return breakerMinCalls;
+	}
+
+	public void setBreakerMinCalls(int breakerMinCalls) {
+		this.breakerMinCalls = breakerMinCalls;
+	}
+
+	/**
+	 * How long, in {@link #getIntrvlUnit()}, an open breaker fails calls fast before one participant tries a call to
+	 * see if the factory works again.
+	 */
+	public Long getBreakerOpenIntrvl() {
+		return breakerOpenIntrvl;
+	}
+
+	public void setBreakerOpenIntrvl(Long breakerOpenIntrvl) {
+		this.breakerOpenIntrvl = breakerOpenIntrvl;
+	}
+
+	/**
+	 * Hands out objects without validating them while the validate breaker is open, instead of coming back empty
+	 * handed.
+	 */
+	public boolean isBreakerServeUnvalidated() {
+		return breakerServeUnvalidated;
+	}
+
+	public void setBreakerServeUnvalidated(boolean breakerServeUnvalidated) {
+		this.breakerServeUnvalidated = breakerServeUnvalidated;
+	}
+
+	public boolean breakerEnabled() {
+		return breakerFailureRate > 0 || (breakerSlowCallRate > 0 && breakerSlowCallDuration != null);
+	}
+
+	/**
+	 * How zookeeper operations and borrows are retried, its retry budget is shared by everything this participant
+	 * retries.
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * How long the crash detector waits before restoring the objects of a participant that dropped, in
+	 * {@link #getIntrvlUnit()}. A participant whose session expired gets the time to reconnect and claim its borrowed
+	 * objects again, 0 restores them right away.
+	 */
+	public Long getCrashRestoreDelay() {
+		return crashRestoreDelay;
+	}
+
+	public void setCrashRestoreDelay(Long crashRestoreDelay) {
+		this.crashRestoreDelay = crashRestoreDelay;
+	}
+
+	/**
+	 * Idle objects a participant keeps claimed rather than handing them back, to lend them again without a round trip
+	 * to the store and to still have objects to lend while the store is out of reach. 0 turns the lease off.
+	 */
+	public int getLeaseSize() {
+		return leaseSize;
+	}
+
+	public void setLeaseSize(int leaseSize) {
+		this.leaseSize = leaseSize;
+	}
+
+	/**
+	 * How long into an outage of the store leased objects are still lent, in {@link #getIntrvlUnit()}. Has to stay below
+	 * the zookeeper session timeout, after that the claims may be gone and other participants lend the same objects.
+	 * Pools with a lease are checked for it when validated.
+	 */
+	public Long getDegradedMaxIntrvl() {
+		return degradedMaxIntrvl;
+	}
+
+	public void setDegradedMaxIntrvl(Long degradedMaxIntrvl) {
+		this.degradedMaxIntrvl = degradedMaxIntrvl;
+	}
+
+	/**
+	 * Where the borrows and returns served from the lease during an outage are journaled, a file named after the pool
+	 * and the process in the temp directory if not set.
+	 */
+	public String getJournalFile() {
+		return journalFile;
+	}
+
+	public void setJournalFile(String journalFile) {
+		this.journalFile = journalFile;
+	}
+
+	/**
+	 * What the serialized objects are encoded with before they are stored, stored as they are if not set. The codec of
+	 * the participant that created the pool is recorded with it and used by all participants.
+	 */
+	public PayloadCodec getCodec() {
+		return codec;
+	}
+
+	public void setCodec(PayloadCodec codec) {
+		this.codec = codec;
+	}
+
+	/**
+	 * Encoded payloads larger than this many bytes are stored in chunks, zookeeper only.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Objects a participant of a {@link KeyedObjectPool} may have borrowed at once across all its keys, 0 for no limit.
+	 * The size caps each key.
+	 */
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	/**
+	 * How long a key of a {@link KeyedObjectPool} goes without borrows before the participant leaves its pool, in
+	 * {@link #getIntrvlUnit()}. 0 keeps the pools of all keys used so far.
+	 */
+	public Long getKeyIdleIntrvl() {
+		return keyIdleIntrvl;
+	}
+
+	public void setKeyIdleIntrvl(Long keyIdleIntrvl) {
+		this.keyIdleIntrvl = keyIdleIntrvl;
+	}
+
+	/**
+	 * Whether borrows prefer objects created on this host, then on this {@link #getRack()}, then any. Objects are
+	 * tagged with where they were created, so the store has to keep tags.
+	 */
+	public boolean isPreferLocal() {
+		return preferLocal;
+	}
+
+	public void setPreferLocal(boolean preferLocal) {
+		this.preferLocal = preferLocal;
+	}
+
+	/**
+	 * Rack, zone or any other group of hosts this participant belongs to, null for none.
+	 */
+	public String getRack() {
+		return rack;
+	}
+
+	public void setRack(String rack) {
+		this.rack = rack;
+	}
+
+	/**
+	 * How long, in {@link #getIntrvlUnit()}, a borrow preferring local objects waits for one to be returned before it
+	 * takes an object from anywhere.
+	 */
+	public Long getLocalityWait() {
+		return localityWait;
+	}
+
+	public void setLocalityWait(Long localityWait) {
+		this.localityWait = localityWait;
+	}
+
+	/**
+	 * How many borrowers {@link ZKObjectPool#borrowShared()} lets hold an object at once, 0 turns shared borrows off.
+	 */
+	public int getMaxSharers() {
+		return maxSharers;
+	}
+
+	public void setMaxSharers(int maxSharers) {
+		this.maxSharers = maxSharers;
+	}
+
+	/**
+	 * How long, in {@link #getIntrvlUnit()}, a borrow that finds no free object waits for the holders of a shared
+	 * object to leave so it can have it to itself. 0 keeps exclusive borrows off shared objects.
+	 */
+	public Long getDrainWait() {
+		return drainWait;
+	}
+
+	public void setDrainWait(Long drainWait) {
+		this.drainWait = drainWait;
+	}
+
+	public boolean autoscaleEnabled() {
+		return autoscaleIntrvl != null && autoscaleIntrvl > 0;
+	}
+
+	public boolean abandonedRemovalEnabled() {
+		return removeAbandonedTimeout != null && removeAbandonedTimeout > 0;
+	}
+
 	public boolean evictionEnabled() {
 		return evictIntrvl != null && evictIntrvl > 0;
 	}
@@ -104,6 +756,46 @@ public class Config {
 		checkState(getSize() > 0,
 		        "Please make sure you set the max capacity to a number greater than 0 to limit the pool size.");
 		checkState(getInitSize() <= getSize(), "Please make sure initial capacity is not more than the max capacity.");
+		if (autoscaleEnabled()) {
+			checkState(getMinSize() > 0 && getMinSize() <= getSize() && getSize() <= getMaxSize(),
+			        "Please make sure min size <= size <= max size when autoscaling.");
+			checkState(isMetricsEnabled(), "Autoscaling works off the pool metrics, please keep them enabled.");
+		}
+		checkState(getMaxConcurrentCreates() >= 0 && getCreateRate() >= 0,
+		        "Please make sure the creation limits are not negative, 0 turns them off.");
+		checkState(getBreakerFailureRate() >= 0 && getBreakerFailureRate() <= 100 && getBreakerSlowCallRate() >= 0
+		        && getBreakerSlowCallRate() <= 100, "Please make sure the breaker rates are percentages.");
+		checkState(getBreakerWindow() > 0 && getBreakerMinCalls() <= getBreakerWindow(),
+		        "Please make sure the breaker window holds at least the minimum number of calls.");
+		checkState(getLeaseSize() >= 0 && getLeaseSize() <= getSize(),
+		        "Please make sure the lease size is between 0 and the pool size.");
+		checkState(getLeaseSize() == 0
+		        || getIntrvlUnit().toMillis(getDegradedMaxIntrvl()) < ZKClient.SESSION_TIMEOUT,
+		        "Please keep the degraded interval below the %s ms session timeout, leased claims go with it.",
+		        ZKClient.SESSION_TIMEOUT);
+		checkState(getChunkSize() > 0, "Please make sure the chunk size is greater than 0.");
+		checkState(getMaxTotal() >= 0, "Please make sure the total limit is not negative, 0 turns it off.");
+		checkState(!isPreferLocal() || getStoreType() != StoreType.MAPPED_FILE,
+		        "Mapped file pools keep no tags, please use zookeeper or the in memory store to prefer local objects.");
+		checkState(getRack() == null || (!getRack().isEmpty() && !getRack().contains("/")),
+		        "Please make sure the rack can name a node.");
+		checkState(getMaxSharers() >= 0, "Please make sure the number of sharers is not negative, 0 turns it off.");
+		checkState(getMaxSharers() == 0 || getStoreType() != StoreType.MAPPED_FILE,
+		        "Mapped file pools lend objects to one borrower at a time, please use zookeeper or the in memory store.");
+	}
+
+	/**
+	 * Same settings under another name, for the pools of a {@link KeyedObjectPool}.
+	 */
+	public Config copy(String name) {
+		try {
+			Config c = (Config) clone();
+			c.name = name;
+			c.metricsExporters = Lists.newArrayList(metricsExporters);
+			return c;
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e);
+		}
 	}
 
 	public static class Builder {
@@ -116,6 +808,57 @@ public class Config {
 		private Long zombieDetectionIntrvl;
 		private Long maxIdleIntrvl;
 		private TimeUnit intrvlUnit;
+		private StoreType storeType;
+		private String mappedFile;
+		private Integer mappedSlotSize;
+		private Integer mappedSessions;
+		private Boolean metricsEnabled;
+		private Long metricsReportIntrvl;
+		private List<MetricsExporter> metricsExporters = Lists.newArrayList();
+		private Long statsMaxStaleness;
+		private Boolean testOnBorrow;
+		private boolean testOnReturn;
+		private boolean testWhileIdle;
+		private Long validationTtl;
+		private Integer zombieValidationThreads;
+		private Long zombieValidationTimeout;
+		private Long zombieBackoff;
+		private Long zombieMaxBackoff;
+		private Long removeAbandonedTimeout;
+		private int borrowSiteSampling;
+		private Long autoscaleIntrvl;
+		private Integer minSize;
+		private int maxSize;
+		private Double scaleUpMissRate;
+		private long scaleUpWaitMillis;
+		private Double scaleDownIdleRatio;
+		private Double scaleStep;
+		private Integer scaleHysteresis;
+		private Long scaleCooldown;
+		private Integer maxConcurrentCreates;
+		private Double createRate;
+		private Long createWaitTimeout;
+		private Double breakerFailureRate;
+		private Double breakerSlowCallRate;
+		private Long breakerSlowCallDuration;
+		private Integer breakerWindow;
+		private Integer breakerMinCalls;
+		private Long breakerOpenIntrvl;
+		private Boolean breakerServeUnvalidated;
+		private RetryPolicy retryPolicy;
+		private Long crashRestoreDelay;
+		private Integer leaseSize;
+		private Long degradedMaxIntrvl;
+		private String journalFile;
+		private PayloadCodec codec;
+		private Integer chunkSize;
+		private int maxTotal;
+		private Long keyIdleIntrvl;
+		private Boolean preferLocal;
+		private String rack;
+		private Long localityWait;
+		private int maxSharers;
+		private Long drainWait;
 
 		public Builder(String name) {
 			this.name = name;
@@ -162,6 +905,261 @@ public class Config {
 			return this;
 		}
 
+		public Builder storeType(StoreType storeType) {
+			this.storeType = storeType;
+			return this;
+		}
+
+		public Builder mappedFile(String mappedFile) {
+			this.mappedFile = mappedFile;
+			return this;
+		}
+
+		public Builder mappedSlotSize(int mappedSlotSize) {
+			this.mappedSlotSize = mappedSlotSize;
+			return this;
+		}
+
+		public Builder mappedSessions(int mappedSessions) {
+			this.mappedSessions = mappedSessions;
+			return this;
+		}
+
+		public Builder metricsEnabled(boolean metricsEnabled) {
+			this.metricsEnabled = metricsEnabled;
+			return this;
+		}
+
+		public Builder metricsReportIntrvl(long metricsReportIntrvl) {
+			this.metricsReportIntrvl = metricsReportIntrvl;
+			return this;
+		}
+
+		public Builder metricsExporter(MetricsExporter exporter) {
+			this.metricsExporters.add(exporter);
+			return this;
+		}
+
+		public Builder statsMaxStaleness(long statsMaxStaleness) {
+			this.statsMaxStaleness = statsMaxStaleness;
+			return this;
+		}
+
+		public Builder testOnBorrow(boolean testOnBorrow) {
+			this.testOnBorrow = testOnBorrow;
+			return this;
+		}
+
+		public Builder testOnReturn(boolean testOnReturn) {
+			this.testOnReturn = testOnReturn;
+			return this;
+		}
+
+		public Builder testWhileIdle(boolean testWhileIdle) {
+			this.testWhileIdle = testWhileIdle;
+			return this;
+		}
+
+		public Builder validationTtl(long validationTtl) {
+			this.validationTtl = validationTtl;
+			return this;
+		}
+
+		public Builder zombieValidationThreads(int zombieValidationThreads) {
+			this.zombieValidationThreads = zombieValidationThreads;
+			return this;
+		}
+
+		public Builder zombieValidationTimeout(long zombieValidationTimeout) {
+			this.zombieValidationTimeout = zombieValidationTimeout;
+			return this;
+		}
+
+		public Builder zombieBackoff(long zombieBackoff) {
+			this.zombieBackoff = zombieBackoff;
+			return this;
+		}
+
+		public Builder zombieMaxBackoff(long zombieMaxBackoff) {
+			this.zombieMaxBackoff = zombieMaxBackoff;
+			return this;
+		}
+
+		public Builder removeAbandonedTimeout(long removeAbandonedTimeout) {
+			this.removeAbandonedTimeout = removeAbandonedTimeout;
+			return this;
+		}
+
+		public Builder borrowSiteSampling(int borrowSiteSampling) {
+			this.borrowSiteSampling = borrowSiteSampling;
+			return this;
+		}
+
+		public Builder autoscaleIntrvl(long autoscaleIntrvl) {
+			this.autoscaleIntrvl = autoscaleIntrvl;
+			return this;
+		}
+
+		public Builder minSize(int minSize) {
+			this.minSize = minSize;
+			return this;
+		}
+
+		public Builder maxSize(int maxSize) {
+			this.maxSize = maxSize;
+			return this;
+		}
+
+		public Builder scaleUpMissRate(double scaleUpMissRate) {
+			this.scaleUpMissRate = scaleUpMissRate;
+			return this;
+		}
+
+		public Builder scaleUpWaitMillis(long scaleUpWaitMillis) {
+			this.scaleUpWaitMillis = scaleUpWaitMillis;
+			return this;
+		}
+
+		public Builder scaleDownIdleRatio(double scaleDownIdleRatio) {
+			this.scaleDownIdleRatio = scaleDownIdleRatio;
+			return this;
+		}
+
+		public Builder scaleStep(double scaleStep) {
+			this.scaleStep = scaleStep;
+			return this;
+		}
+
+		public Builder scaleHysteresis(int scaleHysteresis) {
+			this.scaleHysteresis = scaleHysteresis;
+			return this;
+		}
+
+		public Builder scaleCooldown(long scaleCooldown) {
+			this.scaleCooldown = scaleCooldown;
+			return this;
+		}
+
+		public Builder maxConcurrentCreates(int maxConcurrentCreates) {
+			this.maxConcurrentCreates = maxConcurrentCreates;
+			return this;
+		}
+
+		public Builder createRate(double createRate) {
+			this.createRate = createRate;
+			return this;
+		}
+
+		public Builder createWaitTimeout(long createWaitTimeout) {
+			this.createWaitTimeout = createWaitTimeout;
+			return this;
+		}
+
+		public Builder breakerFailureRate(double breakerFailureRate) {
+			this.breakerFailureRate = breakerFailureRate;
+			return this;
+		}
+
+		public Builder breakerSlowCallRate(double breakerSlowCallRate) {
+			this.breakerSlowCallRate = breakerSlowCallRate;
+			return this;
+		}
+
+		public Builder breakerSlowCallDuration(long breakerSlowCallDuration) {
+			this.breakerSlowCallDuration = breakerSlowCallDuration;
+			return this;
+		}
+
+		public Builder breakerWindow(int breakerWindow) {
+			this.breakerWindow = breakerWindow;
+			return this;
+		}
+
+		public Builder breakerMinCalls(int breakerMinCalls) {
+			this.breakerMinCalls = breakerMinCalls;
+			return this;
+		}
+
+		public Builder breakerOpenIntrvl(long breakerOpenIntrvl) {
+			this.breakerOpenIntrvl = breakerOpenIntrvl;
+			return this;
+		}
+
+		public Builder breakerServeUnvalidated(boolean breakerServeUnvalidated) {
+			this.breakerServeUnvalidated = breakerServeUnvalidated;
+			return this;
+		}
+
+		public Builder retryPolicy(RetryPolicy retryPolicy) {
+			this.retryPolicy = retryPolicy;
+			return this;
+		}
+
+		public Builder crashRestoreDelay(long crashRestoreDelay) {
+			this.crashRestoreDelay = crashRestoreDelay;
+			return this;
+		}
+
+		public Builder leaseSize(int leaseSize) {
+			this.leaseSize = leaseSize;
+			return this;
+		}
+
+		public Builder degradedMaxIntrvl(long degradedMaxIntrvl) {
+			this.degradedMaxIntrvl = degradedMaxIntrvl;
+			return this;
+		}
+
+		public Builder journalFile(String journalFile) {
+			this.journalFile = journalFile;
+			return this;
+		}
+
+		public Builder codec(PayloadCodec codec) {
+			this.codec = codec;
+			return this;
+		}
+
+		public Builder chunkSize(int chunkSize) {
+			this.chunkSize = chunkSize;
+			return this;
+		}
+
+		public Builder maxTotal(int maxTotal) {
+			this.maxTotal = maxTotal;
+			return this;
+		}
+
+		public Builder keyIdleIntrvl(long keyIdleIntrvl) {
+			this.keyIdleIntrvl = keyIdleIntrvl;
+			return this;
+		}
+
+		public Builder preferLocal(boolean preferLocal) {
+			this.preferLocal = preferLocal;
+			return this;
+		}
+
+		public Builder rack(String rack) {
+			this.rack = rack;
+			return this;
+		}
+
+		public Builder localityWait(long localityWait) {
+			this.localityWait = localityWait;
+			return this;
+		}
+
+		public Builder maxSharers(int maxSharers) {
+			this.maxSharers = maxSharers;
+			return this;
+		}
+
+		public Builder drainWait(long drainWait) {
+			this.drainWait = drainWait;
+			return this;
+		}
+
 		public Config build() {
 			Config c = new Config(name);
 			c.setInitSize(initSize);
@@ -178,6 +1176,135 @@ public class Config {
 			if (zombieDetectionIntrvl != null) {
 				c.setZombieDetectionIntrvl(zombieDetectionIntrvl);
 			}
+			if (storeType != null) {
+				c.setStoreType(storeType);
+			}
+			c.setMappedFile(mappedFile);
+			if (mappedSlotSize != null) {
+				c.setMappedSlotSize(mappedSlotSize);
+			}
+			if (mappedSessions != null) {
+				c.setMappedSessions(mappedSessions);
+			}
+			if (metricsEnabled != null) {
+				c.setMetricsEnabled(metricsEnabled);
+			}
+			if (metricsReportIntrvl != null) {
+				c.setMetricsReportIntrvl(metricsReportIntrvl);
+			}
+			c.setMetricsExporters(metricsExporters);
+			if (statsMaxStaleness != null) {
+				c.setStatsMaxStaleness(statsMaxStaleness);
+			}
+			if (testOnBorrow != null) {
+				c.setTestOnBorrow(testOnBorrow);
+			}
+			c.setTestOnReturn(testOnReturn);
+			c.setTestWhileIdle(testWhileIdle);
+			if (validationTtl != null) {
+				c.setValidationTtl(validationTtl);
+			}
+			if (zombieValidationThreads != null) {
+				c.setZombieValidationThreads(zombieValidationThreads);
+			}
+			if (zombieValidationTimeout != null) {
+				c.setZombieValidationTimeout(zombieValidationTimeout);
+			}
+			if (zombieBackoff != null) {
+				c.setZombieBackoff(zombieBackoff);
+			}
+			if (zombieMaxBackoff != null) {
+				c.setZombieMaxBackoff(zombieMaxBackoff);
+			}
+			if (removeAbandonedTimeout != null) {
+				c.setRemoveAbandonedTimeout(removeAbandonedTimeout);
+			}
+			c.setBorrowSiteSampling(borrowSiteSampling);
+			c.setAutoscaleIntrvl(autoscaleIntrvl);
+			if (minSize != null) {
+				c.setMinSize(minSize);
+			}
+			c.setMaxSize(maxSize);
+			if (scaleUpMissRate != null) {
+				c.setScaleUpMissRate(scaleUpMissRate);
+			}
+			c.setScaleUpWaitMillis(scaleUpWaitMillis);
+			if (scaleDownIdleRatio != null) {
+				c.setScaleDownIdleRatio(scaleDownIdleRatio);
+			}
+			if (scaleStep != null) {
+				c.setScaleStep(scaleStep);
+			}
+			if (scaleHysteresis != null) {
+				c.setScaleHysteresis(scaleHysteresis);
+			}
+			if (scaleCooldown != null) {
+				c.setScaleCooldown(scaleCooldown);
+			}
+			if (maxConcurrentCreates != null) {
+				c.setMaxConcurrentCreates(maxConcurrentCreates);
+			}
+			if (createRate != null) {
+				c.setCreateRate(createRate);
+			}
+			if (createWaitTimeout != null) {
+				c.setCreateWaitTimeout(createWaitTimeout);
+			}
+			if (breakerFailureRate != null) {
+				c.setBreakerFailureRate(breakerFailureRate);
+			}
+			if (breakerSlowCallRate != null) {
+				c.setBreakerSlowCallRate(breakerSlowCallRate);
+			}
+			if (breakerSlowCallDuration != null) {
+				c.setBreakerSlowCallDuration(breakerSlowCallDuration);
+			}
+			if (breakerWindow != null) {
+				c.setBreakerWindow(breakerWindow);
+			}
+			if (breakerMinCalls != null) {
+				c.setBreakerMinCalls(breakerMinCalls);
+			}
+			if (breakerOpenIntrvl != null) {
+				c.setBreakerOpenIntrvl(breakerOpenIntrvl);
+			}
+			if (breakerServeUnvalidated != null) {
+				c.setBreakerServeUnvalidated(breakerServeUnvalidated);
+			}
+			if (retryPolicy != null) {
+				c.setRetryPolicy(retryPolicy);
+			}
+			if (crashRestoreDelay != null) {
+				c.setCrashRestoreDelay(crashRestoreDelay);
+			}
+			if (leaseSize != null) {
+				c.setLeaseSize(leaseSize);
+			}
+			if (degradedMaxIntrvl != null) {
+				c.setDegradedMaxIntrvl(degradedMaxIntrvl);
+			}
+			c.setJournalFile(journalFile);
+			c.setCodec(codec);
+			if (chunkSize != null) {
+				c.setChunkSize(chunkSize);
+			}
+			c.setMaxTotal(maxTotal);
+			if (keyIdleIntrvl != null) {
+				c.setKeyIdleIntrvl(keyIdleIntrvl);
+			}
+			if (preferLocal != null) {
+				c.setPreferLocal(preferLocal);
+			}
+			if (rack != null) {
+				c.setRack(rack);
+			}
+			if (localityWait != null) {
+				c.setLocalityWait(localityWait);
+			}
+			c.setMaxSharers(maxSharers);
+			if (drainWait != null) {
+				c.setDrainWait(drainWait);
+			}
 			return c;
 		}
 	}
@@ -3,51 +3,83 @@ package org.mbellani.pool;
 import java.util.List;
 
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
-import org.apache.zookeeper.Watcher.Event.EventType;
-import org.mbellani.zk.ZKClient;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.Listener;
 import org.mbellani.zk.ZKClient.SynchronizedOperationCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-public class CrashDetector<T> implements ObjectPoolTask<T>, Watcher {
+public class CrashDetector<T> implements ObjectPoolTask<T>, Listener {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(CrashDetector.class);
 	private volatile boolean running;
 	private volatile int lastKnownParticipants;
-	private ZKClient zkClient;
+	private PoolStore store;
 	private PoolPaths paths;
+	private Config config;
+	private ZKObjectPool<T> pool;
+	private TaskScheduler delayed;
 
 	public CrashDetector(ZKObjectPool<T> pool) {
-		this.zkClient = pool.getZk();
+		this.pool = pool;
+		this.store = pool.getStore();
 		this.paths = pool.getPaths();
+		this.config = pool.getConfig();
 	}
 
 	@Override
 	public void start() {
+		delayed = pool.newScheduler(new ThreadFactoryBuilder().setNameFormat("crash-restore-%d").setDaemon(true)
+		        .build());
 		running = true;
-		lastKnownParticipants = zkClient.getChildren(paths.participants(), this).size();
+		lastKnownParticipants = store.children(Area.PARTICIPANTS, this).size();
 	}
 
 	@Override
 	public void shutdown() {
 		running = false;
+		if (delayed != null) {
+			delayed.shutdown();
+		}
+	}
+
+	@Override
+	public void configChanged() {
 	}
 
 	@Override
-	public void process(WatchedEvent e) {
-		if (!running || nonParticipantCrashEvent(e) || zkClient.isShutdown()) {
+	public void changed(Area area) {
+		if (!running || store.isShutdown()) {
 			return;
 		}
-		int activeParticipants = zkClient.getChildren(paths.participants(), this).size();
+		int activeParticipants = store.children(Area.PARTICIPANTS, this).size();
 		if (activeParticipants < lastKnownParticipants && activeParticipants != 0) {
 			LOGGER.info("Participants have dropped to {} from {} initiating cleanup.. ", activeParticipants,
 			        lastKnownParticipants);
-			zkClient.doSynchronized(paths.crashCleanupLock(), new SynchronizedOperationCallback<Object>() {
+			Long delay = config.getCrashRestoreDelay();
+			if (delay == null || delay <= 0) {
+				synchronizedCleanup();
+			} else {
+				// a participant whose session expired may still come back for its objects.
+				delayed.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if (running && !store.isShutdown()) {
+							synchronizedCleanup();
+						}
+					}
+				}, delay, config.getIntrvlUnit());
+			}
+		}
+		lastKnownParticipants = activeParticipants;
+	}
+
+	private void synchronizedCleanup() {
+		try {
+			store.doSynchronized(paths.crashCleanupLock(), new SynchronizedOperationCallback<Object>() {
 				@Override
 				public Object perform() throws InterruptedException, KeeperException {
 					LOGGER.info("Successfully aquired lock to perform cleanup...");
@@ -56,16 +88,9 @@ public class CrashDetector<T> implements ObjectPoolTask<T>, Watcher {
 					return null;
 				}
 			});
+		} catch (Exception e) {
+			LOGGER.error("Error restoring the objects of dropped participants ", e);
 		}
-		lastKnownParticipants = activeParticipants;
-	}
-
-	private boolean nonParticipantCrashEvent(WatchedEvent e) {
-		if (e == null || e.getPath() == null) {
-			return true;
-		}
-		return ((e.getType() == EventType.NodeDeleted || e.getType() == EventType.None) && e.getPath().equals(
-		        paths.participants()));
 	}
 
 	private void cleanup() {
@@ -75,19 +100,30 @@ public class CrashDetector<T> implements ObjectPoolTask<T>, Watcher {
 		} else {
 			LOGGER.info("No missing nodes found");
 		}
+		restoreAbandonedShares();
+	}
+
+	private void restoreAbandonedShares() {
+		for (String node : store.children(Area.SHARED)) {
+			if (store.restoreShared(node)) {
+				LOGGER.info("Shared node {} lost all its holders, restored it", node);
+			}
+		}
 	}
 
 	private List<String> findMissingNodes() {
 		List<String> missingNodes = null;
-		List<String> master = zkClient.getChildren(paths.master());
-		List<String> unused = zkClient.getChildren(paths.unused());
-		List<String> used = zkClient.getChildren(paths.used());
-		LOGGER.info("find missing: master {}, used {}, unused {}",
-		        new Object[] { master.size(), used.size(), unused.size() });
-		if ((used.size() + unused.size()) < master.size()) {
+		List<String> master = store.children(Area.MASTER);
+		List<String> unused = store.children(Area.UNUSED);
+		List<String> used = store.children(Area.USED);
+		List<String> shared = store.children(Area.SHARED);
+		LOGGER.info("find missing: master {}, used {}, unused {}, shared {}",
+		        new Object[] { master.size(), used.size(), unused.size(), shared.size() });
+		if ((used.size() + unused.size() + shared.size()) < master.size()) {
 			missingNodes = Lists.newArrayList(master);
 			missingNodes.removeAll(used);
 			missingNodes.removeAll(unused);
+			missingNodes.removeAll(shared);
 		}
 		return missingNodes;
 	}
@@ -99,19 +135,8 @@ public class CrashDetector<T> implements ObjectPoolTask<T>, Watcher {
 	}
 
 	private void restoreNode(String missingNode) {
-		try {
-			// extra guard in case we caught a node in transition
-			if (!zkClient.exists(paths.used() + "/" + missingNode)) {
-				zkClient.create(paths.unused() + "/" + missingNode);
-			} else {
-				LOGGER.warn("Node {} was reported missing but exists under the used node", missingNode);
-			}
-		} catch (KeeperException.NodeExistsException e) {
-			// do nothing, we might have caught a node in transition not due to
-			// crash.
-			LOGGER.info("Node {} already exists under unused nodes, was caught in transition", missingNode);
-		} catch (Exception e) {
-			Throwables.propagate(e);
+		if (!store.restore(missingNode)) {
+			LOGGER.info("Node {} was reported missing but was caught in transition", missingNode);
 		}
 	}
 
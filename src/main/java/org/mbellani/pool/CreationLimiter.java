@@ -0,0 +1,169 @@
+package org.mbellani.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.Feature;
+import org.mbellani.pool.PoolStore.Listener;
+import org.mbellani.pool.PoolStore.PermitListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a crash or a mass eviction from turning into a storm of new objects on the backend. Creating an object takes
+ * a token from a local bucket refilled at {@link Config#getCreateRate()} and one of the
+ * {@link Config#getMaxConcurrentCreates()} permits all participants share. A borrow that gets neither waits until a
+ * permit comes back, an object is returned or the next token is due, whichever comes first.
+ */
+class CreationLimiter implements PermitListener, Listener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CreationLimiter.class);
+
+    private final PoolStore store;
+    private final Config cfg;
+    private final Object signal = new Object();
+    private long generation;
+    private double tokens;
+    private long refilled = System.nanoTime();
+    private final boolean clusterWide;
+
+    CreationLimiter(PoolStore store, Config cfg) {
+        this.store = store;
+        this.cfg = cfg;
+        this.tokens = Math.max(1, cfg.getCreateRate());
+        this.clusterWide = store.supports(Feature.PERMITS);
+        if (!clusterWide && cfg.getMaxConcurrentCreates() > 0) {
+            LOGGER.warn("The store does not support creation permits, limiting the creation rate locally only");
+        }
+    }
+
+    boolean isEnabled() {
+        return cfg.creationLimited();
+    }
+
+    /**
+     * Changes with every signal, read it before trying so that a signal coming in between is not missed by
+     * {@link #await(long, long)}.
+     */
+    long generation() {
+        synchronized (signal) {
+            return generation;
+        }
+    }
+
+    /**
+     * Takes a token and a permit, null if either is not available right now.
+     */
+    Permit tryAcquire() {
+        if (!takeToken()) {
+            return null;
+        }
+        int limit = cfg.getMaxConcurrentCreates();
+        if (limit <= 0 || !clusterWide) {
+            return new Permit(null);
+        }
+        String permit = store.takeCreatePermit(limit, this);
+        if (permit == null) {
+            returnToken();
+            store.children(Area.UNUSED, this);
+            return null;
+        }
+        return new Permit(permit);
+    }
+
+    /**
+     * Waits for a signal since {@code seen} or for the next token, returns false if the deadline passed first.
+     */
+    boolean await(long seen, long deadline) throws InterruptedException {
+        synchronized (signal) {
+            long now = System.nanoTime();
+            if (generation != seen) {
+                return true;
+            }
+            if (now - deadline >= 0) {
+                return false;
+            }
+            long wait = Math.min(deadline - now, nanosToNextToken());
+            TimeUnit.NANOSECONDS.timedWait(signal, Math.max(wait, 1));
+            return generation != seen || System.nanoTime() - deadline < 0;
+        }
+    }
+
+    /**
+     * Wakes up the waiting borrows, an object was returned or a permit might be free.
+     */
+    void signal() {
+        synchronized (signal) {
+            generation++;
+            signal.notifyAll();
+        }
+    }
+
+    @Override
+    public void released() {
+        signal();
+    }
+
+    @Override
+    public void changed(Area area) {
+        signal();
+    }
+
+    private synchronized boolean takeToken() {
+        double rate = cfg.getCreateRate();
+        if (rate <= 0) {
+            return true;
+        }
+        refill(rate);
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    private synchronized void returnToken() {
+        if (cfg.getCreateRate() > 0) {
+            tokens++;
+        }
+    }
+
+    private synchronized long nanosToNextToken() {
+        double rate = cfg.getCreateRate();
+        if (rate <= 0) {
+            return Long.MAX_VALUE;
+        }
+        refill(rate);
+        return tokens >= 1 ? 0 : (long) ((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    private void refill(double rate) {
+        long now = System.nanoTime();
+        // a second's worth of tokens at most, enough for a short burst without letting a storm through.
+        tokens = Math.min(Math.max(1, rate), tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+        refilled = now;
+    }
+
+    /**
+     * The right to create one object, handed back once it is created or failed.
+     */
+    class Permit {
+        private final String permit;
+
+        Permit(String permit) {
+            this.permit = permit;
+        }
+
+        void release() {
+            if (permit != null) {
+                try {
+                    store.returnCreatePermit(permit);
+                }
+                catch (Exception e) {
+                    LOGGER.warn("Could not return creation permit {}, it goes with the session", permit, e);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,294 @@
+package org.mbellani.pool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static org.mbellani.utils.Net.getAddress;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.KeeperException;
+import org.mbellani.metrics.Counter;
+import org.mbellani.metrics.Gauge;
+import org.mbellani.metrics.Histogram;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.PermitListener;
+import org.mbellani.zk.ZKClient.SynchronizedOperationCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Config#getSize()} permits shared by all participants, for limiting concurrency rather than pooling objects.
+ * A permit is an ephemeral sequential node and nothing else, no payload, no master node and no factory. Participants
+ * register and clean up like the participants of a pool, permits go with an expired session and are taken again
+ * once the session is renewed where there is room for them.
+ * <p>
+ * Once an acquisition found the permits taken, later ones of as many permits or more fail right away without a round
+ * trip until a watch reports a permit coming back.
+ */
+public class DistributedSemaphore implements PermitListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DistributedSemaphore.class);
+
+    /**
+     * Permits acquired together and released together.
+     */
+    public static class Permits {
+        private final int count;
+        private volatile List<String> nodes;
+        private volatile boolean held = true;
+
+        Permits(List<String> nodes) {
+            this.count = nodes.size();
+            this.nodes = nodes;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * False once released or lost with a session and not taken again.
+         */
+        public boolean isHeld() {
+            return held;
+        }
+    }
+
+    private final Config config;
+    private final PoolPaths paths;
+    private final PoolMetrics metrics;
+    private final Set<Permits> held = Collections.newSetFromMap(new ConcurrentHashMap<Permits, Boolean>());
+    private final Object signal = new Object();
+    private final Histogram permitWait;
+    private final Counter acquired;
+    private final Counter timeouts;
+    private final Counter recovered;
+    private final Counter lost;
+    private PoolStore store;
+    private String id;
+    private long generation;
+    // the smallest batch found taken, reset by the next release anyone makes.
+    private volatile int exhaustedAt = Integer.MAX_VALUE;
+    private volatile boolean shutdown;
+
+    public DistributedSemaphore(Config config) {
+        checkArgument(config != null, "Please provide a valid zookeeper configuration.");
+        checkArgument(config.getStoreType() != StoreType.MAPPED_FILE,
+                "Semaphores run on zookeeper or in memory, mapped files keep no permits.");
+        config.validate();
+        this.config = config;
+        this.paths = new PoolPaths(config.getName());
+        this.metrics = new PoolMetrics(config.getName(), config.isMetricsEnabled());
+        this.permitWait = metrics.histogram(PoolMetrics.PERMIT_WAIT);
+        this.acquired = metrics.counter(PoolMetrics.PERMITS_ACQUIRED);
+        this.timeouts = metrics.counter(PoolMetrics.PERMIT_TIMEOUTS);
+        this.recovered = metrics.counter(PoolMetrics.PERMITS_RECOVERED);
+        this.lost = metrics.counter(PoolMetrics.PERMITS_LOST);
+        metrics.gauge(PoolMetrics.PERMITS_HELD, new Gauge() {
+            @Override
+            public long getValue() {
+                long count = 0;
+                for (Permits permits : held) {
+                    count += permits.count;
+                }
+                return count;
+            }
+        });
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public PoolPaths getPaths() {
+        return paths;
+    }
+
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public PoolStore getStore() {
+        return store;
+    }
+
+    public void initialize() {
+        try {
+            store = config.getStoreType().create(config, paths, metrics);
+            store.create();
+            id = store.register(getAddress().getBytes());
+            store.addSessionListener(new PoolStore.SessionListener() {
+                @Override
+                public void sessionRenewed() {
+                    recoverSession();
+                }
+            });
+        }
+        catch (Exception e) {
+            LOGGER.error("Error while initializing the semaphore ", e);
+        }
+    }
+
+    public Permits tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * All {@code count} permits or none, without waiting.
+     */
+    public Permits tryAcquire(int count) {
+        checkCount(count);
+        if (count >= exhaustedAt || shutdown) {
+            return null;
+        }
+        return take(count);
+    }
+
+    /**
+     * All {@code count} permits, waiting up to the timeout for others to release theirs. Null if they did not.
+     */
+    public Permits acquire(int count, long timeout, TimeUnit unit) throws InterruptedException {
+        checkCount(count);
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        try {
+            for (;;) {
+                checkState(!shutdown, "Semaphore %s is shut down.", config.getName());
+                long seen = generation();
+                Permits permits = count >= exhaustedAt ? null : take(count);
+                if (permits != null) {
+                    return permits;
+                }
+                if (!await(seen, deadline)) {
+                    timeouts.inc();
+                    return null;
+                }
+            }
+        }
+        finally {
+            permitWait.recordSince(start);
+        }
+    }
+
+    public void release(Permits permits) {
+        if (held.remove(permits)) {
+            permits.held = false;
+            store.returnPermits(permits.nodes);
+        }
+    }
+
+    /**
+     * Permits no participant holds right now.
+     */
+    public int availablePermits() {
+        return Math.max(0, config.getSize() - store.permitsTaken());
+    }
+
+    @Override
+    public void released() {
+        synchronized (signal) {
+            exhaustedAt = Integer.MAX_VALUE;
+            generation++;
+            signal.notifyAll();
+        }
+    }
+
+    public void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        released();
+        for (Permits permits : held) {
+            release(permits);
+        }
+        try {
+            store.doSynchronized(paths.shutdownLock(), new SynchronizedOperationCallback<Integer>() {
+                @Override
+                public Integer perform() throws InterruptedException, KeeperException {
+                    store.deregister(id);
+                    int participantsLeft = store.count(Area.PARTICIPANTS);
+                    if (participantsLeft == 0) {
+                        LOGGER.info("No participants left in the semaphore, cleaning up.");
+                        store.destroy();
+                    }
+                    return participantsLeft;
+                }
+            });
+        }
+        finally {
+            store.shutdown();
+        }
+    }
+
+    private Permits take(int count) {
+        long seen = generation();
+        List<String> nodes = store.takePermits(count, config.getSize(), this);
+        if (nodes == null) {
+            synchronized (signal) {
+                // the watch set by the failed attempt resets it, unless it fired already.
+                if (generation == seen) {
+                    exhaustedAt = Math.min(exhaustedAt, count);
+                }
+            }
+            return null;
+        }
+        Permits permits = new Permits(nodes);
+        held.add(permits);
+        acquired.inc(count);
+        return permits;
+    }
+
+    /**
+     * The permits of an expired session went with it, they are taken again under the new one while there is room.
+     * Permits others took in the meantime stay theirs, the holders here have lost them.
+     */
+    private void recoverSession() {
+        if (shutdown) {
+            return;
+        }
+        id = store.register(getAddress().getBytes());
+        for (Permits permits : held) {
+            List<String> nodes = store.takePermits(permits.count, config.getSize(), this);
+            if (nodes != null) {
+                permits.nodes = nodes;
+                recovered.inc(permits.count);
+            }
+            else if (held.remove(permits)) {
+                permits.held = false;
+                lost.inc(permits.count);
+                LOGGER.warn("Lost {} permits with the expired session", permits.count);
+            }
+        }
+    }
+
+    private void checkCount(int count) {
+        checkArgument(count > 0 && count <= config.getSize(), "Can't take %s of %s permits.", count,
+                config.getSize());
+    }
+
+    private long generation() {
+        synchronized (signal) {
+            return generation;
+        }
+    }
+
+    private boolean await(long seen, long deadline) throws InterruptedException {
+        synchronized (signal) {
+            while (generation == seen) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(signal, left);
+            }
+            return true;
+        }
+    }
+
+}
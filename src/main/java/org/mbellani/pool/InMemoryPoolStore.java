@@ -0,0 +1,861 @@
+package org.mbellani.pool;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.mbellani.zk.ZKClient.SynchronizedOperationCallback;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link PoolStore} for single process deployments. Pools with the same name in a JVM share the state the same way
+ * participants share the znodes, each store instance acts as one participant session. Every slot keeps its membership
+ * of used, unused and zombies as bits of a single atomic state, so moving an object between areas is one CAS.
+ */
+public class InMemoryPoolStore implements PoolStore {
+
+    private static final ConcurrentMap<String, Shared> POOLS = new ConcurrentHashMap<String, Shared>();
+    private static final AtomicLong SESSIONS = new AtomicLong();
+
+    private static final int USED = 1;
+    private static final int UNUSED = 2;
+    private static final int ZOMBIE = 4;
+    private static final int SHARED = 8;
+
+    private final String name;
+    private final String session = String.valueOf(SESSIONS.incrementAndGet());
+    private final AtomicLong holderSeq = new AtomicLong();
+    private volatile Shared shared;
+    private volatile boolean shutdown;
+
+    public InMemoryPoolStore(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public boolean supports(Feature feature) {
+        return true;
+    }
+
+    @Override
+    public boolean create() {
+        Shared fresh = new Shared();
+        Shared existing = POOLS.putIfAbsent(name, fresh);
+        shared = existing == null ? fresh : existing;
+        return existing == null;
+    }
+
+    @Override
+    public void destroy() {
+        Shared s = shared();
+        if (POOLS.remove(name, s)) {
+            s.events.shutdown();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        Shared s = shared();
+        // like ephemeral znodes, claims and registrations go away with the session.
+        for (Slot slot : s.slots.values()) {
+            if (session.equals(slot.owner) && s.transition(slot, USED, 0, USED)) {
+                slot.owner = null;
+                slot.borrowInfo = null;
+            }
+        }
+        for (Slot slot : s.slots.values()) {
+            synchronized (slot) {
+                boolean held = slot.holders.values().removeAll(Collections.singleton(session));
+                boolean drained = session.equals(slot.drainer);
+                if (drained) {
+                    slot.drainer = null;
+                }
+                if (held || drained) {
+                    settle(s, slot);
+                }
+            }
+        }
+        synchronized (s.createPermits) {
+            for (String permit : s.createPermits.keySet()) {
+                if (s.createPermits.remove(permit, session)) {
+                    s.firePermitReleased();
+                }
+            }
+        }
+        synchronized (s.permits) {
+            for (String permit : s.permits.keySet()) {
+                if (s.permits.remove(permit, session)) {
+                    s.firePermitReleased();
+                }
+            }
+        }
+        for (String id : s.participants.keySet()) {
+            if (s.owners.remove(id, session)) {
+                s.participants.remove(id);
+                s.fire(Area.PARTICIPANTS);
+            }
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public long unreachableNanos() {
+        return 0;
+    }
+
+    @Override
+    public String register(byte[] data) {
+        Shared s = shared();
+        String id = seq(s.participantSeq);
+        s.owners.put(id, session);
+        s.participants.put(id, data);
+        s.fire(Area.PARTICIPANTS);
+        return id;
+    }
+
+    @Override
+    public boolean isRegistered(String id) {
+        return id != null && shared().participants.containsKey(id);
+    }
+
+    @Override
+    public void deregister(String id) {
+        Shared s = shared();
+        s.owners.remove(id);
+        if (s.participants.remove(id) != null) {
+            s.fire(Area.PARTICIPANTS);
+        }
+    }
+
+    @Override
+    public List<String> children(Area area) {
+        Shared s = shared();
+        if (area == Area.PARTICIPANTS) {
+            return Lists.newArrayList(s.participants.keySet());
+        }
+        List<String> children = Lists.newArrayList();
+        for (Map.Entry<String, Slot> e : s.slots.entrySet()) {
+            if (in(area, e.getValue().state.get())) {
+                children.add(e.getKey());
+            }
+        }
+        return children;
+    }
+
+    @Override
+    public List<String> children(Area area, Listener listener) {
+        listen(area, listener);
+        return children(area);
+    }
+
+    @Override
+    public int[] count(Listener listener, Area... areas) {
+        int[] counts = new int[areas.length];
+        for (int i = 0; i < areas.length; i++) {
+            listen(areas[i], listener);
+            counts[i] = count(areas[i]);
+        }
+        return counts;
+    }
+
+    private void listen(Area area, Listener listener) {
+        ConcurrentLinkedQueue<Listener> pending = shared().listeners.get(area);
+        if (!pending.contains(listener)) {
+            pending.add(listener);
+        }
+    }
+
+    @Override
+    public int count(Area area) {
+        Shared s = shared();
+        if (area == Area.PARTICIPANTS) {
+            return s.participants.size();
+        }
+        return s.counts.get(area).get();
+    }
+
+    @Override
+    public boolean exists(Area area, String node) {
+        Shared s = shared();
+        if (area == Area.PARTICIPANTS) {
+            return s.participants.containsKey(node);
+        }
+        Slot slot = s.slots.get(node);
+        return slot != null && in(area, slot.state.get());
+    }
+
+    @Override
+    public byte[] getData(Area area, String node) {
+        Shared s = shared();
+        if (area == Area.PARTICIPANTS) {
+            return s.participants.get(node);
+        }
+        Slot slot = s.slots.get(node);
+        if (slot == null) {
+            return null;
+        }
+        return area == Area.USED ? slot.borrowInfo : slot.data;
+    }
+
+    @Override
+    public Map<String, Long> modifiedTimes(Area area) {
+        Map<String, Long> times = Maps.newHashMap();
+        for (Map.Entry<String, Slot> e : shared().slots.entrySet()) {
+            if (in(area, e.getValue().state.get())) {
+                times.put(e.getKey(), e.getValue().mtime);
+            }
+        }
+        return times;
+    }
+
+    @Override
+    public String add(byte[] data, Area to, int capacity) {
+        return add(data, Collections.<String> emptySet(), to, capacity);
+    }
+
+    @Override
+    public String add(byte[] data, Set<String> tags, Area to, int capacity) {
+        Shared s = shared();
+        // the master count doubles as the permit counter, it is taken before the slot shows up.
+        if (!take(s.counts.get(Area.MASTER), 1, capacity)) {
+            return null;
+        }
+        s.weight.incrementAndGet();
+        return put(s, data, tags, to);
+    }
+
+    /**
+     * Same as adding by count, with the pool's total weight as the permit counter.
+     */
+    @Override
+    public String add(byte[] data, Set<String> tags, int weight, Area to, int capacity) {
+        Shared s = shared();
+        if (!take(s.weight, weight, capacity)) {
+            return null;
+        }
+        s.counts.get(Area.MASTER).incrementAndGet();
+        return put(s, data, Sets.union(tags, Weights.tags(weight)), to);
+    }
+
+    @Override
+    public int weight(String node) {
+        Slot slot = shared().slots.get(node);
+        return slot == null ? 1 : slot.weight;
+    }
+
+    @Override
+    public int weight(Area area) {
+        int total = 0;
+        for (Slot slot : shared().slots.values()) {
+            if (in(area, slot.state.get())) {
+                total += slot.weight;
+            }
+        }
+        return total;
+    }
+
+    private static boolean take(AtomicInteger counter, int units, int capacity) {
+        for (;;) {
+            int current = counter.get();
+            if (current + units > capacity) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + units)) {
+                return true;
+            }
+        }
+    }
+
+    private String put(Shared s, byte[] data, Set<String> tags, Area to) {
+        String node = seq(s.nodeSeq);
+        Slot slot = new Slot(data, ImmutableSet.copyOf(tags), to == Area.USED ? USED : UNUSED);
+        s.slots.put(node, slot);
+        s.counts.get(to).incrementAndGet();
+        s.fire(Area.MASTER);
+        s.fire(to);
+        return node;
+    }
+
+    /**
+     * Slots keep their tags, the index is the unused slots carrying the tag.
+     */
+    @Override
+    public List<String> tagged(String tag, Listener listener) {
+        listen(Area.UNUSED, listener);
+        List<String> nodes = Lists.newArrayList();
+        for (Map.Entry<String, Slot> e : shared().slots.entrySet()) {
+            Slot slot = e.getValue();
+            if (slot.tags.contains(tag) && in(Area.UNUSED, slot.state.get())) {
+                nodes.add(e.getKey());
+            }
+        }
+        return nodes;
+    }
+
+    @Override
+    public boolean claim(String node, byte[] borrowInfo) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot != null && s.transition(slot, UNUSED, USED, USED | UNUSED)) {
+            slot.owner = session;
+            slot.borrowInfo = borrowInfo;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Holders and drains of a slot change under its lock, exclusive claims only ever take unused slots and need none.
+     */
+    @Override
+    public String share(String node, byte[] holderInfo, int maxHolders) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot == null) {
+            return null;
+        }
+        synchronized (slot) {
+            if ((slot.state.get() & SHARED) != 0) {
+                if (slot.drainer != null || slot.holders.size() >= maxHolders) {
+                    return null;
+                }
+            } else if (!s.transition(slot, UNUSED, SHARED, USED | UNUSED | SHARED)) {
+                return null;
+            }
+            String holder = session + "-" + holderSeq.incrementAndGet();
+            slot.holders.put(holder, session);
+            s.fire(Area.SHARED);
+            return holder;
+        }
+    }
+
+    @Override
+    public void unshare(String node, String holder) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot == null) {
+            return;
+        }
+        synchronized (slot) {
+            if (slot.holders.remove(holder) != null) {
+                settle(s, slot);
+            }
+        }
+    }
+
+    @Override
+    public boolean restoreShared(String node) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot == null) {
+            return false;
+        }
+        synchronized (slot) {
+            return slot.holders.isEmpty() && slot.drainer == null
+                    && s.transition(slot, SHARED, UNUSED, USED | UNUSED | SHARED);
+        }
+    }
+
+    @Override
+    public Map<String, Integer> sharedLoad(Listener listener) {
+        listen(Area.SHARED, listener);
+        Map<String, Integer> load = Maps.newHashMap();
+        for (Map.Entry<String, Slot> e : shared().slots.entrySet()) {
+            Slot slot = e.getValue();
+            synchronized (slot) {
+                if (in(Area.SHARED, slot.state.get()) && slot.drainer == null) {
+                    load.put(e.getKey(), slot.holders.size());
+                }
+            }
+        }
+        return load;
+    }
+
+    @Override
+    public boolean drain(String node, byte[] borrowInfo) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot == null) {
+            return false;
+        }
+        synchronized (slot) {
+            if (!in(Area.SHARED, slot.state.get()) || (slot.drainer != null && !session.equals(slot.drainer))) {
+                return false;
+            }
+            if (slot.drainer == null) {
+                slot.drainer = session;
+                s.fire(Area.SHARED);
+            }
+            if (!slot.holders.isEmpty() || !s.transition(slot, SHARED, USED, USED | UNUSED | SHARED)) {
+                return false;
+            }
+            slot.drainer = null;
+            slot.owner = session;
+            slot.borrowInfo = borrowInfo;
+            return true;
+        }
+    }
+
+    @Override
+    public void undrain(String node) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot == null) {
+            return;
+        }
+        synchronized (slot) {
+            if (session.equals(slot.drainer)) {
+                slot.drainer = null;
+                settle(s, slot);
+            }
+        }
+    }
+
+    /**
+     * Puts a shared slot nobody holds or drains back to unused, otherwise lets the listeners know its load changed.
+     */
+    private static void settle(Shared s, Slot slot) {
+        if (!slot.holders.isEmpty() || slot.drainer != null
+                || !s.transition(slot, SHARED, UNUSED, USED | UNUSED | SHARED)) {
+            s.fire(Area.SHARED);
+        }
+    }
+
+    /**
+     * Sessions end with the participant only, a claim held is never lost.
+     */
+    @Override
+    public boolean reclaim(String node, byte[] borrowInfo) {
+        return exists(Area.USED, node);
+    }
+
+    @Override
+    public void addSessionListener(SessionListener listener) {
+        // sessions don't expire.
+    }
+
+    @Override
+    public void release(String node) {
+        release(node, System.currentTimeMillis());
+    }
+
+    @Override
+    public void release(String node, long idleSince) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot == null || !s.transition(slot, USED, UNUSED, USED | UNUSED, idleSince)) {
+            throw new IllegalStateException("Node " + node + " is not in use");
+        }
+        slot.owner = null;
+        slot.borrowInfo = null;
+    }
+
+    @Override
+    public void remove(String node) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot == null || !s.transition(slot, USED, 0, USED)) {
+            throw new IllegalStateException("Node " + node + " is not in use");
+        }
+        s.discard(node, slot);
+    }
+
+    @Override
+    public void markZombie(String node) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot == null || !s.transition(slot, 0, ZOMBIE, ZOMBIE)) {
+            throw new IllegalStateException("Node " + node + " cannot be marked a zombie");
+        }
+    }
+
+    @Override
+    public boolean unzombie(String node) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot != null && s.transition(slot, USED | ZOMBIE, UNUSED, USED | UNUSED | ZOMBIE)) {
+            slot.owner = null;
+            slot.borrowInfo = null;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void drop(String node) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        if (slot == null || !s.transition(slot, USED | ZOMBIE, 0, USED | ZOMBIE)) {
+            throw new IllegalStateException("Node " + node + " is not a zombie in use");
+        }
+        s.discard(node, slot);
+    }
+
+    @Override
+    public boolean restore(String node) {
+        Shared s = shared();
+        Slot slot = s.slots.get(node);
+        return slot != null && s.transition(slot, 0, UNUSED, USED | UNUSED);
+    }
+
+    @Override
+    public Versioned getProperty(String name) {
+        return shared().properties.get(name);
+    }
+
+    @Override
+    public Versioned getProperty(String name, PropertyListener listener) {
+        Shared s = shared();
+        ConcurrentLinkedQueue<PropertyListener> pending = s.propertyListeners(name);
+        if (!pending.contains(listener)) {
+            pending.add(listener);
+        }
+        return s.properties.get(name);
+    }
+
+    @Override
+    public boolean setProperty(String name, byte[] data, int version) {
+        Shared s = shared();
+        boolean set;
+        if (version == Versioned.NONE) {
+            set = s.properties.putIfAbsent(name, new Versioned(data, 0)) == null;
+        } else {
+            Versioned current = s.properties.get(name);
+            set = current != null && current.getVersion() == version
+                    && s.properties.replace(name, current, new Versioned(data, version + 1));
+        }
+        if (set) {
+            s.firePropertyChanged(name);
+        }
+        return set;
+    }
+
+    @Override
+    public void removeProperty(String name) {
+        Shared s = shared();
+        if (s.properties.remove(name) != null) {
+            s.firePropertyChanged(name);
+        }
+    }
+
+    @Override
+    public List<String> properties() {
+        return Lists.newArrayList(shared().properties.keySet());
+    }
+
+    @Override
+    public String takeCreatePermit(int limit, PermitListener listener) {
+        Shared s = shared();
+        synchronized (s.createPermits) {
+            if (s.createPermits.size() < limit) {
+                String permit = seq(s.permitSeq);
+                s.createPermits.put(permit, session);
+                return permit;
+            }
+            if (!s.permitListeners.contains(listener)) {
+                s.permitListeners.add(listener);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void returnCreatePermit(String permit) {
+        Shared s = shared();
+        boolean returned;
+        // same as returnPermits, under the lock takeCreatePermit adds listeners with.
+        synchronized (s.createPermits) {
+            returned = s.createPermits.remove(permit) != null;
+        }
+        if (returned) {
+            s.firePermitReleased();
+        }
+    }
+
+    @Override
+    public List<String> takePermits(int count, int limit, PermitListener listener) {
+        Shared s = shared();
+        synchronized (s.permits) {
+            if (s.permits.size() + count <= limit) {
+                List<String> taken = Lists.newArrayListWithCapacity(count);
+                for (int i = 0; i < count; i++) {
+                    String permit = seq(s.permitSeq);
+                    s.permits.put(permit, session);
+                    taken.add(permit);
+                }
+                return taken;
+            }
+            if (!s.permitListeners.contains(listener)) {
+                s.permitListeners.add(listener);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void returnPermits(List<String> permits) {
+        Shared s = shared();
+        boolean returned = false;
+        // under the lock takePermits adds listeners with, a failed take either sees the room or hears of it.
+        synchronized (s.permits) {
+            for (String permit : permits) {
+                returned |= s.permits.remove(permit) != null;
+            }
+        }
+        if (returned) {
+            s.firePermitReleased();
+        }
+    }
+
+    @Override
+    public int permitsTaken() {
+        return shared().permits.size();
+    }
+
+    @Override
+    public <R> R doSynchronized(String lock, SynchronizedOperationCallback<R> callback) {
+        ReentrantLock l = shared().lock(lock);
+        R result = null;
+        l.lock();
+        try {
+            result = callback.perform();
+        } catch (Exception e) {
+            Throwables.propagate(e);
+        } finally {
+            l.unlock();
+        }
+        return result;
+    }
+
+    private Shared shared() {
+        if (shared == null) {
+            create();
+        }
+        return shared;
+    }
+
+    private static String seq(AtomicLong counter) {
+        return String.format("%010d", counter.getAndIncrement());
+    }
+
+    private static boolean in(Area area, int state) {
+        switch (area) {
+        case MASTER:
+            return true;
+        case USED:
+            return (state & USED) != 0;
+        case UNUSED:
+            return (state & UNUSED) != 0;
+        case ZOMBIES:
+            return (state & ZOMBIE) != 0;
+        case SHARED:
+            return (state & SHARED) != 0;
+        default:
+            return false;
+        }
+    }
+
+    private static class Slot {
+        final byte[] data;
+        final Set<String> tags;
+        final AtomicInteger state;
+        final int weight;
+        volatile long mtime = System.currentTimeMillis();
+        volatile String owner;
+        volatile byte[] borrowInfo;
+        // holder to session, guarded by the slot.
+        final Map<String, String> holders = Maps.newHashMap();
+        String drainer;
+
+        Slot(byte[] data, Set<String> tags, int state) {
+            this.data = data;
+            this.tags = tags;
+            this.weight = Weights.of(tags);
+            this.state = new AtomicInteger(state);
+        }
+    }
+
+    private static class Shared {
+        final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+        final ConcurrentMap<String, byte[]> participants = new ConcurrentHashMap<String, byte[]>();
+        final ConcurrentMap<String, String> owners = new ConcurrentHashMap<String, String>();
+        final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<String, ReentrantLock>();
+        final ConcurrentMap<String, Versioned> properties = new ConcurrentHashMap<String, Versioned>();
+        final ConcurrentMap<String, ConcurrentLinkedQueue<PropertyListener>> propertyListeners = Maps
+                .newConcurrentMap();
+        final AtomicLong nodeSeq = new AtomicLong();
+        final AtomicLong participantSeq = new AtomicLong();
+        final ConcurrentMap<String, String> createPermits = new ConcurrentHashMap<String, String>();
+        // semaphore permits, create permits and these share the sequence and the listeners.
+        final ConcurrentMap<String, String> permits = new ConcurrentHashMap<String, String>();
+        final AtomicLong permitSeq = new AtomicLong();
+        final ConcurrentLinkedQueue<PermitListener> permitListeners = new ConcurrentLinkedQueue<PermitListener>();
+        final Map<Area, AtomicInteger> counts = Maps.newEnumMap(Area.class);
+        // what the slots weigh together, weighted pools take their places from it.
+        final AtomicInteger weight = new AtomicInteger();
+        final Map<Area, ConcurrentLinkedQueue<Listener>> listeners = Maps.newEnumMap(Area.class);
+        final ExecutorService events = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("in-memory-pool-events-%d").setDaemon(true).build());
+
+        Shared() {
+            for (Area area : Area.values()) {
+                counts.put(area, new AtomicInteger());
+                listeners.put(area, new ConcurrentLinkedQueue<Listener>());
+            }
+        }
+
+        /**
+         * Requires all of the {@code expected} bits and none of the other bits in {@code mask}, then replaces the
+         * masked bits with {@code update}.
+         */
+        boolean transition(Slot slot, int expected, int update, int mask) {
+            return transition(slot, expected, update, mask, System.currentTimeMillis());
+        }
+
+        boolean transition(Slot slot, int expected, int update, int mask, long mtime) {
+            for (;;) {
+                int current = slot.state.get();
+                if ((current & mask) != expected) {
+                    return false;
+                }
+                int next = (current & ~mask) | update;
+                if (slot.state.compareAndSet(current, next)) {
+                    slot.mtime = mtime;
+                    account(current, next, USED, Area.USED);
+                    account(current, next, UNUSED, Area.UNUSED);
+                    account(current, next, ZOMBIE, Area.ZOMBIES);
+                    account(current, next, SHARED, Area.SHARED);
+                    return true;
+                }
+            }
+        }
+
+        void discard(String node, Slot slot) {
+            if (slots.remove(node, slot)) {
+                int last = slot.state.getAndSet(0);
+                account(last, 0, USED, Area.USED);
+                account(last, 0, UNUSED, Area.UNUSED);
+                account(last, 0, ZOMBIE, Area.ZOMBIES);
+                account(last, 0, SHARED, Area.SHARED);
+                counts.get(Area.MASTER).decrementAndGet();
+                weight.addAndGet(-slot.weight);
+                fire(Area.MASTER);
+            }
+        }
+
+        ReentrantLock lock(String name) {
+            ReentrantLock lock = locks.get(name);
+            if (lock == null) {
+                ReentrantLock fresh = new ReentrantLock();
+                lock = locks.putIfAbsent(name, fresh);
+                lock = lock == null ? fresh : lock;
+            }
+            return lock;
+        }
+
+        /**
+         * Listeners are notified off the caller's thread, the way zookeeper delivers watches on its event thread.
+         */
+        void fire(final Area area) {
+            ConcurrentLinkedQueue<Listener> pending = listeners.get(area);
+            for (int n = pending.size(); n > 0; n--) {
+                final Listener listener = pending.poll();
+                if (listener == null) {
+                    break;
+                }
+                try {
+                    events.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.changed(area);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // pool was destroyed, nobody left to notify.
+                }
+            }
+        }
+
+        ConcurrentLinkedQueue<PropertyListener> propertyListeners(String name) {
+            ConcurrentLinkedQueue<PropertyListener> pending = propertyListeners.get(name);
+            if (pending == null) {
+                ConcurrentLinkedQueue<PropertyListener> fresh = new ConcurrentLinkedQueue<PropertyListener>();
+                pending = propertyListeners.putIfAbsent(name, fresh);
+                pending = pending == null ? fresh : pending;
+            }
+            return pending;
+        }
+
+        void firePermitReleased() {
+            for (int n = permitListeners.size(); n > 0; n--) {
+                final PermitListener listener = permitListeners.poll();
+                if (listener == null) {
+                    break;
+                }
+                try {
+                    events.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.released();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // pool was destroyed, nobody left to notify.
+                }
+            }
+        }
+
+        void firePropertyChanged(final String name) {
+            ConcurrentLinkedQueue<PropertyListener> pending = propertyListeners(name);
+            for (int n = pending.size(); n > 0; n--) {
+                final PropertyListener listener = pending.poll();
+                if (listener == null) {
+                    break;
+                }
+                try {
+                    events.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.changed(name);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // pool was destroyed, nobody left to notify.
+                }
+            }
+        }
+
+        private void account(int current, int next, int bit, Area area) {
+            int delta = (next & bit) - (current & bit);
+            if (delta != 0) {
+                counts.get(area).addAndGet(delta > 0 ? 1 : -1);
+                fire(area);
+            }
+        }
+    }
+
+}
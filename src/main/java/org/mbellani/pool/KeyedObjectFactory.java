@@ -0,0 +1,11 @@
+package org.mbellani.pool;
+
+/**
+ * Factories for the objects of each key of a {@link KeyedObjectPool}, asked once every time the pool of a key is
+ * opened.
+ */
+public interface KeyedObjectFactory<K, T> {
+
+    ObjectFactory<T> forKey(K key);
+
+}
@@ -0,0 +1,327 @@
+package org.mbellani.pool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.zookeeper.KeeperException;
+import org.mbellani.metrics.Counter;
+import org.mbellani.metrics.Gauge;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.zk.ZKClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A pool of its own for each key, under {@code /<name>/keys/<key>}, with the settings of the config the keyed pool was
+ * created with. The size caps every key, {@link Config#getMaxTotal()} what this participant borrows across all keys.
+ * All pools of a participant share one zookeeper session, and with it the watches, and one executor runs their
+ * maintenance tasks. The pool of a key is opened on the first borrow, and the participant leaves it once the key went
+ * {@link Config#getKeyIdleIntrvl()} with nothing borrowed.
+ */
+public class KeyedObjectPool<K, T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyedObjectPool.class);
+
+    private static class Keyed<T> {
+        final ZKObjectPool<T> pool;
+        int borrowed;
+        long lastUsed = System.currentTimeMillis();
+        boolean retired;
+
+        Keyed(ZKObjectPool<T> pool) {
+            this.pool = pool;
+        }
+    }
+
+    private final Config config;
+    private final PoolPaths paths;
+    private final PoolMetrics metrics;
+    private final ConcurrentMap<K, Keyed<T>> pools = new ConcurrentHashMap<K, Keyed<T>>();
+    private final Semaphore total;
+    private final Counter retiredKeys;
+    private final Counter totalRejections;
+    private KeyedObjectFactory<K, T> factory;
+    private ZKClient zk;
+    private ScheduledThreadPoolExecutor maintenance;
+    private TaskScheduler sweeper;
+    private volatile boolean shutdown;
+
+    public KeyedObjectPool(Config config) {
+        checkArgument(config != null, "Please provide a valid zookeeper configuration.");
+        checkArgument(config.getStoreType() != StoreType.MAPPED_FILE,
+                "Keyed pools run on zookeeper or in memory, mapped files hold one pool each.");
+        config.validate();
+        this.config = config;
+        this.paths = new PoolPaths(config.getName());
+        this.metrics = new PoolMetrics(config.getName(), config.isMetricsEnabled());
+        this.total = config.getMaxTotal() > 0 ? new Semaphore(config.getMaxTotal()) : null;
+        this.retiredKeys = metrics.counter(PoolMetrics.KEYS_RETIRED);
+        this.totalRejections = metrics.counter(PoolMetrics.TOTAL_REJECTIONS);
+        metrics.gauge(PoolMetrics.KEYS, new Gauge() {
+            @Override
+            public long getValue() {
+                return pools.size();
+            }
+        });
+    }
+
+    public void setFactory(KeyedObjectFactory<K, T> factory) {
+        this.factory = factory;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public PoolPaths getPaths() {
+        return paths;
+    }
+
+    /**
+     * Metrics of what the pools share, each pool keeps its own.
+     */
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void initialize() {
+        try {
+            if (config.getStoreType() == StoreType.ZOOKEEPER) {
+                zk = new ZKClient(config.getZkConnectString());
+                zk.setMetrics(metrics);
+                zk.setRetryPolicy(config.getRetryPolicy());
+                createIfMissing(paths.base());
+                createIfMissing(paths.keys());
+            }
+            // a thread per core, zombie checks may wait on validations for a while.
+            maintenance = new ScheduledThreadPoolExecutor(Math.max(2, Runtime.getRuntime().availableProcessors()),
+                    new ThreadFactoryBuilder().setNameFormat(config.getName() + "-maintenance-%d").setDaemon(true)
+                            .build());
+            maintenance.setRemoveOnCancelPolicy(true);
+            maintenance.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            sweeper = TaskScheduler.shared(maintenance);
+            Long idle = config.getKeyIdleIntrvl();
+            if (idle != null && idle > 0) {
+                // checking twice per interval retires a key at most half an interval late.
+                long period = Math.max(1, idle / 2);
+                sweeper.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        retireIdle();
+                    }
+                }, period, period, config.getIntrvlUnit());
+            }
+        }
+        catch (Exception e) {
+            LOGGER.error("Error while initializing the keyed pool ", e);
+        }
+    }
+
+    /**
+     * An object of the key's pool, opening it first if this participant has not used the key lately. Null if the key's
+     * pool is exhausted or this participant has {@link Config#getMaxTotal()} objects borrowed.
+     */
+    public T borrow(K key) {
+        if (total != null && !total.tryAcquire()) {
+            totalRejections.inc();
+            return null;
+        }
+        Keyed<T> keyed = null;
+        T obj = null;
+        try {
+            keyed = acquire(key);
+            obj = keyed.pool.borrow();
+        }
+        finally {
+            if (obj == null) {
+                release(keyed);
+            }
+        }
+        return obj;
+    }
+
+    public void returnObject(K key, T object) {
+        Keyed<T> keyed = borrowedFrom(key);
+        try {
+            keyed.pool.returnObject(object);
+        }
+        finally {
+            release(keyed);
+        }
+    }
+
+    public boolean invalidate(K key, T object) {
+        Keyed<T> keyed = borrowedFrom(key);
+        try {
+            return keyed.pool.invalidate(object);
+        }
+        finally {
+            release(keyed);
+        }
+    }
+
+    /**
+     * The pool of a key, null unless this participant has it open.
+     */
+    public ZKObjectPool<T> getPool(K key) {
+        Keyed<T> keyed = pools.get(key);
+        return keyed == null ? null : keyed.pool;
+    }
+
+    /**
+     * Keys whose pools this participant has open.
+     */
+    public Set<K> getKeys() {
+        return ImmutableSet.copyOf(pools.keySet());
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+        }
+        LOGGER.info("Shutting down keyed pool {} with {} keys.", config.getName(), pools.size());
+        // outside the lock, a sweep in progress needs it to finish.
+        if (sweeper != null) {
+            sweeper.shutdown();
+        }
+        synchronized (this) {
+            for (Map.Entry<K, Keyed<T>> e : pools.entrySet()) {
+                close(e.getKey(), e.getValue());
+            }
+            pools.clear();
+        }
+        if (maintenance != null) {
+            maintenance.shutdown();
+            try {
+                maintenance.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                LOGGER.warn("Interrupted while waiting for maintenance to shutdown", e);
+            }
+        }
+        if (zk != null) {
+            zk.shutdown();
+        }
+    }
+
+    /**
+     * Leaves the pools of keys that went the idle interval without a borrow and have nothing borrowed.
+     */
+    synchronized void retireIdle() {
+        if (shutdown) {
+            return;
+        }
+        long idleMillis = config.getIntrvlUnit().toMillis(config.getKeyIdleIntrvl());
+        long now = System.currentTimeMillis();
+        for (Map.Entry<K, Keyed<T>> e : pools.entrySet()) {
+            Keyed<T> keyed = e.getValue();
+            synchronized (keyed) {
+                if (keyed.borrowed > 0 || now - keyed.lastUsed < idleMillis) {
+                    continue;
+                }
+                keyed.retired = true;
+            }
+            pools.remove(e.getKey(), keyed);
+            close(e.getKey(), keyed);
+            retiredKeys.inc();
+        }
+    }
+
+    private Keyed<T> acquire(K key) {
+        for (;;) {
+            checkState(!shutdown, "Keyed pool %s is shut down.", config.getName());
+            Keyed<T> keyed = pools.get(key);
+            if (keyed == null) {
+                keyed = open(key);
+            }
+            synchronized (keyed) {
+                // retired in between, the next round opens it again.
+                if (!keyed.retired) {
+                    keyed.borrowed++;
+                    keyed.lastUsed = System.currentTimeMillis();
+                    return keyed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opening takes a few round trips to the store, keys are opened one at a time and not while idle ones retire.
+     */
+    private synchronized Keyed<T> open(K key) {
+        checkState(!shutdown, "Keyed pool %s is shut down.", config.getName());
+        Keyed<T> keyed = pools.get(key);
+        if (keyed != null) {
+            return keyed;
+        }
+        checkState(factory != null, "Please set the factory of keyed pool %s.", config.getName());
+        String name = key.toString();
+        checkArgument(!name.isEmpty() && !name.contains("/"), "Key %s can not name a pool.", name);
+        Config keyConfig = config.copy(paths.key(name));
+        PoolPaths keyPaths = new PoolPaths(keyConfig.getName());
+        ZKPoolStore store = null;
+        if (zk != null) {
+            store = new ZKPoolStore(zk, keyPaths, false);
+            store.setChunkSize(keyConfig.getChunkSize());
+        }
+        ZKObjectPool<T> pool = new ZKObjectPool<T>(keyConfig, store, maintenance);
+        pool.setFactory(factory.forKey(key));
+        pool.initialize();
+        keyed = new Keyed<T>(pool);
+        pools.put(key, keyed);
+        LOGGER.info("Opened the pool of key {}", name);
+        return keyed;
+    }
+
+    private Keyed<T> borrowedFrom(K key) {
+        Keyed<T> keyed = pools.get(key);
+        checkState(keyed != null, "Nothing was borrowed from key %s.", key);
+        return keyed;
+    }
+
+    private void release(Keyed<T> keyed) {
+        if (keyed != null) {
+            synchronized (keyed) {
+                keyed.borrowed--;
+                keyed.lastUsed = System.currentTimeMillis();
+            }
+        }
+        if (total != null) {
+            total.release();
+        }
+    }
+
+    private void close(K key, Keyed<T> keyed) {
+        try {
+            keyed.pool.shutdown();
+            LOGGER.info("Closed the pool of key {}", key);
+        }
+        catch (Exception e) {
+            LOGGER.error("Error closing the pool of key " + key, e);
+        }
+    }
+
+    private void createIfMissing(String path) throws InterruptedException, KeeperException {
+        try {
+            zk.create(path);
+        }
+        catch (KeeperException.NodeExistsException e) {
+            // another participant got there first.
+        }
+    }
+
+}
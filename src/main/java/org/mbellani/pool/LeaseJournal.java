@@ -0,0 +1,106 @@
+package org.mbellani.pool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.mbellani.utils.MappedMemory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+/**
+ * Append only record of the borrows and returns a participant served from its {@link LocalLease} while the store was
+ * out of reach. Kept in a memory mapped file so appending is a few stores into memory and the record outlives the
+ * process. The count of records goes in the header and is written after the record, a record is either complete or not
+ * counted.
+ */
+class LeaseJournal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeaseJournal.class);
+
+    static final int BORROW = 1;
+    static final int RETURN = 2;
+
+    private static final int H_COUNT = 0;
+    private static final int HEADER_SIZE = 8;
+    private static final int R_OP = 0;
+    private static final int R_NODE = 8;
+    private static final int R_MILLIS = 16;
+    private static final int RECORD_SIZE = 24;
+
+    static class Entry {
+        final int op;
+        final String node;
+        final long millis;
+
+        Entry(int op, String node, long millis) {
+            this.op = op;
+            this.node = node;
+            this.millis = millis;
+        }
+    }
+
+    private final File path;
+    private final int records;
+    private final MappedMemory mem;
+
+    LeaseJournal(File path, int records) {
+        this.path = path;
+        this.records = records;
+        try {
+            this.mem = new MappedMemory(path, HEADER_SIZE + (long) records * RECORD_SIZE);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * False once the journal is full, nothing more may be served without the store then.
+     */
+    synchronized boolean append(int op, String node) {
+        int count = mem.getInt(H_COUNT);
+        if (count >= records) {
+            return false;
+        }
+        long r = HEADER_SIZE + (long) count * RECORD_SIZE;
+        mem.putInt(r + R_OP, op);
+        mem.putLong(r + R_NODE, Long.parseLong(node));
+        mem.putLong(r + R_MILLIS, System.currentTimeMillis());
+        mem.putInt(H_COUNT, count + 1);
+        return true;
+    }
+
+    synchronized List<Entry> entries() {
+        int count = mem.getInt(H_COUNT);
+        List<Entry> entries = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            long r = HEADER_SIZE + (long) i * RECORD_SIZE;
+            entries.add(new Entry(mem.getInt(r + R_OP), String.format("%010d", mem.getLong(r + R_NODE)),
+                    mem.getLong(r + R_MILLIS)));
+        }
+        return entries;
+    }
+
+    synchronized boolean isEmpty() {
+        return mem.getInt(H_COUNT) == 0;
+    }
+
+    /**
+     * Starts over once the entries were reconciled with the store.
+     */
+    synchronized void clear() {
+        mem.putInt(H_COUNT, 0);
+    }
+
+    synchronized void close() {
+        try {
+            mem.close();
+        } catch (IOException e) {
+            LOGGER.warn("Error closing journal {}", path, e);
+        }
+    }
+
+}
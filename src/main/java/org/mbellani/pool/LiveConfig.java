@@ -0,0 +1,287 @@
+package org.mbellani.pool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.mbellani.pool.PoolStore.Feature;
+import org.mbellani.pool.PoolStore.PropertyListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+
+/**
+ * Keeps the settings that can change while the pool runs the same on every participant. They are kept in the config
+ * pool property, the first participant publishes its own and the ones joining later adopt what is there, whatever
+ * they were built with. Every change of the property is copied into the local {@link Config} and handed to the pool
+ * to act on. The property version tells which config a participant runs with.
+ */
+public class LiveConfig implements PropertyListener {
+
+    static final String CONFIG = "config";
+
+    /**
+     * Settings that can be changed on a running pool, in {@link Config#getIntrvlUnit()} where they are intervals.
+     */
+    public static final List<String> KEYS = Arrays.asList("size", "minSize", "maxSize", "evictIntrvl",
+            "maxIdleIntrvl", "numTestsPerEviction", "zombieDetectionIntrvl", "testOnBorrow", "testOnReturn",
+            "testWhileIdle", "validationTtl", "zombieValidationThreads", "zombieValidationTimeout", "zombieBackoff",
+            "zombieMaxBackoff", "removeAbandonedTimeout", "maxConcurrentCreates", "createRate",
+            "createWaitTimeout", "breakerFailureRate", "breakerSlowCallRate", "breakerSlowCallDuration",
+            "breakerOpenIntrvl", "breakerServeUnvalidated", "crashRestoreDelay");
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LiveConfig.class);
+
+    private ZKObjectPool<?> pool;
+    private Config cfg;
+    private PoolStore store;
+    private volatile boolean running;
+    private volatile int version = Versioned.NONE;
+
+    public LiveConfig(ZKObjectPool<?> pool) {
+        this.pool = pool;
+        this.cfg = pool.getConfig();
+        this.store = pool.getStore();
+    }
+
+    /**
+     * Publishes the local config unless a participant did already and takes on the published one. Does not notify
+     * the pool, nothing runs off the config yet.
+     */
+    public void start() {
+        if (!store.supports(Feature.PROPERTIES)) {
+            LOGGER.warn("The store does not support pool properties, running with the config this pool was built with");
+            return;
+        }
+        if (store.getProperty(CONFIG) == null) {
+            // losing the race to another participant is fine, its config is read back below.
+            store.setProperty(CONFIG, encode(toProperties(cfg)), Versioned.NONE);
+        }
+        running = true;
+        reload();
+    }
+
+    public void shutdown() {
+        running = false;
+    }
+
+    /**
+     * Version of the published config this participant runs with, {@link Versioned#NONE} if it runs with its own.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public void changed(String property) {
+        if (!running || store.isShutdown()) {
+            return;
+        }
+        try {
+            if (reload()) {
+                pool.configChanged();
+            }
+        }
+        catch (Exception e) {
+            LOGGER.error("Error applying the pool config ", e);
+        }
+    }
+
+    /**
+     * Merges the changes into the published config and applies them here, the other participants follow through
+     * their watch. Returns the version written.
+     */
+    public int update(Properties changes) {
+        for (String key : changes.stringPropertyNames()) {
+            checkArgument(KEYS.contains(key), "%s can not be changed on a running pool.", key);
+        }
+        checkArgument(running, "The pool config can not be changed, the store does not support pool properties.");
+        for (;;) {
+            Versioned current = store.getProperty(CONFIG);
+            Properties merged = current == null ? toProperties(cfg) : decode(current.getData());
+            merged.putAll(changes);
+            check(merged);
+            if (store.setProperty(CONFIG, encode(merged), current == null ? Versioned.NONE : current.getVersion())) {
+                if (reload()) {
+                    pool.configChanged();
+                }
+                return current == null ? 0 : current.getVersion() + 1;
+            }
+        }
+    }
+
+    /**
+     * Applies the published config if it moved on since the last time, watching for the next change either way.
+     */
+    private synchronized boolean reload() {
+        Versioned current = store.getProperty(CONFIG, this);
+        if (current == null || current.getVersion() == version) {
+            return false;
+        }
+        apply(decode(current.getData()), cfg);
+        LOGGER.info("Running with pool config version {}", current.getVersion());
+        version = current.getVersion();
+        return true;
+    }
+
+    /**
+     * Fails the same way building a pool with the merged config would.
+     */
+    private void check(Properties merged) {
+        Config scratch = new Config(cfg.getName());
+        scratch.setAutoscaleIntrvl(cfg.getAutoscaleIntrvl());
+        scratch.setMetricsEnabled(cfg.isMetricsEnabled());
+        apply(merged, scratch);
+        scratch.validate();
+    }
+
+    static Properties toProperties(Config c) {
+        Properties p = new Properties();
+        p.setProperty("size", String.valueOf(c.getSize()));
+        p.setProperty("minSize", String.valueOf(c.getMinSize()));
+        p.setProperty("maxSize", String.valueOf(c.getMaxSize()));
+        if (c.getEvictIntrvl() != null) {
+            p.setProperty("evictIntrvl", String.valueOf(c.getEvictIntrvl()));
+        }
+        p.setProperty("maxIdleIntrvl", String.valueOf(c.getMaxIdleIntrvl()));
+        p.setProperty("numTestsPerEviction", String.valueOf(c.getNumTestsPerEviction()));
+        p.setProperty("zombieDetectionIntrvl", String.valueOf(c.getZombieDetectionIntrvl()));
+        p.setProperty("testOnBorrow", String.valueOf(c.isTestOnBorrow()));
+        p.setProperty("testOnReturn", String.valueOf(c.isTestOnReturn()));
+        p.setProperty("testWhileIdle", String.valueOf(c.isTestWhileIdle()));
+        p.setProperty("validationTtl", String.valueOf(c.getValidationTtl()));
+        p.setProperty("zombieValidationThreads", String.valueOf(c.getZombieValidationThreads()));
+        p.setProperty("zombieValidationTimeout", String.valueOf(c.getZombieValidationTimeout()));
+        p.setProperty("zombieBackoff", String.valueOf(c.getZombieBackoff()));
+        p.setProperty("zombieMaxBackoff", String.valueOf(c.getZombieMaxBackoff()));
+        p.setProperty("removeAbandonedTimeout", String.valueOf(c.getRemoveAbandonedTimeout()));
+        p.setProperty("maxConcurrentCreates", String.valueOf(c.getMaxConcurrentCreates()));
+        p.setProperty("createRate", String.valueOf(c.getCreateRate()));
+        p.setProperty("createWaitTimeout", String.valueOf(c.getCreateWaitTimeout()));
+        p.setProperty("crashRestoreDelay", String.valueOf(c.getCrashRestoreDelay()));
+        p.setProperty("breakerFailureRate", String.valueOf(c.getBreakerFailureRate()));
+        p.setProperty("breakerSlowCallRate", String.valueOf(c.getBreakerSlowCallRate()));
+        if (c.getBreakerSlowCallDuration() != null) {
+            p.setProperty("breakerSlowCallDuration", String.valueOf(c.getBreakerSlowCallDuration()));
+        }
+        p.setProperty("breakerOpenIntrvl", String.valueOf(c.getBreakerOpenIntrvl()));
+        p.setProperty("breakerServeUnvalidated", String.valueOf(c.isBreakerServeUnvalidated()));
+        return p;
+    }
+
+    static void apply(Properties p, Config c) {
+        for (String key : p.stringPropertyNames()) {
+            String value = p.getProperty(key).trim();
+            switch (key) {
+            case "size":
+                c.setSize(Integer.parseInt(value));
+                break;
+            case "minSize":
+                c.setMinSize(Integer.parseInt(value));
+                break;
+            case "maxSize":
+                c.setMaxSize(Integer.parseInt(value));
+                break;
+            case "evictIntrvl":
+                c.setEvictIntrvl(Long.valueOf(value));
+                break;
+            case "maxIdleIntrvl":
+                c.setMaxIdleIntrvl(Long.valueOf(value));
+                break;
+            case "numTestsPerEviction":
+                c.setNumTestsPerEviction(Integer.parseInt(value));
+                break;
+            case "zombieDetectionIntrvl":
+                c.setZombieDetectionIntrvl(Long.valueOf(value));
+                break;
+            case "testOnBorrow":
+                c.setTestOnBorrow(Boolean.parseBoolean(value));
+                break;
+            case "testOnReturn":
+                c.setTestOnReturn(Boolean.parseBoolean(value));
+                break;
+            case "testWhileIdle":
+                c.setTestWhileIdle(Boolean.parseBoolean(value));
+                break;
+            case "validationTtl":
+                c.setValidationTtl(Long.valueOf(value));
+                break;
+            case "zombieValidationThreads":
+                c.setZombieValidationThreads(Integer.parseInt(value));
+                break;
+            case "zombieValidationTimeout":
+                c.setZombieValidationTimeout(Long.valueOf(value));
+                break;
+            case "zombieBackoff":
+                c.setZombieBackoff(Long.valueOf(value));
+                break;
+            case "zombieMaxBackoff":
+                c.setZombieMaxBackoff(Long.valueOf(value));
+                break;
+            case "removeAbandonedTimeout":
+                c.setRemoveAbandonedTimeout(Long.valueOf(value));
+                break;
+            case "maxConcurrentCreates":
+                c.setMaxConcurrentCreates(Integer.parseInt(value));
+                break;
+            case "createRate":
+                c.setCreateRate(Double.parseDouble(value));
+                break;
+            case "createWaitTimeout":
+                c.setCreateWaitTimeout(Long.valueOf(value));
+                break;
+            case "crashRestoreDelay":
+                c.setCrashRestoreDelay(Long.valueOf(value));
+                break;
+            case "breakerFailureRate":
+                c.setBreakerFailureRate(Double.parseDouble(value));
+                break;
+            case "breakerSlowCallRate":
+                c.setBreakerSlowCallRate(Double.parseDouble(value));
+                break;
+            case "breakerSlowCallDuration":
+                c.setBreakerSlowCallDuration(Long.valueOf(value));
+                break;
+            case "breakerOpenIntrvl":
+                c.setBreakerOpenIntrvl(Long.valueOf(value));
+                break;
+            case "breakerServeUnvalidated":
+                c.setBreakerServeUnvalidated(Boolean.parseBoolean(value));
+                break;
+            default:
+                LOGGER.warn("Ignoring unknown pool config {}", key);
+            }
+        }
+    }
+
+    /**
+     * One key=value per line, in the order of {@link #KEYS} so the same config always reads the same.
+     */
+    private static byte[] encode(Properties p) {
+        StringBuilder text = new StringBuilder();
+        for (String key : KEYS) {
+            if (p.getProperty(key) != null) {
+                text.append(key).append('=').append(p.getProperty(key)).append('\n');
+            }
+        }
+        return text.toString().getBytes(Charsets.UTF_8);
+    }
+
+    private static Properties decode(byte[] data) {
+        Properties p = new Properties();
+        try {
+            p.load(new StringReader(new String(data, Charsets.UTF_8)));
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return p;
+    }
+
+}
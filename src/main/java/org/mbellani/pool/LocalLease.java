@@ -0,0 +1,254 @@
+package org.mbellani.pool;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mbellani.metrics.Counter;
+import org.mbellani.metrics.Gauge;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.utils.Processes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Idle objects a participant keeps claimed in the store, up to {@link Config#getLeaseSize()}. Lending one again takes
+ * no round trip to the store, and while the store is out of reach they are what the participant can still lend. The
+ * store counts them as used by this participant so nobody else lends them meanwhile and the pool size holds. Lending
+ * without the store is fenced after {@link Config#getDegradedMaxIntrvl()} into the outage, before the session and with
+ * it the claims may expire, and once the journal is full. Returns are kept for as long as the outage lasts, the objects
+ * beyond the lease size are handed back once the store can be reached again.
+ */
+class LocalLease<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LocalLease.class);
+    private static final int JOURNAL_RECORDS = 4096;
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    static class Leased<T> {
+        final String node;
+        final T object;
+
+        Leased(String node, T object) {
+            this.node = node;
+            this.object = object;
+        }
+    }
+
+    private final ZKObjectPool<T> pool;
+    private final Config cfg;
+    private final File journalFile;
+    private final LeaseJournal journal;
+    private final Deque<Leased<T>> idle = new ArrayDeque<Leased<T>>();
+    private final Counter hits;
+    private final Counter degradedBorrows;
+    private final Counter fenced;
+    private final Counter claimsLost;
+
+    LocalLease(ZKObjectPool<T> pool) {
+        this.pool = pool;
+        this.cfg = pool.getConfig();
+        this.journalFile = journalFile();
+        this.journal = cfg.getLeaseSize() > 0 ? new LeaseJournal(journalFile, JOURNAL_RECORDS) : null;
+        this.hits = pool.getMetrics().counter(PoolMetrics.LEASE_HITS);
+        this.degradedBorrows = pool.getMetrics().counter(PoolMetrics.DEGRADED_BORROWS);
+        this.fenced = pool.getMetrics().counter(PoolMetrics.DEGRADED_FENCED);
+        this.claimsLost = pool.getMetrics().counter(PoolMetrics.LEASE_CLAIMS_LOST);
+        pool.getMetrics().gauge(PoolMetrics.LEASED, new Gauge() {
+            @Override
+            public long getValue() {
+                return size();
+            }
+        });
+        if (journal != null && !journal.isEmpty()) {
+            // the claims went with the session of the process that wrote them.
+            LOGGER.warn("Discarding {} journal entries of a previous run", journal.entries().size());
+            journal.clear();
+        }
+    }
+
+    boolean isEnabled() {
+        return journal != null;
+    }
+
+    /**
+     * True while the store can be reached, reconciling what was served without it first.
+     */
+    boolean reachable() {
+        if (pool.getStore().unreachableNanos() > 0) {
+            return false;
+        }
+        reconcile();
+        return true;
+    }
+
+    /**
+     * A leased object to lend, or null if none is idle or lending without the store is fenced.
+     */
+    synchronized Leased<T> take() {
+        if (idle.isEmpty()) {
+            return null;
+        }
+        long unreachable = pool.getStore().unreachableNanos();
+        if (unreachable == 0) {
+            hits.inc();
+            return idle.poll();
+        }
+        if (unreachable >= cfg.getIntrvlUnit().toNanos(cfg.getDegradedMaxIntrvl())
+                || !journal.append(LeaseJournal.BORROW, idle.peek().node)) {
+            fenced.inc();
+            return null;
+        }
+        degradedBorrows.inc();
+        return idle.poll();
+    }
+
+    /**
+     * Keeps a returned object, false if the lease is full and it should go back to the store. Without the store every
+     * return is kept, nothing can be handed back.
+     */
+    synchronized boolean keep(String node, T object) {
+        if (!isEnabled()) {
+            return false;
+        }
+        if (pool.getStore().unreachableNanos() > 0) {
+            if (!journal.append(LeaseJournal.RETURN, node)) {
+                LOGGER.warn("Journal full, object {} is kept without being journaled", node);
+            }
+        } else if (idle.size() >= cfg.getLeaseSize()) {
+            return false;
+        }
+        idle.add(new Leased<T>(node, object));
+        return true;
+    }
+
+    synchronized int size() {
+        return idle.size();
+    }
+
+    /**
+     * Replays the journal once the store can be reached again: every object the outage touched has to still be claimed
+     * by this participant, the ones that are not may be lent by others by now and are dropped, whether they are idle in
+     * the lease or out with a borrower. Then hands the objects kept beyond the lease size back and starts a new journal.
+     */
+    synchronized void reconcile() {
+        if (!isEnabled() || (journal.isEmpty() && idle.size() <= cfg.getLeaseSize())) {
+            return;
+        }
+        List<LeaseJournal.Entry> entries = journal.entries();
+        // the last entry of a node says where the object ended up, idle here or with a borrower.
+        Map<String, Integer> last = Maps.newLinkedHashMap();
+        int borrows = 0;
+        for (LeaseJournal.Entry e : entries) {
+            last.put(e.node, e.op);
+            if (e.op == LeaseJournal.BORROW) {
+                borrows++;
+            }
+        }
+        int lost = 0;
+        for (Map.Entry<String, Integer> e : last.entrySet()) {
+            if (!claimed(e.getKey())) {
+                lost++;
+                claimsLost.inc();
+                forget(e.getKey(), e.getValue() == LeaseJournal.BORROW);
+            }
+        }
+        int released = 0;
+        while (idle.size() > cfg.getLeaseSize()) {
+            Leased<T> leased = idle.poll();
+            try {
+                pool.markUnused(leased.node);
+                released++;
+            } catch (Exception e) {
+                // the claim did not make it through the outage.
+                LOGGER.warn("Could not hand leased object {} back", leased.node, e);
+            }
+        }
+        journal.clear();
+        LOGGER.info("Reconciled {} borrows and {} returns served without the store, {} claims were lost, handed {}"
+                + " objects back", new Object[] { borrows, entries.size() - borrows, lost, released });
+    }
+
+    private boolean claimed(String node) {
+        try {
+            PoolStore store = pool.getStore();
+            if (!store.exists(Area.USED, node)) {
+                return false;
+            }
+            byte[] info = store.getData(Area.USED, node);
+            // stores with nowhere to keep the borrow info only know the object is claimed.
+            return info == null || pool.getId().equals(Borrow.participant(info));
+        } catch (Exception e) {
+            LOGGER.warn("Could not check the claim of leased object {}", node, e);
+            return true;
+        }
+    }
+
+    private void forget(String node, boolean lent) {
+        if (!lent) {
+            for (Iterator<Leased<T>> i = idle.iterator(); i.hasNext();) {
+                if (i.next().node.equals(node)) {
+                    i.remove();
+                }
+            }
+            LOGGER.warn("Dropped leased object {}, its claim did not last through the outage", node);
+            return;
+        }
+        for (Iterator<Map.Entry<T, Borrow>> i = pool.getBorrowed().entrySet().iterator(); i.hasNext();) {
+            if (i.next().getValue().getNode().equals(node)) {
+                // returning it later is logged and otherwise ignored.
+                i.remove();
+            }
+        }
+        LOGGER.warn("Object {} lent during the outage lost its claim", node);
+    }
+
+    /**
+     * Claims the leased objects again after the session holding them expired, dropping the ones taken by others.
+     */
+    synchronized void recover(String id) {
+        for (Leased<T> leased : Lists.newArrayList(idle)) {
+            if (!pool.getStore().reclaim(leased.node, Borrow.describe(id, "lease", System.currentTimeMillis()))) {
+                idle.remove(leased);
+                LOGGER.warn("Lost leased object {} with the expired session", leased.node);
+            }
+        }
+    }
+
+    /**
+     * Hands all leased objects back as the participant leaves.
+     */
+    synchronized void shutdown() {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            while (!idle.isEmpty() && pool.getStore().unreachableNanos() == 0) {
+                pool.markUnused(idle.peek().node);
+                idle.poll();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Could not hand the leased objects back", e);
+        }
+        journal.close();
+        if (cfg.getJournalFile() == null && !journalFile.delete()) {
+            LOGGER.warn("Could not delete journal {}", journalFile);
+        }
+    }
+
+    private File journalFile() {
+        String file = cfg.getJournalFile();
+        // one per participant, several may run in the same process.
+        return file != null ? new File(file) : new File(System.getProperty("java.io.tmpdir"), cfg.getName() + "-"
+                + Processes.currentPid() + "-" + INSTANCES.incrementAndGet() + ".journal");
+    }
+
+}
@@ -0,0 +1,839 @@
+package org.mbellani.pool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.mbellani.utils.MappedMemory;
+import org.mbellani.utils.Processes;
+import org.mbellani.zk.ZKClient.SynchronizedOperationCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * {@link PoolStore} for participants on the same host, the pool state lives in a memory mapped file every participant
+ * maps. Each object is a fixed size slot whose used/unused/zombie membership and owning session are packed in one int
+ * that is only ever changed by CAS, so borrow and return never leave user space. Sessions are entries in a table of the
+ * same file carrying the owning pid and a heartbeat, sessions of exited processes are swept by whoever notices first
+ * and their claims are released just like zookeeper drops ephemeral nodes. Maintenance locks are file locks.
+ */
+public class MappedPoolStore implements PoolStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedPoolStore.class);
+
+    private static final int MAGIC = 0x504f4f4c;
+    private static final int NOT_READY = 0;
+    private static final int INITIALIZING = 1;
+    private static final int READY = 2;
+
+    private static final int H_MAGIC = 0;
+    private static final int H_STATE = 4;
+    private static final int H_SLOTS = 8;
+    private static final int H_SLOT_DATA = 12;
+    private static final int H_SESSIONS = 16;
+    private static final int H_COUNTS = 32;
+    private static final int H_VERSIONS = 64;
+    private static final int H_PARTICIPANT_SEQ = 112;
+    private static final int HEADER_SIZE = 128;
+
+    private static final int S_STATE = 0;
+    private static final int S_DATA_LEN = 4;
+    private static final int S_PID = 8;
+    private static final int S_HEARTBEAT = 16;
+    private static final int S_ID = 24;
+    private static final int S_DATA = 32;
+    private static final int SESSION_SIZE = 128;
+    private static final int SESSION_FREE = 0;
+    private static final int SESSION_OPEN = 1;
+    private static final int SESSION_REGISTERED = 2;
+    private static final int SESSION_CLOSING = 3;
+
+    private static final int O_STATE = 0;
+    private static final int O_GENERATION = 4;
+    private static final int O_DATA_LEN = 8;
+    private static final int O_MTIME = 16;
+    private static final int O_DATA = 24;
+
+    private static final int USED = 1;
+    private static final int UNUSED = 2;
+    private static final int ZOMBIE = 4;
+    private static final int LIVE = 8;
+    private static final int RESERVED = 16;
+    private static final int FLAGS = 0xff;
+    private static final int OWNER_SHIFT = 8;
+
+    private static final long POLL_MILLIS = 10;
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final long SESSION_TIMEOUT_MILLIS = 10 * 1000;
+    private static final long READY_TIMEOUT_MILLIS = SESSION_TIMEOUT_MILLIS;
+    private static final long LOCK_REGION = 1L << 40;
+
+    private static final ConcurrentMap<String, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final File path;
+    private final int slots;
+    private final int slotData;
+    private final int sessions;
+    private final int slotSize;
+    private final long slotsOffset;
+    private MappedMemory mem;
+    private int session = -1;
+    private volatile boolean shutdown;
+    private long lastHeartbeat;
+    private final long[] seenVersions = new long[Area.values().length];
+    // the counters, their versions and the slot counts the last sweep saw, see recount.
+    private long[] lastRecount;
+    private final Map<Area, ConcurrentLinkedQueue<Listener>> listeners = Maps.newEnumMap(Area.class);
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+    public MappedPoolStore(File path, int slots, int slotData, int sessions) {
+        this.path = path;
+        this.slots = slots;
+        this.slotData = slotData;
+        this.sessions = sessions;
+        this.slotSize = align(O_DATA + slotData);
+        this.slotsOffset = HEADER_SIZE + (long) sessions * SESSION_SIZE;
+        for (Area area : Area.values()) {
+            listeners.put(area, new ConcurrentLinkedQueue<Listener>());
+        }
+        open();
+    }
+
+    /**
+     * Slots hold an object and the state of its one borrower, the file layout has room for nothing else.
+     */
+    @Override
+    public boolean supports(Feature feature) {
+        return false;
+    }
+
+    @Override
+    public boolean create() {
+        boolean created = mem.cas(H_STATE, NOT_READY, INITIALIZING);
+        if (created) {
+            mem.putInt(H_SLOTS, slots);
+            mem.putInt(H_SLOT_DATA, slotData);
+            mem.putInt(H_SESSIONS, sessions);
+            mem.putInt(H_MAGIC, MAGIC);
+            mem.putInt(H_STATE, READY);
+        } else {
+            awaitReady();
+        }
+        openSession();
+        return created;
+    }
+
+    @Override
+    public void destroy() {
+        if (mem.cas(H_STATE, READY, NOT_READY)) {
+            mem.zero(0, mem.size());
+            if (!path.delete()) {
+                LOGGER.warn("Could not delete pool file {}", path);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while waiting for the poller to shutdown", e);
+        }
+        if (session >= 0 && mem.getInt(H_STATE) == READY) {
+            closeSession(session);
+        }
+        try {
+            mem.close();
+        } catch (IOException e) {
+            LOGGER.warn("Error closing pool file {}", path, e);
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public long unreachableNanos() {
+        return 0;
+    }
+
+    @Override
+    public String register(byte[] data) {
+        long s = sessionOffset(session);
+        long id = mem.getAndAdd(H_PARTICIPANT_SEQ, 1L);
+        int len = Math.min(data.length, SESSION_SIZE - S_DATA);
+        mem.putBytes(s + S_DATA, Arrays.copyOf(data, len));
+        mem.putInt(s + S_DATA_LEN, len);
+        mem.putLong(s + S_ID, id);
+        mem.putInt(s + S_STATE, SESSION_REGISTERED);
+        changed(Area.PARTICIPANTS, 1);
+        return format(id);
+    }
+
+    @Override
+    public boolean isRegistered(String id) {
+        return id != null && participant(id) >= 0;
+    }
+
+    @Override
+    public void deregister(String id) {
+        int p = participant(id);
+        if (p >= 0 && mem.cas(sessionOffset(p) + S_STATE, SESSION_REGISTERED, SESSION_OPEN)) {
+            changed(Area.PARTICIPANTS, -1);
+        }
+    }
+
+    @Override
+    public List<String> children(Area area) {
+        List<String> children = Lists.newArrayList();
+        if (area == Area.PARTICIPANTS) {
+            for (int i = 0; i < sessions; i++) {
+                long s = sessionOffset(i);
+                if (mem.getInt(s + S_STATE) == SESSION_REGISTERED) {
+                    children.add(format(mem.getLong(s + S_ID)));
+                }
+            }
+            return children;
+        }
+        for (int i = 0; i < slots; i++) {
+            int state = mem.getInt(slotOffset(i) + O_STATE);
+            if (in(area, state)) {
+                children.add(node(i));
+            }
+        }
+        return children;
+    }
+
+    @Override
+    public List<String> children(Area area, Listener listener) {
+        listen(area, listener);
+        return children(area);
+    }
+
+    @Override
+    public int[] count(Listener listener, Area... areas) {
+        int[] counts = new int[areas.length];
+        for (int i = 0; i < areas.length; i++) {
+            listen(areas[i], listener);
+            counts[i] = count(areas[i]);
+        }
+        return counts;
+    }
+
+    private void listen(Area area, Listener listener) {
+        ConcurrentLinkedQueue<Listener> pending = listeners.get(area);
+        if (!pending.contains(listener)) {
+            pending.add(listener);
+        }
+    }
+
+    @Override
+    public int count(Area area) {
+        return mem.getInt(H_COUNTS + 4 * area.ordinal());
+    }
+
+    @Override
+    public boolean exists(Area area, String node) {
+        if (area == Area.PARTICIPANTS) {
+            return participant(node) >= 0;
+        }
+        int i = slot(node);
+        return i >= 0 && in(area, mem.getInt(slotOffset(i) + O_STATE));
+    }
+
+    @Override
+    public byte[] getData(Area area, String node) {
+        if (area == Area.PARTICIPANTS) {
+            int p = participant(node);
+            if (p < 0) {
+                return null;
+            }
+            long s = sessionOffset(p);
+            return mem.getBytes(s + S_DATA, mem.getInt(s + S_DATA_LEN));
+        }
+        int i = slot(node);
+        if (i < 0 || area == Area.USED) {
+            // slots have no room for borrow info.
+            return null;
+        }
+        long o = slotOffset(i);
+        return mem.getBytes(o + O_DATA, mem.getInt(o + O_DATA_LEN));
+    }
+
+    @Override
+    public Map<String, Long> modifiedTimes(Area area) {
+        Map<String, Long> times = Maps.newHashMap();
+        for (int i = 0; i < slots; i++) {
+            long o = slotOffset(i);
+            if (in(area, mem.getInt(o + O_STATE))) {
+                times.put(node(i), mem.getLong(o + O_MTIME));
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Slots have no room for tags, tagged objects need zookeeper or the in memory store.
+     */
+    @Override
+    public String add(byte[] data, Set<String> tags, Area to, int capacity) {
+        if (!tags.isEmpty()) {
+            throw new UnsupportedOperationException("Mapped file pools do not keep tags.");
+        }
+        return add(data, to, capacity);
+    }
+
+    @Override
+    public String add(byte[] data, Set<String> tags, int weight, Area to, int capacity) {
+        throw new UnsupportedOperationException("Mapped file pools count slots, not weights.");
+    }
+
+    @Override
+    public int weight(String node) {
+        return 1;
+    }
+
+    @Override
+    public int weight(Area area) {
+        return count(area);
+    }
+
+    @Override
+    public List<String> tagged(String tag, Listener listener) {
+        throw new UnsupportedOperationException("Mapped file pools do not keep tags.");
+    }
+
+    @Override
+    public String share(String node, byte[] holderInfo, int maxHolders) {
+        throw new UnsupportedOperationException("Mapped file pools lend objects to one borrower at a time.");
+    }
+
+    @Override
+    public void unshare(String node, String holder) {
+        throw new UnsupportedOperationException("Mapped file pools lend objects to one borrower at a time.");
+    }
+
+    @Override
+    public boolean restoreShared(String node) {
+        return false;
+    }
+
+    @Override
+    public Map<String, Integer> sharedLoad(Listener listener) {
+        throw new UnsupportedOperationException("Mapped file pools lend objects to one borrower at a time.");
+    }
+
+    @Override
+    public boolean drain(String node, byte[] borrowInfo) {
+        throw new UnsupportedOperationException("Mapped file pools lend objects to one borrower at a time.");
+    }
+
+    @Override
+    public void undrain(String node) {
+        throw new UnsupportedOperationException("Mapped file pools lend objects to one borrower at a time.");
+    }
+
+    @Override
+    public String add(byte[] data, Area to, int capacity) {
+        if (data.length > slotData) {
+            throw new IllegalArgumentException("Object of " + data.length + " bytes does not fit slots of " + slotData);
+        }
+        if (!takePermit(capacity)) {
+            return null;
+        }
+        for (int i = 0; i < slots; i++) {
+            long o = slotOffset(i);
+            // owned like a claim, a crash before the slot is filled in leaves it to the sweep.
+            if (mem.getInt(o + O_STATE) == 0 && mem.cas(o + O_STATE, 0, RESERVED | ((session + 1) << OWNER_SHIFT))) {
+                mem.getAndAdd(o + O_GENERATION, 1);
+                mem.putBytes(o + O_DATA, data);
+                mem.putInt(o + O_DATA_LEN, data.length);
+                mem.putLong(o + O_MTIME, System.currentTimeMillis());
+                int flags = to == Area.USED ? LIVE | USED | ((session + 1) << OWNER_SHIFT) : LIVE | UNUSED;
+                mem.putInt(o + O_STATE, flags);
+                mem.getAndAdd(H_VERSIONS + 8 * Area.MASTER.ordinal(), 1L);
+                changed(to, 1);
+                return node(i);
+            }
+        }
+        changed(Area.MASTER, -1);
+        throw new IllegalStateException("No free slots left in " + path);
+    }
+
+    /**
+     * The master count doubles as the permit counter, it is taken before the slot is reserved.
+     */
+    private boolean takePermit(int capacity) {
+        long offset = H_COUNTS + 4 * Area.MASTER.ordinal();
+        for (;;) {
+            int current = mem.getInt(offset);
+            if (current >= capacity) {
+                return false;
+            }
+            if (mem.cas(offset, current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean claim(String node, byte[] borrowInfo) {
+        return transition(slot(node), UNUSED, USED, USED | UNUSED, session + 1);
+    }
+
+    /**
+     * A process keeps its session slot until it exits, its claims can't go missing while it runs.
+     */
+    @Override
+    public boolean reclaim(String node, byte[] borrowInfo) {
+        return exists(Area.USED, node);
+    }
+
+    @Override
+    public void addSessionListener(SessionListener listener) {
+        // sessions don't expire.
+    }
+
+    @Override
+    public void release(String node) {
+        release(node, System.currentTimeMillis());
+    }
+
+    @Override
+    public void release(String node, long idleSince) {
+        if (!transition(slot(node), USED, UNUSED, USED | UNUSED, 0, idleSince)) {
+            throw new IllegalStateException("Node " + node + " is not in use");
+        }
+    }
+
+    @Override
+    public void remove(String node) {
+        int i = slot(node);
+        if (!transition(i, USED, 0, USED, 0)) {
+            throw new IllegalStateException("Node " + node + " is not in use");
+        }
+        discard(i);
+    }
+
+    @Override
+    public void markZombie(String node) {
+        if (!transition(slot(node), 0, ZOMBIE, ZOMBIE, -1)) {
+            throw new IllegalStateException("Node " + node + " cannot be marked a zombie");
+        }
+    }
+
+    @Override
+    public boolean unzombie(String node) {
+        return transition(slot(node), USED | ZOMBIE, UNUSED, USED | UNUSED | ZOMBIE, 0);
+    }
+
+    @Override
+    public void drop(String node) {
+        int i = slot(node);
+        if (!transition(i, USED | ZOMBIE, 0, USED | ZOMBIE, 0)) {
+            throw new IllegalStateException("Node " + node + " is not a zombie in use");
+        }
+        discard(i);
+    }
+
+    @Override
+    public boolean restore(String node) {
+        return transition(slot(node), 0, UNUSED, USED | UNUSED, 0);
+    }
+
+    /**
+     * The file layout has no room for pool properties, features built on them are not available with this store.
+     */
+    @Override
+    public Versioned getProperty(String name) {
+        throw new UnsupportedOperationException("Pool properties are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public Versioned getProperty(String name, PropertyListener listener) {
+        throw new UnsupportedOperationException("Pool properties are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public boolean setProperty(String name, byte[] data, int version) {
+        throw new UnsupportedOperationException("Pool properties are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public void removeProperty(String name) {
+        throw new UnsupportedOperationException("Pool properties are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public List<String> properties() {
+        throw new UnsupportedOperationException("Pool properties are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public String takeCreatePermit(int limit, PermitListener listener) {
+        throw new UnsupportedOperationException("Creation permits are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public void returnCreatePermit(String permit) {
+        throw new UnsupportedOperationException("Creation permits are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public List<String> takePermits(int count, int limit, PermitListener listener) {
+        throw new UnsupportedOperationException("Permits are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public void returnPermits(List<String> permits) {
+        throw new UnsupportedOperationException("Permits are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public int permitsTaken() {
+        throw new UnsupportedOperationException("Permits are not supported by " + getClass().getSimpleName());
+    }
+
+    @Override
+    public <R> R doSynchronized(String lock, SynchronizedOperationCallback<R> callback) {
+        ReentrantLock jvmLock = jvmLock(path.getAbsolutePath() + lock);
+        R result = null;
+        jvmLock.lock();
+        try {
+            FileLock fileLock = mem.lock(LOCK_REGION + (lock.hashCode() & 0xffff), 1);
+            try {
+                result = callback.perform();
+            } finally {
+                fileLock.release();
+            }
+        } catch (Exception e) {
+            Throwables.propagate(e);
+        } finally {
+            jvmLock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Releases the claims and registration of sessions whose process exited. A process that is still running keeps its
+     * session however long it went without heart beating, a paused owner must not find its claims handed out to others
+     * when it resumes. Only where the liveness of a process can't be told does a stale heartbeat end the session.
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < sessions; i++) {
+            long s = sessionOffset(i);
+            int state = mem.getInt(s + S_STATE);
+            if (i == session || state == SESSION_FREE) {
+                continue;
+            }
+            long pid = mem.getLong(s + S_PID);
+            boolean gone = Processes.canTell(pid) ? !Processes.isAlive(pid)
+                    : now - mem.getLong(s + S_HEARTBEAT) > SESSION_TIMEOUT_MILLIS;
+            if (gone) {
+                LOGGER.info("Session of process {} is gone, releasing its claims", pid);
+                closeSession(i);
+            }
+        }
+        recount();
+    }
+
+    /**
+     * Counts the slots and sessions in each state and corrects the counters a process left off, killed between
+     * updating a slot and its count. Updates in flight are off for a moment too, so a counter is only corrected when
+     * two sweeps in a row found it off the same way with the counters and their versions unchanged in between.
+     */
+    private void recount() {
+        int areas = Area.values().length;
+        long[] seen = new long[3 * areas];
+        for (Area area : Area.values()) {
+            seen[area.ordinal()] = count(area);
+            seen[areas + area.ordinal()] = mem.getLong(H_VERSIONS + 8 * area.ordinal());
+        }
+        for (int i = 0; i < slots; i++) {
+            int state = mem.getInt(slotOffset(i) + O_STATE);
+            for (Area area : Area.values()) {
+                if (in(area, state) || (area == Area.MASTER && (state & RESERVED) != 0)) {
+                    seen[2 * areas + area.ordinal()]++;
+                }
+            }
+        }
+        for (int i = 0; i < sessions; i++) {
+            if (mem.getInt(sessionOffset(i) + S_STATE) == SESSION_REGISTERED) {
+                seen[2 * areas + Area.PARTICIPANTS.ordinal()]++;
+            }
+        }
+        boolean settled = Arrays.equals(seen, lastRecount);
+        lastRecount = settled ? null : seen;
+        if (!settled) {
+            return;
+        }
+        for (Area area : Area.values()) {
+            int counter = (int) seen[area.ordinal()];
+            int counted = (int) seen[2 * areas + area.ordinal()];
+            if (counter != counted && mem.cas(H_COUNTS + 4 * area.ordinal(), counter, counted)) {
+                mem.getAndAdd(H_VERSIONS + 8 * area.ordinal(), 1L);
+                LOGGER.warn("Corrected the {} count of pool file {} from {} to {}", new Object[] { area, path, counter,
+                        counted });
+            }
+        }
+    }
+
+    private void open() {
+        try {
+            long size = slotsOffset + (long) slots * slotSize;
+            File dir = path.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Could not create " + dir);
+            }
+            mem = new MappedMemory(path, size);
+        } catch (IOException e) {
+            Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Waits for the process creating the file to finish its header, which it may not live to do.
+     */
+    private void awaitReady() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(READY_TIMEOUT_MILLIS);
+        while (mem.getInt(H_STATE) != READY) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new IllegalStateException("Pool file " + path + " was not initialized within "
+                        + READY_TIMEOUT_MILLIS + " ms, please delete it if its creator exited");
+            }
+            Thread.yield();
+        }
+        if (mem.getInt(H_MAGIC) != MAGIC || mem.getInt(H_SLOTS) != slots || mem.getInt(H_SLOT_DATA) != slotData
+                || mem.getInt(H_SESSIONS) != sessions) {
+            throw new IllegalStateException("Pool file " + path + " was created with a different layout");
+        }
+    }
+
+    private synchronized void openSession() {
+        if (session >= 0) {
+            return;
+        }
+        long pid = Processes.currentPid();
+        for (int i = 0; i < sessions; i++) {
+            long s = sessionOffset(i);
+            if (mem.getInt(s + S_STATE) == SESSION_FREE && mem.cas(s + S_STATE, SESSION_FREE, SESSION_OPEN)) {
+                mem.putLong(s + S_PID, pid);
+                mem.putLong(s + S_HEARTBEAT, System.currentTimeMillis());
+                session = i;
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        poll();
+                    }
+                }, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+        throw new IllegalStateException("No free sessions left in " + path);
+    }
+
+    private void closeSession(int i) {
+        long s = sessionOffset(i);
+        int state = mem.getInt(s + S_STATE);
+        if (state == SESSION_FREE || state == SESSION_CLOSING || !mem.cas(s + S_STATE, state, SESSION_CLOSING)) {
+            return;
+        }
+        // like ephemeral znodes, claims go away with the session.
+        for (int slot = 0; slot < slots; slot++) {
+            long o = slotOffset(slot);
+            int st = mem.getInt(o + O_STATE);
+            if ((st >>> OWNER_SHIFT) != i + 1) {
+                continue;
+            }
+            if ((st & LIVE) != 0) {
+                transition(slot, USED, 0, USED, 0);
+            } else if ((st & RESERVED) != 0 && mem.cas(o + O_STATE, st, 0)) {
+                // added halfway, give back the permit the add took.
+                changed(Area.MASTER, -1);
+            }
+        }
+        mem.putInt(s + S_STATE, SESSION_FREE);
+        if (state == SESSION_REGISTERED) {
+            changed(Area.PARTICIPANTS, -1);
+        }
+    }
+
+    private void poll() {
+        if (shutdown) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            if (now - lastHeartbeat >= HEARTBEAT_MILLIS && mem.getInt(H_STATE) == READY) {
+                lastHeartbeat = now;
+                mem.putLong(sessionOffset(session) + S_HEARTBEAT, now);
+                sweep();
+            }
+            for (Area area : Area.values()) {
+                long version = mem.getLong(H_VERSIONS + 8 * area.ordinal());
+                if (version != seenVersions[area.ordinal()]) {
+                    seenVersions[area.ordinal()] = version;
+                    // listeners usually register again, only notify the ones registered before the change.
+                    ConcurrentLinkedQueue<Listener> pending = listeners.get(area);
+                    for (int n = pending.size(); n > 0; n--) {
+                        Listener l = pending.poll();
+                        if (l == null) {
+                            break;
+                        }
+                        l.changed(area);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error polling pool file {}", path, e);
+        }
+    }
+
+    /**
+     * Requires all of the {@code expected} flags and none of the other flags in {@code mask}, then replaces the masked
+     * flags with {@code update}. An {@code owner} of -1 leaves the owner alone.
+     */
+    private boolean transition(int slot, int expected, int update, int mask, int owner) {
+        return transition(slot, expected, update, mask, owner, System.currentTimeMillis());
+    }
+
+    private boolean transition(int slot, int expected, int update, int mask, int owner, long mtime) {
+        if (slot < 0) {
+            return false;
+        }
+        long o = slotOffset(slot);
+        for (;;) {
+            int current = mem.getInt(o + O_STATE);
+            int flags = current & FLAGS;
+            if ((flags & LIVE) == 0 || (flags & mask) != expected) {
+                return false;
+            }
+            int nextOwner = owner == -1 ? current >>> OWNER_SHIFT : owner;
+            int next = ((flags & ~mask) | update) | (nextOwner << OWNER_SHIFT);
+            if (mem.cas(o + O_STATE, current, next)) {
+                mem.putLong(o + O_MTIME, mtime);
+                account(flags, next, USED, Area.USED);
+                account(flags, next, UNUSED, Area.UNUSED);
+                account(flags, next, ZOMBIE, Area.ZOMBIES);
+                return true;
+            }
+        }
+    }
+
+    private void discard(int slot) {
+        long o = slotOffset(slot);
+        int last = mem.getInt(o + O_STATE);
+        if ((last & LIVE) != 0 && mem.cas(o + O_STATE, last, 0)) {
+            account(last, 0, USED, Area.USED);
+            account(last, 0, UNUSED, Area.UNUSED);
+            account(last, 0, ZOMBIE, Area.ZOMBIES);
+            changed(Area.MASTER, -1);
+        }
+    }
+
+    private void account(int current, int next, int bit, Area area) {
+        int delta = (next & bit) - (current & bit);
+        if (delta != 0) {
+            changed(area, delta > 0 ? 1 : -1);
+        }
+    }
+
+    private void changed(Area area, int delta) {
+        mem.getAndAdd(H_COUNTS + 4 * area.ordinal(), delta);
+        mem.getAndAdd(H_VERSIONS + 8 * area.ordinal(), 1L);
+    }
+
+    private String node(int slot) {
+        long generation = mem.getInt(slotOffset(slot) + O_GENERATION) & 0xffffffffL;
+        return format(generation * slots + slot);
+    }
+
+    private int slot(String node) {
+        long n;
+        try {
+            n = Long.parseLong(node);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        int i = (int) (n % slots);
+        return node(i).equals(node) ? i : -1;
+    }
+
+    private int participant(String id) {
+        for (int i = 0; i < sessions; i++) {
+            long s = sessionOffset(i);
+            if (mem.getInt(s + S_STATE) == SESSION_REGISTERED && format(mem.getLong(s + S_ID)).equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private long sessionOffset(int i) {
+        return HEADER_SIZE + (long) i * SESSION_SIZE;
+    }
+
+    private long slotOffset(int i) {
+        return slotsOffset + (long) i * slotSize;
+    }
+
+    private static boolean in(Area area, int state) {
+        if ((state & LIVE) == 0) {
+            return false;
+        }
+        switch (area) {
+        case MASTER:
+            return true;
+        case USED:
+            return (state & USED) != 0;
+        case UNUSED:
+            return (state & UNUSED) != 0;
+        case ZOMBIES:
+            return (state & ZOMBIE) != 0;
+        default:
+            return false;
+        }
+    }
+
+    private static ReentrantLock jvmLock(String name) {
+        ReentrantLock lock = JVM_LOCKS.get(name);
+        if (lock == null) {
+            ReentrantLock fresh = new ReentrantLock();
+            lock = JVM_LOCKS.putIfAbsent(name, fresh);
+            lock = lock == null ? fresh : lock;
+        }
+        return lock;
+    }
+
+    private static String format(long n) {
+        return String.format("%010d", n);
+    }
+
+    private static int align(int n) {
+        return (n + 7) & ~7;
+    }
+
+}
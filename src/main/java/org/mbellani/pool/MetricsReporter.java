@@ -0,0 +1,49 @@
+package org.mbellani.pool;
+
+import org.mbellani.metrics.PoolMetrics;
+
+/**
+ * Registers the pool metrics with JMX and periodically hands them to the configured exporters.
+ */
+public class MetricsReporter<T> implements ObjectPoolTask<T>, Runnable {
+
+    private ZKObjectPool<T> pool;
+    private PoolMetrics metrics;
+    private TaskScheduler scheduler;
+
+    public MetricsReporter(ZKObjectPool<T> pool) {
+        this.pool = pool;
+        this.metrics = pool.getMetrics();
+        scheduler = pool.newScheduler();
+    }
+
+    @Override
+    public void start() {
+        if (!metrics.isEnabled()) {
+            return;
+        }
+        metrics.registerMBean();
+        Config c = pool.getConfig();
+        if (!metrics.getExporters().isEmpty()) {
+            scheduler.scheduleAtFixedRate(this, c.getMetricsReportIntrvl(), c.getMetricsReportIntrvl(),
+                    c.getIntrvlUnit());
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        scheduler.shutdown();
+        metrics.export();
+        metrics.unregisterMBean();
+    }
+
+    @Override
+    public void configChanged() {
+    }
+
+    @Override
+    public void run() {
+        metrics.export();
+    }
+
+}
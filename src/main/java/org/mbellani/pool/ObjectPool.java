@@ -16,8 +16,29 @@ public interface ObjectPool<T> {
 
     int getZombies();
 
+    /**
+     * Size, used, unused and zombie counts read together from a locally cached view that is at most
+     * {@link Config#getStatsMaxStaleness()} old, the individual count getters are served from the same view.
+     */
+    PoolStats snapshot();
+
+    /**
+     * Same as {@link #snapshot()}, with {@code refresh} reading every count from the store first.
+     */
+    PoolStats snapshot(boolean refresh);
+
     T borrow();
 
+    /**
+     * An idle object carrying the tags the query asks for, null if there is none.
+     */
+    T borrow(TagQuery query);
+
+    /**
+     * An idle object weighing at least {@code minWeight} units, null if there is none.
+     */
+    T borrow(int minWeight);
+
     Config getConfig();
 
     List<String> getParticipants();
@@ -6,4 +6,9 @@ public interface ObjectPoolTask<T> {
 
     void shutdown();
 
+    /**
+     * Called after the shared pool config changed, the config the task was built with holds the new settings.
+     */
+    void configChanged();
+
 }
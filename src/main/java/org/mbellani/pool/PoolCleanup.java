@@ -2,12 +2,14 @@ package org.mbellani.pool;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.Map.Entry;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.data.Stat;
-import org.mbellani.zk.ZKClient;
+import org.mbellani.metrics.Counter;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.PoolStore.Area;
 import org.mbellani.zk.ZKClient.SynchronizedOperationCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,78 +20,94 @@ import com.google.common.primitives.Longs;
 public class PoolCleanup<T> implements ObjectPoolTask<T> {
 
     private ZKObjectPool<?> pool;
-    private ScheduledThreadPoolExecutor scheduler;
+    private TaskScheduler scheduler;
+    private ScheduledFuture<?> eviction;
     private static final Logger LOGGER = LoggerFactory.getLogger(PoolCleanup.class);
 
     public PoolCleanup(ZKObjectPool<T> pool) {
         this.pool = pool;
-        scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler = pool.newScheduler();
     }
 
     @Override
-    public void start() {
+    public synchronized void start() {
         Config cfg = pool.getConfig();
         if (cfg.evictionEnabled()) {
-            scheduler.scheduleAtFixedRate(new PoolCleanupExecutor(pool), cfg.getEvictIntrvl(), cfg.getEvictIntrvl(),
-                    cfg.getIntrvlUnit());
+            eviction = scheduler.scheduleAtFixedRate(new PoolCleanupExecutor(pool), cfg.getEvictIntrvl(),
+                    cfg.getEvictIntrvl(), cfg.getIntrvlUnit());
         }
     }
 
+    /**
+     * Moves the eviction to the new interval, a run in progress finishes and holds the eviction lock until it did.
+     */
     @Override
-    public void shutdown() {
-        scheduler.shutdown();
-        try {
-            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+    public synchronized void configChanged() {
+        if (scheduler.isShutdown()) {
+            return;
         }
-        catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while waiting for clean up scheduler to shutdown", e);
+        if (eviction != null) {
+            eviction.cancel(false);
+            eviction = null;
         }
+        start();
+    }
+
+    @Override
+    public void shutdown() {
+        scheduler.shutdown();
     }
 
     private static class PoolCleanupExecutor implements Runnable, SynchronizedOperationCallback<Integer> {
         private Config cfg;
         @SuppressWarnings("rawtypes")
         private ZKObjectPool pool;
-        private ZKClient zk;
+        private PoolStore store;
         private PoolPaths paths;
+        private Counter evictions;
 
-        private Ordering<Stat> sorter = new Ordering<Stat>() {
+        private Ordering<Entry<String, Long>> sorter = new Ordering<Entry<String, Long>>() {
             @Override
-            public int compare(Stat left, Stat right) {
-                return Longs.compare(left.getMtime(), right.getMtime());
+            public int compare(Entry<String, Long> left, Entry<String, Long> right) {
+                return Longs.compare(left.getValue(), right.getValue());
             }
         };
 
         public PoolCleanupExecutor(ZKObjectPool<?> pool) {
             this.pool = pool;
-            this.zk = pool.getZk();
+            this.store = pool.getStore();
             this.cfg = pool.getConfig();
             this.paths = pool.getPaths();
+            this.evictions = pool.getMetrics().counter(PoolMetrics.EVICTIONS);
         }
 
         @Override
         public void run() {
-            zk.doSynchronized(paths.evictionLock(), this);
+            store.doSynchronized(paths.evictionLock(), this);
         }
 
         @Override
         @SuppressWarnings("unchecked")
         public Integer perform() throws InterruptedException, KeeperException {
-            Map<Stat, String> stats = zk.getChildrenStats(paths.unused());
-            List<Stat> sortedStats = sorter.immutableSortedCopy(stats.keySet());
+            Map<String, Long> stats = store.modifiedTimes(Area.UNUSED);
+            List<Entry<String, Long>> sortedStats = sorter.immutableSortedCopy(stats.entrySet());
             int objsToTest = sortedStats.size() < cfg.getNumTestsPerEviction() ? sortedStats.size() : cfg
                     .getNumTestsPerEviction();
             LOGGER.debug("Starting Eviction, found {} unused objects ", sortedStats.size());
             int evicted = 0;
+            int failedIdle = 0;
             try {
                 for (int i = 0; i < objsToTest; i++) {
-                    Stat nodeStat = sortedStats.get(i);
-                    if (shouldEvict(nodeStat)) {
-                        String unusedNode = stats.get(nodeStat);
+                    Entry<String, Long> nodeStat = sortedStats.get(i);
+                    String unusedNode = nodeStat.getKey();
+                    if (shouldEvict(nodeStat.getValue())) {
                         Object unusedObj = pool.borrowSpecific(unusedNode);
                         if (unusedObj != null && pool.invalidate(unusedObj)) {
                             evicted++;
+                            evictions.inc();
                         }
+                    } else if (cfg.isTestWhileIdle() && pool.testIdle(unusedNode, nodeStat.getValue())) {
+                        failedIdle++;
                     }
                 }
             }
@@ -99,12 +117,15 @@ public class PoolCleanup<T> implements ObjectPoolTask<T> {
             if (evicted > 0) {
                 LOGGER.info("Evicted {} objects ", evicted);
             }
+            if (failedIdle > 0) {
+                LOGGER.info("Removed {} idle objects that failed validation", failedIdle);
+            }
             return evicted;
         }
 
-        private boolean shouldEvict(Stat stat) {
+        private boolean shouldEvict(long mtime) {
             Config cfg = pool.getConfig();
-            long idleTime = cfg.getIntrvlUnit().convert(System.currentTimeMillis() - stat.getMtime(),
+            long idleTime = cfg.getIntrvlUnit().convert(System.currentTimeMillis() - mtime,
                     TimeUnit.MILLISECONDS);
             return idleTime >= cfg.getMaxIdleIntrvl();
         }
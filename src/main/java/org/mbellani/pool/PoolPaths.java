@@ -17,7 +17,14 @@ public class PoolPaths {
         CRASH_CLEANUP_LOCK,
         EVICTION_LOCK,
         ZOMBIES,
-        ZOMBIES_LOCK
+        ZOMBIES_LOCK,
+        PROPERTIES,
+        CREATE_PERMITS,
+        CHUNKS,
+        TAGS,
+        NODE_TAGS,
+        SHARED,
+        PERMITS
     }
 
     private Map<KEYS, String> paths = Maps.newLinkedHashMap();
@@ -35,6 +42,13 @@ public class PoolPaths {
         paths.put(KEYS.EVICTION_LOCK, this.base + "/eviction-lock");
         paths.put(KEYS.ZOMBIES, this.base + "/zombies");
         paths.put(KEYS.ZOMBIES_LOCK, this.base + "/zombies-lock");
+        paths.put(KEYS.PROPERTIES, this.base + "/properties");
+        paths.put(KEYS.CREATE_PERMITS, this.base + "/create-permits");
+        paths.put(KEYS.CHUNKS, this.base + "/chunks");
+        paths.put(KEYS.TAGS, this.base + "/tags");
+        paths.put(KEYS.NODE_TAGS, this.base + "/node-tags");
+        paths.put(KEYS.SHARED, this.base + "/shared");
+        paths.put(KEYS.PERMITS, this.base + "/permits");
     }
 
     public String base() {
@@ -77,6 +91,72 @@ public class PoolPaths {
         return paths.get(KEYS.ZOMBIES_LOCK);
     }
 
+    public String properties() {
+        return paths.get(KEYS.PROPERTIES);
+    }
+
+    public String property(String name) {
+        return properties() + "/" + name;
+    }
+
+    public String createPermits() {
+        return paths.get(KEYS.CREATE_PERMITS);
+    }
+
+    /**
+     * Parent of the chunks of payloads too large for one node.
+     */
+    public String chunks() {
+        return paths.get(KEYS.CHUNKS);
+    }
+
+    /**
+     * Parent of the tag indexes, each tag has the unused objects carrying it as children.
+     */
+    public String tags() {
+        return paths.get(KEYS.TAGS);
+    }
+
+    public String tag(String tag) {
+        return tags() + "/" + tag;
+    }
+
+    /**
+     * Parent of the tags of each tagged object, the index entries of an object are found through them.
+     */
+    public String nodeTags() {
+        return paths.get(KEYS.NODE_TAGS);
+    }
+
+    /**
+     * Parent of the objects borrowed by several holders at once, each has its holders as children.
+     */
+    public String shared() {
+        return paths.get(KEYS.SHARED);
+    }
+
+    /**
+     * Parent of the permits of a {@link DistributedSemaphore}.
+     */
+    public String permits() {
+        return paths.get(KEYS.PERMITS);
+    }
+
+    /**
+     * Parent of the pools of a {@link KeyedObjectPool}, one per key. Not part of {@link #all()}, only keyed pools
+     * create it.
+     */
+    public String keys() {
+        return base + "/keys";
+    }
+
+    /**
+     * Name of the pool of one key, relative to the root like the names pools are created with.
+     */
+    public String key(String key) {
+        return keys().substring(1) + "/" + key;
+    }
+
     public Collection<String> all() {
         return paths.values();
     }
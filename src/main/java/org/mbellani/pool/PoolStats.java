@@ -0,0 +1,50 @@
+package org.mbellani.pool;
+
+/**
+ * Counts of a pool taken together, see {@link ZKObjectPool#snapshot()}.
+ */
+public class PoolStats {
+
+    private final int size;
+    private final int used;
+    private final int unused;
+    private final int zombies;
+    private final long timestamp;
+
+    public PoolStats(int size, int used, int unused, int zombies, long timestamp) {
+        this.size = size;
+        this.used = used;
+        this.unused = unused;
+        this.zombies = zombies;
+        this.timestamp = timestamp;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getUsed() {
+        return used;
+    }
+
+    public int getUnused() {
+        return unused;
+    }
+
+    public int getZombies() {
+        return zombies;
+    }
+
+    /**
+     * When the snapshot was put together, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStats [size=" + size + ", used=" + used + ", unused=" + unused + ", zombies=" + zombies + "]";
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.mbellani.pool;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.Listener;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Child counts of the pool areas kept locally. A count is read again only when a child watch reports a change, this
+ * participant changed the area itself, or it is older than the staleness bound, which also covers watches lost with
+ * a session. Whatever needs reading is read in one batch.
+ */
+class PoolStatsCache implements Listener {
+
+    private static final Area[] AREAS = { Area.MASTER, Area.USED, Area.UNUSED, Area.ZOMBIES };
+
+    private final PoolStore store;
+    private final long maxStalenessNanos;
+    private final AtomicIntegerArray dirty = new AtomicIntegerArray(AREAS.length);
+    private final AtomicLongArray refreshed = new AtomicLongArray(AREAS.length);
+    private final int[] counts = new int[AREAS.length];
+    private volatile PoolStats stats;
+    private volatile boolean refreshing;
+
+    PoolStatsCache(PoolStore store, long maxStalenessNanos) {
+        this.store = store;
+        this.maxStalenessNanos = maxStalenessNanos;
+        for (int i = 0; i < AREAS.length; i++) {
+            dirty.set(i, 1);
+        }
+    }
+
+    PoolStats snapshot(boolean force) {
+        // refreshing is read last, a refresh clears the flags only after raising it.
+        if (force || stats == null || needsRefresh(System.nanoTime()) || refreshing) {
+            refresh(force);
+        }
+        return stats;
+    }
+
+    /**
+     * Marks areas this participant just changed, so it reads its own writes.
+     */
+    void invalidate(Area... areas) {
+        for (Area area : areas) {
+            int i = index(area);
+            if (i >= 0) {
+                dirty.set(i, 1);
+            }
+        }
+    }
+
+    @Override
+    public void changed(Area area) {
+        invalidate(area);
+    }
+
+    private boolean needsRefresh(long now) {
+        for (int i = 0; i < AREAS.length; i++) {
+            if (stale(i, now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean stale(int i, long now) {
+        return dirty.get(i) == 1 || now - refreshed.get(i) > maxStalenessNanos;
+    }
+
+    private synchronized void refresh(boolean force) {
+        refreshing = true;
+        try {
+            long now = System.nanoTime();
+            List<Integer> indexes = Lists.newArrayListWithCapacity(AREAS.length);
+            for (int i = 0; i < AREAS.length; i++) {
+                if (force || stats == null || stale(i, now)) {
+                    // cleared before reading, a change noticed while the read is in flight marks it again.
+                    dirty.set(i, 0);
+                    refreshed.set(i, now);
+                    indexes.add(i);
+                }
+            }
+            if (!indexes.isEmpty()) {
+                read(indexes);
+            }
+        } finally {
+            refreshing = false;
+        }
+    }
+
+    private void read(List<Integer> indexes) {
+        Area[] areas = new Area[indexes.size()];
+        for (int i = 0; i < areas.length; i++) {
+            areas[i] = AREAS[indexes.get(i)];
+        }
+        int[] read = store.count(this, areas);
+        for (int i = 0; i < read.length; i++) {
+            int index = indexes.get(i);
+            if (read[i] >= 0) {
+                counts[index] = read[i];
+            } else {
+                dirty.set(index, 1);
+            }
+        }
+        stats = new PoolStats(counts[0], counts[1], counts[2], counts[3], System.currentTimeMillis());
+    }
+
+    private static int index(Area area) {
+        for (int i = 0; i < AREAS.length; i++) {
+            if (AREAS[i] == area) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
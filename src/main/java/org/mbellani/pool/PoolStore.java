@@ -0,0 +1,293 @@
+package org.mbellani.pool;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.mbellani.zk.ZKClient.SynchronizedOperationCallback;
+
+/**
+ * Coordination backend for a pool. Holds the master/used/unused/zombies/participants model the pool logic runs on,
+ * every participant talks to the pool state only through this interface. Each instance represents one participant's
+ * session: objects claimed through it are released when the session goes away.
+ */
+public interface PoolStore {
+
+    public static enum Area {
+        MASTER,
+        USED,
+        UNUSED,
+        ZOMBIES,
+        PARTICIPANTS,
+        SHARED
+    }
+
+    /**
+     * Optional capabilities, a store without one throws {@link UnsupportedOperationException} from its operations.
+     * Callers check once when they set up and leave the feature out, rather than finding out on every call.
+     */
+    public static enum Feature {
+        /** Pool properties, the live config, autoscaling, the codec record and shared breaker probes run on them. */
+        PROPERTIES,
+        /** Creation permits and counted permits held by the participants. */
+        PERMITS,
+        /** Tags and weights of objects. */
+        TAGS,
+        /** Objects lent to several holders at once and drained. */
+        SHARING
+    }
+
+    /**
+     * One shot notification of a change in the children of an {@link Area}, same semantics as a zookeeper child watch.
+     * Registering a listener again before it fired has no further effect.
+     */
+    public static interface Listener {
+        void changed(Area area);
+    }
+
+    /**
+     * One shot notification of a pool property being set or removed, registering a listener again before it fired
+     * has no further effect.
+     */
+    public static interface PropertyListener {
+        void changed(String property);
+    }
+
+    /**
+     * One shot notification that a creation permit may have been handed back.
+     */
+    public static interface PermitListener {
+        void released();
+    }
+
+    /**
+     * Notification that this participant's session expired and was replaced, with it went its registration and the
+     * claims on the objects it had borrowed. Listeners that were waiting on a change are notified once more on the new
+     * session before this is called.
+     */
+    public static interface SessionListener {
+        void sessionRenewed();
+    }
+
+    boolean supports(Feature feature);
+
+    /**
+     * Creates the storage for the pool, returns false if another participant already did.
+     */
+    boolean create();
+
+    /**
+     * Removes all the pool state.
+     */
+    void destroy();
+
+    void shutdown();
+
+    boolean isShutdown();
+
+    /**
+     * How long the store has been out of reach in nanoseconds, 0 while it can be reached. Calls made meanwhile may
+     * block or fail.
+     */
+    long unreachableNanos();
+
+    String register(byte[] data);
+
+    boolean isRegistered(String id);
+
+    void deregister(String id);
+
+    List<String> children(Area area);
+
+    List<String> children(Area area, Listener listener);
+
+    int count(Area area);
+
+    /**
+     * Counts the children of each area and registers the listener on all of them, backends that talk to a server
+     * issue the reads together. A count is -1 if it could not be read.
+     */
+    int[] count(Listener listener, Area... areas);
+
+    boolean exists(Area area, String node);
+
+    /**
+     * Data of a child. For {@link Area#USED} that is what the borrower recorded with its claim, backends that have
+     * nowhere to keep it return null.
+     */
+    byte[] getData(Area area, String node);
+
+    /**
+     * Last modification time of each child in the area, keyed by node.
+     */
+    Map<String, Long> modifiedTimes(Area area);
+
+    /**
+     * Adds a new object to the master list and places it in either {@link Area#USED} or {@link Area#UNUSED}, as one
+     * atomic step with checking the pool holds fewer than {@code capacity} objects. Returns null if it does not, no
+     * matter how many participants add at the same time the pool never grows past the capacity.
+     */
+    String add(byte[] data, Area to, int capacity);
+
+    /**
+     * Same as {@link #add(byte[], Area, int)} for an object carrying tags. For as long as the object is unused it is
+     * listed under each of its tags, every move in or out of {@link Area#UNUSED} updates the listings in the same
+     * atomic step.
+     */
+    String add(byte[] data, Set<String> tags, Area to, int capacity);
+
+    /**
+     * Same as {@link #add(byte[], Set, Area, int)} for an object counting as {@code weight} units against a capacity
+     * given in units. The weight is recorded with the object in the same atomic step, checked against the weight of
+     * the objects the pool holds, and listed with the tags so unused objects can be found by weight, see
+     * {@link Weights}.
+     */
+    String add(byte[] data, Set<String> tags, int weight, Area to, int capacity);
+
+    /**
+     * Units an object counts as, one unless it was added with a weight.
+     */
+    int weight(String node);
+
+    /**
+     * Units the objects in the area count as together.
+     */
+    int weight(Area area);
+
+    /**
+     * Unused objects carrying the tag, notifying the listener with {@link Area#UNUSED} of the next change to them.
+     */
+    List<String> tagged(String tag, Listener listener);
+
+    /**
+     * Joins the holders of an object several borrowers may use at once, moving it from {@link Area#UNUSED} to
+     * {@link Area#SHARED} for the first one. Returns the holder to leave with, null if the object has
+     * {@code maxHolders} holders already, is being drained or is neither unused nor shared. Holders go away with the
+     * session.
+     */
+    String share(String node, byte[] holderInfo, int maxHolders);
+
+    /**
+     * Leaves a shared object, the last holder to leave puts it back in {@link Area#UNUSED} unless it is being drained.
+     */
+    void unshare(String node, String holder);
+
+    /**
+     * Puts a shared object whose holders and drainer are all gone back in {@link Area#UNUSED}, fenced like the last
+     * holder leaving. Returns false if someone still holds or drains it, or it has moved on.
+     */
+    boolean restoreShared(String node);
+
+    /**
+     * Holders of each shared object that is not being drained, notifying the listener with {@link Area#SHARED} of
+     * the next change to any of them.
+     */
+    Map<String, Integer> sharedLoad(Listener listener);
+
+    /**
+     * Keeps new holders off a shared object and claims it like {@link #claim(String, byte[])} once the last holder
+     * left. False while holders remain or another session drains it, the object stays marked until it is claimed,
+     * {@link #undrain(String)} is called or the session goes away.
+     */
+    boolean drain(String node, byte[] borrowInfo);
+
+    void undrain(String node);
+
+    /**
+     * Moves the node from unused to used, returns false if someone else got there first. {@code borrowInfo} describes
+     * the borrow and is kept with the claim, it may be null.
+     */
+    boolean claim(String node, byte[] borrowInfo);
+
+    void release(String node);
+
+    /**
+     * Same as {@link #release(String)} for an object that was only looked at, its
+     * {@link #modifiedTimes(Area) modified time} stays {@code idleSince} so that it keeps counting as idle.
+     */
+    void release(String node, long idleSince);
+
+    /**
+     * Claims again a node this participant still holds after its session was renewed, whether it is back in unused or
+     * in neither area. Returns false if the node left the pool or another participant claimed it in the meantime, that
+     * claim stands.
+     */
+    boolean reclaim(String node, byte[] borrowInfo);
+
+    /**
+     * Backends whose sessions never expire accept the listener and never call it.
+     */
+    void addSessionListener(SessionListener listener);
+
+    /**
+     * Removes a used node from the pool altogether.
+     */
+    void remove(String node);
+
+    void markZombie(String node);
+
+    /**
+     * Moves a zombie back to unused, returns false if the node wasn't a zombie.
+     */
+    boolean unzombie(String node);
+
+    /**
+     * Removes a zombie node from the pool altogether.
+     */
+    void drop(String node);
+
+    /**
+     * Puts a node that is neither used nor unused back into unused, returns false if it was caught in transition.
+     */
+    boolean restore(String node);
+
+    /**
+     * Reads a small pool wide value shared by all participants, null if it was never set.
+     */
+    Versioned getProperty(String name);
+
+    /**
+     * Same as {@link #getProperty(String)}, notifying the listener of the next change, also when the property does not
+     * exist yet.
+     */
+    Versioned getProperty(String name, PropertyListener listener);
+
+    /**
+     * Writes a pool property if it is still at {@code version}, {@link Versioned#NONE} creates it. Returns false if
+     * another participant changed it first.
+     */
+    boolean setProperty(String name, byte[] data, int version);
+
+    void removeProperty(String name);
+
+    List<String> properties();
+
+    /**
+     * Takes one of the {@code limit} permits to create an object that all participants share, returns null when they
+     * are all taken and notifies the listener once one might be free again. A permit goes away with the participant
+     * holding it.
+     */
+    String takeCreatePermit(int limit, PermitListener listener);
+
+    void returnCreatePermit(String permit);
+
+    /**
+     * Takes {@code count} of the {@code limit} permits of a {@link DistributedSemaphore} at once, the way
+     * {@link #takeCreatePermit(int, PermitListener)} takes one. Null unless all of them were free, the listener is
+     * notified once one may have been returned.
+     */
+    List<String> takePermits(int count, int limit, PermitListener listener);
+
+    /**
+     * Returns permits, those that went with an expired session are skipped.
+     */
+    void returnPermits(List<String> permits);
+
+    /**
+     * Permits held by all participants, taking ones included.
+     */
+    int permitsTaken();
+
+    <R> R doSynchronized(String lock, SynchronizedOperationCallback<R> callback);
+
+}
@@ -0,0 +1,58 @@
+package org.mbellani.pool;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Serializes objects of a {@link BufferObjectFactory} into reusable buffers. Buffers start at the largest size an
+ * object needed so far, so once every thread that serializes has its buffer the only allocation left is the array of
+ * exactly the object's size the store takes.
+ */
+class SerializationBuffers<T> {
+
+    private static final int INITIAL_SIZE = 1024;
+
+    private final BufferObjectFactory<T> factory;
+    private final BlockingQueue<ByteBuffer> free;
+    private volatile int size = INITIAL_SIZE;
+
+    SerializationBuffers(BufferObjectFactory<T> factory, int pooled) {
+        this.factory = factory;
+        this.free = new ArrayBlockingQueue<ByteBuffer>(pooled);
+    }
+
+    byte[] serialize(T obj) {
+        ByteBuffer buffer = acquire();
+        try {
+            for (;;) {
+                try {
+                    factory.serialize(obj, buffer);
+                    return Arrays.copyOf(buffer.array(), buffer.position());
+                } catch (BufferOverflowException e) {
+                    size = Math.max(size, buffer.capacity() * 2);
+                    buffer = ByteBuffer.allocate(size);
+                }
+            }
+        } finally {
+            buffer.clear();
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * Reads straight from the stored bytes, the factory gets a view it can't write through.
+     */
+    T deserialize(byte[] data) {
+        return factory.deserialize(data == null ? null : ByteBuffer.wrap(data).asReadOnlyBuffer());
+    }
+
+    private ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        // pooled before a larger object came along.
+        return buffer != null && buffer.capacity() >= size ? buffer : ByteBuffer.allocate(size);
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.mbellani.pool;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.Listener;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+
+/**
+ * Holders of the shared objects kept locally. Like the {@link PoolStatsCache} the view is read again once a watch
+ * reports a change, this participant joined or left an object itself or it is older than the staleness bound.
+ */
+class SharedLoad implements Listener {
+
+    private final PoolStore store;
+    private final long maxStalenessNanos;
+    private final Object changes = new Object();
+    private long generation;
+    private volatile boolean dirty = true;
+    private volatile long refreshed;
+    private volatile Map<String, Integer> load = ImmutableMap.of();
+
+    SharedLoad(PoolStore store, long maxStalenessNanos) {
+        this.store = store;
+        this.maxStalenessNanos = maxStalenessNanos;
+    }
+
+    /**
+     * Shared objects with fewer than {@code maxHolders} holders, the least loaded first.
+     */
+    List<String> leastLoaded(int maxHolders) {
+        final Map<String, Integer> current = view();
+        List<String> nodes = Lists.newArrayList();
+        for (Map.Entry<String, Integer> e : current.entrySet()) {
+            if (e.getValue() < maxHolders) {
+                nodes.add(e.getKey());
+            }
+        }
+        // ties go to a random one, participants with the same view would otherwise all join the same object.
+        Collections.shuffle(nodes);
+        return new Ordering<String>() {
+            @Override
+            public int compare(String left, String right) {
+                return current.get(left).compareTo(current.get(right));
+            }
+        }.sortedCopy(nodes);
+    }
+
+    void invalidate() {
+        dirty = true;
+        signal();
+    }
+
+    @Override
+    public void changed(Area area) {
+        invalidate();
+    }
+
+    /**
+     * Counts changes, read it before looking for an object and {@link #await(long, long)} a change after.
+     */
+    long generation() {
+        synchronized (changes) {
+            return generation;
+        }
+    }
+
+    /**
+     * Waits for the holders to change after the generation seen, false once the deadline passed.
+     */
+    boolean await(long seen, long deadlineNanos) throws InterruptedException {
+        // watches fire once, reading sets them again.
+        view();
+        synchronized (changes) {
+            while (generation == seen) {
+                long left = deadlineNanos - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(changes, left);
+            }
+            return true;
+        }
+    }
+
+    private synchronized Map<String, Integer> view() {
+        long now = System.nanoTime();
+        if (dirty || now - refreshed > maxStalenessNanos) {
+            // cleared before reading, a change noticed while the read is in flight marks it again.
+            dirty = false;
+            refreshed = now;
+            load = ImmutableMap.copyOf(store.sharedLoad(this));
+        }
+        return load;
+    }
+
+    private void signal() {
+        synchronized (changes) {
+            generation++;
+            changes.notifyAll();
+        }
+    }
+
+}
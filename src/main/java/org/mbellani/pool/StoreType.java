@@ -0,0 +1,60 @@
+package org.mbellani.pool;
+
+import java.io.File;
+
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.zk.ZKClient;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Coordination backends a pool can run on.
+ */
+public enum StoreType {
+
+    ZOOKEEPER {
+        @Override
+        public PoolStore create(Config config, PoolPaths paths, PoolMetrics metrics) {
+            PoolStore store = null;
+            try {
+                ZKClient zk = new ZKClient(config.getZkConnectString());
+                zk.setMetrics(metrics);
+                zk.setRetryPolicy(config.getRetryPolicy());
+                ZKPoolStore zkStore = new ZKPoolStore(zk, paths);
+                zkStore.setChunkSize(config.getChunkSize());
+                store = zkStore;
+            } catch (Exception e) {
+                Throwables.propagate(e);
+            }
+            return store;
+        }
+    },
+
+    /**
+     * Single process mode, participants are pools with the same name in one JVM.
+     */
+    IN_MEMORY {
+        @Override
+        public PoolStore create(Config config, PoolPaths paths, PoolMetrics metrics) {
+            return new InMemoryPoolStore(config.getName());
+        }
+    },
+
+    /**
+     * Participants on the same host sharing a memory mapped file, by default {@code <tmpdir>/<name>.pool}.
+     */
+    MAPPED_FILE {
+        @Override
+        public PoolStore create(Config config, PoolPaths paths, PoolMetrics metrics) {
+            String file = config.getMappedFile();
+            File path = file != null ? new File(file) : new File(System.getProperty("java.io.tmpdir"), config.getName()
+                    + ".pool");
+            // room for objects in transition between being created and the pool noticing it is full.
+            return new MappedPoolStore(path, config.getSize() * 2, config.getMappedSlotSize(),
+                    config.getMappedSessions());
+        }
+    };
+
+    public abstract PoolStore create(Config config, PoolPaths paths, PoolMetrics metrics);
+
+}
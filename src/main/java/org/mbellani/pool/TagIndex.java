@@ -0,0 +1,153 @@
+package org.mbellani.pool;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.Listener;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The unused objects of each tag kept locally as bit sets of node numbers, so a query intersects them without a round
+ * trip per tag. Like the {@link PoolStatsCache} a tag is read again once its watch reports a change, this participant
+ * changed it or it is older than the staleness bound. Sets are replaced, never changed, readers need no lock.
+ */
+class TagIndex {
+
+    private class Entry implements Listener {
+        final String tag;
+        volatile boolean dirty = true;
+        volatile long refreshed;
+        volatile BitSet nodes = new BitSet();
+
+        Entry(String tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public void changed(Area area) {
+            dirty = true;
+            signal();
+        }
+
+        synchronized BitSet nodes() {
+            long now = System.nanoTime();
+            if (dirty || now - refreshed > maxStalenessNanos) {
+                // cleared before reading, a change noticed while the read is in flight marks it again.
+                dirty = false;
+                refreshed = now;
+                BitSet read = new BitSet();
+                for (String node : store.tagged(tag, this)) {
+                    read.set(Integer.parseInt(node));
+                }
+                nodes = read;
+            }
+            return nodes;
+        }
+    }
+
+    private final PoolStore store;
+    private final long maxStalenessNanos;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Object changes = new Object();
+    private long generation;
+
+    TagIndex(PoolStore store, long maxStalenessNanos) {
+        this.store = store;
+        this.maxStalenessNanos = maxStalenessNanos;
+    }
+
+    /**
+     * Unused objects carrying every required tag and none of the excluded ones, as far as this participant knows.
+     */
+    List<String> matching(TagQuery query) {
+        BitSet matches = null;
+        for (String tag : query.getRequired()) {
+            BitSet nodes = entry(tag).nodes();
+            if (matches == null) {
+                matches = (BitSet) nodes.clone();
+            } else {
+                matches.and(nodes);
+            }
+            if (matches.isEmpty()) {
+                return Lists.newArrayList();
+            }
+        }
+        for (String tag : query.getExcluded()) {
+            matches.andNot(entry(tag).nodes());
+        }
+        List<String> nodes = Lists.newArrayListWithCapacity(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            nodes.add(String.format("%010d", i));
+        }
+        return nodes;
+    }
+
+    /**
+     * Marks the tags of a query whose objects were taken by others in the meantime.
+     */
+    void invalidate(TagQuery query) {
+        for (String tag : query.getRequired()) {
+            entry(tag).dirty = true;
+        }
+    }
+
+    /**
+     * Marks every tag after this participant put an object back, without knowing which tags it carries.
+     */
+    void invalidateAll() {
+        for (Entry entry : entries.values()) {
+            entry.dirty = true;
+        }
+        signal();
+    }
+
+    /**
+     * Counts changes to any tag, read it before looking for an object and {@link #await(long, long)} a change after.
+     */
+    long generation() {
+        synchronized (changes) {
+            return generation;
+        }
+    }
+
+    /**
+     * Waits for a tag to change after the generation seen, false once the deadline passed.
+     */
+    boolean await(long seen, long deadlineNanos) throws InterruptedException {
+        synchronized (changes) {
+            while (generation == seen) {
+                long left = deadlineNanos - System.nanoTime();
+                if (left <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(changes, left);
+            }
+            return true;
+        }
+    }
+
+    private void signal() {
+        synchronized (changes) {
+            generation++;
+            changes.notifyAll();
+        }
+    }
+
+    private Entry entry(String tag) {
+        Entry entry = entries.get(tag);
+        if (entry == null) {
+            Entry created = new Entry(tag);
+            entry = entries.putIfAbsent(tag, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+}
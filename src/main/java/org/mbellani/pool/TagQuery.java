@@ -0,0 +1,44 @@
+package org.mbellani.pool;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The tags an object borrowed by {@link ZKObjectPool#borrow(TagQuery)} has to carry, and those it must not.
+ */
+public class TagQuery {
+
+    private final Set<String> required;
+    private final Set<String> excluded;
+
+    private TagQuery(Set<String> required, Set<String> excluded) {
+        checkArgument(!required.isEmpty(), "Please require at least one tag.");
+        this.required = required;
+        this.excluded = excluded;
+    }
+
+    public static TagQuery allOf(String... tags) {
+        return new TagQuery(ImmutableSet.copyOf(tags), ImmutableSet.<String> of());
+    }
+
+    public TagQuery without(String... tags) {
+        return new TagQuery(required, ImmutableSet.<String> builder().addAll(excluded).add(tags).build());
+    }
+
+    public Set<String> getRequired() {
+        return required;
+    }
+
+    public Set<String> getExcluded() {
+        return excluded;
+    }
+
+    @Override
+    public String toString() {
+        return "TagQuery [required=" + required + ", excluded=" + excluded + "]";
+    }
+
+}
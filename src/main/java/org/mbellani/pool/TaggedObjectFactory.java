@@ -0,0 +1,14 @@
+package org.mbellani.pool;
+
+import java.util.Set;
+
+/**
+ * Factories whose objects carry tags, a region or a capability say, that {@link ZKObjectPool#borrow(TagQuery)} picks
+ * objects by. Tags are asked for once when the object is created and stay with it, they can not contain '/' or line
+ * breaks.
+ */
+public interface TaggedObjectFactory<T> extends ObjectFactory<T> {
+
+    Set<String> tags(T t);
+
+}
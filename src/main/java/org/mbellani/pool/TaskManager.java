@@ -16,6 +16,9 @@ public class TaskManager<T> {
         tasks.add(new CrashDetector<T>(pool));
         tasks.add(new PoolCleanup<T>(pool));
         tasks.add(new ZombieMgr<T>(pool));
+        tasks.add(new AbandonedObjectMgr<T>(pool));
+        tasks.add(new CapacityController<T>(pool));
+        tasks.add(new MetricsReporter<T>(pool));
     }
 
     public void start() {
@@ -32,4 +35,15 @@ public class TaskManager<T> {
         }
     }
 
+    public void configChanged() {
+        for (ObjectPoolTask<T> task : tasks) {
+            try {
+                task.configChanged();
+            }
+            catch (Exception e) {
+                LOGGER.error("Error applying changed config to " + task.getClass().getName(), e);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,130 @@
+package org.mbellani.pool;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What an {@link ObjectPoolTask} schedules its runs through. Either a thread of its own or a share of an executor other
+ * tasks run on too, as the pools of a {@link KeyedObjectPool} do. Shutting down cancels what the task scheduled and
+ * waits for runs in progress, a shared executor keeps going for the others.
+ */
+class TaskScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TaskScheduler.class);
+    private static final long SHUTDOWN_WAIT_SECONDS = 10;
+
+    private final ScheduledExecutorService executor;
+    private final boolean owned;
+    private final Set<ScheduledFuture<?>> scheduled = Collections
+            .newSetFromMap(new ConcurrentHashMap<ScheduledFuture<?>, Boolean>());
+    // runs hold the read lock, shutting down takes the write lock once they are done.
+    private final ReadWriteLock running = new ReentrantReadWriteLock();
+    private volatile boolean shutdown;
+
+    TaskScheduler() {
+        this(ownExecutor(null), true);
+    }
+
+    TaskScheduler(ThreadFactory threads) {
+        this(ownExecutor(threads), true);
+    }
+
+    private TaskScheduler(ScheduledExecutorService executor, boolean owned) {
+        this.executor = executor;
+        this.owned = owned;
+    }
+
+    /**
+     * A share of an executor the caller owns and shuts down.
+     */
+    static TaskScheduler shared(ScheduledExecutorService executor) {
+        return new TaskScheduler(executor, false);
+    }
+
+    static ScheduledThreadPoolExecutor ownExecutor(ThreadFactory threads) {
+        ScheduledThreadPoolExecutor executor = threads == null ? new ScheduledThreadPoolExecutor(1)
+                : new ScheduledThreadPoolExecutor(1, threads);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+
+    ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return track(executor.scheduleAtFixedRate(guard(task), initialDelay, period, unit));
+    }
+
+    ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return track(executor.schedule(guard(task), delay, unit));
+    }
+
+    boolean isShutdown() {
+        return shutdown;
+    }
+
+    void shutdown() {
+        shutdown = true;
+        for (ScheduledFuture<?> future : scheduled) {
+            future.cancel(false);
+        }
+        scheduled.clear();
+        try {
+            if (!running.writeLock().tryLock(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("Gave up waiting for scheduled runs to finish");
+            } else {
+                running.writeLock().unlock();
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while waiting for scheduled runs to finish", e);
+            Thread.currentThread().interrupt();
+        }
+        if (owned) {
+            executor.shutdown();
+        }
+    }
+
+    private ScheduledFuture<?> track(ScheduledFuture<?> future) {
+        for (Iterator<ScheduledFuture<?>> i = scheduled.iterator(); i.hasNext();) {
+            if (i.next().isDone()) {
+                i.remove();
+            }
+        }
+        scheduled.add(future);
+        if (shutdown) {
+            // lost a race with shutdown.
+            future.cancel(false);
+        }
+        return future;
+    }
+
+    private Runnable guard(final Runnable task) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Scheduler is shut down");
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                running.readLock().lock();
+                try {
+                    if (!shutdown) {
+                        task.run();
+                    }
+                } finally {
+                    running.readLock().unlock();
+                }
+            }
+        };
+    }
+
+}
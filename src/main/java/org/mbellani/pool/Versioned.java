@@ -0,0 +1,30 @@
+package org.mbellani.pool;
+
+/**
+ * A pool property together with the version it was read at, writing it back with that version fails if someone else
+ * changed it in between.
+ */
+public class Versioned {
+
+    /**
+     * Version to write a property with that must not exist yet.
+     */
+    public static final int NONE = -1;
+
+    private final byte[] data;
+    private final int version;
+
+    public Versioned(byte[] data, int version) {
+        this.data = data;
+        this.version = version;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+}
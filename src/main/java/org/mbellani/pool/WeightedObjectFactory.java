@@ -0,0 +1,12 @@
+package org.mbellani.pool;
+
+/**
+ * Factories whose objects differ in cost, a large worker slot worth eight small ones say. The weight of an object is
+ * asked for once when it is created and stays with it. A pool of weighted objects measures its size and initial size
+ * in weight units, objects of other factories weigh one unit each.
+ */
+public interface WeightedObjectFactory<T> extends ObjectFactory<T> {
+
+    int weight(T t);
+
+}
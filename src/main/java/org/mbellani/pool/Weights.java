@@ -0,0 +1,53 @@
+package org.mbellani.pool;
+
+import java.util.Collection;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Weights travel with an object as reserved tags, so stores record them with the tags in the same atomic step as the
+ * object and keep them indexed with every claim and release. An object weighing more than one unit carries its exact
+ * weight and one tag for every power of two up to it, a borrow asking for a minimum weight looks in the index of the
+ * largest power of two not above it.
+ */
+final class Weights {
+
+    static final String EXACT = "weight:";
+    static final String AT_LEAST = "weight>=";
+
+    private Weights() {
+    }
+
+    static Set<String> tags(int weight) {
+        Set<String> tags = Sets.newHashSet();
+        if (weight > 1) {
+            tags.add(EXACT + weight);
+            for (int bucket = 2; bucket > 0 && bucket <= weight; bucket <<= 1) {
+                tags.add(AT_LEAST + bucket);
+            }
+        }
+        return tags;
+    }
+
+    static int of(Collection<String> tags) {
+        for (String tag : tags) {
+            if (tag.startsWith(EXACT)) {
+                return Integer.parseInt(tag.substring(EXACT.length()));
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Objects that may weigh {@code weight} or more, the ones weighing less still have to be filtered out.
+     */
+    static TagQuery atLeast(int weight) {
+        return TagQuery.allOf(AT_LEAST + Integer.highestOneBit(weight));
+    }
+
+    static boolean isReserved(String tag) {
+        return tag.startsWith(EXACT) || tag.startsWith(AT_LEAST);
+    }
+
+}
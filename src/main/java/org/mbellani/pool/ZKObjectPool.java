@@ -1,48 +1,231 @@
 package org.mbellani.pool;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Lists.newArrayList;
 import static org.mbellani.utils.Net.getAddress;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.KeeperException.NoNodeException;
-import org.mbellani.zk.ZKClient;
+import org.mbellani.codec.PayloadCodec;
+import org.mbellani.codec.PayloadCodecs;
+import org.mbellani.metrics.Counter;
+import org.mbellani.metrics.Gauge;
+import org.mbellani.metrics.Histogram;
+import org.mbellani.metrics.MetricsExporter;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.Feature;
+import org.mbellani.utils.RetryPolicy;
 import org.mbellani.zk.ZKClient.SynchronizedOperationCallback;
-import org.mbellani.zk.ZKClient.ZKTransWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
 
 public class ZKObjectPool<T> implements ObjectPool<T> {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ZKObjectPool.class);
+	private static final String CODEC_PROPERTY = "codec";
 
 	private Config config;
-	private ZKClient zk;
+	private PoolStore store;
+	private ScheduledExecutorService maintenance;
 	private PoolPaths paths;
-	private Map<T, String> borrowed = new HashMap<T, String>();
+	private Map<T, Borrow> borrowed = new ConcurrentHashMap<T, Borrow>();
+	// every holder deserializes its own copy, told apart by identity rather than equality.
+	private final Map<T, Holding> sharing = Collections.synchronizedMap(new IdentityHashMap<T, Holding>());
+	private Map<String, Long> lastValidated = new ConcurrentHashMap<String, Long>();
 	private ObjectFactory<T> factory;
+	private SerializationBuffers<T> buffers;
 	private boolean shutdown;
 	private String id;
-	private TaskManager<T> taskManager;
+	private volatile int capacity;
+	private volatile TaskManager<T> taskManager;
+	private LiveConfig liveConfig;
+	private CreationLimiter limiter;
+	private LocalLease<T> lease;
+	private volatile PayloadCodec codec = PayloadCodecs.NONE;
+	private CircuitBreaker createBreaker;
+	private CircuitBreaker validateBreaker;
+	private CircuitBreaker destroyBreaker;
+	// dropped from the pool while the destroy breaker was open, destroyed once it lets calls through.
+	private final Queue<T> undestroyed = new ConcurrentLinkedQueue<T>();
+	private PoolStatsCache statsCache;
+	private TagIndex tagIndex;
+	private SharedLoad sharedLoad;
+	private PoolMetrics metrics;
+	private Histogram borrowTime;
+	private Histogram returnTime;
+	private Histogram validateTime;
+	private Histogram validateOnBorrowTime;
+	private Histogram validateOnReturnTime;
+	private Histogram validateWhileIdleTime;
+	private Counter validationsSkipped;
+	private Histogram createTime;
+	private Histogram createPermitWait;
+	private Histogram deserializeTime;
+	private Counter claimCollisions;
+	private Counter zombiesMarked;
+	private Counter zombiesRevived;
+	private Counter zombiesDropped;
+	private Counter abandoned;
+	private Counter borrowMisses;
+	private Counter capacityRejections;
+	private Counter borrowRetries;
+	private Counter retriesExhausted;
+	private Counter createThrottled;
+	private Counter retired;
+	private Counter claimsRecovered;
+	private Counter claimsLost;
+	private Counter payloadBytes;
+	private Counter payloadStoredBytes;
+	private Counter localHostHits;
+	private Counter localRackHits;
+	private Counter localMisses;
+	private Counter sharedBorrows;
+	private Counter drains;
+	private TagQuery sameHost;
+	private TagQuery sameRack;
 	private Ordering<String> nodeSorter = new Ordering<String>() {
 		@Override
         public int compare(String leftNode, String rightNode) {
 			return Ints.compare(Integer.parseInt(leftNode), Integer.parseInt(rightNode));
 		}
 	};
+	private Ordering<Entry<String, Long>> oldestFirst = new Ordering<Entry<String, Long>>() {
+		@Override
+		public int compare(Entry<String, Long> left, Entry<String, Long> right) {
+			return Longs.compare(left.getValue(), right.getValue());
+		}
+	};
 
 	public ZKObjectPool(Config config) {
+		this(config, null, null);
+	}
+
+	/**
+	 * A pool on a store and a maintenance executor that it shares with other pools, as the pools of a
+	 * {@link KeyedObjectPool} do. Either may be null for one of its own.
+	 */
+	ZKObjectPool(Config config, PoolStore store, ScheduledExecutorService maintenance) {
 		checkArgument(config != null, "Please provide a valid zookeeper configuration.");
+		this.store = store;
+		this.maintenance = maintenance;
 		config.validate();
 		this.config = config;
+		this.capacity = config.getSize();
+		this.sameHost = TagQuery.allOf("host:" + getAddress());
+		this.sameRack = config.getRack() == null ? null : TagQuery.allOf("rack:" + config.getRack());
+		initMetrics();
+		createBreaker = new CircuitBreaker("create", this, PoolMetrics.BREAKER_CREATE_STATE,
+		        PoolMetrics.BREAKER_CREATE_REJECTED);
+		validateBreaker = new CircuitBreaker("validate", this, PoolMetrics.BREAKER_VALIDATE_STATE,
+		        PoolMetrics.BREAKER_VALIDATE_REJECTED);
+		destroyBreaker = new CircuitBreaker("destroy", this, PoolMetrics.BREAKER_DESTROY_STATE,
+		        PoolMetrics.BREAKER_DESTROY_REJECTED);
+	}
+
+	private void initMetrics() {
+		metrics = new PoolMetrics(config.getName(), config.isMetricsEnabled());
+		for (MetricsExporter exporter : config.getMetricsExporters()) {
+			metrics.addExporter(exporter);
+		}
+		borrowTime = metrics.histogram(PoolMetrics.BORROW);
+		returnTime = metrics.histogram(PoolMetrics.RETURN);
+		validateTime = metrics.histogram(PoolMetrics.VALIDATE);
+		validateOnBorrowTime = metrics.histogram(PoolMetrics.VALIDATE_ON_BORROW);
+		validateOnReturnTime = metrics.histogram(PoolMetrics.VALIDATE_ON_RETURN);
+		validateWhileIdleTime = metrics.histogram(PoolMetrics.VALIDATE_WHILE_IDLE);
+		validationsSkipped = metrics.counter(PoolMetrics.VALIDATIONS_SKIPPED);
+		createTime = metrics.histogram(PoolMetrics.CREATE);
+		createPermitWait = metrics.histogram(PoolMetrics.CREATE_PERMIT_WAIT);
+		deserializeTime = metrics.histogram(PoolMetrics.DESERIALIZE);
+		claimCollisions = metrics.counter(PoolMetrics.CLAIM_COLLISIONS);
+		zombiesMarked = metrics.counter(PoolMetrics.ZOMBIES_MARKED);
+		zombiesRevived = metrics.counter(PoolMetrics.ZOMBIES_REVIVED);
+		zombiesDropped = metrics.counter(PoolMetrics.ZOMBIES_DROPPED);
+		abandoned = metrics.counter(PoolMetrics.ABANDONED);
+		borrowMisses = metrics.counter(PoolMetrics.BORROW_MISSES);
+		capacityRejections = metrics.counter(PoolMetrics.CAPACITY_REJECTIONS);
+		borrowRetries = metrics.counter(PoolMetrics.BORROW_RETRIES);
+		retriesExhausted = metrics.counter(PoolMetrics.RETRIES_EXHAUSTED);
+		claimsRecovered = metrics.counter(PoolMetrics.CLAIMS_RECOVERED);
+		claimsLost = metrics.counter(PoolMetrics.CLAIMS_LOST);
+		payloadBytes = metrics.counter(PoolMetrics.PAYLOAD_BYTES);
+		payloadStoredBytes = metrics.counter(PoolMetrics.PAYLOAD_STORED_BYTES);
+		createThrottled = metrics.counter(PoolMetrics.CREATE_THROTTLED);
+		retired = metrics.counter(PoolMetrics.RETIRED);
+		localHostHits = metrics.counter(PoolMetrics.LOCAL_HOST_HITS);
+		localRackHits = metrics.counter(PoolMetrics.LOCAL_RACK_HITS);
+		localMisses = metrics.counter(PoolMetrics.LOCAL_MISSES);
+		sharedBorrows = metrics.counter(PoolMetrics.SHARED_BORROWS);
+		drains = metrics.counter(PoolMetrics.DRAINS);
+		metrics.gauge(PoolMetrics.BORROWED, new Gauge() {
+			@Override
+			public long getValue() {
+				return borrowed.size();
+			}
+		});
+		metrics.gauge(PoolMetrics.BREAKER_DESTROY_PENDING, new Gauge() {
+			@Override
+			public long getValue() {
+				return undestroyed.size();
+			}
+		});
+		metrics.gauge(PoolMetrics.SHARED_HELD, new Gauge() {
+			@Override
+			public long getValue() {
+				return sharing.size();
+			}
+		});
+		metrics.gauge(PoolMetrics.CAPACITY, new Gauge() {
+			@Override
+			public long getValue() {
+				return capacity;
+			}
+		});
+		metrics.gauge(PoolMetrics.CONFIG_VERSION, new Gauge() {
+			@Override
+			public long getValue() {
+				return getConfigVersion();
+			}
+		});
+		// stored bytes per 100 serialized bytes of the objects this participant added.
+		metrics.gauge(PoolMetrics.CODEC_RATIO, new Gauge() {
+			@Override
+			public long getValue() {
+				long raw = payloadBytes.getCount();
+				return raw == 0 ? 100 : payloadStoredBytes.getCount() * 100 / raw;
+			}
+		});
+		// percent of borrows preferring local objects that got one from this host or rack.
+		metrics.gauge(PoolMetrics.LOCAL_HIT_RATIO, new Gauge() {
+			@Override
+			public long getValue() {
+				long hits = localHostHits.getCount() + localRackHits.getCount();
+				long all = hits + localMisses.getCount();
+				return all == 0 ? 0 : hits * 100 / all;
+			}
+		});
 	}
 
 	public ObjectFactory<T> getFactory() {
@@ -50,12 +233,26 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public void setFactory(ObjectFactory<T> factory) {
+		checkArgument(!(factory instanceof WeightedObjectFactory) || keepsTags(),
+		        "Mapped file pools count slots, please use another store for weighted objects.");
+		checkArgument(!(factory instanceof TaggedObjectFactory) || keepsTags(),
+		        "Mapped file pools keep no tags, please use another store for tagged objects.");
 		this.factory = factory;
+		this.buffers = factory instanceof BufferObjectFactory ? new SerializationBuffers<T>(
+				(BufferObjectFactory<T>) factory, Runtime.getRuntime().availableProcessors()) : null;
 	}
 
-	public ZKClient getZk() {
-		return zk;
+	/**
+	 * The store is made on initialize unless one was handed in, until then the store type tells.
+	 */
+	private boolean keepsTags() {
+		return store != null ? store.supports(Feature.TAGS) : config.getStoreType() != StoreType.MAPPED_FILE;
+	}
+
+	public PoolStore getStore() {
+		return store;
 	}
 
 	@Override
@@ -67,68 +264,586 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 		return paths;
 	}
 
+	public PoolMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Participant id this pool instance registered with.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * How many objects the pool may hold right now, {@link Config#getSize()} unless autoscaling changed it.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	void setCapacity(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Version of the shared pool config this participant runs with, {@link Versioned#NONE} while it runs with the one
+	 * it was built with.
+	 */
+	public int getConfigVersion() {
+		return liveConfig == null ? Versioned.NONE : liveConfig.getVersion();
+	}
+
+	/**
+	 * Changes the settings named in {@link LiveConfig#KEYS} on every participant of the pool, returns the new config
+	 * version.
+	 */
+	public int updateConfig(Properties changes) {
+		checkState(liveConfig != null, "The pool has not been initialized.");
+		return liveConfig.update(changes);
+	}
+
+	/**
+	 * Puts a changed config to work: the capacity follows the size unless autoscaling owns it, the participant
+	 * registered longest retires idle objects past it and the tasks pick up their new settings.
+	 */
+	void configChanged() {
+		if (shutdown) {
+			return;
+		}
+		if (!config.autoscaleEnabled()) {
+			capacity = config.getSize();
+			if (isLeader()) {
+				retireIdle();
+			}
+		}
+		if (taskManager != null) {
+			taskManager.configChanged();
+		}
+	}
+
+	/**
+	 * True for the participant with the lowest id, the one making pool wide decisions.
+	 */
+	boolean isLeader() {
+		List<String> participants = store.children(Area.PARTICIPANTS);
+		return id != null && !participants.isEmpty() && Collections.min(participants).equals(id);
+	}
+
+	/**
+	 * Destroys the longest idle objects until the pool fits its capacity, objects in use are left alone. Returns how
+	 * many went. Weighted pools count the excess in weight units, one heavy object may make up for several.
+	 */
+	int retireIdle() {
+		boolean weighted = isWeighted();
+		int excess = (weighted ? store.weight(Area.MASTER) : snapshot(true).getSize()) - capacity;
+		int count = 0;
+		if (excess <= 0) {
+			return count;
+		}
+		for (Entry<String, Long> e : oldestFirst.sortedCopy(store.modifiedTimes(Area.UNUSED).entrySet())) {
+			if (excess <= 0) {
+				break;
+			}
+			int weight = weighted ? store.weight(e.getKey()) : 1;
+			T obj = borrowSpecific(e.getKey());
+			if (obj != null && invalidate(obj)) {
+				excess -= weight;
+				count++;
+				retired.inc();
+			}
+		}
+		return count;
+	}
+
 	@Override
 	public int getUnused() {
-		return zk.getStat(paths.unused()).getNumChildren();
+		return snapshot().getUnused();
 	}
 
 	@Override
 	public int getUsed() {
-		return zk.getStat(paths.used()).getNumChildren();
+		return snapshot().getUsed();
 	}
 
 	@Override
 	public int getZombies() {
-		return zk.getStat(paths.zombies()).getNumChildren();
+		return snapshot().getZombies();
+	}
+
+	@Override
+	public PoolStats snapshot() {
+		return statsCache.snapshot(false);
+	}
+
+	@Override
+	public PoolStats snapshot(boolean refresh) {
+		return statsCache.snapshot(refresh);
 	}
 
 	public void initialize() {
 		try {
-			zk = new ZKClient(config.getZkConnectString());
+			paths = new PoolPaths(config.getName());
+			if (store == null) {
+				store = config.getStoreType().create(config, paths, metrics);
+			}
+		} catch (Exception e) {
+			LOGGER.error("Error while initializing the pool ", e);
+			return;
+		}
+		checkFeatures();
+		try {
+			statsCache = new PoolStatsCache(store, config.getIntrvlUnit().toNanos(config.getStatsMaxStaleness()));
+			tagIndex = new TagIndex(store, config.getIntrvlUnit().toNanos(config.getStatsMaxStaleness()));
+			sharedLoad = new SharedLoad(store, config.getIntrvlUnit().toNanos(config.getStatsMaxStaleness()));
+			limiter = new CreationLimiter(store, config);
+			lease = new LocalLease<T>(this);
 			fill();
 			register();
-			zk.sync(paths.used(), new Object());
+			store.addSessionListener(new PoolStore.SessionListener() {
+				@Override
+				public void sessionRenewed() {
+					recoverSession();
+				}
+			});
+			createBreaker.start();
+			validateBreaker.start();
+			destroyBreaker.start();
+			liveConfig = new LiveConfig(this);
+			liveConfig.start();
+			capacity = config.getSize();
 			startTasks();
 		} catch (Exception e) {
 			LOGGER.error("Error while initializing the pool ", e);
 		}
 	}
 
+	/**
+	 * Refuses what the store can't keep before any object is created for it, rather than failing the borrows.
+	 */
+	private void checkFeatures() {
+		boolean tagged = factory instanceof TaggedObjectFactory || isWeighted() || config.isPreferLocal();
+		checkState(!tagged || store.supports(Feature.TAGS),
+		        "The store of pool %s keeps no tags, they are needed for tagged, weighted or local objects.",
+		        config.getName());
+		checkState(config.getMaxSharers() == 0 || store.supports(Feature.SHARING),
+		        "The store of pool %s lends objects to one borrower at a time, please turn off max sharers.",
+		        config.getName());
+	}
+
+	/**
+	 * Scheduler for one of the maintenance tasks, on the shared executor if the pool has one.
+	 */
+	TaskScheduler newScheduler() {
+		return maintenance != null ? TaskScheduler.shared(maintenance) : new TaskScheduler();
+	}
+
+	TaskScheduler newScheduler(ThreadFactory threads) {
+		return maintenance != null ? TaskScheduler.shared(maintenance) : new TaskScheduler(threads);
+	}
+
 	private void startTasks() {
-		taskManager = new TaskManager<T>(this);
-		taskManager.start();
+		TaskManager<T> tasks = new TaskManager<T>(this);
+		tasks.start();
+		// config changes reach the tasks once they all run.
+		taskManager = tasks;
 	}
 
 	@Override
 	public T borrow() {
-		if (isFull() || shutdown) {
-			return null;
+		long start = System.nanoTime();
+		T obj = lease.isEnabled() ? borrowLeased() : borrowStored();
+		borrowTime.recordSince(start);
+		if (obj == null) {
+			borrowMisses.inc();
 		}
-		T obj = null;
-		String node = null;
-		register();
+		return obj;
+	}
+
+	/**
+	 * Lends a leased object first, without the store only those can be lent.
+	 */
+	private T borrowLeased() {
+		boolean reachable = lease.reachable();
+		LocalLease.Leased<T> leased = lease.take();
+		if (leased != null) {
+			borrowed.put(leased.object, new Borrow(leased.node, Thread.currentThread().getName(),
+			        System.currentTimeMillis(), System.nanoTime(), sampleBorrowSite()));
+			return leased.object;
+		}
+		return reachable ? borrowStored() : null;
+	}
+
+	private T borrowStored() {
+		return config.isPreferLocal() ? borrowLocal() : borrowObject();
+	}
+
+	/**
+	 * An idle object created on this host, else on this rack. Failing both the borrow waits up to
+	 * {@link Config#getLocalityWait()} for one to be returned before it takes any object, creating one if need be.
+	 */
+	private T borrowLocal() {
+		long deadline = System.nanoTime() + config.getIntrvlUnit().toNanos(config.getLocalityWait());
 		try {
 			for (;;) {
-				node = find();
-				obj = markBorrowed(node);
-				if (isValid(obj)) {
+				long seen = tagIndex.generation();
+				T obj = borrowTagged(sameHost);
+				if (obj != null) {
+					localHostHits.inc();
+					return obj;
+				}
+				obj = sameRack == null ? null : borrowTagged(sameRack);
+				if (obj != null) {
+					localRackHits.inc();
+					return obj;
+				}
+				if (!tagIndex.await(seen, deadline)) {
 					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		T obj = borrowObject();
+		if (obj != null) {
+			localMisses.inc();
+		}
+		return obj;
+	}
+
+	private T borrowObject() {
+		RetryPolicy.Retry retry = null;
+		for (;;) {
+			if (isFull() || shutdown) {
+				return null;
+			}
+			T obj = null;
+			String node = null;
+			register();
+			try {
+				// every failed attempt destroys an object, running through the whole pool and then some is enough.
+				for (int attempt = 0; attempt <= capacity; attempt++) {
+					node = find();
+					if (node == null) {
+						// filled up by others since we checked, same as being full to begin with.
+						break;
+					}
+					obj = markBorrowed(node);
+					if (obj == null) {
+						dropUnreadable(node);
+					} else if (!config.isTestOnBorrow() || passesOnBorrow(node, obj)) {
+						break;
+					} else {
+						invalidate(obj);
+						obj = null;
+					}
+				}
+				return obj;
+			} catch (ZombieException e) {
+				handleZombie(node);
+				if (obj != null) {
+					borrowed.remove(obj);
+				}
+			} catch (CircuitBreaker.OpenException e) {
+				return null;
+			}
+			// a zombie usually means the backend is in trouble, give it a moment before trying the next object.
+			retry = retry == null ? config.getRetryPolicy().start() : retry;
+			if (!backoff(retry)) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * An idle object carrying the tags of the query, found through the local tag index and claimed directly. Objects
+	 * are not created for a query, the factory decides what tags new ones get, and leased objects are not considered.
+	 * Null if no idle object matches.
+	 */
+	@Override
+	public T borrow(TagQuery query) {
+		checkState(store.supports(Feature.TAGS), "The store of pool %s keeps no tags to borrow by.", config.getName());
+		long start = System.nanoTime();
+		T obj = shutdown ? null : borrowTagged(query);
+		borrowTime.recordSince(start);
+		if (obj == null) {
+			borrowMisses.inc();
+		}
+		return obj;
+	}
+
+	/**
+	 * An idle object weighing at least {@code minWeight} units, found through the weight tags of the local tag index.
+	 * Like borrowing by tags no object is created for it, and a minimum of one unit is an ordinary borrow. Null if no
+	 * idle object is heavy enough.
+	 */
+	@Override
+	public T borrow(int minWeight) {
+		checkArgument(minWeight > 0, "Please ask for a weight of one unit or more.");
+		if (minWeight == 1) {
+			return borrow();
+		}
+		long start = System.nanoTime();
+		T obj = shutdown || !isWeighted() ? null : borrowTagged(Weights.atLeast(minWeight), minWeight);
+		borrowTime.recordSince(start);
+		if (obj == null) {
+			borrowMisses.inc();
+		}
+		return obj;
+	}
+
+	private T borrowTagged(TagQuery query) {
+		return borrowTagged(query, 1);
+	}
+
+	private T borrowTagged(TagQuery query, int minWeight) {
+		register();
+		// every failed attempt takes an object out of the index, running through the whole pool is enough.
+		for (int attempt = 0; attempt <= capacity && !isFull() && !shutdown; attempt++) {
+			String node = claimTagged(query, minWeight);
+			if (node == null) {
+				return null;
+			}
+			T obj = null;
+			try {
+				obj = markBorrowed(node);
+				if (obj == null) {
+					dropUnreadable(node);
+				} else if (!config.isTestOnBorrow() || passesOnBorrow(node, obj)) {
+					return obj;
 				} else {
 					invalidate(obj);
 				}
+			} catch (ZombieException e) {
+				handleZombie(node);
+				if (obj != null) {
+					borrowed.remove(obj);
+				}
+			} catch (CircuitBreaker.OpenException e) {
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private String claimTagged(TagQuery query, int minWeight) {
+		List<String> candidates = tagIndex.matching(query);
+		// a random start keeps participants with the same query from colliding on the same object.
+		int offset = candidates.isEmpty() ? 0 : ThreadLocalRandom.current().nextInt(candidates.size());
+		for (int i = 0; i < candidates.size(); i++) {
+			String node = candidates.get((offset + i) % candidates.size());
+			// the index holds powers of two, weights in between are known from the cached tags.
+			if (minWeight > 1 && store.weight(node) < minWeight) {
+				continue;
+			}
+			boolean claimed = markUsed(node);
+			// either way the object left the index, whether this participant took it or another did.
+			tagIndex.invalidate(query);
+			if (claimed) {
+				return node;
+			}
+			claimCollisions.inc();
+		}
+		return null;
+	}
+
+	/**
+	 * An object this borrower may share with up to {@link Config#getMaxSharers()} holders in all: the least loaded
+	 * shared object, else an unused one, else a new one. Shared objects are not validated when lent and stay clear of
+	 * the idle checks, invalidating one only gives up this share of it. Null if every object is full or held
+	 * exclusively and the pool can't grow.
+	 */
+	public T borrowShared() {
+		checkState(config.getMaxSharers() > 0, "Please set the max sharers of pool %s to borrow shared objects.",
+		        config.getName());
+		checkState(store.supports(Feature.SHARING), "The store of pool %s can't share objects.", config.getName());
+		long start = System.nanoTime();
+		T obj = shutdown ? null : share();
+		borrowTime.recordSince(start);
+		if (obj == null) {
+			borrowMisses.inc();
+		} else {
+			sharedBorrows.inc();
+		}
+		return obj;
+	}
+
+	private T share() {
+		register();
+		int max = config.getMaxSharers();
+		byte[] info = Borrow.describe(id, Thread.currentThread().getName(), System.currentTimeMillis());
+		for (String node : sharedLoad.leastLoaded(max)) {
+			T obj = joinShared(node, info, max);
+			if (obj != null) {
+				return obj;
+			}
+		}
+		List<String> unused = store.children(Area.UNUSED);
+		Collections.shuffle(unused);
+		for (String node : unused) {
+			T obj = joinShared(node, info, max);
+			if (obj != null) {
+				return obj;
+			}
+		}
+		if (hasRoom()) {
+			CreationLimiter.Permit permit = limiter.isEnabled() ? limiter.tryAcquire() : null;
+			if (!limiter.isEnabled() || permit != null) {
+				try {
+					// another borrower may take it first, it is unused like any other object.
+					String node = addNew(Area.UNUSED);
+					return node == null ? null : joinShared(node, info, max);
+				} finally {
+					if (permit != null) {
+						permit.release();
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private T joinShared(String node, byte[] info, int max) {
+		String holder = store.share(node, info, max);
+		sharedLoad.invalidate();
+		if (holder == null) {
+			return null;
+		}
+		statsCache.invalidate(Area.UNUSED);
+		T obj = getData(node);
+		sharing.put(obj, new Holding(node, holder));
+		return obj;
+	}
+
+	private void leaveShared(Holding holding) {
+		store.unshare(holding.node, holding.holder);
+		sharedLoad.invalidate();
+		statsCache.invalidate(Area.UNUSED);
+		tagIndex.invalidateAll();
+		limiter.signal();
+	}
+
+	/**
+	 * Waits up to {@link Config#getDrainWait()} for the holders of the least loaded shared object to leave, keeping
+	 * new holders off meanwhile. The sharers get the object back if they don't leave in time.
+	 */
+	private String drainShared() {
+		List<String> shared = sharedLoad.leastLoaded(Integer.MAX_VALUE);
+		if (shared.isEmpty()) {
+			return null;
+		}
+		String node = shared.get(0);
+		byte[] info = Borrow.describe(id, Thread.currentThread().getName(), System.currentTimeMillis());
+		long deadline = System.nanoTime() + config.getIntrvlUnit().toNanos(config.getDrainWait());
+		try {
+			for (;;) {
+				long seen = sharedLoad.generation();
+				if (store.drain(node, info)) {
+					drains.inc();
+					sharedLoad.invalidate();
+					statsCache.invalidate(Area.USED);
+					return node;
+				}
+				if (!store.exists(Area.SHARED, node)) {
+					// went back to unused before the drain began, the next attempt finds it there.
+					return null;
+				}
+				if (!sharedLoad.await(seen, deadline)) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		store.undrain(node);
+		sharedLoad.invalidate();
+		return null;
+	}
+
+	private boolean backoff(RetryPolicy.Retry retry) {
+		try {
+			if (retry.backoff()) {
+				borrowRetries.inc();
+				return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		retriesExhausted.inc();
+		LOGGER.warn("Giving up borrowing after {} zombies", retry.getRetries() + 1);
+		return false;
+	}
+
+	/**
+	 * With the validate breaker open the object is either handed out as it is or put back for later.
+	 */
+	private boolean passesOnBorrow(String node, T obj) {
+		try {
+			return passes(node, obj, validateOnBorrowTime);
+		} catch (CircuitBreaker.OpenException e) {
+			if (config.isBreakerServeUnvalidated()) {
+				validationsSkipped.inc();
+				return true;
+			}
+			borrowed.remove(obj);
+			markUnused(node);
+			throw e;
+		}
+	}
+
+	/**
+	 * Validates an object this participant holds on to between borrowers, like the pool agent's warm tier, the way
+	 * a borrow would. An object failing it is no longer borrowed, it is destroyed, dropped as a zombie or put back
+	 * while the validate breaker is open.
+	 */
+	public boolean revalidate(T object) {
+		Borrow borrow = object != null ? borrowed.get(object) : null;
+		checkArgument(borrow != null, "%s is not borrowed from this pool.", object);
+		if (!config.isTestOnBorrow()) {
+			return true;
+		}
+		String node = borrow.getNode();
+		try {
+			if (passesOnBorrow(node, object)) {
+				return true;
 			}
+			invalidate(object);
 		} catch (ZombieException e) {
 			handleZombie(node);
-			obj = borrow();
+			borrowed.remove(object);
+		} catch (CircuitBreaker.OpenException e) {
+			// put back by passesOnBorrow.
 		}
-		return obj;
+		return false;
 	}
 
 	@Override
 	public void returnObject(T object) {
-		String node = borrowed.remove(object);
-		if (node != null) {
-			markUnused(node);
+		long start = System.nanoTime();
+		Holding holding = sharing.remove(object);
+		if (holding != null) {
+			leaveShared(holding);
+			returnTime.recordSince(start);
+			return;
+		}
+		// reconciled first, an object whose claim did not last through an outage is no longer borrowed.
+		boolean degraded = lease.isEnabled() && !lease.reachable();
+		// taken out first, whoever removes the borrow owns the object, be it this or the abandoned object check.
+		Borrow borrow = object != null ? borrowed.remove(object) : null;
+		if (borrow != null) {
+			String node = borrow.getNode();
+			if (degraded) {
+				// can't validate or hand it back without the store, lent again while the lease lasts.
+				lease.keep(node, object);
+			} else if (!config.isTestOnReturn() || passesOnReturn(node, object)) {
+				if (!lease.keep(node, object)) {
+					markUnused(node);
+					limiter.signal();
+				}
+			}
+			returnTime.recordSince(start);
 		} else {
 			LOGGER.error("No node found to return object {} ", object);
 		}
@@ -136,25 +851,53 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 
 	@Override
 	public boolean invalidate(T object) {
-		String node = borrowed.get(object);
+		Holding holding = object != null ? sharing.remove(object) : null;
+		if (holding != null) {
+			// the other holders may still be using it.
+			leaveShared(holding);
+			return false;
+		}
+		Borrow borrow = object != null ? borrowed.remove(object) : null;
+		return borrow != null && destroy(borrow.getNode(), object);
+	}
+
+	/**
+	 * Objects this participant has borrowed and not returned yet.
+	 */
+	Map<T, Borrow> getBorrowed() {
+		return borrowed;
+	}
+
+	/**
+	 * Destroys an object whose borrower held on to it too long, unless it was returned in the meantime. The borrower
+	 * returning it later is logged and otherwise ignored.
+	 */
+	boolean reclaimAbandoned(T object, Borrow borrow) {
+		if (!borrowed.remove(object, borrow)) {
+			return false;
+		}
+		abandoned.inc();
+		return destroy(borrow.getNode(), object);
+	}
+
+	private boolean destroy(String node, T object) {
 		boolean destroyed = false;
-		if (node != null) {
-			try {
-				destroyed = destroyObj(node, object);
-				if (destroyed) {
-					zk.inTransaction().delete(paths.master().concat("/").concat(node))
-					        .delete(paths.used().concat("/").concat(node)).commit();
-				}
-			} catch (Exception e) {
-				LOGGER.error("Error destroying the object {} due to {}", object, e);
+		try {
+			destroyed = destroyObj(node, object);
+			if (destroyed) {
+				store.remove(node);
+				lastValidated.remove(node);
+				statsCache.invalidate(Area.MASTER, Area.USED);
 			}
+		} catch (Exception e) {
+			LOGGER.error("Error destroying the object {} due to {}", object, e);
 		}
 		return destroyed;
 	}
 
 	@Override
 	public int getSize() {
-		return zk.getStat(paths.master()).getNumChildren();
+		return snapshot().getSize();
 	}
 
 	@Override
@@ -165,7 +908,15 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 		shutdown = true;
 		try {
 			LOGGER.info("Shutting down pool.");
-			zk.doSynchronized(paths.shutdownLock(), new SynchronizedOperationCallback<Integer>() {
+			if (liveConfig != null) {
+				liveConfig.shutdown();
+			}
+			createBreaker.shutdown();
+			validateBreaker.shutdown();
+			destroyBreaker.shutdown();
+			lease.shutdown();
+			leaveAllShared();
+			store.doSynchronized(paths.shutdownLock(), new SynchronizedOperationCallback<Integer>() {
 				@Override
                 public Integer perform() throws InterruptedException, KeeperException {
 					taskManager.shutdown();
@@ -177,19 +928,44 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 				}
 
 			});
-			zk.shutdown();
+			destroyLeftBehind();
+			store.shutdown();
 		} catch (Exception e) {
 			Throwables.propagate(e);
 		}
 	}
 
+	/**
+	 * The objects still waiting on the destroy breaker are destroyed regardless on shutdown, nothing else would.
+	 */
+	private void destroyLeftBehind() {
+		for (T object = undestroyed.poll(); object != null; object = undestroyed.poll()) {
+			try {
+				factory.destroy(object);
+			} catch (Exception e) {
+				LOGGER.error("Error destroying the object {} due to {}", object, e);
+			}
+		}
+	}
+
+	private void leaveAllShared() {
+		List<Holding> holdings;
+		synchronized (sharing) {
+			holdings = newArrayList(sharing.values());
+			sharing.clear();
+		}
+		for (Holding holding : holdings) {
+			store.unshare(holding.node, holding.holder);
+		}
+	}
+
 	@Override
 	public List<String> getParticipants() {
-		List<String> pList = zk.getChildren(paths.participants());
+		List<String> pList = store.children(Area.PARTICIPANTS);
 		List<String> pData = newArrayList();
 		if (pList != null && !pList.isEmpty()) {
 			for (String p : pList) {
-				byte[] data = zk.getData(paths.participants().concat("/" + p));
+				byte[] data = store.getData(Area.PARTICIPANTS, p);
 				String converted = data == null ? "address-unknown" : new String(data);
 				pData.add(converted);
 			}
@@ -198,26 +974,115 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 	}
 
 	protected void drop(String node) {
+		if (node != null) {
+			store.drop(node);
+			lastValidated.remove(node);
+			statsCache.invalidate(Area.ZOMBIES, Area.MASTER, Area.USED);
+			zombiesDropped.inc();
+		}
+	}
+
+	protected boolean isValid(T obj) {
+		return isValid(obj, validateTime);
+	}
+
+	/**
+	 * Validates an unused object during an eviction run by claiming it for the duration, returns true if it failed and
+	 * was taken out of the pool. Objects someone else claims first or that were validated recently are left alone.
+	 * An object that passes goes back idle since {@code idleSince}, the probe does not make it any less idle.
+	 */
+	protected boolean testIdle(String node, long idleSince) {
+		if (validatedRecently(node) || !markUsed(node)) {
+			return false;
+		}
+		T obj = null;
 		try {
-			if (node != null) {
-				zk.inTransaction().delete(paths.zombies().concat("/").concat(node))
-				        .delete(paths.master().concat("/").concat(node)).delete(paths.used().concat("/").concat(node))
-				        .commit();
+			obj = markBorrowed(node);
+			if (obj == null || passes(node, obj, validateWhileIdleTime)) {
+				if (obj != null) {
+					borrowed.remove(obj);
+				}
+				markUnused(node, idleSince);
+				return false;
 			}
-		} catch (Exception e) {
-			Throwables.propagate(e);
+			invalidate(obj);
+		} catch (ZombieException e) {
+			handleZombie(node);
+			if (obj != null) {
+				borrowed.remove(obj);
+			}
+		} catch (CircuitBreaker.OpenException e) {
+			if (obj != null) {
+				borrowed.remove(obj);
+			}
+			markUnused(node, idleSince);
+			return false;
 		}
+		return true;
 	}
 
-	protected boolean isValid(T obj) {
+	private boolean isValid(T obj, Histogram timer) {
 		boolean valid = false;
+		if (obj == null) {
+			return valid;
+		}
+		boolean probe = validateBreaker.acquire();
+		long start = System.nanoTime();
+		boolean failed = true;
 		try {
-			valid = obj != null && factory.validate(obj);
+			valid = factory.validate(obj);
+			failed = false;
+			timer.recordSince(start);
 		} catch (ZombieException e) {
 			throw e;
 		} catch (Exception e) {
 			LOGGER.debug("error validating obj {} , destroying", obj);
 			invalidate(obj);
+		} finally {
+			validateBreaker.record(start, failed, probe);
+		}
+		return valid;
+	}
+
+	/**
+	 * Validates unless this participant already did within the validation TTL.
+	 */
+	private boolean passes(String node, T obj, Histogram timer) {
+		if (validatedRecently(node)) {
+			validationsSkipped.inc();
+			return true;
+		}
+		boolean valid = isValid(obj, timer);
+		if (valid) {
+			lastValidated.put(node, System.currentTimeMillis());
+		}
+		return valid;
+	}
+
+	private boolean validatedRecently(String node) {
+		long ttl = config.getIntrvlUnit().toMillis(config.getValidationTtl());
+		if (ttl <= 0) {
+			return false;
+		}
+		Long validated = lastValidated.get(node);
+		return validated != null && System.currentTimeMillis() - validated < ttl;
+	}
+
+	/**
+	 * An object failing validation on return is destroyed instead of going back to the pool.
+	 */
+	private boolean passesOnReturn(String node, T object) {
+		boolean valid = false;
+		try {
+			valid = passes(node, object, validateOnReturnTime);
+			if (!valid) {
+				destroy(node, object);
+			}
+		} catch (ZombieException e) {
+			handleZombie(node);
+		} catch (CircuitBreaker.OpenException e) {
+			// back it goes, the next borrow validates it.
+			valid = true;
 		}
 		return valid;
 	}
@@ -227,30 +1092,33 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 		try {
 			if (markUsed(node)) {
 				obj = markBorrowed(node);
-				if (!isValid(obj)) {
+				if (obj == null) {
+					dropUnreadable(node);
+				} else if (!isValid(obj)) {
 					invalidate(obj);
 					obj = null;
 				}
 			}
 		} catch (ZombieException e) {
+			if (obj != null) {
+				borrowed.remove(obj);
+			}
 			obj = null;
 			handleZombie(node);
+		} catch (CircuitBreaker.OpenException e) {
+			if (obj != null) {
+				borrowed.remove(obj);
+			}
+			markUnused(node);
+			obj = null;
 		}
 		return obj;
 	}
 
 	protected void unzombie(String node) {
-		try {
-			String zombie_node = paths.zombies().concat("/").concat(node);
-			if (zk.exists(zombie_node)) {
-				zk.inTransaction().delete(paths.used().concat("/").concat(node)).delete(zombie_node)
-				        .create(paths.unused().concat("/").concat(node)).commit();
-			}
-		} catch (KeeperException.NoNodeException e) {
-			// It's ok, node may not be a zombie.
-		} catch (InterruptedException e) {
-		} catch (KeeperException e) {
-			Throwables.propagate(e);
+		if (store.unzombie(node)) {
+			statsCache.invalidate(Area.ZOMBIES, Area.USED, Area.UNUSED);
+			zombiesRevived.inc();
 		}
 	}
 
@@ -258,124 +1126,352 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 		if (node == null) {
 			return null;
 		}
-		byte[] data = zk.getData(paths.master().concat("/" + node));
-		T desirializedObj = factory.deserialize(data);
+		byte[] data = store.getData(Area.MASTER, node);
+		long start = System.nanoTime();
+		T desirializedObj = deserialize(data == null ? null : codec.decode(data));
+		deserializeTime.recordSince(start);
 		return desirializedObj;
 	}
 
+	private T deserialize(byte[] data) {
+		return buffers == null ? factory.deserialize(data) : buffers.deserialize(data);
+	}
+
+	private byte[] serialize(T obj) {
+		return buffers == null ? factory.serialize(obj) : buffers.serialize(obj);
+	}
+
 	protected List<String> getZombieNodes() {
-		return zk.getChildren(paths.zombies());
+		return store.children(Area.ZOMBIES);
 	}
 
 	private synchronized void register() {
-		try {
-			if (!isRegistered()) {
-				String address = getAddress();
-				String path = zk.createEphemeralSeq(paths.participants().concat("/"), address.getBytes());
-				id = path.substring(path.lastIndexOf("/") + 1);
+		if (!isRegistered()) {
+			id = store.register(getAddress().getBytes());
+		}
+	}
+
+	/**
+	 * The claims of the expired session went with it, so the objects still in the hands of borrowers here are
+	 * claimed again under a new registration. An object another participant borrowed in the meantime stays theirs,
+	 * the store lets exactly one claim win, and is forgotten here, its borrower here has to let go of it.
+	 */
+	private void recoverSession() {
+		if (shutdown) {
+			return;
+		}
+		register();
+		for (Entry<T, Borrow> e : borrowed.entrySet()) {
+			Borrow borrow = e.getValue();
+			if (store.reclaim(borrow.getNode(), Borrow.describe(id, borrow.getThread(), borrow.getStartMillis()))) {
+				claimsRecovered.inc();
+			} else if (borrowed.remove(e.getKey(), borrow)) {
+				lastValidated.remove(borrow.getNode());
+				claimsLost.inc();
+				LOGGER.warn("Lost object {} borrowed by {} with the expired session", borrow.getNode(),
+				        borrow.getThread());
 			}
-		} catch (Exception e) {
-			Throwables.propagate(e);
 		}
+		lease.recover(id);
+		statsCache.invalidate(Area.MASTER, Area.USED, Area.UNUSED);
 	}
 
 	private boolean isRegistered() {
-		return id != null && (zk.exists(paths.participants().concat("/").concat(id)));
+		return store.isRegistered(id);
 	}
 
 	private void fill() {
-		if (!constructPaths()) {
+		boolean created = store.create();
+		codec = agreeOnCodec(created);
+		if (!created) {
 			return;
 		}
 		LOGGER.info("Successfully constructed storage paths, Filling pool to its initial capacity");
-		for (int i = 0; i < config.getInitSize(); i++) {
-			addNew(paths.unused());
+		if (!isWeighted()) {
+			for (int i = 0; i < config.getInitSize(); i++) {
+				addNew(Area.UNUSED);
+			}
+			return;
+		}
+		// the initial size is in weight units, objects are added until they make up for it.
+		for (int filled = 0; filled < config.getInitSize();) {
+			String node = addNew(Area.UNUSED);
+			if (node == null) {
+				break;
+			}
+			filled += store.weight(node);
+		}
+	}
+
+	/**
+	 * Every participant has to read every payload, so the pool records the codec of the participant that created it
+	 * and the others use the recorded one. A pool without a record predates codecs and keeps its payloads as they are.
+	 */
+	private PayloadCodec agreeOnCodec(boolean created) {
+		PayloadCodec own = config.getCodec() == null ? PayloadCodecs.NONE : config.getCodec();
+		if (!store.supports(Feature.PROPERTIES)) {
+			// nowhere to record it, the participants have to be configured alike.
+			return own;
+		}
+		for (;;) {
+			Versioned recorded = store.getProperty(CODEC_PROPERTY);
+			if (recorded == null) {
+				PayloadCodec record = created ? own : PayloadCodecs.NONE;
+				if (store.setProperty(CODEC_PROPERTY, record.getName().getBytes(Charsets.UTF_8), Versioned.NONE)) {
+					return record;
+				}
+				continue;
+			}
+			String name = new String(recorded.getData(), Charsets.UTF_8);
+			if (name.equals(own.getName())) {
+				return own;
+			}
+			PayloadCodec builtIn = PayloadCodecs.forName(name);
+			checkState(builtIn != null, "Pool %s stores its objects with codec %s, please configure it.",
+			        config.getName(), name);
+			LOGGER.warn("Pool {} stores its objects with codec {}, using it instead of {}",
+			        new Object[] { config.getName(), name, own.getName() });
+			return builtIn;
 		}
 	}
 
 	private void handleZombie(String node) {
+		store.markZombie(node);
+		statsCache.invalidate(Area.ZOMBIES);
+		zombiesMarked.inc();
+	}
+
+	/**
+	 * Weighted pools are full once the objects in use weigh as many units as the capacity has.
+	 */
+	private boolean isFull() {
+		return isWeighted() ? capacity <= store.weight(Area.USED) : capacity <= getUsed();
+	}
+
+	/**
+	 * Whether another object may fit, in weight units for weighted pools where every object weighs a unit at least.
+	 * The store has the final say on growing, checking first saves creating objects that won't fit.
+	 */
+	private boolean hasRoom() {
+		return isWeighted() ? store.weight(Area.MASTER) < capacity : store.count(Area.MASTER) < capacity;
+	}
+
+	/**
+	 * A claimed node whose payload did not read back as an object is of no use to anyone, it goes rather than keeping
+	 * its claim until the session does.
+	 */
+	private void dropUnreadable(String node) {
+		LOGGER.warn("Dropping object {}, its payload could not be read", node);
 		try {
-			zk.create(paths.zombies().concat("/").concat(node));
+			store.remove(node);
+			lastValidated.remove(node);
+			statsCache.invalidate(Area.MASTER, Area.USED);
 		} catch (Exception e) {
-			Throwables.propagate(e);
+			LOGGER.error("Error dropping the unreadable object {} due to {}", node, e);
 		}
 	}
 
-	private boolean isFull() {
-		return config.getSize() <= getUsed();
+	private boolean isWeighted() {
+		return factory instanceof WeightedObjectFactory;
 	}
 
+	/**
+	 * The object of a node this participant claimed, recorded as borrowed. Null, and not recorded, if the payload
+	 * could not be read.
+	 */
 	private T markBorrowed(String node) {
 		T obj = null;
 		if (node != null) {
 			obj = getData(node);
-			borrowed.put(obj, node);
+		}
+		if (obj != null) {
+			borrowed.put(obj, new Borrow(node, Thread.currentThread().getName(), System.currentTimeMillis(),
+			        System.nanoTime(), sampleBorrowSite()));
 		}
 		return obj;
 	}
 
-	private boolean constructPaths() {
-		boolean success = false;
+	/**
+	 * Captures the borrowing stack for one in {@link Config#getBorrowSiteSampling()} borrows.
+	 */
+	private Throwable sampleBorrowSite() {
+		int sampling = config.getBorrowSiteSampling();
+		if (sampling > 0 && ThreadLocalRandom.current().nextInt(sampling) == 0) {
+			return new Throwable("Borrowed by " + Thread.currentThread().getName());
+		}
+		return null;
+	}
+
+	/**
+	 * Creates an object and adds it if the pool still has room for it, the object is destroyed again when another
+	 * participant took the last place in the meantime.
+	 */
+	private String addNew(Area to) {
+		T obj;
 		try {
-			paths = new PoolPaths(config.getName());
-			ZKTransWrapper t = zk.inTransaction();
-			for (String path : paths.all()) {
-				t.create(path);
-			}
-			t.commit();
-			success = true;
-		} catch (KeeperException.NodeExistsException e) {
-			// normal, another client has already initialized the pool.
-		} catch (Exception e) {
-			Throwables.propagate(e);
+			obj = create();
+		} catch (CircuitBreaker.OpenException e) {
+			return null;
+		}
+		String node = null;
+		boolean rejected = false;
+		try {
+			// checked before storing, an object with bad tags or weight never reaches the pool.
+			Set<String> tags = tags(obj);
+			int weight = isWeighted() ? weight(obj) : 1;
+			byte[] payload = serialize(obj);
+			byte[] encoded = codec.encode(payload);
+			payloadBytes.inc(payload.length);
+			payloadStoredBytes.inc(encoded.length);
+			node = isWeighted() ? store.add(encoded, tags, weight, to, capacity) : store.add(encoded, tags, to,
+			        capacity);
+			rejected = node == null;
+		} finally {
+			if (node == null) {
+				discard(obj, rejected);
+			}
+		}
+		if (rejected) {
+			capacityRejections.inc();
+			return null;
 		}
-		return success;
+		statsCache.invalidate(Area.MASTER, to);
+		return node;
 	}
 
-	private String addNew(String toPath) {
-		String dataNode = null;
+	/**
+	 * Destroys an object created but never added, because it did not fit the pool or failed to be added.
+	 */
+	private void discard(T obj, boolean rejected) {
 		try {
-			// Taking a bit of risk here by not using transaction.
-			String path = zk.createSeq(paths.master().concat("/"), createData());
-			dataNode = path.substring(path.lastIndexOf("/") + 1);
-			zk.create(toPath.concat("/").concat(dataNode));
+			factory.destroy(obj);
 		} catch (Exception e) {
-			Throwables.propagate(e);
+			LOGGER.debug("Error destroying the object {} that {}", new Object[] { obj,
+			        rejected ? "did not fit the pool" : "could not be added", e });
+		}
+	}
+
+	private Set<String> tags(T obj) {
+		Set<String> tags = null;
+		if (factory instanceof TaggedObjectFactory) {
+			tags = ((TaggedObjectFactory<T>) factory).tags(obj);
+		}
+		if (config.isPreferLocal()) {
+			// where it was created, for borrows preferring local objects.
+			Set<String> local = Sets.newHashSet(sameHost.getRequired());
+			if (sameRack != null) {
+				local.addAll(sameRack.getRequired());
+			}
+			if (tags != null) {
+				local.addAll(tags);
+			}
+			tags = local;
+		}
+		if (tags == null) {
+			return Collections.emptySet();
+		}
+		for (String tag : tags) {
+			checkArgument(!tag.isEmpty() && !tag.contains("/") && !tag.contains("\n"), "Tag %s can not name a node.",
+			        tag);
+			checkArgument(!Weights.isReserved(tag), "Tag %s is reserved for weights.", tag);
 		}
-		return dataNode;
+		return tags;
 	}
 
-	private void markUnused(String node) {
+	private int weight(T obj) {
+		int weight = ((WeightedObjectFactory<T>) factory).weight(obj);
+		checkArgument(weight > 0 && weight <= capacity, "Object %s weighs %s units, pool %s holds %s.", obj, weight,
+		        config.getName(), capacity);
+		return weight;
+	}
+
+	private T create() {
+		boolean probe = createBreaker.acquire();
+		long start = System.nanoTime();
+		boolean failed = true;
 		try {
-			zk.inTransaction().delete(paths.used().concat("/").concat(node))
-			        .create(paths.unused().concat("/").concat(node)).commit();
-		} catch (Exception e) {
-			Throwables.propagate(e);
+			T obj = factory.create();
+			failed = false;
+			createTime.recordSince(start);
+			return obj;
+		} finally {
+			createBreaker.record(start, failed, probe);
 		}
 	}
 
+	void markUnused(String node) {
+		store.release(node);
+		statsCache.invalidate(Area.USED, Area.UNUSED);
+		tagIndex.invalidateAll();
+	}
+
+	private void markUnused(String node, long idleSince) {
+		store.release(node, idleSince);
+		statsCache.invalidate(Area.USED, Area.UNUSED);
+		tagIndex.invalidateAll();
+	}
+
 	private boolean markUsed(String child) {
-		boolean success = false;
-		try {
-			zk.inTransaction().delete(paths.unused().concat("/").concat(child))
-			        .createEphemeral(paths.used().concat("/").concat(child)).commit();
-			success = true;
-		} catch (KeeperException.NoNodeException e) {
-			// normal, may have missed out on getting the object to borrow.
-		} catch (Exception e) {
-			Throwables.propagate(e);
+		boolean claimed = store.claim(child,
+		        Borrow.describe(id, Thread.currentThread().getName(), System.currentTimeMillis()));
+		if (claimed) {
+			statsCache.invalidate(Area.USED, Area.UNUSED);
 		}
-		return success;
+		return claimed;
 	}
 
 	private String find() {
 		String node = findNode();
-		if (node == null && !isFull()) {
-			node = addNew(paths.used());
+		if (node == null && hasRoom()) {
+			node = limiter.isEnabled() ? createLimited() : addNew(Area.USED);
+		}
+		if (node == null && config.getMaxSharers() > 0 && config.getDrainWait() > 0) {
+			node = drainShared();
 		}
 		return node;
 	}
 
+	/**
+	 * Creates an object once a creation permit is free, taking an object returned in the meantime instead. Gives up
+	 * when the pool filled up or after {@link Config#getCreateWaitTimeout()}.
+	 */
+	private String createLimited() {
+		long start = System.nanoTime();
+		long deadline = start + config.getIntrvlUnit().toNanos(config.getCreateWaitTimeout());
+		boolean throttled = false;
+		try {
+			for (;;) {
+				long seen = limiter.generation();
+				CreationLimiter.Permit permit = limiter.tryAcquire();
+				if (permit != null) {
+					try {
+						return addNew(Area.USED);
+					} finally {
+						permit.release();
+					}
+				}
+				if (!throttled) {
+					throttled = true;
+					createThrottled.inc();
+				}
+				if (!limiter.await(seen, deadline)) {
+					return null;
+				}
+				String node = findNode();
+				if (node != null || !hasRoom()) {
+					return node;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			if (throttled) {
+				createPermitWait.recordSince(start);
+			}
+		}
+	}
+
 	private String findNode() {
 		List<String> unusedObjectPaths = null;
 		String found = null;
@@ -387,6 +1483,7 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 					found = chosenNode;
 					break;
 				}
+				claimCollisions.inc();
 			} else {
 				break;
 			}
@@ -403,11 +1500,7 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 	}
 
 	private List<String> unusedObjectPaths() {
-		return nodeSorter.sortedCopy(zk.getChildren(paths.unused()));
-	}
-
-	private byte[] createData() {
-		return factory.serialize(factory.create());
+		return nodeSorter.sortedCopy(store.children(Area.UNUSED));
 	}
 
 	private void checkBorrowed() {
@@ -420,11 +1513,11 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 		checkBorrowed();
 		if (partcipantsLeft == 0) {
 			LOGGER.info("No participants left in the pool, cleaning up.");
-			for (String node : zk.getChildren(paths.master())) {
+			for (String node : store.children(Area.MASTER)) {
 				T obj = getData(node);
 				destroyObj(node, obj);
 			}
-			zk.inTransaction().deleteRecursive(paths.base()).commit();
+			store.destroy();
 		} else {
 			LOGGER.info("There are still {} participants in the pool, leaving pool intact.", partcipantsLeft);
 		}
@@ -433,27 +1526,80 @@ public class ZKObjectPool<T> implements ObjectPool<T> {
 
 	private void deregister() {
 		if (isRegistered()) {
+			store.deregister(id);
+		}
+	}
+
+	/**
+	 * With the destroy breaker open the object leaves the pool all the same and is destroyed later, by the first
+	 * destroy the breaker lets through again or on shutdown.
+	 */
+	private boolean destroyObj(String node, T object) {
+		boolean probe;
+		try {
+			probe = destroyBreaker.acquire();
+		} catch (CircuitBreaker.OpenException e) {
+			LOGGER.warn("Destroying the object {} later, the destroy circuit breaker is open", object);
+			undestroyed.add(object);
+			return true;
+		}
+		boolean destroyed = destroyObj(node, object, probe);
+		if (destroyed && !undestroyed.isEmpty()) {
+			destroyPending();
+		}
+		return destroyed;
+	}
+
+	/**
+	 * Destroys the objects dropped while the breaker was open, for as long as it keeps letting calls through.
+	 */
+	private void destroyPending() {
+		for (T object = undestroyed.poll(); object != null; object = undestroyed.poll()) {
+			boolean probe;
 			try {
-				zk.delete(paths.participants() + "/" + id);
-			} catch (NoNodeException e) {
-				// nevermind we already dropped.
+				probe = destroyBreaker.acquire();
+			} catch (CircuitBreaker.OpenException e) {
+				undestroyed.add(object);
+				return;
 			}
+			destroyObj(null, object, probe);
 		}
 	}
 
-	private boolean destroyObj(String node, T object) {
+	/**
+	 * Asks the factory to destroy an object the breaker let through, {@code node} is null once it left the pool.
+	 */
+	private boolean destroyObj(String node, T object, boolean probe) {
 		boolean destroyed = false;
+		long start = System.nanoTime();
+		boolean failed = true;
 		try {
 			factory.destroy(object);
 			destroyed = true;
+			failed = false;
 		} catch (ZombieException e) {
-			if (!shutdown) {
+			if (!shutdown && node != null) {
 				handleZombie(node);
 			}
 		} catch (Exception e) {
 			LOGGER.error("Error destroying the object {} due to {}", object, e);
+		} finally {
+			destroyBreaker.record(start, failed, probe);
 		}
 		return destroyed;
 	}
 
+	/**
+	 * A share of an object this participant holds.
+	 */
+	private static class Holding {
+		final String node;
+		final String holder;
+
+		Holding(String node, String holder) {
+			this.node = node;
+			this.holder = holder;
+		}
+	}
+
 }
@@ -0,0 +1,1378 @@
+package org.mbellani.pool;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.mbellani.zk.ZKClient;
+import org.mbellani.zk.ZKClient.SynchronizedOperationCallback;
+import org.mbellani.zk.ZKClient.ZKTransWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * {@link PoolStore} keeping the pool state as znodes under {@link PoolPaths}.
+ */
+public class ZKPoolStore implements PoolStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZKPoolStore.class);
+    private static final String CHUNKED = "chunked";
+    private static final String DRAIN = "drain";
+    private static final String HOLDER = "holder-";
+    // joining and leaving retry when another participant changed the holders in between, a few rounds settle it.
+    private static final int SHARE_ATTEMPTS = 10;
+    private static final Joiner TAG_JOINER = Joiner.on('\n');
+    private static final Splitter TAG_SPLITTER = Splitter.on('\n').omitEmptyStrings();
+    // the tag cache is pruned against the master node once it outgrows twice the pool, and never below this.
+    private static final int PRUNE_FLOOR = 64;
+
+    private ZKClient zk;
+    private PoolPaths paths;
+    private final boolean ownsClient;
+    private final ZKClient.SessionListener renewal = new ZKClient.SessionListener() {
+        @Override
+        public void sessionRenewed() {
+            renewed();
+        }
+    };
+    private volatile boolean detached;
+    // tags never change, an object's are read once and dropped once it is gone. Untagged objects are cached with no
+    // tags.
+    private final ConcurrentMap<String, List<String>> nodeTags = new ConcurrentHashMap<String, List<String>>();
+    private final Set<String> fetching = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile int pruneAt = PRUNE_FLOOR;
+    private final DataCallback tagsFetched = new DataCallback() {
+        @Override
+        public void processResult(int rc, String path, Object ctx, byte[] data, Stat stat) {
+            String node = (String) ctx;
+            if (rc == KeeperException.Code.OK.intValue() || rc == KeeperException.Code.NONODE.intValue()) {
+                nodeTags.putIfAbsent(node, parseTags(data));
+            }
+            fetching.remove(node);
+        }
+    };
+    private final Set<String> tagParents = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private int chunkSize = Config.DEFAULT_CHUNK_SIZE;
+    private final Set<StoreWatcher> armed = Collections.newSetFromMap(new ConcurrentHashMap<StoreWatcher, Boolean>());
+    private final List<SessionListener> sessionListeners = Lists.newCopyOnWriteArrayList();
+
+    public ZKPoolStore(ZKClient zk, PoolPaths paths) {
+        this(zk, paths, true);
+    }
+
+    /**
+     * A store on a client other stores use too unless {@code ownsClient}, shutting it down leaves the client and its
+     * session to the others.
+     */
+    ZKPoolStore(ZKClient zk, PoolPaths paths, boolean ownsClient) {
+        this.zk = zk;
+        this.paths = paths;
+        this.ownsClient = ownsClient;
+        zk.addSessionListener(renewal);
+    }
+
+    public ZKClient getZk() {
+        return zk;
+    }
+
+    /**
+     * Payloads larger than this are split across chunk nodes, zookeeper refuses nodes larger than its jute.maxbuffer.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public boolean supports(Feature feature) {
+        return true;
+    }
+
+    @Override
+    public boolean create() {
+        boolean success = false;
+        try {
+            ZKTransWrapper t = zk.inTransaction();
+            for (String path : paths.all()) {
+                t.create(path);
+            }
+            t.commit();
+            success = true;
+        }
+        catch (KeeperException.NodeExistsException e) {
+            // normal, another client has already initialized the pool.
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return success;
+    }
+
+    @Override
+    public void destroy() {
+        try {
+            zk.inTransaction().deleteRecursive(paths.base()).commit();
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        if (ownsClient) {
+            zk.shutdown();
+        }
+        else {
+            detached = true;
+            zk.removeSessionListener(renewal);
+            armed.clear();
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return detached || zk.isShutdown();
+    }
+
+    @Override
+    public long unreachableNanos() {
+        return zk.getDisconnectedNanos();
+    }
+
+    @Override
+    public String register(byte[] data) {
+        String id = null;
+        try {
+            String path = zk.createEphemeralSeq(paths.participants().concat("/"), data);
+            id = path.substring(path.lastIndexOf("/") + 1);
+            zk.sync(paths.used(), new Object());
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return id;
+    }
+
+    @Override
+    public boolean isRegistered(String id) {
+        return id != null && zk.exists(path(Area.PARTICIPANTS, id));
+    }
+
+    @Override
+    public void deregister(String id) {
+        try {
+            zk.delete(path(Area.PARTICIPANTS, id));
+        }
+        catch (NoNodeException e) {
+            // nevermind we already dropped.
+        }
+    }
+
+    @Override
+    public List<String> children(Area area) {
+        return learn(area, zk.getChildren(path(area)));
+    }
+
+    @Override
+    public List<String> children(Area area, Listener listener) {
+        return learn(area, zk.getChildren(path(area), new ListenerWatcher(area, listener).arm()));
+    }
+
+    /**
+     * Keeps the tag cache in step with a listing read anyway: objects gone from the master node are dropped, and the
+     * tags of unused objects not seen before are asked for so claiming them does not have to read them first.
+     */
+    private List<String> learn(Area area, List<String> children) {
+        if (area == Area.MASTER) {
+            nodeTags.keySet().retainAll(Sets.newHashSet(children));
+        }
+        else if (area == Area.UNUSED) {
+            fetchTags(children);
+        }
+        return children;
+    }
+
+    private void fetchTags(List<String> nodes) {
+        for (String node : nodes) {
+            if (!nodeTags.containsKey(node) && fetching.add(node)) {
+                zk.getDataAsync(nodeTagsPath(node), tagsFetched, node);
+            }
+        }
+    }
+
+    @Override
+    public int count(Area area) {
+        return zk.getStat(path(area)).getNumChildren();
+    }
+
+    @Override
+    public int[] count(Listener listener, Area... areas) {
+        String[] parents = new String[areas.length];
+        Watcher[] watchers = new Watcher[areas.length];
+        for (int i = 0; i < areas.length; i++) {
+            parents[i] = path(areas[i]);
+            watchers[i] = new ListenerWatcher(areas[i], listener).arm();
+        }
+        return zk.countChildren(parents, watchers);
+    }
+
+    @Override
+    public boolean exists(Area area, String node) {
+        return zk.exists(path(area, node));
+    }
+
+    /**
+     * The payload of a chunked object is put back together from its chunks, its master node has a child then.
+     */
+    @Override
+    public byte[] getData(Area area, String node) {
+        if (area != Area.MASTER) {
+            return zk.getData(path(area, node));
+        }
+        try {
+            Stat stat = new Stat();
+            byte[] data = zk.getData(path(area, node), stat);
+            return stat.getNumChildren() == 0 ? data : readChunks(chunkRef(node));
+        }
+        catch (NoNodeException e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, Long> modifiedTimes(Area area) {
+        Map<String, Long> times = Maps.newHashMap();
+        for (Map.Entry<Stat, String> e : zk.getChildrenStats(path(area)).entrySet()) {
+            times.put(e.getValue(), e.getKey().getMtime());
+            if (area == Area.UNUSED && e.getKey().getDataLength() > 0) {
+                idleSince(e.getValue(), times);
+            }
+        }
+        return times;
+    }
+
+    private void idleSince(String node, Map<String, Long> times) {
+        try {
+            byte[] data = zk.getData(path(Area.UNUSED, node), null);
+            times.put(node, Long.parseLong(new String(data, Charsets.UTF_8)));
+        }
+        catch (NoNodeException e) {
+            // claimed meanwhile.
+            times.remove(node);
+        }
+    }
+
+    /**
+     * The master node's data version serves as the permit counter version: the transaction creating the nodes also
+     * writes the master node, conditional on the version read along with the object count, so two participants can
+     * not both take the last place and no master node is left behind when a create fails. The node is named after the
+     * master node's child version, the number zookeeper names sequential nodes with.
+     */
+    @Override
+    public String add(byte[] data, Area to, int capacity) {
+        return add(data, Collections.<String> emptySet(), to, capacity);
+    }
+
+    @Override
+    public String add(byte[] data, Set<String> tags, Area to, int capacity) {
+        return add(data, tags, 0, to, capacity);
+    }
+
+    /**
+     * The master node's data holds the weight of all objects, written by the same fenced transaction, so weighted
+     * objects are checked against it without reading the weight of every object.
+     */
+    @Override
+    public String add(byte[] data, Set<String> tags, int weight, Area to, int capacity) {
+        String chunks = null;
+        List<String> tagList = Lists.newArrayList(tags);
+        tagList.addAll(Weights.tags(weight));
+        try {
+            for (String tag : tagList) {
+                createTagParent(tag);
+            }
+            // written before the object appears, nobody reads a payload that is not all there.
+            chunks = data != null && data.length > chunkSize ? writeChunks(data) : null;
+            for (;;) {
+                Stat stat = new Stat();
+                int total = totalWeight(stat);
+                boolean full = weight > 0 ? total + weight > capacity : stat.getNumChildren() >= capacity;
+                if (full) {
+                    deleteChunks(chunks);
+                    return null;
+                }
+                String node = String.format("%010d", stat.getCversion());
+                try {
+                    ZKTransWrapper t = zk.inTransaction()
+                            .setData(paths.master(), weightData(total + Weights.of(tagList)), stat.getVersion())
+                            .create(path(Area.MASTER, node), chunks == null ? data : null);
+                    if (chunks != null) {
+                        t.create(chunkPath(node), chunks.getBytes(Charsets.UTF_8));
+                    }
+                    if (!tagList.isEmpty()) {
+                        t.create(nodeTagsPath(node), TAG_JOINER.join(tagList).getBytes(Charsets.UTF_8));
+                    }
+                    // lent right away, the claim goes with the session like the ones made by claim.
+                    if (to == Area.USED) {
+                        t.createEphemeral(path(to, node));
+                    }
+                    else {
+                        t.create(path(to, node));
+                        index(t, node, tagList);
+                    }
+                    t.commit();
+                    remember(node, tagList);
+                    return node;
+                }
+                catch (KeeperException.BadVersionException e) {
+                    // another object was added since the count was read, count again.
+                }
+            }
+        }
+        catch (Exception e) {
+            deleteChunks(chunks);
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+
+    /**
+     * Writes the chunks one request each under a fresh id, returns the reference the master node gets: the id, the
+     * number of chunks and the payload length.
+     */
+    private String writeChunks(byte[] data) throws KeeperException, InterruptedException {
+        String id = UUID.randomUUID().toString();
+        try {
+            zk.create(paths.chunks());
+        }
+        catch (KeeperException.NodeExistsException e) {
+            // pools created before chunking get the parent with their first chunked payload.
+        }
+        String parent = paths.chunks() + "/" + id;
+        zk.create(parent);
+        int count = 0;
+        for (int from = 0; from < data.length; from += chunkSize) {
+            zk.create(parent + "/" + String.format("%05d", count++),
+                    Arrays.copyOfRange(data, from, Math.min(data.length, from + chunkSize)));
+        }
+        return id + " " + count + " " + data.length;
+    }
+
+    private byte[] readChunks(String ref) {
+        checkState(ref != null, "Chunked payload without a chunk reference");
+        String[] parts = ref.split(" ");
+        String parent = paths.chunks() + "/" + parts[0];
+        int count = Integer.parseInt(parts[1]);
+        byte[] data = new byte[Integer.parseInt(parts[2])];
+        int at = 0;
+        for (int i = 0; i < count; i++) {
+            byte[] chunk = zk.getData(parent + "/" + String.format("%05d", i));
+            checkState(chunk != null && at + chunk.length <= data.length, "Chunk %s of %s is missing or too large",
+                    i, parent);
+            System.arraycopy(chunk, 0, data, at, chunk.length);
+            at += chunk.length;
+        }
+        checkState(at == data.length, "Chunks of %s add up to %s of %s bytes", parent, at, data.length);
+        return data;
+    }
+
+    /**
+     * The chunk reference of a chunked object, null for an object stored in its master node.
+     */
+    private String chunkRef(String node) {
+        try {
+            byte[] ref = zk.getData(chunkPath(node), new Stat());
+            return ref == null ? null : new String(ref, Charsets.UTF_8);
+        }
+        catch (NoNodeException e) {
+            return null;
+        }
+    }
+
+    private void deleteChunks(String ref) {
+        if (ref == null) {
+            return;
+        }
+        String parent = paths.chunks() + "/" + ref.split(" ")[0];
+        try {
+            zk.inTransaction().deleteRecursive(parent).commit();
+        }
+        catch (Exception e) {
+            // left behind until the pool is destroyed.
+            LOGGER.warn("Could not delete chunks {}", parent, e);
+        }
+    }
+
+    private String chunkPath(String node) {
+        return path(Area.MASTER, node) + "/" + CHUNKED;
+    }
+
+    @Override
+    public List<String> tagged(String tag, Listener listener) {
+        try {
+            createTagParent(tag);
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        List<String> nodes = zk.getChildren(paths.tag(tag), new ListenerWatcher(Area.UNUSED, listener).arm());
+        fetchTags(nodes);
+        return nodes;
+    }
+
+    /**
+     * Tag parents are created once and stay, pools created before tagging get the roots with their first tag.
+     */
+    private void createTagParent(String tag) throws KeeperException, InterruptedException {
+        if (tagParents.contains(tag)) {
+            return;
+        }
+        try {
+            createIfMissing(paths.tag(tag));
+        }
+        catch (NoNodeException e) {
+            createIfMissing(paths.tags());
+            createIfMissing(paths.nodeTags());
+            createIfMissing(paths.tag(tag));
+        }
+        tagParents.add(tag);
+    }
+
+    private void createIfMissing(String path) throws KeeperException, InterruptedException {
+        try {
+            zk.create(path);
+        }
+        catch (KeeperException.NodeExistsException e) {
+            // created by another participant.
+        }
+    }
+
+    @Override
+    public int weight(String node) {
+        try {
+            return Weights.of(tagsOf(node));
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return 1;
+    }
+
+    @Override
+    public int weight(Area area) {
+        try {
+            if (area == Area.MASTER) {
+                return totalWeight(new Stat());
+            }
+            int total = 0;
+            for (String node : children(area)) {
+                total += Weights.of(tagsOf(node));
+            }
+            return total;
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return 0;
+    }
+
+    /**
+     * The weight of all objects kept in the master node's data, filling in {@code stat}. Pools that predate it start
+     * from the weight of the objects there.
+     */
+    private int totalWeight(Stat stat) {
+        try {
+            byte[] data = zk.getData(paths.master(), stat);
+            if (data != null && data.length > 0) {
+                return Integer.parseInt(new String(data, Charsets.UTF_8));
+            }
+        }
+        catch (NoNodeException e) {
+            throw new IllegalStateException("Could not read the objects of pool " + paths.base());
+        }
+        int total = 0;
+        for (String node : zk.getChildren(paths.master())) {
+            total += Weights.of(tagsOf(node));
+        }
+        return total;
+    }
+
+    private static byte[] weightData(int total) {
+        return String.valueOf(total).getBytes(Charsets.UTF_8);
+    }
+
+    private List<String> tagsOf(String node) {
+        List<String> tags = nodeTags.get(node);
+        if (tags == null) {
+            try {
+                tags = parseTags(zk.getData(nodeTagsPath(node), new Stat()));
+            }
+            catch (NoNodeException e) {
+                tags = Collections.emptyList();
+            }
+            remember(node, tags);
+        }
+        return tags;
+    }
+
+    private static List<String> parseTags(byte[] data) {
+        return data == null ? Collections.<String> emptyList() : Lists.newArrayList(TAG_SPLITTER.split(new String(
+                data, Charsets.UTF_8)));
+    }
+
+    /**
+     * Caches the tags, objects other participants destroyed are dropped once the cache outgrows twice the pool.
+     */
+    private void remember(String node, List<String> tags) {
+        nodeTags.put(node, tags);
+        if (nodeTags.size() > pruneAt) {
+            List<String> master = zk.getChildren(paths.master());
+            nodeTags.keySet().retainAll(Sets.newHashSet(master));
+            pruneAt = Math.max(PRUNE_FLOOR, 2 * master.size());
+        }
+    }
+
+    private void index(ZKTransWrapper t, String node, List<String> tags) {
+        for (String tag : tags) {
+            t.create(paths.tag(tag) + "/" + node);
+        }
+    }
+
+    private void unindex(ZKTransWrapper t, String node, List<String> tags) {
+        for (String tag : tags) {
+            t.delete(paths.tag(tag) + "/" + node);
+        }
+    }
+
+    private void forgetTags(ZKTransWrapper t, String node) {
+        if (!tagsOf(node).isEmpty()) {
+            t.delete(nodeTagsPath(node));
+        }
+    }
+
+    private String nodeTagsPath(String node) {
+        return paths.nodeTags() + "/" + node;
+    }
+
+    @Override
+    public boolean claim(String node, byte[] borrowInfo) {
+        boolean success = false;
+        try {
+            ZKTransWrapper t = zk.inTransaction().delete(path(Area.UNUSED, node));
+            unindex(t, node, tagsOf(node));
+            t.createEphemeral(path(Area.USED, node), borrowInfo).commit();
+            success = true;
+        }
+        catch (KeeperException.NoNodeException e) {
+            // normal, may have missed out on getting the object to borrow.
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return success;
+    }
+
+    /**
+     * Holders are ephemeral children of the shared node, joining bumps the version of the shared node in the same
+     * multi so that joins, drains and the last leave are serialized by it. Holders leaving otherwise don't need it.
+     */
+    @Override
+    public String share(String node, byte[] holderInfo, int maxHolders) {
+        String shared = path(Area.SHARED, node);
+        String holder = HOLDER + UUID.randomUUID();
+        try {
+            for (int attempt = 0; attempt < SHARE_ATTEMPTS; attempt++) {
+                Stat stat = new Stat();
+                List<String> holders;
+                try {
+                    holders = zk.getChildren(shared, null, stat);
+                }
+                catch (NoNodeException e) {
+                    if (shareUnused(node, shared + "/" + holder, holderInfo)) {
+                        return holder;
+                    }
+                    continue;
+                }
+                if (holders.contains(DRAIN) || holders.size() >= maxHolders) {
+                    return null;
+                }
+                try {
+                    zk.inTransaction().setData(shared, null, stat.getVersion())
+                            .createEphemeral(shared + "/" + holder, holderInfo).commit();
+                    return holder;
+                }
+                catch (KeeperException.BadVersionException e) {
+                    // someone joined, left last or started draining, look again.
+                }
+                catch (NoNodeException e) {
+                    // went back to unused.
+                }
+            }
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+
+    /**
+     * First holder, false if the object is not unused or someone else made it shared first.
+     */
+    private boolean shareUnused(String node, String holder, byte[] holderInfo) throws KeeperException,
+            InterruptedException {
+        if (!zk.exists(path(Area.UNUSED, node))) {
+            return false;
+        }
+        try {
+            ZKTransWrapper t = zk.inTransaction().delete(path(Area.UNUSED, node));
+            unindex(t, node, tagsOf(node));
+            t.create(path(Area.SHARED, node)).createEphemeral(holder, holderInfo).commit();
+            return true;
+        }
+        catch (NoNodeException e) {
+            return false;
+        }
+        catch (KeeperException.NodeExistsException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void unshare(String node, String holder) {
+        String shared = path(Area.SHARED, node);
+        try {
+            for (int attempt = 0; attempt < SHARE_ATTEMPTS; attempt++) {
+                Stat stat = new Stat();
+                List<String> holders = zk.getChildren(shared, null, stat);
+                if (!holders.contains(holder)) {
+                    // went with an expired session.
+                    return;
+                }
+                if (holders.size() > 1) {
+                    zk.delete(shared + "/" + holder);
+                    return;
+                }
+                try {
+                    ZKTransWrapper t = zk.inTransaction().setData(shared, null, stat.getVersion())
+                            .delete(shared + "/" + holder).delete(shared).create(path(Area.UNUSED, node));
+                    index(t, node, tagsOf(node));
+                    t.commit();
+                    return;
+                }
+                catch (KeeperException.BadVersionException e) {
+                    // someone joined or started draining, leave them the object.
+                }
+            }
+            zk.delete(shared + "/" + holder);
+        }
+        catch (NoNodeException e) {
+            // the object or the holder is gone already.
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public boolean restoreShared(String node) {
+        String shared = path(Area.SHARED, node);
+        try {
+            Stat stat = new Stat();
+            if (!zk.getChildren(shared, null, stat).isEmpty()) {
+                return false;
+            }
+            ZKTransWrapper t = zk.inTransaction().setData(shared, null, stat.getVersion()).delete(shared)
+                    .create(path(Area.UNUSED, node));
+            index(t, node, tagsOf(node));
+            t.commit();
+            return true;
+        }
+        catch (NoNodeException e) {
+            // restored or destroyed already.
+        }
+        catch (KeeperException.BadVersionException e) {
+            // someone joined in the meantime.
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return false;
+    }
+
+    @Override
+    public Map<String, Integer> sharedLoad(Listener listener) {
+        Map<String, Integer> load = Maps.newHashMap();
+        for (String node : zk.getChildren(paths.shared(), new ListenerWatcher(Area.SHARED, listener).arm())) {
+            try {
+                List<String> holders = zk.getChildren(path(Area.SHARED, node),
+                        new ListenerWatcher(Area.SHARED, listener).arm(), new Stat());
+                if (!holders.contains(DRAIN)) {
+                    load.put(node, holders.size());
+                }
+            }
+            catch (NoNodeException e) {
+                // went back to unused.
+            }
+        }
+        return load;
+    }
+
+    /**
+     * The drain marker is ephemeral, a drainer that goes away lets holders join again.
+     */
+    @Override
+    public boolean drain(String node, byte[] borrowInfo) {
+        String shared = path(Area.SHARED, node);
+        try {
+            Stat stat = new Stat();
+            List<String> holders = zk.getChildren(shared, null, stat);
+            int version = stat.getVersion();
+            if (!holders.contains(DRAIN)) {
+                zk.inTransaction().setData(shared, null, version).createEphemeral(shared + "/" + DRAIN).commit();
+                version++;
+            }
+            else if (!drainedByUs(shared)) {
+                return false;
+            }
+            else {
+                holders.remove(DRAIN);
+            }
+            if (!holders.isEmpty()) {
+                return false;
+            }
+            zk.inTransaction().setData(shared, null, version).delete(shared + "/" + DRAIN).delete(shared)
+                    .createEphemeral(path(Area.USED, node), borrowInfo).commit();
+            return true;
+        }
+        catch (NoNodeException e) {
+            // went back to unused.
+        }
+        catch (KeeperException.BadVersionException e) {
+            // lost to a join or another drainer.
+        }
+        catch (KeeperException.NodeExistsException e) {
+            // another participant drains it.
+        }
+        catch (KeeperException.NotEmptyException e) {
+            // a holder joined before the marker.
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return false;
+    }
+
+    @Override
+    public void undrain(String node) {
+        String shared = path(Area.SHARED, node);
+        try {
+            Stat stat = new Stat();
+            List<String> holders = zk.getChildren(shared, null, stat);
+            if (!holders.contains(DRAIN) || !drainedByUs(shared)) {
+                return;
+            }
+            ZKTransWrapper t = zk.inTransaction().setData(shared, null, stat.getVersion()).delete(shared + "/" + DRAIN);
+            if (holders.size() == 1) {
+                // the holders left while draining, nobody else would put it back.
+                t.delete(shared).create(path(Area.UNUSED, node));
+                index(t, node, tagsOf(node));
+            }
+            t.commit();
+        }
+        catch (NoNodeException e) {
+            // claimed or gone already.
+        }
+        catch (KeeperException.BadVersionException e) {
+            // a holder left last in between, the marker still keeps others off.
+            undrain(node);
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+    }
+
+    private boolean drainedByUs(String shared) {
+        Stat marker = zk.getStat(shared + "/" + DRAIN);
+        return marker != null && marker.getEphemeralOwner() == zk.getSessionId();
+    }
+
+    /**
+     * Takes the object back the way {@link #claim(String, byte[])} does when the claim went to {@link Area#UNUSED}
+     * with the expired session, or creates the lost used node if the crash detector has not restored it yet.
+     */
+    @Override
+    public boolean reclaim(String node, byte[] borrowInfo) {
+        try {
+            if (!zk.exists(path(Area.MASTER, node))) {
+                return false;
+            }
+            if (claim(node, borrowInfo)) {
+                return true;
+            }
+            zk.createEphemeral(path(Area.USED, node), borrowInfo);
+            if (zk.exists(path(Area.UNUSED, node))) {
+                // restored between the two, claimed now so nobody else can take it.
+                try {
+                    ZKTransWrapper t = zk.inTransaction().delete(path(Area.UNUSED, node));
+                    unindex(t, node, tagsOf(node));
+                    t.commit();
+                }
+                catch (NoNodeException e) {
+                    // can't be claimed by anyone else while our used node exists.
+                }
+            }
+            return true;
+        }
+        catch (KeeperException.NodeExistsException e) {
+            // borrowed by another participant in the meantime.
+            return false;
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return false;
+    }
+
+    @Override
+    public void addSessionListener(SessionListener listener) {
+        sessionListeners.add(listener);
+    }
+
+    /**
+     * The watches set with the expired session are gone. The pool gets to re-assert its claims first, then every
+     * listener still waiting on a watch is notified once, which reads and watches again on the new session.
+     */
+    private void renewed() {
+        for (SessionListener listener : sessionListeners) {
+            try {
+                listener.sessionRenewed();
+            }
+            catch (Exception e) {
+                LOGGER.error("Error recovering from a new zookeeper session", e);
+            }
+        }
+        List<StoreWatcher> lost = Lists.newArrayList(armed);
+        armed.removeAll(lost);
+        for (StoreWatcher watcher : lost) {
+            try {
+                watcher.notifyListener();
+            }
+            catch (Exception e) {
+                LOGGER.error("Error setting a watch again on the new zookeeper session", e);
+            }
+        }
+    }
+
+    @Override
+    public void release(String node) {
+        release(node, null);
+    }
+
+    /**
+     * The unused node records when the object went idle, its own modification time says when it was released.
+     */
+    @Override
+    public void release(String node, long idleSince) {
+        release(node, String.valueOf(idleSince).getBytes(Charsets.UTF_8));
+    }
+
+    private void release(String node, byte[] idleSince) {
+        try {
+            ZKTransWrapper t = zk.inTransaction().delete(path(Area.USED, node))
+                    .create(path(Area.UNUSED, node), idleSince);
+            index(t, node, tagsOf(node));
+            t.commit();
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public void remove(String node) {
+        delete(node);
+    }
+
+    @Override
+    public void markZombie(String node) {
+        try {
+            zk.create(path(Area.ZOMBIES, node));
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public boolean unzombie(String node) {
+        boolean success = false;
+        try {
+            String zombie = path(Area.ZOMBIES, node);
+            if (zk.exists(zombie)) {
+                ZKTransWrapper t = zk.inTransaction().delete(path(Area.USED, node)).delete(zombie)
+                        .create(path(Area.UNUSED, node));
+                index(t, node, tagsOf(node));
+                t.commit();
+                success = true;
+            }
+        }
+        catch (KeeperException.NoNodeException e) {
+            // It's ok, node may not be a zombie.
+        }
+        catch (InterruptedException e) {
+        }
+        catch (KeeperException e) {
+            Throwables.propagate(e);
+        }
+        return success;
+    }
+
+    @Override
+    public void drop(String node) {
+        delete(node, path(Area.ZOMBIES, node));
+    }
+
+    /**
+     * Deletes a used object along with the given nodes, taking its weight off the master node's total under the
+     * version fence add writes it with.
+     */
+    private void delete(String node, String... along) {
+        try {
+            String chunks = chunkRef(node);
+            int weight = Weights.of(tagsOf(node));
+            for (;;) {
+                Stat stat = new Stat();
+                int total = totalWeight(stat);
+                ZKTransWrapper t = zk.inTransaction();
+                for (String path : along) {
+                    t.delete(path);
+                }
+                if (chunks != null) {
+                    t.delete(chunkPath(node));
+                }
+                forgetTags(t, node);
+                t.delete(path(Area.MASTER, node)).delete(path(Area.USED, node))
+                        .setData(paths.master(), weightData(total - weight), stat.getVersion());
+                try {
+                    t.commit();
+                    break;
+                }
+                catch (KeeperException.BadVersionException e) {
+                    // an object was added or removed since the total was read, read it again.
+                }
+            }
+            nodeTags.remove(node);
+            deleteChunks(chunks);
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public boolean restore(String node) {
+        boolean success = false;
+        try {
+            // extra guard in case we caught a node in transition
+            if (!zk.exists(path(Area.USED, node))) {
+                ZKTransWrapper t = zk.inTransaction().create(path(Area.UNUSED, node));
+                index(t, node, tagsOf(node));
+                t.commit();
+                success = true;
+            }
+        }
+        catch (KeeperException.NodeExistsException e) {
+            // do nothing, we might have caught a node in transition not due to crash.
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return success;
+    }
+
+    @Override
+    public Versioned getProperty(String name) {
+        try {
+            Stat stat = new Stat();
+            byte[] data = zk.getData(paths.property(name), stat);
+            return new Versioned(data, stat.getVersion());
+        }
+        catch (NoNodeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Versioned getProperty(String name, PropertyListener listener) {
+        String path = paths.property(name);
+        Watcher watcher = new PropertyWatcher(name, listener).arm();
+        for (;;) {
+            try {
+                Stat stat = new Stat();
+                byte[] data = zk.getData(path, watcher, stat);
+                return new Versioned(data, stat.getVersion());
+            }
+            catch (NoNodeException e) {
+                if (!zk.exists(path, watcher)) {
+                    return null;
+                }
+                // created in between, read it.
+            }
+        }
+    }
+
+    @Override
+    public boolean setProperty(String name, byte[] data, int version) {
+        boolean success = false;
+        try {
+            if (version == Versioned.NONE) {
+                ensureProperties();
+                zk.create(paths.property(name), data);
+            }
+            else {
+                zk.setData(paths.property(name), data, version);
+            }
+            success = true;
+        }
+        catch (KeeperException.NodeExistsException e) {
+            // someone else created it first.
+        }
+        catch (KeeperException.BadVersionException e) {
+            // someone else changed it first.
+        }
+        catch (NoNodeException e) {
+            // removed since it was read.
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return success;
+    }
+
+    @Override
+    public void removeProperty(String name) {
+        try {
+            zk.delete(paths.property(name));
+        }
+        catch (NoNodeException e) {
+            // already gone.
+        }
+    }
+
+    @Override
+    public List<String> properties() {
+        if (!zk.exists(paths.properties())) {
+            return Lists.newArrayList();
+        }
+        return zk.getChildren(paths.properties());
+    }
+
+    /**
+     * Pools created before properties existed don't have the parent yet.
+     */
+    private void ensureProperties() throws KeeperException, InterruptedException {
+        ensure(paths.properties());
+    }
+
+    private void ensure(String path) throws KeeperException, InterruptedException {
+        if (!zk.exists(path)) {
+            try {
+                zk.create(path);
+            }
+            catch (KeeperException.NodeExistsException e) {
+                // created concurrently.
+            }
+        }
+    }
+
+    /**
+     * Permits are ephemeral sequential nodes, the ones among the {@code limit} lowest at the time they were checked
+     * are held. Any later node sees all the held ones before it, so no more than {@code limit} are ever held at once.
+     * A node that does not make it is deleted right away.
+     */
+    @Override
+    public String takeCreatePermit(int limit, PermitListener listener) {
+        try {
+            ensure(paths.createPermits());
+            for (;;) {
+                String path = zk.createEphemeralSeq(paths.createPermits().concat("/"), null);
+                String permit = path.substring(path.lastIndexOf("/") + 1);
+                List<String> permits = zk.getChildren(paths.createPermits());
+                Collections.sort(permits);
+                if (permits.indexOf(permit) < limit) {
+                    return permit;
+                }
+                zk.delete(path);
+                List<String> left = zk.getChildren(paths.createPermits(), new PermitWatcher(listener).arm());
+                // permits returned before the watch was set would go unnoticed, room by now means trying again.
+                if (left.size() >= limit) {
+                    return null;
+                }
+            }
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+
+    @Override
+    public void returnCreatePermit(String permit) {
+        deletePermit(paths.createPermits(), permit);
+    }
+
+    /**
+     * Same ranking as creation permits, with all of a batch created in one multi and held only if every one of them
+     * ranks below the limit. A batch that does not make it is deleted in one multi too.
+     */
+    @Override
+    public List<String> takePermits(int count, int limit, PermitListener listener) {
+        try {
+            for (;;) {
+                ZKTransWrapper t = zk.inTransaction();
+                for (int i = 0; i < count; i++) {
+                    t.createEphemeralSeq(paths.permits().concat("/"));
+                }
+                List<OpResult> results;
+                try {
+                    results = t.commit();
+                }
+                catch (NoNodeException e) {
+                    // pools created before semaphores have no parent for the permits.
+                    ensure(paths.permits());
+                    continue;
+                }
+                List<String> taken = Lists.newArrayListWithCapacity(count);
+                for (OpResult result : results) {
+                    String path = ((OpResult.CreateResult) result).getPath();
+                    taken.add(path.substring(path.lastIndexOf("/") + 1));
+                }
+                List<String> permits = zk.getChildren(paths.permits());
+                Collections.sort(permits);
+                if (permits.indexOf(taken.get(taken.size() - 1)) < limit) {
+                    return taken;
+                }
+                returnPermits(taken);
+                List<String> left = zk.getChildren(paths.permits(), new PermitWatcher(listener).arm());
+                // permits returned before the watch was set would go unnoticed, room by now means trying again.
+                if (left.size() + count > limit) {
+                    return null;
+                }
+            }
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return null;
+    }
+
+    @Override
+    public void returnPermits(List<String> permits) {
+        ZKTransWrapper t = zk.inTransaction();
+        for (String permit : permits) {
+            t.delete(paths.permits().concat("/").concat(permit));
+        }
+        try {
+            t.commit();
+        }
+        catch (NoNodeException e) {
+            // some went with an expired session, return the rest one by one.
+            for (String permit : permits) {
+                deletePermit(paths.permits(), permit);
+            }
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public int permitsTaken() {
+        return zk.getChildren(paths.permits()).size();
+    }
+
+    private void deletePermit(String parent, String permit) {
+        try {
+            zk.delete(parent.concat("/").concat(permit));
+        }
+        catch (NoNodeException e) {
+            // went with the session.
+        }
+    }
+
+    @Override
+    public <R> R doSynchronized(String lock, SynchronizedOperationCallback<R> callback) {
+        return zk.doSynchronized(lock, callback);
+    }
+
+    private String path(Area area) {
+        switch (area) {
+        case MASTER:
+            return paths.master();
+        case USED:
+            return paths.used();
+        case UNUSED:
+            return paths.unused();
+        case ZOMBIES:
+            return paths.zombies();
+        case SHARED:
+            return paths.shared();
+        default:
+            return paths.participants();
+        }
+    }
+
+    private String path(Area area, String node) {
+        return path(area).concat("/").concat(node);
+    }
+
+    /**
+     * Remembered from being set until it fired, so the listeners of watches lost with an expired session can be
+     * notified on the new one.
+     */
+    private abstract class StoreWatcher implements Watcher {
+
+        StoreWatcher arm() {
+            armed.add(this);
+            return this;
+        }
+
+        @Override
+        public void process(WatchedEvent e) {
+            if (fires(e)) {
+                armed.remove(this);
+                if (detached) {
+                    // the watch outlived the store on a shared client.
+                    return;
+                }
+                notifyListener();
+            }
+        }
+
+        boolean fires(WatchedEvent e) {
+            return e.getType() != Event.EventType.None;
+        }
+
+        abstract void notifyListener();
+    }
+
+    /**
+     * Equal for the same listener, so a participant waiting in several threads is notified once per change.
+     */
+    private class PermitWatcher extends StoreWatcher {
+        private final PermitListener listener;
+
+        PermitWatcher(PermitListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        void notifyListener() {
+            listener.released();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof PermitWatcher && ((PermitWatcher) o).listener == listener;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(listener);
+        }
+    }
+
+    /**
+     * Equal for the same listener and property, so a data and an exists watch left by the same read notify once.
+     */
+    private class PropertyWatcher extends StoreWatcher {
+        private final String property;
+        private final PropertyListener listener;
+
+        PropertyWatcher(String property, PropertyListener listener) {
+            this.property = property;
+            this.listener = listener;
+        }
+
+        @Override
+        void notifyListener() {
+            listener.changed(property);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PropertyWatcher)) {
+                return false;
+            }
+            PropertyWatcher other = (PropertyWatcher) o;
+            return property.equals(other.property) && listener == other.listener;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * property.hashCode() + System.identityHashCode(listener);
+        }
+    }
+
+    /**
+     * Equal for the same listener and area, zookeeper keeps one of equal watchers per path so registering again
+     * before the watch fired does not lead to duplicate notifications.
+     */
+    private class ListenerWatcher extends StoreWatcher {
+        private final Area area;
+        private final Listener listener;
+
+        ListenerWatcher(Area area, Listener listener) {
+            this.area = area;
+            this.listener = listener;
+        }
+
+        @Override
+        boolean fires(WatchedEvent e) {
+            return e.getType() == Event.EventType.NodeChildrenChanged;
+        }
+
+        @Override
+        void notifyListener() {
+            listener.changed(area);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ListenerWatcher)) {
+                return false;
+            }
+            ListenerWatcher other = (ListenerWatcher) o;
+            return area == other.area && listener == other.listener;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * area.hashCode() + System.identityHashCode(listener);
+        }
+    }
+
+}
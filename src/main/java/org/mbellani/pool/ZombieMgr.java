@@ -1,44 +1,148 @@
 package org.mbellani.pool;
 
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.mbellani.zk.ZKClient;
+import org.mbellani.metrics.Counter;
+import org.mbellani.metrics.Histogram;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.PoolStore.Listener;
 import org.mbellani.zk.ZKClient.SynchronizedOperationCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class ZombieMgr<T> implements ObjectPoolTask<T>, Runnable {
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Revalidates zombies, bringing the ones that work again back into the pool and dropping the ones that turn out
+ * invalid. Runs when the zombies change and on a fixed rate as a safety net. Zombies are checked in parallel, each
+ * for a bounded time, and one that is still dead is left alone for twice as long as the last time.
+ */
+public class ZombieMgr<T> implements ObjectPoolTask<T>, Runnable, Listener {
+
+    private enum Outcome {
+        REVIVED, DROPPED, DEAD, TIMED_OUT, FAILED
+    }
 
     private ZKObjectPool<T> pool;
-    private ZKClient zk;
+    private PoolStore store;
     private PoolPaths paths;
     private volatile boolean shutdown;
     private static final Logger LOGGER = LoggerFactory.getLogger(ZombieMgr.class);
-    private ScheduledThreadPoolExecutor scheduler;
+    private Config cfg;
+    private TaskScheduler scheduler;
+    private ScheduledFuture<?> periodic;
+    private ThreadPoolExecutor validators;
+    private final Map<String, Backoff> backoffs = new ConcurrentHashMap<String, Backoff>();
+    private final AtomicBoolean triggered = new AtomicBoolean();
+    private final Histogram recoveryTime;
+    private final Counter timeouts;
 
     public ZombieMgr(ZKObjectPool<T> pool) {
         this.pool = pool;
-        this.zk = pool.getZk();
+        this.store = pool.getStore();
         this.paths = pool.getPaths();
-        scheduler = new ScheduledThreadPoolExecutor(1);
+        this.cfg = pool.getConfig();
+        recoveryTime = pool.getMetrics().histogram(PoolMetrics.ZOMBIE_RECOVERY);
+        timeouts = pool.getMetrics().counter(PoolMetrics.ZOMBIE_CHECK_TIMEOUTS);
+        scheduler = pool.newScheduler();
+        int threads = validatorThreads();
+        validators = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("zombie-validator-%d").setDaemon(true).build());
     }
 
     @Override
     public void start() {
-        Config c = pool.getConfig();
-        scheduler.scheduleAtFixedRate(this, c.getZombieDetectionIntrvl(), c.getZombieDetectionIntrvl(),
-                c.getIntrvlUnit());
+        schedule();
+        changed(Area.ZOMBIES);
+    }
+
+    /**
+     * Moves the periodic check to the new interval and resizes the validators. Checks in progress finish, timeouts
+     * and backoffs are read from the config as they are needed.
+     */
+    @Override
+    public synchronized void configChanged() {
+        if (shutdown) {
+            return;
+        }
+        int threads = validatorThreads();
+        // the core size can not go past the max size, whichever has to move first depends on the direction.
+        if (threads > validators.getMaximumPoolSize()) {
+            validators.setMaximumPoolSize(threads);
+            validators.setCorePoolSize(threads);
+        }
+        else {
+            validators.setCorePoolSize(threads);
+            validators.setMaximumPoolSize(threads);
+        }
+        periodic.cancel(false);
+        schedule();
+    }
+
+    private synchronized void schedule() {
+        periodic = scheduler.scheduleAtFixedRate(this, cfg.getZombieDetectionIntrvl(), cfg.getZombieDetectionIntrvl(),
+                cfg.getIntrvlUnit());
+    }
+
+    private int validatorThreads() {
+        return Math.max(1, cfg.getZombieValidationThreads());
+    }
+
+    private long timeoutNanos() {
+        return cfg.getIntrvlUnit().toNanos(cfg.getZombieValidationTimeout());
+    }
+
+    private long backoffNanos() {
+        return cfg.getIntrvlUnit().toNanos(cfg.getZombieBackoff());
+    }
+
+    private long maxBackoffNanos() {
+        return Math.max(backoffNanos(), cfg.getIntrvlUnit().toNanos(cfg.getZombieMaxBackoff()));
     }
 
     @Override
     public void shutdown() {
+        shutdown = true;
         scheduler.shutdown();
+        validators.shutdownNow();
+    }
+
+    /**
+     * New zombies get their first check after the initial backoff rather than right away, whatever made them zombies
+     * is unlikely to have passed already.
+     */
+    @Override
+    public void changed(Area area) {
+        if (shutdown || store.isShutdown()) {
+            return;
+        }
         try {
-            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            long now = System.nanoTime();
+            long backoff = backoffNanos();
+            for (String zombie : store.children(Area.ZOMBIES, this)) {
+                if (!backoffs.containsKey(zombie)) {
+                    backoffs.put(zombie, new Backoff(now, now + backoff));
+                }
+            }
+            trigger(backoff);
         }
-        catch (InterruptedException e) {
-            LOGGER.warn("Interrupted while waiting for clean up scheduler to shutdown", e);
+        catch (Exception e) {
+            LOGGER.warn("Could not watch zombies, relying on the periodic check", e);
         }
     }
 
@@ -47,42 +151,169 @@ public class ZombieMgr<T> implements ObjectPoolTask<T>, Runnable {
         if (shutdown) {
             return;
         }
-        int zombies = pool.getZombies();
-        if (zombies > 0) {
-            LOGGER.info("Found {} zombies starting cleanup ", zombies);
-            int cleaned = zk.doSynchronized(paths.zombiesLock(), new SynchronizedOperationCallback<Integer>() {
+        try {
+            List<String> zombies = pool.getZombieNodes();
+            forget(zombies);
+            if (zombies.isEmpty()) {
+                return;
+            }
+            LOGGER.info("Found {} zombies starting cleanup ", zombies.size());
+            int cleaned = store.doSynchronized(paths.zombiesLock(), new SynchronizedOperationCallback<Integer>() {
                 @Override
-                public Integer perform() {
-                    return cleanup();
+                public Integer perform() throws InterruptedException {
+                    return cleanup(pool.getZombieNodes());
                 }
             });
             if (cleaned > 0) {
                 LOGGER.info("Cleaned {} zombies", cleaned);
             }
-
+            scheduleNextDue();
+        }
+        catch (Exception e) {
+            LOGGER.error("Error cleaning zombies ", e);
         }
     }
 
-    private Integer cleanup() {
+    private Integer cleanup(List<String> zombies) throws InterruptedException {
+        long now = System.nanoTime();
+        List<Check> checks = Lists.newArrayList();
+        for (String zombie : zombies) {
+            Backoff backoff = backoffs.get(zombie);
+            if (backoff == null) {
+                backoffs.put(zombie, backoff = new Backoff(now, now));
+            }
+            if (backoff.due - now <= 0) {
+                Check check = new Check(zombie);
+                check.future = validators.submit(check);
+                checks.add(check);
+            }
+        }
         int cleaned = 0;
-        for (String zombie : pool.getZombieNodes()) {
-            T obj = pool.getData(zombie);
+        for (Check check : checks) {
+            Outcome outcome = await(check);
+            Backoff backoff = backoffs.get(check.node);
+            if (outcome == Outcome.REVIVED || outcome == Outcome.DROPPED) {
+                if (outcome == Outcome.REVIVED && backoff != null) {
+                    recoveryTime.recordSince(backoff.noticed);
+                }
+                backoffs.remove(check.node);
+                cleaned++;
+            }
+            else if (backoff != null) {
+                backoff.failed(System.nanoTime());
+            }
+        }
+        return cleaned;
+    }
+
+    /**
+     * Waits for a check to finish, giving it the timeout from when it actually started running.
+     */
+    private Outcome await(Check check) throws InterruptedException {
+        long timeoutNanos = timeoutNanos();
+        for (;;) {
+            long started = check.started;
+            long wait = started == 0 ? timeoutNanos : started + timeoutNanos - System.nanoTime();
             try {
-                if (pool.isValid(obj)) {
-                    pool.unzombie(zombie);
+                return check.future.get(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+            }
+            catch (TimeoutException e) {
+                started = check.started;
+                if (started != 0 && System.nanoTime() - started >= timeoutNanos) {
+                    check.future.cancel(true);
+                    timeouts.inc();
+                    LOGGER.warn("Revalidating zombie {} timed out", check.node);
+                    return Outcome.TIMED_OUT;
                 }
-                else {
-                    pool.drop(zombie);
+            }
+            catch (ExecutionException e) {
+                LOGGER.error("Error cleaning zombie " + check.node, e.getCause());
+                return Outcome.FAILED;
+            }
+        }
+    }
+
+    private void forget(List<String> zombies) {
+        backoffs.keySet().retainAll(zombies);
+    }
+
+    private void scheduleNextDue() {
+        long next = Long.MAX_VALUE;
+        long now = System.nanoTime();
+        for (Backoff backoff : backoffs.values()) {
+            next = Math.min(next, Math.max(0, backoff.due - now));
+        }
+        if (next != Long.MAX_VALUE) {
+            trigger(next);
+        }
+    }
+
+    /**
+     * Runs the cleanup once after the delay, unless a run is already waiting. The fixed rate run keeps going either
+     * way.
+     */
+    private void trigger(long delayNanos) {
+        if (shutdown || !triggered.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    triggered.set(false);
+                    ZombieMgr.this.run();
                 }
-                cleaned++;
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            // shutting down.
+        }
+    }
+
+    private class Check implements Callable<Outcome> {
+        private final String node;
+        private volatile long started;
+        private Future<Outcome> future;
+
+        Check(String node) {
+            this.node = node;
+        }
+
+        @Override
+        public Outcome call() {
+            started = System.nanoTime();
+            T obj = pool.getData(node);
+            try {
+                if (pool.isValid(obj)) {
+                    pool.unzombie(node);
+                    return Outcome.REVIVED;
+                }
+                pool.drop(node);
+                return Outcome.DROPPED;
             }
             catch (ZombieException e) {
-                break;
+                return Outcome.DEAD;
             }
-            catch (Exception e) {
-                LOGGER.error("Error cleaning zombies ", e);
+            catch (CircuitBreaker.OpenException e) {
+                // can't tell while the factory is failing, try again after the backoff.
+                return Outcome.DEAD;
             }
         }
-        return cleaned;
+    }
+
+    private class Backoff {
+        private final long noticed;
+        private volatile long due;
+        private long wait = backoffNanos();
+
+        Backoff(long noticed, long due) {
+            this.noticed = noticed;
+            this.due = due;
+        }
+
+        void failed(long now) {
+            wait = Math.min(maxBackoffNanos(), wait * 2);
+            due = now + wait;
+        }
     }
 }
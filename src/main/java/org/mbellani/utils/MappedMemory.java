@@ -0,0 +1,206 @@
+package org.mbellani.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+
+import com.google.common.base.Throwables;
+
+/**
+ * A file mapped into memory with atomic access to its ints and longs, usable for coordination between processes
+ * mapping the same file. Offsets are relative to the start of the file and must be naturally aligned.
+ *
+ * The atomics come from sun.misc.Unsafe, looked up at runtime and bound to constant method handles the JIT inlines
+ * like direct calls, so the build does not depend on the internal API.
+ */
+public class MappedMemory {
+
+    private static final MethodHandle GET_INT;
+    private static final MethodHandle PUT_INT;
+    private static final MethodHandle CAS_INT;
+    private static final MethodHandle GET_LONG;
+    private static final MethodHandle PUT_LONG;
+    private static final MethodHandle CAS_LONG;
+    private static final MethodHandle COPY;
+    private static final MethodHandle SET;
+    private static final MethodHandle READ_LONG;
+    private static final long ADDRESS_OFFSET;
+    private static final long BYTES_OFFSET;
+
+    static {
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field f = type.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Object unsafe = f.get(null);
+            GET_INT = unsafe(unsafe, "getIntVolatile", int.class, Object.class, long.class);
+            PUT_INT = unsafe(unsafe, "putIntVolatile", void.class, Object.class, long.class, int.class);
+            CAS_INT = unsafe(unsafe, "compareAndSwapInt", boolean.class, Object.class, long.class, int.class,
+                    int.class);
+            GET_LONG = unsafe(unsafe, "getLongVolatile", long.class, Object.class, long.class);
+            PUT_LONG = unsafe(unsafe, "putLongVolatile", void.class, Object.class, long.class, long.class);
+            CAS_LONG = unsafe(unsafe, "compareAndSwapLong", boolean.class, Object.class, long.class, long.class,
+                    long.class);
+            COPY = unsafe(unsafe, "copyMemory", void.class, Object.class, long.class, Object.class, long.class,
+                    long.class);
+            SET = unsafe(unsafe, "setMemory", void.class, long.class, long.class, byte.class);
+            READ_LONG = unsafe(unsafe, "getLong", long.class, Object.class, long.class);
+            ADDRESS_OFFSET = (Long) type.getMethod("objectFieldOffset", Field.class).invoke(unsafe,
+                    Buffer.class.getDeclaredField("address"));
+            BYTES_OFFSET = (Integer) type.getMethod("arrayBaseOffset", Class.class).invoke(unsafe, byte[].class);
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long address;
+    private final long size;
+
+    public MappedMemory(File path, long size) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        if (file.length() < size) {
+            file.setLength(size);
+        }
+        this.channel = file.getChannel();
+        this.buffer = channel.map(MapMode.READ_WRITE, 0, size);
+        try {
+            this.address = (long) READ_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+        this.size = size;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int getInt(long offset) {
+        try {
+            return (int) GET_INT.invokeExact((Object) null, at(offset, 4));
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    public void putInt(long offset, int value) {
+        try {
+            PUT_INT.invokeExact((Object) null, at(offset, 4), value);
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    public boolean cas(long offset, int expected, int value) {
+        try {
+            return (boolean) CAS_INT.invokeExact((Object) null, at(offset, 4), expected, value);
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    public int getAndAdd(long offset, int delta) {
+        int current;
+        do {
+            current = getInt(offset);
+        } while (!cas(offset, current, current + delta));
+        return current;
+    }
+
+    public long getLong(long offset) {
+        try {
+            return (long) GET_LONG.invokeExact((Object) null, at(offset, 8));
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    public void putLong(long offset, long value) {
+        try {
+            PUT_LONG.invokeExact((Object) null, at(offset, 8), value);
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    public boolean cas(long offset, long expected, long value) {
+        try {
+            return (boolean) CAS_LONG.invokeExact((Object) null, at(offset, 8), expected, value);
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    public long getAndAdd(long offset, long delta) {
+        long current;
+        do {
+            current = getLong(offset);
+        } while (!cas(offset, current, current + delta));
+        return current;
+    }
+
+    public byte[] getBytes(long offset, int length) {
+        byte[] dst = new byte[length];
+        copy(null, at(offset, length), dst, BYTES_OFFSET, length);
+        return dst;
+    }
+
+    public void putBytes(long offset, byte[] src) {
+        copy(src, BYTES_OFFSET, null, at(offset, src.length), src.length);
+    }
+
+    public void zero(long offset, long length) {
+        try {
+            SET.invokeExact(at(offset, length), length, (byte) 0);
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    /**
+     * Blocks until this process holds an exclusive lock on the region, regions may lie beyond the end of the file.
+     * Locks are held on behalf of the whole JVM, callers have to serialize threads themselves.
+     */
+    public FileLock lock(long position, long length) throws IOException {
+        return channel.lock(position, length, false);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+
+    private static void copy(Object src, long srcOffset, Object dst, long dstOffset, long length) {
+        try {
+            COPY.invokeExact(src, srcOffset, dst, dstOffset, length);
+        } catch (Throwable t) {
+            throw Throwables.propagate(t);
+        }
+    }
+
+    private static MethodHandle unsafe(Object unsafe, String name, Class<?> returns, Class<?>... parameters)
+            throws ReflectiveOperationException {
+        return MethodHandles.lookup().findVirtual(unsafe.getClass(), name, MethodType.methodType(returns, parameters))
+                .bindTo(unsafe);
+    }
+
+    private long at(long offset, long length) {
+        if (offset < 0 || offset + length > size) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " is outside the mapped region of " + size);
+        }
+        return address + offset;
+    }
+
+}
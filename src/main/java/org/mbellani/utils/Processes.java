@@ -0,0 +1,37 @@
+package org.mbellani.utils;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+public class Processes {
+
+	private static final File PROC = new File("/proc");
+
+	public static long currentPid() {
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int at = name.indexOf('@');
+		try {
+			return Long.parseLong(at > 0 ? name.substring(0, at) : name);
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Best effort liveness check of a process on this host, answers true whenever it cannot tell.
+	 */
+	public static boolean isAlive(long pid) {
+		if (!canTell(pid)) {
+			return true;
+		}
+		return new File(PROC, String.valueOf(pid)).exists();
+	}
+
+	/**
+	 * Whether {@link #isAlive(long)} actually knows about the process rather than assuming it runs.
+	 */
+	public static boolean canTell(long pid) {
+		return pid > 0 && PROC.isDirectory();
+	}
+
+}
@@ -0,0 +1,156 @@
+package org.mbellani.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How often and how long to keep trying an operation that failed for a reason that may go away, like a lost
+ * connection. The waits grow exponentially up to a cap and are picked at random below it, so participants that failed
+ * at the same moment don't all come back at the same moment either. An operation gives up after a number of attempts
+ * or some time, whichever comes first. On top of that all operations retrying through the same policy share a budget
+ * of retries per time window, so a longer outage does not turn into a steady storm of retries.
+ */
+public class RetryPolicy {
+
+    private static final long DEFAULT_BASE_DELAY = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long DEFAULT_MAX_DELAY = TimeUnit.SECONDS.toNanos(5);
+    private static final long DEFAULT_MAX_ELAPSED = TimeUnit.SECONDS.toNanos(30);
+    private static final int DEFAULT_MAX_ATTEMPTS = 10;
+    private static final int DEFAULT_BUDGET = 100;
+    private static final long DEFAULT_BUDGET_WINDOW = TimeUnit.SECONDS.toNanos(10);
+
+    private final long baseDelay;
+    private final long maxDelay;
+    private final long maxElapsed;
+    private final int maxAttempts;
+    private final int budget;
+    private final long budgetWindow;
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicInteger windowRetries = new AtomicInteger();
+
+    private RetryPolicy(Builder b) {
+        this.baseDelay = b.baseDelay;
+        this.maxDelay = b.maxDelay;
+        this.maxElapsed = b.maxElapsed;
+        this.maxAttempts = b.maxAttempts;
+        this.budget = b.budget;
+        this.budgetWindow = b.budgetWindow;
+    }
+
+    /**
+     * Begins trying one operation, the returned {@link Retry} is good for that operation only.
+     */
+    public Retry start() {
+        return new Retry();
+    }
+
+    /**
+     * Takes a retry out of the shared budget, false if the window's retries are used up. 0 leaves it unlimited.
+     */
+    private boolean spend() {
+        if (budget <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= budgetWindow && windowStart.compareAndSet(start, now)) {
+            windowRetries.set(0);
+        }
+        return windowRetries.incrementAndGet() <= budget;
+    }
+
+    /**
+     * Full jitter: anywhere between 0 and the exponentially grown delay.
+     */
+    private long delay(int retry) {
+        long cap = retry < 62 && baseDelay <= maxDelay >> retry ? baseDelay << retry : maxDelay;
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    public class Retry {
+        private final long started = System.nanoTime();
+        private int retries;
+
+        /**
+         * Waits before the next attempt, returns false without waiting once attempts, time or the budget ran out.
+         */
+        public boolean backoff() throws InterruptedException {
+            if (retries + 1 >= maxAttempts) {
+                return false;
+            }
+            long wait = delay(retries);
+            if (System.nanoTime() + wait - started > maxElapsed || !spend()) {
+                return false;
+            }
+            retries++;
+            TimeUnit.NANOSECONDS.sleep(wait);
+            return true;
+        }
+
+        /**
+         * How many times the operation was retried so far.
+         */
+        public int getRetries() {
+            return retries;
+        }
+    }
+
+    public static class Builder {
+        private long baseDelay = DEFAULT_BASE_DELAY;
+        private long maxDelay = DEFAULT_MAX_DELAY;
+        private long maxElapsed = DEFAULT_MAX_ELAPSED;
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private int budget = DEFAULT_BUDGET;
+        private long budgetWindow = DEFAULT_BUDGET_WINDOW;
+
+        /**
+         * The wait before the first retry at most, doubling with every retry after that.
+         */
+        public Builder baseDelay(long delay, TimeUnit unit) {
+            this.baseDelay = unit.toNanos(delay);
+            return this;
+        }
+
+        public Builder maxDelay(long delay, TimeUnit unit) {
+            this.maxDelay = unit.toNanos(delay);
+            return this;
+        }
+
+        /**
+         * How long after the first attempt retrying stops.
+         */
+        public Builder maxElapsed(long elapsed, TimeUnit unit) {
+            this.maxElapsed = unit.toNanos(elapsed);
+            return this;
+        }
+
+        /**
+         * Attempts in total, the first one included.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Retries all operations together may make within each window, 0 does not limit them.
+         */
+        public Builder budget(int retries, long window, TimeUnit unit) {
+            this.budget = retries;
+            this.budgetWindow = unit.toNanos(window);
+            return this;
+        }
+
+        public RetryPolicy build() {
+            checkArgument(baseDelay >= 0 && maxDelay >= baseDelay, "Please make sure 0 <= base delay <= max delay.");
+            checkArgument(maxAttempts > 0, "Please allow at least one attempt.");
+            checkArgument(budget <= 0 || budgetWindow > 0, "Please give the retry budget a window.");
+            return new RetryPolicy(this);
+        }
+    }
+
+}
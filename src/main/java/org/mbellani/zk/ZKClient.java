@@ -4,17 +4,28 @@ import static com.google.common.base.Preconditions.checkState;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.jute.Record;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
 import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.KeeperException.ConnectionLossException;
 import org.apache.zookeeper.KeeperException.NoNodeException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Transaction;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
@@ -23,27 +34,83 @@ import org.apache.zookeeper.ZooDefs.Ids;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.ZooKeeper.States;
 import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.proto.CreateRequest;
+import org.apache.zookeeper.proto.DeleteRequest;
+import org.apache.zookeeper.proto.SetDataRequest;
 import org.apache.zookeeper.recipes.lock.WriteLock;
+import org.mbellani.metrics.Counter;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.utils.RetryPolicy;
+import org.mbellani.utils.RetryPolicy.Retry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 public class ZKClient {
     private static final String DEFAULT_CONNECT_STRING = "127.0.0.1:2181";
-    private static final int SESSION_TIMEOUT = 1000 * 10;
+    public static final int SESSION_TIMEOUT = 1000 * 10;
+    private static final byte[] EMPTY = new byte[0];
     private String connectString = DEFAULT_CONNECT_STRING;
     private ZooKeeper zookeeper;
     private CountDownLatch connLatch = null;
     private List<WriteLock> locks = Lists.newArrayList();
+    private Counter connectionLosses = PoolMetrics.disabled().counter(PoolMetrics.CONNECTION_LOSSES);
+    private Counter retries = PoolMetrics.disabled().counter(PoolMetrics.RETRIES);
+    private Counter exhausted = PoolMetrics.disabled().counter(PoolMetrics.RETRIES_EXHAUSTED);
+    private RetryPolicy retryPolicy = new RetryPolicy.Builder().build();
+    private List<SessionListener> sessionListeners = new CopyOnWriteArrayList<SessionListener>();
+    private ExecutorService sessionEvents = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("zk-session-%d").setDaemon(true).build());
+    private long sessionId;
+    private volatile boolean shutdown;
+    private volatile boolean disconnected;
+    private volatile long disconnectedAt;
     private static final Logger LOGGER = LoggerFactory.getLogger(ZKClient.class);
 
     public ZKClient(String connectString) throws IOException, InterruptedException {
         this.connectString = connectString;
     }
 
+    public void setMetrics(PoolMetrics metrics) {
+        this.connectionLosses = metrics.counter(PoolMetrics.CONNECTION_LOSSES);
+        this.retries = metrics.counter(PoolMetrics.RETRIES);
+        this.exhausted = metrics.counter(PoolMetrics.RETRIES_EXHAUSTED);
+    }
+
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Notified on a thread of its own once a session that expired was replaced with a new one.
+     */
+    public void addSessionListener(SessionListener listener) {
+        sessionListeners.add(listener);
+    }
+
+    public void removeSessionListener(SessionListener listener) {
+        sessionListeners.remove(listener);
+    }
+
+    /**
+     * How long the client has been without a connection to the ensemble, in nanoseconds, 0 while connected. Counts
+     * from the first disconnect, across an expired session and until the client connected again.
+     */
+    public long getDisconnectedNanos() {
+        return disconnected ? Math.max(1, System.nanoTime() - disconnectedAt) : 0;
+    }
+
+    /**
+     * Id of the current session, 0 before the first connect.
+     */
+    public synchronized long getSessionId() {
+        return sessionId;
+    }
+
     public void sync(final String path, final Object context) throws InterruptedException {
         final CountDownLatch syncPending = new CountDownLatch(1);
         getZk().sync(path, new VoidCallback() {
@@ -59,24 +126,97 @@ public class ZKClient {
     protected synchronized ZooKeeper getZk() {
         if (zookeeper == null || zookeeper.getState() == States.CLOSED) {
             checkState(!Strings.isNullOrEmpty(connectString), "Please specify a valid connect String.");
-            zookeeper = null;
-            connLatch = new CountDownLatch(1);
-            try {
-                zookeeper = new ZooKeeper(connectString, SESSION_TIMEOUT, watch());
-                waitToConnect();
+            Retry retry = retryPolicy.start();
+            while (!connect()) {
+                if (!backoff(retry, "connecting to " + connectString)) {
+                    throw new IllegalStateException("Could not resolve " + connectString);
+                }
             }
-            catch (UnknownHostException ex) {
-                LOGGER.error("Error resolving host, however the address worked earlier", ex);
-                LOGGER.warn("attempting reconnect in 5 seconds");
-                sleep(5000);
-                getZk();
+        }
+        return zookeeper;
+
+    }
+
+    private boolean connect() {
+        zookeeper = null;
+        connLatch = new CountDownLatch(1);
+        try {
+            zookeeper = new ZooKeeper(connectString, SESSION_TIMEOUT, watch());
+            waitToConnect();
+            long previous = sessionId;
+            sessionId = zookeeper.getSessionId();
+            if (previous != 0 && previous != sessionId && !shutdown) {
+                sessionRenewed();
             }
-            catch (Exception e) {
-                Throwables.propagate(e);
+            return true;
+        }
+        catch (UnknownHostException ex) {
+            LOGGER.error("Error resolving host, however the address worked earlier", ex);
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return false;
+    }
+
+    /**
+     * Waits before trying again as the retry policy says, false once it gives up.
+     */
+    private boolean backoff(Retry retry, String operation) {
+        try {
+            if (retry.backoff()) {
+                retries.inc();
+                return true;
             }
         }
-        return zookeeper;
+        catch (InterruptedException e) {
+            Throwables.propagate(e);
+        }
+        exhausted.inc();
+        LOGGER.error("Giving up {} after {} retries", operation, retry.getRetries());
+        return false;
+    }
+
+    /**
+     * Starts the new session right away rather than on the next operation, so what the old one held is put back
+     * without waiting for the pool to be used.
+     */
+    private void renewSession() {
+        try {
+            sessionEvents.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!shutdown) {
+                        getZk();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // shutting down.
+        }
+    }
 
+    private void sessionRenewed() {
+        LOGGER.info("Started new session {}", Long.toHexString(sessionId));
+        for (final SessionListener listener : sessionListeners) {
+            try {
+                sessionEvents.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            listener.sessionRenewed();
+                        }
+                        catch (Exception e) {
+                            LOGGER.error("Error recovering from the expired session ", e);
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // shutting down.
+            }
+        }
     }
 
     private void sleep(long millis) {
@@ -111,23 +251,33 @@ public class ZKClient {
             public void process(WatchedEvent e) {
                 final KeeperState state = e.getState();
                 if (e.getType() == Event.EventType.None && e.getState() == KeeperState.SyncConnected) {
+                    disconnected = false;
                     connLatch.countDown();
                 }
-                else if (state == KeeperState.Expired || state == KeeperState.Disconnected) {
-                    LOGGER.warn("session expired, forcing zk reconnect...");
-                    forceReconnect();
+                else if (state == KeeperState.Disconnected) {
+                    LOGGER.warn("disconnected from zk, waiting for the session to reconnect...");
+                    if (!disconnected) {
+                        disconnectedAt = System.nanoTime();
+                        disconnected = true;
+                    }
+                    connectionLost();
+                }
+                else if (state == KeeperState.Expired) {
+                    LOGGER.warn("session expired, starting a new one...");
+                    connectionLost();
+                    renewSession();
                 }
             }
         };
     }
 
-    private synchronized void forceReconnect() {
-        try {
-            close();
-        }
-        catch (InterruptedException ex) {
-            // this is fine
-        }
+    /**
+     * The client library reconnects on its own and keeps the session if it makes it within the session timeout, so
+     * the handle is left alone. A session that did expire leaves the handle closed and {@link #getZk()} starts a new
+     * one.
+     */
+    private void connectionLost() {
+        connectionLosses.inc();
     }
 
     public synchronized void close() throws InterruptedException {
@@ -138,31 +288,106 @@ public class ZKClient {
     }
 
     public String createEphemeral(String path) throws KeeperException, InterruptedException {
-        return getZk().create(path, null, Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        return create(path, null, CreateMode.EPHEMERAL);
     }
 
     public String createEphemeral(String path, byte[] data) throws KeeperException, InterruptedException {
-        return getZk().create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+        return create(path, data, CreateMode.EPHEMERAL);
     }
 
     public String createEphemeralSeq(String path, byte[] data) throws KeeperException, InterruptedException {
-        return getZk().create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL);
+        return create(path, data, CreateMode.EPHEMERAL_SEQUENTIAL);
     }
 
     public String create(String path) throws KeeperException, InterruptedException {
-        return getZk().create(path, null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        return create(path, null, CreateMode.PERSISTENT);
+    }
+
+    public String create(String path, byte[] data) throws KeeperException, InterruptedException {
+        return create(path, data, CreateMode.PERSISTENT);
     }
 
     public String createSeq(String path, byte[] data) throws KeeperException, InterruptedException {
-        return getZk().create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT_SEQUENTIAL);
+        return create(path, data, CreateMode.PERSISTENT_SEQUENTIAL);
+    }
+
+    /**
+     * Sends the create again on a lost connection as the retry policy says. The first one may have gone through, a
+     * node found in its place counts as created if it has the data and, ephemeral, this session. Sequential nodes
+     * can't be found again by name, for them the loss is thrown.
+     */
+    private String create(String path, byte[] data, CreateMode mode) throws KeeperException, InterruptedException {
+        Retry retry = retryPolicy.start();
+        for (boolean resent = false;; resent = true) {
+            try {
+                return getZk().create(path, data, Ids.OPEN_ACL_UNSAFE, mode);
+            }
+            catch (KeeperException.NodeExistsException e) {
+                if (!resent || !created(path, data, mode)) {
+                    throw e;
+                }
+                return path;
+            }
+            catch (ConnectionLossException e) {
+                connectionLost();
+                if (mode.isSequential() || !backoff(retry, "creating " + path)) {
+                    throw e;
+                }
+            }
+        }
     }
 
-    public boolean exists(String path) {
+    private boolean created(String path, byte[] data, CreateMode mode) throws KeeperException, InterruptedException {
+        Stat stat = new Stat();
+        byte[] current;
         try {
-            return getZk().exists(path, false) != null;
+            current = getData(path, stat);
+        }
+        catch (NoNodeException e) {
+            return false;
+        }
+        return (!mode.isEphemeral() || stat.getEphemeralOwner() == getZk().getSessionId()) && sameData(data, current);
+    }
+
+    private static boolean sameData(byte[] a, byte[] b) {
+        return Arrays.equals(a == null ? EMPTY : a, b == null ? EMPTY : b);
+    }
+
+    /**
+     * Sends the write again on a lost connection as the retry policy says. A conditional write that went through
+     * the first time fails the version check when sent again, it counts as written if the node moved on to exactly
+     * its data and one version.
+     */
+    public Stat setData(String path, byte[] data, int version) throws KeeperException, InterruptedException {
+        Retry retry = retryPolicy.start();
+        for (boolean resent = false;; resent = true) {
+            try {
+                return getZk().setData(path, data, version);
+            }
+            catch (KeeperException.BadVersionException e) {
+                Stat stat = resent ? getStat(path) : null;
+                if (stat == null || stat.getVersion() != version + 1 || !sameData(data, getData(path, null))) {
+                    throw e;
+                }
+                return stat;
+            }
+            catch (ConnectionLossException e) {
+                connectionLost();
+                if (!backoff(retry, "writing " + path)) {
+                    throw e;
+                }
+            }
         }
-        catch (ConnectionLossException e) {
-            forceReconnect();
+    }
+
+    public boolean exists(final String path) {
+        try {
+            return read("checking " + path, new Read<Stat>() {
+                @Override
+                public Stat read(ZooKeeper zk) throws KeeperException, InterruptedException {
+                    return zk.exists(path, false);
+                }
+            }) != null;
         }
         catch (KeeperException.NoNodeException e) {
             // path does not exist;
@@ -173,12 +398,32 @@ public class ZKClient {
         return false;
     }
 
-    public Stat getStat(String path) {
+    /**
+     * Leaves a watch that fires when the node is created, changed or deleted, returns whether it exists now.
+     */
+    public boolean exists(final String path, final Watcher watcher) {
         try {
-            return getZk().exists(path, false);
+            return read("watching " + path, new Read<Stat>() {
+                @Override
+                public Stat read(ZooKeeper zk) throws KeeperException, InterruptedException {
+                    return zk.exists(path, watcher);
+                }
+            }) != null;
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
         }
-        catch (ConnectionLossException e) {
-            forceReconnect();
+        return false;
+    }
+
+    public Stat getStat(final String path) {
+        try {
+            return read("reading the stat of " + path, new Read<Stat>() {
+                @Override
+                public Stat read(ZooKeeper zk) throws KeeperException, InterruptedException {
+                    return zk.exists(path, false);
+                }
+            });
         }
         catch (NoNodeException e) {
             // Do nothing the node may not be there.
@@ -190,12 +435,31 @@ public class ZKClient {
 
     }
 
+    /**
+     * Sends the delete again on a lost connection as the retry policy says, the node missing by then is what was
+     * asked for. Once the policy gives up the loss is thrown.
+     */
     public void delete(String path) throws NoNodeException {
+        Retry retry = retryPolicy.start();
         try {
-            getZk().delete(path, -1);
-        }
-        catch (ConnectionLossException e) {
-            forceReconnect();
+            for (boolean resent = false;; resent = true) {
+                try {
+                    getZk().delete(path, -1);
+                    return;
+                }
+                catch (KeeperException.NoNodeException e) {
+                    if (!resent) {
+                        throw e;
+                    }
+                    return;
+                }
+                catch (ConnectionLossException e) {
+                    connectionLost();
+                    if (!backoff(retry, "deleting " + path)) {
+                        throw e;
+                    }
+                }
+            }
         }
         catch (KeeperException.NoNodeException e) {
             throw e;
@@ -206,18 +470,7 @@ public class ZKClient {
     }
 
     public List<String> getChildren(String path) {
-        List<String> children = null;
-        try {
-            children = getZk().getChildren(path, false);
-        }
-        catch (ConnectionLossException e) {
-            forceReconnect();
-        }
-        catch (Exception e) {
-            Throwables.propagate(e);
-            forceReconnect();
-        }
-        return children;
+        return getChildren(path, (Watcher) null);
     }
 
     public Map<Stat, String> getChildrenStats(String parent) {
@@ -231,13 +484,76 @@ public class ZKClient {
         return stats;
     }
 
-    public List<String> getChildren(String path, Watcher watcher) {
+    /**
+     * Number of children of each path, -1 where it could not be read. The reads are sent back to back and answered
+     * in one go rather than one round trip each, so this must not be called from a watcher.
+     */
+    public int[] countChildren(String[] paths, Watcher[] watchers) {
+        final int[] counts = new int[paths.length];
+        final CountDownLatch pending = new CountDownLatch(paths.length);
+        final boolean[] lost = new boolean[1];
+        ZooKeeper zk = getZk();
+        for (int i = 0; i < paths.length; i++) {
+            final int index = i;
+            zk.getChildren(paths[i], watchers[i], new ChildrenCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx, List<String> children) {
+                    if (rc == Code.OK.intValue()) {
+                        counts[index] = children.size();
+                    }
+                    else {
+                        counts[index] = -1;
+                        lost[0] |= rc == Code.CONNECTIONLOSS.intValue() || rc == Code.SESSIONEXPIRED.intValue();
+                    }
+                    pending.countDown();
+                }
+            }, null);
+        }
+        try {
+            pending.await();
+        }
+        catch (InterruptedException e) {
+            Throwables.propagate(e);
+        }
+        if (lost[0]) {
+            connectionLost();
+        }
+        return counts;
+    }
+
+    public List<String> getChildren(final String path, final Watcher watcher) {
+        List<String> children = null;
+        try {
+            children = read("reading the children of " + path, new Read<List<String>>() {
+                @Override
+                public List<String> read(ZooKeeper zk) throws KeeperException, InterruptedException {
+                    return zk.getChildren(path, watcher);
+                }
+            });
+        }
+        catch (Exception e) {
+            Throwables.propagate(e);
+        }
+        return children;
+    }
+
+    /**
+     * Children along with the stat of the parent, read at once. Unlike {@link #getChildren(String, Watcher)} a
+     * missing parent is reported.
+     */
+    public List<String> getChildren(final String path, final Watcher watcher, final Stat stat)
+            throws NoNodeException {
         List<String> children = null;
         try {
-            children = getZk().getChildren(path, watcher);
+            children = read("reading the children of " + path, new Read<List<String>>() {
+                @Override
+                public List<String> read(ZooKeeper zk) throws KeeperException, InterruptedException {
+                    return zk.getChildren(path, watcher, stat);
+                }
+            });
         }
-        catch (ConnectionLossException e) {
-            forceReconnect();
+        catch (NoNodeException e) {
+            throw e;
         }
         catch (Exception e) {
             Throwables.propagate(e);
@@ -248,10 +564,37 @@ public class ZKClient {
     public byte[] getData(String path) {
         byte[] data = null;
         try {
-            data = getZk().getData(path, null, null);
+            data = getData(path, null, null);
+        }
+        catch (NoNodeException e) {
+            Throwables.propagate(e);
+        }
+        return data;
+    }
+
+    /**
+     * Reads the data and fills in {@code stat}, unlike {@link #getData(String)} a missing node is reported.
+     */
+    public byte[] getData(String path, Stat stat) throws NoNodeException {
+        return getData(path, null, stat);
+    }
+
+    /**
+     * Same as {@link #getData(String, Stat)} leaving a data watch, see {@link #exists(String, Watcher)} to watch for a
+     * node that is not there yet.
+     */
+    public byte[] getData(final String path, final Watcher watcher, final Stat stat) throws NoNodeException {
+        byte[] data = null;
+        try {
+            data = read("reading " + path, new Read<byte[]>() {
+                @Override
+                public byte[] read(ZooKeeper zk) throws KeeperException, InterruptedException {
+                    return zk.getData(path, watcher, stat);
+                }
+            });
         }
-        catch (ConnectionLossException e) {
-            forceReconnect();
+        catch (NoNodeException e) {
+            throw e;
         }
         catch (Exception e) {
             Throwables.propagate(e);
@@ -259,6 +602,37 @@ public class ZKClient {
         return data;
     }
 
+    /**
+     * Reads the node in the background and hands the answer to the callback once it arrives. Nothing waits for it,
+     * so unlike {@link #countChildren(String[], Watcher[])} this can be called from a watcher.
+     */
+    public void getDataAsync(String path, DataCallback callback, Object context) {
+        getZk().getData(path, false, callback, context);
+    }
+
+    /**
+     * Runs a single read, trying again on a lost connection as the retry policy says. Once it gives up the loss is
+     * thrown rather than read as an empty answer.
+     */
+    private <R> R read(String operation, Read<R> read) throws KeeperException, InterruptedException {
+        Retry retry = retryPolicy.start();
+        for (;;) {
+            try {
+                return read.read(getZk());
+            }
+            catch (ConnectionLossException e) {
+                connectionLost();
+                if (!backoff(retry, operation)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static interface Read<R> {
+        R read(ZooKeeper zk) throws KeeperException, InterruptedException;
+    }
+
     public ZKTransWrapper inTransaction() {
         return new ZKTransWrapper(this);
     }
@@ -286,31 +660,42 @@ public class ZKClient {
     }
 
     private WriteLock aquireLock(String lockPath) {
-        WriteLock lock = new WriteLock(getZk(), lockPath, Ids.OPEN_ACL_UNSAFE);
-        locks.add(lock);
-        try {
-            while (!lock.lock()) {
-                sleep(500);
+        Retry retry = retryPolicy.start();
+        for (;;) {
+            WriteLock lock = new WriteLock(getZk(), lockPath, Ids.OPEN_ACL_UNSAFE);
+            locks.add(lock);
+            try {
+                while (!lock.lock()) {
+                    sleep(500);
+                }
+                return lock;
+            }
+            catch (ConnectionLossException e) {
+                LOGGER.warn("Zk lost connection while aquiring lock {}", lockPath);
+                locks.remove(lock);
+                connectionLost();
+                if (!backoff(retry, "aquiring lock " + lockPath)) {
+                    Throwables.propagate(e);
+                }
+            }
+            catch (Exception e) {
+                Throwables.propagate(e);
             }
         }
-        catch (ConnectionLossException e) {
-            LOGGER.warn("Zk lost connection while aquiring lock will try again in 500 ms");
-            forceReconnect();
-            sleep(500);
-            aquireLock(lockPath);
-        }
-        catch (Exception e) {
-            Throwables.propagate(e);
-        }
-        return lock;
     }
 
     public static interface SynchronizedOperationCallback<R> {
         R perform() throws InterruptedException, KeeperException;
     }
 
+    public static interface SessionListener {
+        void sessionRenewed();
+    }
+
     public void shutdown() {
         try {
+            shutdown = true;
+            sessionEvents.shutdown();
             stopAllLockAttempts();
             zookeeper.close();
         }
@@ -329,34 +714,54 @@ public class ZKClient {
         return !getZk().getState().isAlive();
     }
 
+    /**
+     * Collects the operations and sends them as one multi on commit. A connection lost on the way leaves open whether
+     * the multi went through, it is sent again on the next connection only once the nodes show it did not.
+     */
     public static class ZKTransWrapper {
-        private Transaction transaction;
+        private List<Op> ops = Lists.newArrayList();
         private boolean commited;
         private ZKClient zk;
-        private int commitRetry = 1;
-        private static final int MAX_RETRY_COUNT = 3;
 
         public ZKTransWrapper(ZKClient zk) {
-            this.transaction = zk.newTrans();
             this.zk = zk;
 
         }
 
         public ZKTransWrapper create(String path) {
             ensureNotCommited();
-            transaction.create(path, null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            ops.add(Op.create(path, null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
             return this;
         }
 
         public ZKTransWrapper create(String path, byte[] data) {
             ensureNotCommited();
-            transaction.create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+            ops.add(Op.create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
             return this;
         }
 
         public ZKTransWrapper createEphemeral(String path) {
+            return createEphemeral(path, null);
+        }
+
+        public ZKTransWrapper createEphemeral(String path, byte[] data) {
+            ensureNotCommited();
+            ops.add(Op.create(path, data, Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL));
+            return this;
+        }
+
+        /**
+         * The names the sequential nodes got are in the results of {@link #commit()}.
+         */
+        public ZKTransWrapper createEphemeralSeq(String path) {
+            ensureNotCommited();
+            ops.add(Op.create(path, null, Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL_SEQUENTIAL));
+            return this;
+        }
+
+        public ZKTransWrapper setData(String path, byte[] data, int version) {
             ensureNotCommited();
-            transaction.create(path, null, Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+            ops.add(Op.setData(path, data, version));
             return this;
         }
 
@@ -365,34 +770,93 @@ public class ZKClient {
         }
 
         public ZKTransWrapper delete(String path) {
-            transaction.delete(path, -1);
+            ops.add(Op.delete(path, -1));
             return this;
         }
 
-        public void commit() throws InterruptedException, KeeperException {
+        public List<OpResult> commit() throws InterruptedException, KeeperException {
             ensureNotCommited();
-            try {
-                transaction.commit();
-                commited = true;
+            Retry retry = zk.retryPolicy.start();
+            for (;;) {
+                try {
+                    List<OpResult> results = zk.getZk().multi(ops);
+                    commited = true;
+                    return results;
+                }
+                catch (ConnectionLossException e) {
+                    LOGGER.warn("Connection loss while commiting transaction");
+                    zk.connectionLost();
+                    if (!zk.backoff(retry, "commiting transaction")) {
+                        Throwables.propagate(e);
+                    }
+                    List<OpResult> results = outcome(e);
+                    if (results != null) {
+                        commited = true;
+                        return results;
+                    }
+                }
             }
-            catch (ConnectionLossException e) {
-                zk.forceReconnect();
-                if (commitRetry < MAX_RETRY_COUNT) {
-                    LOGGER.error("Connections loss while commiting transcation, retrying  {} of {} after 1 second"
-                            + commitRetry, MAX_RETRY_COUNT);
-                    Thread.sleep(1000);
-                    commitRetry++;
-                    zk.getZk();
-                    commit();
+        }
+
+        /**
+         * The results of a multi that went through before the connection was lost, null if it did not. Being atomic
+         * either every operation shows or none does, anything in between means others moved the nodes on since and
+         * {@code lost} is thrown, as it is for sequential nodes that can't be found again by name.
+         */
+        private List<OpResult> outcome(ConnectionLossException lost) throws KeeperException, InterruptedException {
+            List<OpResult> results = Lists.newArrayListWithCapacity(ops.size());
+            int pending = 0;
+            for (Op op : ops) {
+                Stat stat = new Stat();
+                byte[] data = null;
+                try {
+                    data = zk.getData(op.getPath(), stat);
                 }
-                else {
-                    LOGGER.error("Received connection loss after {} retries, giving up ", commitRetry);
-                    Throwables.propagate(e);
+                catch (NoNodeException e) {
+                    stat = null;
+                }
+                Record request = op.toRequestRecord();
+                if (request instanceof CreateRequest) {
+                    CreateRequest create = (CreateRequest) request;
+                    CreateMode mode = CreateMode.fromFlag(create.getFlags());
+                    if (mode.isSequential()) {
+                        throw lost;
+                    }
+                    if (stat == null) {
+                        pending++;
+                    }
+                    else if ((!mode.isEphemeral() || stat.getEphemeralOwner() == zk.getZk().getSessionId())
+                            && sameData(create.getData(), data)) {
+                        results.add(new OpResult.CreateResult(op.getPath()));
+                    }
                 }
+                else if (request instanceof DeleteRequest) {
+                    if (stat == null) {
+                        results.add(new OpResult.DeleteResult());
+                    }
+                    else {
+                        pending++;
+                    }
+                }
+                else if (request instanceof SetDataRequest) {
+                    int version = ((SetDataRequest) request).getVersion();
+                    if (stat != null && version >= 0 && stat.getVersion() == version) {
+                        pending++;
+                    }
+                    else if (stat != null && (version < 0 || stat.getVersion() == version + 1)
+                            && sameData(((SetDataRequest) request).getData(), data)) {
+                        results.add(new OpResult.SetDataResult(stat));
+                    }
+                }
+            }
+            if (results.size() == ops.size()) {
+                LOGGER.info("The transaction went through before the connection was lost");
+                return results;
             }
-            catch (KeeperException e) {
-                throw e;
+            if (pending == ops.size()) {
+                return null;
             }
+            throw lost;
         }
 
         public ZKTransWrapper deleteRecursive(String path) {
@@ -0,0 +1,122 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+@RunWith(Enclosed.class)
+public class AbandonedBorrowTest {
+    private static final int SIZE = 2;
+
+    private static ZKObjectPool<TestObject> create(TestObjectFactory factory) {
+        Config cfg = new Config.Builder("abandoned-test").initSize(SIZE).size(SIZE).storeType(StoreType.IN_MEMORY)
+                .intrvlUnit(TimeUnit.MILLISECONDS).removeAbandonedTimeout(100).borrowSiteSampling(1).build();
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg);
+        pool.setFactory(factory);
+        pool.initialize();
+        return pool;
+    }
+
+    public static class WhenABorrowerNeverReturns {
+        private ZKObjectPool<TestObject> pool;
+        private TestObjectFactory factory = new TestObjectFactory();
+        private TestObject leaked;
+
+        @Before
+        public void setup() throws Exception {
+            pool = create(factory);
+            leaked = pool.borrow();
+            Thread.sleep(400);
+        }
+
+        @Test
+        public void should_reclaim_the_object() {
+            assertThat(pool.getUsed(), is(0));
+            assertThat(pool.getSize(), is(SIZE - 1));
+            assertThat(factory.getCounts().destroyed, is(1));
+            assertThat(pool.getMetrics().counter(PoolMetrics.ABANDONED).getCount(), is(1L));
+        }
+
+        @Test
+        public void should_ignore_a_late_return() {
+            pool.returnObject(leaked);
+            assertThat(pool.getUsed(), is(0));
+            assertThat(pool.getUnused(), is(SIZE - 1));
+        }
+
+        @Test
+        public void should_let_the_pool_grow_back() {
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(pool.borrow() != null, is(true));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenObjectsComeBackInTime {
+        private ZKObjectPool<TestObject> pool;
+        private TestObjectFactory factory = new TestObjectFactory();
+
+        @Before
+        public void setup() throws Exception {
+            pool = create(factory);
+            for (int i = 0; i < 10; i++) {
+                pool.returnObject(pool.borrow());
+                Thread.sleep(30);
+            }
+        }
+
+        @Test
+        public void should_not_reclaim_anything() {
+            assertThat(pool.getSize(), is(SIZE));
+            assertThat(factory.getCounts().destroyed, is(0));
+            assertThat(pool.getMetrics().counter(PoolMetrics.ABANDONED).getCount(), is(0L));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenAnObjectIsBorrowed {
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() {
+            pool = create(new TestObjectFactory());
+            pool.borrow();
+        }
+
+        @Test
+        public void should_record_the_borrower_with_the_claim() {
+            List<String> used = pool.getStore().children(Area.USED);
+            String info = new String(pool.getStore().getData(Area.USED, used.get(0)));
+            assertThat(info, containsString("thread=" + Thread.currentThread().getName()));
+            assertThat(info, containsString("since="));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
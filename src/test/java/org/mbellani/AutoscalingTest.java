@@ -0,0 +1,129 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+import com.google.common.collect.Lists;
+
+@RunWith(Enclosed.class)
+public class AutoscalingTest {
+
+    private static Config.Builder cfg(int size) {
+        return new Config.Builder("autoscaling-test").initSize(size).size(size).minSize(1).maxSize(6)
+                .storeType(StoreType.IN_MEMORY).intrvlUnit(TimeUnit.MILLISECONDS).autoscaleIntrvl(50)
+                .scaleHysteresis(2).scaleCooldown(0).scaleStep(0.5);
+    }
+
+    private static ZKObjectPool<TestObject> create(Config cfg) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg);
+        pool.setFactory(new TestObjectFactory());
+        pool.initialize();
+        return pool;
+    }
+
+    public static class WhenBorrowsKeepMissing {
+        private ZKObjectPool<TestObject> pool;
+        private List<TestObject> held = Lists.newArrayList();
+
+        @Before
+        public void setup() throws Exception {
+            pool = create(cfg(2).build());
+            long until = System.currentTimeMillis() + 1500;
+            while (System.currentTimeMillis() < until) {
+                TestObject obj = pool.borrow();
+                if (obj != null) {
+                    held.add(obj);
+                }
+                Thread.sleep(5);
+            }
+        }
+
+        @Test
+        public void should_grow_up_to_the_max_size() {
+            assertThat(pool.getCapacity(), is(6));
+            assertThat(held.size(), is(6));
+        }
+
+        @Test
+        public void should_not_go_past_the_max_size() {
+            assertThat(pool.borrow() == null, is(true));
+            assertThat(pool.getSize(), is(6));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenThePoolSitsIdle {
+        private ZKObjectPool<TestObject> pool;
+        private ZKObjectPool<TestObject> other;
+
+        @Before
+        public void setup() throws Exception {
+            pool = create(cfg(4).build());
+            other = create(cfg(4).build());
+            Thread.sleep(1000);
+        }
+
+        @Test
+        public void should_shrink_to_the_min_size() {
+            assertThat(pool.getCapacity(), is(1));
+            assertThat(pool.getSize(), is(1));
+        }
+
+        @Test
+        public void should_retire_idle_objects() {
+            assertThat(pool.getMetrics().counter(PoolMetrics.RETIRED).getCount(), is(3L));
+        }
+
+        @Test
+        public void should_have_every_participant_follow() {
+            assertThat(other.getCapacity(), is(1));
+        }
+
+        @After
+        public void after() {
+            other.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenSharedThroughZookeeper {
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create(cfg(4).storeType(StoreType.ZOOKEEPER).zkConnectString(ZkServer.connectString()).build());
+            Thread.sleep(1000);
+        }
+
+        @Test
+        public void should_keep_the_capacity_in_a_pool_property() {
+            assertThat(pool.getCapacity(), is(1));
+            assertThat(new String(pool.getStore().getProperty("capacity").getData()), is("1"));
+            assertThat(pool.getSize(), is(1));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -6,10 +6,11 @@ import org.junit.After;
 import org.junit.Before;
 import org.mbellani.pool.Config;
 import org.mbellani.pool.PoolPaths;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
 import org.mbellani.pool.ZKObjectPool;
-import org.mbellani.zk.ZKClient;
 
-public abstract class BaseObjectPoolTest {
+public abstract class BaseObjectPoolTest extends BaseStoreTest {
 
     private static final int DEFAULT_INITIAL_CAPACITY = 0;
     private static final int DEFAULT_MAX_CAPACITY = 5;
@@ -18,16 +19,16 @@ public abstract class BaseObjectPoolTest {
     protected String poolName = "test-pool";
     protected ZKObjectPool<TestObject> pool;
     protected PoolPaths paths = new PoolPaths(poolName);
-    protected ZKClient zkClient;
     protected Config config;
     protected TestObjectFactory factory = new TestObjectFactory();
 
+    protected BaseObjectPoolTest(StoreType storeType) {
+        super(storeType);
+    }
+
     @Before
     public void setUp() throws Exception {
-        ZkServer.start();
-        config = new Config.Builder(poolName).initSize(initialCapacity).size(maxCapacity)
-                .zkConnectString(ZkServer.connectString()).build();
-        zkClient = new ZKClient(ZkServer.connectString());
+        config = on(new Config.Builder(poolName).initSize(initialCapacity).size(maxCapacity)).build();
         pool = new ZKObjectPool<TestObject>(config);
         pool.setFactory(factory);
         pool.initialize();
@@ -35,11 +36,14 @@ public abstract class BaseObjectPoolTest {
     }
 
     @After
-    public void destroyPool() {
+    public void destroyPool() throws Exception {
         pool.shutdown();
         Assert.assertFalse("I did not expect " + pool.getConfig().getName()
-                + " in the zoo after the destroy has been invoked.", zkClient.exists(paths.base()));
-        zkClient.shutdown();
+                + " in the store after the destroy has been invoked.", exists(poolName));
+    }
+
+    protected int count(Area area) throws Exception {
+        return count(poolName, area);
     }
 
     public abstract void exercisePool();
@@ -0,0 +1,96 @@
+package org.mbellani;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.InMemoryPoolStore;
+import org.mbellani.pool.PoolPaths;
+import org.mbellani.pool.PoolStore;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKPoolStore;
+import org.mbellani.zk.ZKClient;
+
+/**
+ * Runs a suite once on zookeeper and once in memory, subclasses take the store in their constructor.
+ */
+@RunWith(Parameterized.class)
+public abstract class BaseStoreTest {
+
+    protected final StoreType storeType;
+    private ZKClient zk;
+    private PoolStore observer;
+
+    protected BaseStoreTest(StoreType storeType) {
+        this.storeType = storeType;
+    }
+
+    @Parameters
+    public static Collection<Object[]> stores() {
+        return Arrays.asList(new Object[][] { { StoreType.ZOOKEEPER }, { StoreType.IN_MEMORY } });
+    }
+
+    /**
+     * Points the pool at the store under test, starting zookeeper when that is the one.
+     */
+    protected Config.Builder on(Config.Builder cfg) throws Exception {
+        if (storeType == StoreType.ZOOKEEPER) {
+            ZkServer.start();
+            return cfg.zkConnectString(ZkServer.connectString());
+        }
+        return cfg.storeType(storeType);
+    }
+
+    protected boolean onZookeeper() {
+        return storeType == StoreType.ZOOKEEPER;
+    }
+
+    /**
+     * Objects in the area as another participant of the pool sees them.
+     */
+    protected int count(String name, Area area) throws Exception {
+        return observer(name).children(area).size();
+    }
+
+    /**
+     * Whether the pool is still in the store, on zookeeper its base node.
+     */
+    protected boolean exists(String name) throws Exception {
+        if (onZookeeper()) {
+            return zk().exists(new PoolPaths(name).base());
+        }
+        InMemoryPoolStore probe = new InMemoryPoolStore(name);
+        if (probe.create()) {
+            probe.destroy();
+            return false;
+        }
+        return true;
+    }
+
+    protected ZKClient zk() throws Exception {
+        if (zk == null) {
+            zk = new ZKClient(ZkServer.connectString());
+        }
+        return zk;
+    }
+
+    private PoolStore observer(String name) throws Exception {
+        if (observer == null) {
+            observer = onZookeeper() ? new ZKPoolStore(zk(), new PoolPaths(name)) : new InMemoryPoolStore(name);
+        }
+        return observer;
+    }
+
+    @After
+    public void closeObserver() {
+        if (zk != null) {
+            zk.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.pool.AbstractBufferObjectFactory;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+@RunWith(Enclosed.class)
+public class BufferObjectFactoryTest {
+
+    /**
+     * Writes the length and the characters of the test data, remembering whether it was handed read-only views.
+     */
+    private static class BufferFactory extends AbstractBufferObjectFactory<TestObject> {
+        private final int size;
+        private int sequence;
+        private boolean writableView;
+
+        BufferFactory(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public TestObject create() {
+            return new TestObject(Strings.padEnd((sequence++) + "-", size, 'x'));
+        }
+
+        @Override
+        public void destroy(TestObject t) {
+        }
+
+        @Override
+        public boolean validate(TestObject t) {
+            return true;
+        }
+
+        @Override
+        public void serialize(TestObject t, ByteBuffer out) {
+            byte[] data = t.getTestData().getBytes(Charsets.UTF_8);
+            out.putInt(data.length);
+            out.put(data);
+        }
+
+        @Override
+        public TestObject deserialize(ByteBuffer in) {
+            writableView |= !in.isReadOnly();
+            byte[] data = new byte[in.getInt()];
+            in.get(data);
+            return new TestObject(new String(data, Charsets.UTF_8));
+        }
+    }
+
+    private static ZKObjectPool<TestObject> create(BufferFactory factory) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(new Config.Builder("buffer-test").initSize(2)
+                .size(2).storeType(StoreType.IN_MEMORY).build());
+        pool.setFactory(factory);
+        pool.initialize();
+        return pool;
+    }
+
+    public static class WhenObjectsFitTheBuffers {
+        private BufferFactory factory = new BufferFactory(100);
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() {
+            pool = create(factory);
+        }
+
+        @Test
+        public void should_read_back_what_was_written() {
+            TestObject obj = pool.borrow();
+            assertThat(obj.getTestData().length(), is(100));
+            assertThat(obj.getTestData().startsWith("0-") || obj.getTestData().startsWith("1-"), is(true));
+        }
+
+        @Test
+        public void should_read_from_read_only_views() {
+            pool.borrow();
+            assertThat(factory.writableView, is(false));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenObjectsOutgrowTheBuffers {
+        private BufferFactory factory = new BufferFactory(10000);
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() {
+            pool = create(factory);
+        }
+
+        @Test
+        public void should_serialize_into_larger_buffers() {
+            assertThat(pool.borrow().getTestData().length(), is(10000));
+            assertThat(pool.borrow().getTestData().length(), is(10000));
+        }
+
+        @Test
+        public void should_still_answer_the_array_based_methods() {
+            TestObject obj = factory.create();
+            assertThat(factory.deserialize(factory.serialize(obj)), is(obj));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
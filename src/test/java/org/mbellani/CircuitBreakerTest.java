@@ -0,0 +1,275 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+@RunWith(Enclosed.class)
+public class CircuitBreakerTest {
+    private static final long OPEN = 300;
+    private static final long CLOSED_STATE = 0;
+    private static final long OPEN_STATE = 1;
+
+    /**
+     * A factory whose backend can be taken down and slowed down.
+     */
+    private static class FlakyObjectFactory extends TestObjectFactory {
+        private volatile boolean down;
+        private volatile boolean destroyDown;
+        private volatile long validateMillis;
+
+        @Override
+        public TestObject create() {
+            if (down) {
+                getCounts().created++;
+                throw new IllegalStateException("backend is down");
+            }
+            return super.create();
+        }
+
+        @Override
+        public void destroy(TestObject t) {
+            if (destroyDown) {
+                throw new IllegalStateException("backend is down");
+            }
+            super.destroy(t);
+        }
+
+        @Override
+        public boolean validate(TestObject t) {
+            try {
+                Thread.sleep(validateMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }
+    }
+
+    private static Config.Builder cfg() {
+        return new Config.Builder("breaker-test").size(3).storeType(StoreType.IN_MEMORY)
+                .intrvlUnit(TimeUnit.MILLISECONDS).breakerWindow(4).breakerMinCalls(2).breakerOpenIntrvl(OPEN);
+    }
+
+    private static ZKObjectPool<TestObject> create(Config cfg, TestObjectFactory factory) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg);
+        pool.setFactory(factory);
+        pool.initialize();
+        return pool;
+    }
+
+    private static long state(ZKObjectPool<TestObject> pool, String gauge) {
+        return pool.getMetrics().getGauges().get(gauge).getValue();
+    }
+
+    private static void tryBorrow(ZKObjectPool<TestObject> pool) {
+        try {
+            pool.borrow();
+        } catch (IllegalStateException e) {
+            // backend down.
+        }
+    }
+
+    public static class WhenCreatingKeepsFailing {
+        private ZKObjectPool<TestObject> pool;
+        private FlakyObjectFactory factory = new FlakyObjectFactory();
+
+        @Before
+        public void setup() {
+            pool = create(cfg().initSize(0).breakerFailureRate(50).build(), factory);
+            factory.down = true;
+            tryBorrow(pool);
+            tryBorrow(pool);
+        }
+
+        @Test
+        public void should_fail_fast_without_calling_the_factory() {
+            assertThat(pool.borrow() == null, is(true));
+            assertThat(factory.getCounts().created, is(2));
+            assertThat(state(pool, PoolMetrics.BREAKER_CREATE_STATE), is(OPEN_STATE));
+            assertThat(pool.getMetrics().counter(PoolMetrics.BREAKER_CREATE_REJECTED).getCount(), greaterThan(0L));
+        }
+
+        @Test
+        public void should_close_after_a_successful_probe() throws Exception {
+            factory.down = false;
+            Thread.sleep(OPEN + 100);
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(state(pool, PoolMetrics.BREAKER_CREATE_STATE), is(CLOSED_STATE));
+            assertThat(pool.borrow() != null, is(true));
+        }
+
+        @Test
+        public void should_open_again_after_a_failed_probe() throws Exception {
+            Thread.sleep(OPEN + 100);
+            tryBorrow(pool);
+            assertThat(factory.getCounts().created, is(3));
+            assertThat(pool.borrow() == null, is(true));
+            assertThat(factory.getCounts().created, is(3));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenValidationIsSlow {
+        private ZKObjectPool<TestObject> pool;
+        private FlakyObjectFactory factory = new FlakyObjectFactory();
+
+        @Before
+        public void setup() {
+            pool = create(cfg().initSize(3).testOnBorrow(true).breakerSlowCallRate(50).breakerSlowCallDuration(50)
+                    .build(), factory);
+            factory.validateMillis = 100;
+            pool.returnObject(pool.borrow());
+            pool.returnObject(pool.borrow());
+        }
+
+        @Test
+        public void should_come_back_empty_handed_at_once() {
+            long start = System.nanoTime();
+            assertThat(pool.borrow() == null, is(true));
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(50L));
+            assertThat(state(pool, PoolMetrics.BREAKER_VALIDATE_STATE), is(OPEN_STATE));
+        }
+
+        @Test
+        public void should_keep_the_objects_it_could_not_validate() {
+            pool.borrow();
+            assertThat(pool.getUnused(), is(3));
+            assertThat(factory.getCounts().destroyed, is(0));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenServingUnvalidatedObjects {
+        private ZKObjectPool<TestObject> pool;
+        private FlakyObjectFactory factory = new FlakyObjectFactory();
+
+        @Before
+        public void setup() {
+            pool = create(cfg().initSize(3).testOnBorrow(true).breakerSlowCallRate(50).breakerSlowCallDuration(50)
+                    .breakerServeUnvalidated(true).build(), factory);
+            factory.validateMillis = 100;
+            pool.returnObject(pool.borrow());
+            pool.returnObject(pool.borrow());
+        }
+
+        @Test
+        public void should_hand_out_objects_without_validating_them() {
+            long start = System.nanoTime();
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(50L));
+            assertThat(pool.getMetrics().counter(PoolMetrics.VALIDATIONS_SKIPPED).getCount(), greaterThan(0L));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenDestroyingKeepsFailing {
+        private ZKObjectPool<TestObject> pool;
+        private FlakyObjectFactory factory = new FlakyObjectFactory();
+        private TestObject dropped;
+
+        @Before
+        public void setup() {
+            pool = create(cfg().initSize(3).breakerFailureRate(50).build(), factory);
+            TestObject first = pool.borrow();
+            TestObject second = pool.borrow();
+            dropped = pool.borrow();
+            factory.destroyDown = true;
+            pool.invalidate(first);
+            pool.invalidate(second);
+        }
+
+        @Test
+        public void should_drop_the_object_and_destroy_it_later() {
+            assertThat(pool.invalidate(dropped), is(true));
+            assertThat(factory.getCounts().destroyed, is(0));
+            assertThat(state(pool, PoolMetrics.BREAKER_DESTROY_PENDING), is(1L));
+        }
+
+        @Test
+        public void should_destroy_the_dropped_objects_once_closed() throws Exception {
+            pool.invalidate(dropped);
+            factory.destroyDown = false;
+            Thread.sleep(OPEN + 100);
+            pool.invalidate(pool.borrow());
+            assertThat(state(pool, PoolMetrics.BREAKER_DESTROY_STATE), is(CLOSED_STATE));
+            assertThat(factory.getCounts().destroyed, is(2));
+            assertThat(state(pool, PoolMetrics.BREAKER_DESTROY_PENDING), is(0L));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenSeveralParticipantsAreOpen {
+        private ZKObjectPool<TestObject> pool;
+        private ZKObjectPool<TestObject> other;
+        private FlakyObjectFactory factory = new FlakyObjectFactory();
+        private FlakyObjectFactory otherFactory = new FlakyObjectFactory();
+
+        @Before
+        public void setup() throws Exception {
+            pool = create(cfg().initSize(0).breakerFailureRate(50).build(), factory);
+            other = create(cfg().initSize(0).breakerFailureRate(50).build(), otherFactory);
+            factory.down = true;
+            otherFactory.down = true;
+            for (int i = 0; i < 2; i++) {
+                tryBorrow(pool);
+                tryBorrow(other);
+            }
+            Thread.sleep(OPEN + 100);
+        }
+
+        @Test
+        public void should_probe_from_one_participant_only() {
+            tryBorrow(pool);
+            tryBorrow(other);
+            assertThat(factory.getCounts().created, is(3));
+            assertThat(otherFactory.getCounts().created, is(2));
+        }
+
+        @Test
+        public void should_close_everywhere_once_the_probe_succeeds() throws Exception {
+            factory.down = false;
+            otherFactory.down = false;
+            assertThat(pool.borrow() != null, is(true));
+            Thread.sleep(100);
+            assertThat(state(other, PoolMetrics.BREAKER_CREATE_STATE), is(CLOSED_STATE));
+            assertThat(other.borrow() != null, is(true));
+        }
+
+        @After
+        public void after() {
+            other.shutdown();
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+import com.google.common.collect.Lists;
+
+@RunWith(Enclosed.class)
+public class CreationLimitTest {
+
+    /**
+     * Takes its time creating objects and remembers how many were being created at once, across all participants.
+     */
+    private static class SlowObjectFactory extends TestObjectFactory {
+        private static final AtomicInteger CREATING = new AtomicInteger();
+        private static final AtomicInteger MAX_CREATING = new AtomicInteger();
+        private final long createMillis;
+
+        SlowObjectFactory(long createMillis) {
+            this.createMillis = createMillis;
+        }
+
+        static void reset() {
+            CREATING.set(0);
+            MAX_CREATING.set(0);
+        }
+
+        @Override
+        public TestObject create() {
+            int creating = CREATING.incrementAndGet();
+            for (int max = MAX_CREATING.get(); creating > max && !MAX_CREATING.compareAndSet(max, creating);) {
+                max = MAX_CREATING.get();
+            }
+            try {
+                Thread.sleep(createMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                CREATING.decrementAndGet();
+            }
+            return super.create();
+        }
+    }
+
+    private static ZKObjectPool<TestObject> create(Config cfg, long createMillis) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg);
+        pool.setFactory(new SlowObjectFactory(createMillis));
+        pool.initialize();
+        return pool;
+    }
+
+    public static class WhenParticipantsCreateAtOnce {
+        private static final int PARTICIPANTS = 3;
+        private static final int THREADS = 3;
+        private static final int LIMIT = 2;
+        private List<ZKObjectPool<TestObject>> pools = Lists.newArrayList();
+        private AtomicInteger borrowed = new AtomicInteger();
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            SlowObjectFactory.reset();
+            Config.Builder cfg = new Config.Builder("creation-limit-test").initSize(0).size(PARTICIPANTS * THREADS)
+                    .maxConcurrentCreates(LIMIT).zkConnectString(ZkServer.connectString());
+            for (int i = 0; i < PARTICIPANTS; i++) {
+                pools.add(create(cfg.build(), 100));
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(PARTICIPANTS * THREADS);
+            final CountDownLatch go = new CountDownLatch(1);
+            List<Future<?>> futures = Lists.newArrayList();
+            for (final ZKObjectPool<TestObject> pool : pools) {
+                for (int i = 0; i < THREADS; i++) {
+                    futures.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            go.await();
+                            if (pool.borrow() != null) {
+                                borrowed.incrementAndGet();
+                            }
+                            return null;
+                        }
+                    }));
+                }
+            }
+            go.countDown();
+            for (Future<?> f : futures) {
+                f.get();
+            }
+            executor.shutdown();
+        }
+
+        @Test
+        public void should_not_create_more_at_once_than_the_limit() {
+            assertThat(SlowObjectFactory.MAX_CREATING.get(), lessThanOrEqualTo(LIMIT));
+        }
+
+        @Test
+        public void should_still_hand_out_every_object() {
+            assertThat(borrowed.get(), is(PARTICIPANTS * THREADS));
+        }
+
+        @Test
+        public void should_count_the_borrows_that_waited() {
+            long throttled = 0;
+            for (ZKObjectPool<TestObject> pool : pools) {
+                throttled += pool.getMetrics().counter(PoolMetrics.CREATE_THROTTLED).getCount();
+            }
+            assertThat(throttled, greaterThan(0L));
+        }
+
+        @After
+        public void after() {
+            for (ZKObjectPool<TestObject> pool : pools) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    public static class WhenAnObjectIsReturnedWhileWaitingForAPermit {
+        private ZKObjectPool<TestObject> pool;
+        private TestObject returned;
+        private TestObject taken;
+        private long waited;
+
+        @Before
+        public void setup() throws Exception {
+            SlowObjectFactory.reset();
+            pool = create(new Config.Builder("creation-limit-test").initSize(1).size(3).maxConcurrentCreates(1)
+                    .storeType(StoreType.IN_MEMORY).build(), 1000);
+            returned = pool.borrow();
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            executor.submit(new Callable<TestObject>() {
+                @Override
+                public TestObject call() {
+                    return pool.borrow();
+                }
+            });
+            Thread.sleep(100);
+            Future<TestObject> waiting = executor.submit(new Callable<TestObject>() {
+                @Override
+                public TestObject call() {
+                    return pool.borrow();
+                }
+            });
+            Thread.sleep(100);
+            long start = System.nanoTime();
+            pool.returnObject(returned);
+            taken = waiting.get();
+            waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        @Test
+        public void should_take_the_returned_object() {
+            assertThat(taken, is(returned));
+        }
+
+        @Test
+        public void should_not_wait_for_the_slow_create() {
+            assertThat(waited, lessThan(500L));
+            assertThat(SlowObjectFactory.MAX_CREATING.get(), is(1));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenTheCreateRateIsLimited {
+        private static final int RATE = 5;
+        private static final int BORROWS = 10;
+        private ZKObjectPool<TestObject> pool;
+        private int borrowed;
+        private long took;
+
+        @Before
+        public void setup() {
+            pool = create(new Config.Builder("creation-limit-test").initSize(0).size(BORROWS).createRate(RATE)
+                    .storeType(StoreType.IN_MEMORY).build(), 0);
+            long start = System.nanoTime();
+            for (int i = 0; i < BORROWS; i++) {
+                if (pool.borrow() != null) {
+                    borrowed++;
+                }
+            }
+            took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+
+        @Test
+        public void should_create_a_burst_and_then_keep_to_the_rate() {
+            assertThat(borrowed, is(BORROWS));
+            // the first second's worth goes at once, the rest one every 1/RATE seconds.
+            assertThat(took, greaterThanOrEqualTo((BORROWS - RATE) * 1000L / RATE - 100));
+        }
+
+        @Test
+        public void should_record_how_long_borrows_waited() {
+            assertThat(pool.getMetrics().histogram(PoolMetrics.CREATE_PERMIT_WAIT).getCount(), greaterThan(0L));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.ZKObjectPool;
+import org.mbellani.zk.ZKClient;
+
+import com.google.common.base.Charsets;
+
+@RunWith(Enclosed.class)
+public class DegradedModeTest {
+    private static final long WAIT = TimeUnit.SECONDS.toMillis(15);
+
+    private static ZKObjectPool<TestObject> create(String name, Config.Builder cfg) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg.zkConnectString(ZkServer.connectString())
+                .build());
+        pool.setFactory(new TestObjectFactory());
+        pool.initialize();
+        return pool;
+    }
+
+    private static long count(ZKObjectPool<TestObject> pool, String counter) {
+        return pool.getMetrics().counter(counter).getCount();
+    }
+
+    private static void awaitStore(ZKObjectPool<TestObject> pool, boolean reachable) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT;
+        while ((pool.getStore().unreachableNanos() == 0) != reachable && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    public static class WhenObjectsAreLeased {
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create("lease-test", new Config.Builder("lease-test").initSize(3).size(3).leaseSize(1));
+        }
+
+        @Test
+        public void should_lend_a_returned_object_again_from_the_lease() {
+            TestObject obj = pool.borrow();
+            pool.returnObject(obj);
+            assertThat(pool.snapshot(true).getUsed(), is(1));
+            assertThat(pool.borrow(), is(obj));
+            assertThat(count(pool, PoolMetrics.LEASE_HITS), is(1L));
+        }
+
+        @Test
+        public void should_hand_back_objects_beyond_the_lease_size() {
+            pool.returnObject(pool.borrow());
+            pool.returnObject(pool.borrow());
+            pool.returnObject(pool.borrow());
+            assertThat(pool.snapshot(true).getUsed(), is(1));
+            assertThat(pool.getUnused(), is(2));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenTheFenceOutlastsTheSession {
+        @Test(expected = IllegalStateException.class)
+        public void should_reject_the_config() {
+            new Config.Builder("fence-test").size(3).leaseSize(1).intrvlUnit(TimeUnit.MINUTES).build().validate();
+        }
+
+        @Test
+        public void should_accept_it_without_a_lease() {
+            new Config.Builder("fence-test").size(3).intrvlUnit(TimeUnit.MINUTES).build().validate();
+        }
+    }
+
+    public static class WhenZookeeperIsUnreachable {
+        private ZKObjectPool<TestObject> pool;
+        private TestObject kept;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create("degraded-test", new Config.Builder("degraded-test").initSize(3).size(3).leaseSize(1)
+                    .degradedMaxIntrvl(2));
+            TestObject leased = pool.borrow();
+            kept = pool.borrow();
+            pool.returnObject(leased);
+            ZkServer.shutdown();
+            awaitStore(pool, false);
+        }
+
+        @Test
+        public void should_lend_the_leased_objects_only() {
+            long start = System.nanoTime();
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(pool.borrow() == null, is(true));
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(500L));
+            assertThat(count(pool, PoolMetrics.DEGRADED_BORROWS), is(1L));
+        }
+
+        @Test
+        public void should_lend_returned_objects_again() {
+            pool.returnObject(kept);
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(count(pool, PoolMetrics.DEGRADED_BORROWS), is(2L));
+        }
+
+        @Test
+        public void should_stop_lending_after_the_fencing_limit() throws Exception {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(2) + 100);
+            assertThat(pool.borrow() == null, is(true));
+            assertThat(count(pool, PoolMetrics.DEGRADED_FENCED), is(1L));
+        }
+
+        @Test
+        public void should_hand_back_what_the_lease_can_not_hold_once_reachable() throws Exception {
+            pool.returnObject(kept);
+            pool.returnObject(pool.borrow());
+            ZkServer.start();
+            awaitStore(pool, true);
+            TestObject obj = pool.borrow();
+            assertThat(obj != null, is(true));
+            assertThat(pool.snapshot(true).getUsed(), is(1));
+            assertThat(pool.getUnused(), is(2));
+        }
+
+        @Test
+        public void should_drop_objects_whose_claims_were_lost_in_the_outage() throws Exception {
+            TestObject lent = pool.borrow();
+            ZkServer.start();
+            awaitStore(pool, true);
+            // every claim handed to another participant, as if the session had expired meanwhile.
+            ZKClient zk = new ZKClient(ZkServer.connectString());
+            try {
+                for (String node : zk.getChildren(pool.getPaths().used())) {
+                    String path = pool.getPaths().used() + "/" + node;
+                    zk.delete(path);
+                    zk.create(path, "participant=other".getBytes(Charsets.UTF_8));
+                }
+            }
+            finally {
+                zk.shutdown();
+            }
+            pool.returnObject(lent);
+            assertThat(count(pool, PoolMetrics.LEASE_CLAIMS_LOST), is(1L));
+            assertThat(pool.getUnused(), is(1));
+        }
+
+        @After
+        public void after() throws Exception {
+            ZkServer.start();
+            awaitStore(pool, true);
+            pool.shutdown();
+        }
+    }
+
+}
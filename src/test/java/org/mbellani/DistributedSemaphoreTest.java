@@ -0,0 +1,141 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.DistributedSemaphore;
+import org.mbellani.pool.DistributedSemaphore.Permits;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKPoolStore;
+
+@RunWith(Enclosed.class)
+public class DistributedSemaphoreTest {
+
+    private static DistributedSemaphore create(Config.Builder cfg) {
+        DistributedSemaphore semaphore = new DistributedSemaphore(cfg.build());
+        semaphore.initialize();
+        return semaphore;
+    }
+
+    private abstract static class SemaphoreFixture {
+        protected DistributedSemaphore semaphore;
+        protected DistributedSemaphore other;
+
+        protected abstract Config.Builder config();
+
+        @Before
+        public void setup() throws Exception {
+            semaphore = create(config());
+            other = create(config());
+        }
+
+        @Test
+        public void should_hold_the_limit_across_participants() {
+            Permits a = semaphore.tryAcquire(2);
+            Permits b = other.tryAcquire();
+            assertThat(a.getCount(), is(2));
+            assertThat(b.getCount(), is(1));
+            assertThat(other.tryAcquire() == null, is(true));
+            assertThat(semaphore.tryAcquire() == null, is(true));
+            assertThat(semaphore.availablePermits(), is(0));
+        }
+
+        @Test
+        public void should_take_a_batch_whole_or_not_at_all() {
+            semaphore.tryAcquire(2);
+            assertThat(other.tryAcquire(2) == null, is(true));
+            assertThat(other.availablePermits(), is(1));
+            assertThat(other.tryAcquire() != null, is(true));
+        }
+
+        @Test
+        public void should_free_permits_on_release() throws Exception {
+            Permits permits = semaphore.tryAcquire(3);
+            assertThat(other.tryAcquire() == null, is(true));
+            semaphore.release(permits);
+            assertThat(permits.isHeld(), is(false));
+            assertThat(other.availablePermits(), is(3));
+            assertThat(other.acquire(3, 10, TimeUnit.SECONDS) != null, is(true));
+        }
+
+        @Test
+        public void should_wake_a_waiter_when_permits_come_back() throws Exception {
+            final Permits permits = semaphore.tryAcquire(3);
+            Thread releaser = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(300);
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    semaphore.release(permits);
+                }
+            };
+            releaser.start();
+            Permits waited = other.acquire(2, 10, TimeUnit.SECONDS);
+            releaser.join();
+            assertThat(waited.getCount(), is(2));
+            assertThat(other.getMetrics().counter(PoolMetrics.PERMITS_ACQUIRED).getCount(), is(2L));
+        }
+
+        @Test
+        public void should_give_up_at_the_timeout() throws Exception {
+            semaphore.tryAcquire(3);
+            long start = System.currentTimeMillis();
+            assertThat(other.acquire(1, 200, TimeUnit.MILLISECONDS) == null, is(true));
+            assertThat(System.currentTimeMillis() - start >= 200, is(true));
+            assertThat(other.getMetrics().counter(PoolMetrics.PERMIT_TIMEOUTS).getCount(), is(1L));
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void should_reject_more_than_the_limit() {
+            semaphore.tryAcquire(4);
+        }
+
+        @After
+        public void after() {
+            other.shutdown();
+            semaphore.shutdown();
+        }
+    }
+
+    public static class WhenPermitsAreInZookeeper extends SemaphoreFixture {
+        @Override
+        protected Config.Builder config() {
+            return new Config.Builder("semaphore-test").size(3).zkConnectString(ZkServer.connectString());
+        }
+
+        @Override
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            super.setup();
+        }
+
+        @Test
+        public void should_keep_permits_as_plain_sequential_nodes() {
+            semaphore.tryAcquire(2);
+            ZKPoolStore store = (ZKPoolStore) semaphore.getStore();
+            assertThat(store.getZk().getChildren(semaphore.getPaths().permits()).size(), is(2));
+        }
+    }
+
+    public static class WhenPermitsAreInMemory extends SemaphoreFixture {
+        @Override
+        protected Config.Builder config() {
+            return new Config.Builder("semaphore-memory-test").size(3).storeType(StoreType.IN_MEMORY);
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.ObjectFactory;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+@RunWith(Enclosed.class)
+public class InMemoryPoolStoreTest {
+    private static final String NAME = "in-memory-test";
+    private static final int SIZE = 5;
+
+    private static Config.Builder cfg() {
+        return new Config.Builder(NAME).initSize(SIZE).size(SIZE).storeType(StoreType.IN_MEMORY)
+                .intrvlUnit(TimeUnit.SECONDS);
+    }
+
+    private static ZKObjectPool<TestObject> create(Config cfg, ObjectFactory<TestObject> factory) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg);
+        pool.setFactory(factory);
+        pool.initialize();
+        return pool;
+    }
+
+    public static class WhenAParticipantCrashes {
+        private ZKObjectPool<TestObject> survivor;
+        private ZKObjectPool<TestObject> crashed;
+
+        @Before
+        public void setup() throws Exception {
+            survivor = create(cfg().build(), new TestObjectFactory());
+            crashed = create(cfg().build(), new TestObjectFactory());
+            // the survivor has to see the second participant join before it can notice it leave.
+            Thread.sleep(200);
+            crashed.borrow();
+            crashed.borrow();
+            crashed.getStore().shutdown();
+            Thread.sleep(500);
+        }
+
+        @Test
+        public void should_restore_objects_held_by_crashed_participant() {
+            assertThat(survivor.getUsed(), is(0));
+            assertThat(survivor.getUnused(), is(SIZE));
+            assertThat(survivor.getParticipants().size(), is(1));
+        }
+
+        @After
+        public void after() {
+            crashed.shutdown();
+            survivor.shutdown();
+        }
+    }
+
+}
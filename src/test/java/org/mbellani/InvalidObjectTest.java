@@ -2,16 +2,23 @@ package org.mbellani;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
+import org.mbellani.pool.StoreType;
 
 @RunWith(Enclosed.class)
 public class InvalidObjectTest {
 
     public static class WhenFactoryMarksAnObjectInvalid extends BaseObjectPoolTest {
+
+        public WhenFactoryMarksAnObjectInvalid(StoreType storeType) {
+            super(storeType);
+        }
+
         @Override
         @Before
         public void setUp() throws Exception {
@@ -51,6 +58,11 @@ public class InvalidObjectTest {
     }
 
     public static class WhenNoObjectsAreInvalid extends BaseObjectPoolTest {
+
+        public WhenNoObjectsAreInvalid(StoreType storeType) {
+            super(storeType);
+        }
+
         @Override
         @Before
         public void setUp() throws Exception {
@@ -91,4 +103,47 @@ public class InvalidObjectTest {
 
     }
 
+    public static class WhenPayloadsCannotBeRead extends BaseObjectPoolTest {
+        private TestObject borrowed;
+
+        public WhenPayloadsCannotBeRead(StoreType storeType) {
+            super(storeType);
+        }
+
+        @Override
+        @Before
+        public void setUp() throws Exception {
+            super.factory = new TestObjectFactory() {
+                @Override
+                public TestObject deserialize(byte[] bytes) {
+                    return null;
+                }
+            };
+            super.initialCapacity = 2;
+            super.maxCapacity = 5;
+            super.setUp();
+        }
+
+        @Test
+        public void should_not_lend_anything() {
+            assertThat(borrowed, is(nullValue()));
+        }
+
+        @Test
+        public void should_not_keep_the_claims() {
+            assertThat(pool.getUsed(), is(0));
+        }
+
+        @Test
+        public void should_drop_the_unreadable_objects() {
+            assertThat(pool.getSize(), is(0));
+        }
+
+        @Override
+        public void exercisePool() {
+            borrowed = pool.borrow();
+        }
+
+    }
+
 }
@@ -0,0 +1,158 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.KeyedObjectFactory;
+import org.mbellani.pool.KeyedObjectPool;
+import org.mbellani.pool.ObjectFactory;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKPoolStore;
+
+@RunWith(Enclosed.class)
+public class KeyedObjectPoolTest {
+
+    /**
+     * Objects that carry their key in front of the test data.
+     */
+    private static class TenantFactory implements KeyedObjectFactory<String, TestObject> {
+        @Override
+        public ObjectFactory<TestObject> forKey(final String key) {
+            return new TestObjectFactory() {
+                @Override
+                public TestObject create() {
+                    getCounts().created++;
+                    return new TestObject(key + ":" + getCounts().created);
+                }
+            };
+        }
+    }
+
+    private static KeyedObjectPool<String, TestObject> create(Config.Builder cfg) {
+        KeyedObjectPool<String, TestObject> pool = new KeyedObjectPool<String, TestObject>(cfg.build());
+        pool.setFactory(new TenantFactory());
+        pool.initialize();
+        return pool;
+    }
+
+    public static class WhenBorrowingFromSeveralKeys {
+        private KeyedObjectPool<String, TestObject> pool;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create(new Config.Builder("keyed-test").initSize(1).size(2)
+                    .zkConnectString(ZkServer.connectString()));
+        }
+
+        @Test
+        public void should_lend_the_objects_of_the_key() {
+            assertThat(pool.borrow("tenant-a").getTestData().startsWith("tenant-a:"), is(true));
+            assertThat(pool.borrow("tenant-b").getTestData().startsWith("tenant-b:"), is(true));
+            assertThat(pool.getKeys(), containsInAnyOrder("tenant-a", "tenant-b"));
+        }
+
+        @Test
+        public void should_keep_each_key_under_the_keyed_pool() {
+            pool.borrow("tenant-a");
+            ZKPoolStore store = (ZKPoolStore) pool.getPool("tenant-a").getStore();
+            assertThat(store.getZk().getChildren(pool.getPaths().keys()), contains("tenant-a"));
+            assertThat(pool.getPool("tenant-a").getPaths().base(), is(pool.getPaths().keys() + "/tenant-a"));
+        }
+
+        @Test
+        public void should_share_one_session_across_keys() {
+            pool.borrow("tenant-a");
+            pool.borrow("tenant-b");
+            ZKPoolStore a = (ZKPoolStore) pool.getPool("tenant-a").getStore();
+            ZKPoolStore b = (ZKPoolStore) pool.getPool("tenant-b").getStore();
+            assertThat(a.getZk(), is(sameInstance(b.getZk())));
+        }
+
+        @Test
+        public void should_cap_each_key_at_the_size() {
+            assertThat(pool.borrow("tenant-a") != null, is(true));
+            assertThat(pool.borrow("tenant-a") != null, is(true));
+            assertThat(pool.borrow("tenant-a") == null, is(true));
+            assertThat(pool.borrow("tenant-b") != null, is(true));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenTheTotalIsCapped {
+        private KeyedObjectPool<String, TestObject> pool;
+
+        @Before
+        public void setup() {
+            pool = create(new Config.Builder("keyed-total-test").initSize(1).size(2).maxTotal(3)
+                    .storeType(StoreType.IN_MEMORY));
+        }
+
+        @Test
+        public void should_stop_lending_across_keys_at_the_total() {
+            TestObject a = pool.borrow("tenant-a");
+            pool.borrow("tenant-a");
+            pool.borrow("tenant-b");
+            assertThat(pool.borrow("tenant-b") == null, is(true));
+            assertThat(pool.getMetrics().counter(PoolMetrics.TOTAL_REJECTIONS).getCount(), is(1L));
+            pool.returnObject("tenant-a", a);
+            assertThat(pool.borrow("tenant-b") != null, is(true));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenKeysGoIdle {
+        private KeyedObjectPool<String, TestObject> pool;
+
+        @Before
+        public void setup() {
+            pool = create(new Config.Builder("keyed-idle-test").initSize(1).size(2).keyIdleIntrvl(1)
+                    .storeType(StoreType.IN_MEMORY));
+        }
+
+        @Test
+        public void should_leave_the_pools_of_idle_keys() throws Exception {
+            pool.returnObject("tenant-a", pool.borrow("tenant-a"));
+            TestObject b = pool.borrow("tenant-b");
+            Thread.sleep(TimeUnit.SECONDS.toMillis(2) + 500);
+            assertThat(pool.getKeys(), contains("tenant-b"));
+            assertThat(pool.getMetrics().counter(PoolMetrics.KEYS_RETIRED).getCount(), is(1L));
+            pool.returnObject("tenant-b", b);
+        }
+
+        @Test
+        public void should_open_a_retired_key_again() throws Exception {
+            pool.returnObject("tenant-a", pool.borrow("tenant-a"));
+            Thread.sleep(TimeUnit.SECONDS.toMillis(2) + 500);
+            assertThat(pool.getKeys(), is(empty()));
+            assertThat(pool.borrow("tenant-a").getTestData().startsWith("tenant-a:"), is(true));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+@RunWith(Enclosed.class)
+public class LiveConfigTest {
+
+    private static Config.Builder cfg(int size) {
+        return new Config.Builder("live-config-test").initSize(size).size(size).storeType(StoreType.IN_MEMORY)
+                .intrvlUnit(TimeUnit.MILLISECONDS);
+    }
+
+    private static ZKObjectPool<TestObject> create(Config cfg) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg);
+        pool.setFactory(new TestObjectFactory());
+        pool.initialize();
+        return pool;
+    }
+
+    private static Properties changes(String... keyValues) {
+        Properties p = new Properties();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            p.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return p;
+    }
+
+    public static class WhenAParticipantJoinsWithADifferentConfig {
+        private ZKObjectPool<TestObject> pool;
+        private ZKObjectPool<TestObject> other;
+
+        @Before
+        public void setup() {
+            pool = create(cfg(2).build());
+            other = create(cfg(5).build());
+        }
+
+        @Test
+        public void should_adopt_the_published_config() {
+            assertThat(other.getConfig().getSize(), is(2));
+            assertThat(other.getCapacity(), is(2));
+        }
+
+        @Test
+        public void should_run_the_same_config_version() {
+            assertThat(pool.getConfigVersion(), is(0));
+            assertThat(other.getConfigVersion(), is(0));
+        }
+
+        @Test
+        public void should_not_hand_out_more_than_the_published_size() {
+            assertThat(other.borrow() != null, is(true));
+            assertThat(other.borrow() != null, is(true));
+            assertThat(other.borrow() == null, is(true));
+        }
+
+        @After
+        public void after() {
+            other.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenTheSizeIsChanged {
+        private ZKObjectPool<TestObject> pool;
+        private ZKObjectPool<TestObject> other;
+        private int version;
+
+        @Before
+        public void setup() throws Exception {
+            pool = create(cfg(4).build());
+            other = create(cfg(4).build());
+            version = other.updateConfig(changes("size", "1"));
+            Thread.sleep(300);
+        }
+
+        @Test
+        public void should_apply_it_on_every_participant() {
+            assertThat(version, is(1));
+            assertThat(pool.getConfigVersion(), is(1));
+            assertThat(pool.getConfig().getSize(), is(1));
+            assertThat(pool.getCapacity(), is(1));
+        }
+
+        @Test
+        public void should_retire_idle_objects_past_the_new_size() {
+            assertThat(pool.getSize(), is(1));
+            assertThat(pool.getMetrics().counter(PoolMetrics.RETIRED).getCount(), is(3L));
+        }
+
+        @Test
+        public void should_expose_the_version_as_a_gauge() {
+            assertThat(other.getMetrics().getGauges().get(PoolMetrics.CONFIG_VERSION).getValue(), is(1L));
+        }
+
+        @After
+        public void after() {
+            other.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenEvictionIsTurnedOn {
+        private ZKObjectPool<TestObject> pool;
+        private ZKObjectPool<TestObject> other;
+
+        @Before
+        public void setup() throws Exception {
+            pool = create(cfg(3).build());
+            other = create(cfg(3).build());
+            pool.updateConfig(changes("evictIntrvl", "50", "maxIdleIntrvl", "0", "numTestsPerEviction", "3"));
+            Thread.sleep(500);
+        }
+
+        @Test
+        public void should_start_evicting_without_a_restart() {
+            long evictions = pool.getMetrics().counter(PoolMetrics.EVICTIONS).getCount()
+                    + other.getMetrics().counter(PoolMetrics.EVICTIONS).getCount();
+            assertThat(evictions, greaterThan(0L));
+            assertThat(other.getConfig().getEvictIntrvl(), is(50L));
+        }
+
+        @After
+        public void after() {
+            other.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenAChangeIsInvalid {
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() {
+            pool = create(cfg(2).build());
+        }
+
+        @Test(expected = IllegalStateException.class)
+        public void should_reject_a_size_of_zero() {
+            pool.updateConfig(changes("size", "0"));
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void should_reject_settings_that_can_not_change_live() {
+            pool.updateConfig(changes("intrvlUnit", "SECONDS"));
+        }
+
+        @Test
+        public void should_keep_the_config_it_had() {
+            try {
+                pool.updateConfig(changes("size", "0"));
+            }
+            catch (IllegalStateException e) {
+                // expected
+            }
+            assertThat(pool.getConfigVersion(), is(0));
+            assertThat(pool.getConfig().getSize(), is(2));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
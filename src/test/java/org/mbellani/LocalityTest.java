@@ -0,0 +1,153 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+import org.mbellani.pool.ZKPoolStore;
+import org.mbellani.utils.Net;
+
+@RunWith(Enclosed.class)
+public class LocalityTest {
+
+    /**
+     * Objects named after the participant that created them.
+     */
+    private static class NamedFactory extends TestObjectFactory {
+        private final String name;
+
+        NamedFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public TestObject create() {
+            getCounts().created++;
+            return new TestObject(name + ":" + getCounts().created);
+        }
+    }
+
+    private static ZKObjectPool<TestObject> create(String name, Config.Builder cfg) {
+        return TestPools.create(cfg, new NamedFactory(name));
+    }
+
+    private static long count(ZKObjectPool<TestObject> pool, String counter) {
+        return pool.getMetrics().counter(counter).getCount();
+    }
+
+    public static class WhenObjectsComeFromElsewhere {
+        private ZKObjectPool<TestObject> remote;
+        private ZKObjectPool<TestObject> local;
+
+        @Before
+        public void setup() {
+            local = create("local", new Config.Builder("locality-test").initSize(1).size(4).preferLocal(true)
+                    .storeType(StoreType.IN_MEMORY));
+            // objects of a participant that does not record locality are local to no one.
+            remote = create("remote", new Config.Builder("locality-test").initSize(1).size(4)
+                    .storeType(StoreType.IN_MEMORY));
+            TestObject taken = remote.borrow();
+            TestObject created = remote.borrow();
+            remote.returnObject(taken);
+            remote.returnObject(created);
+        }
+
+        @Test
+        public void should_prefer_the_objects_created_here() {
+            for (int i = 0; i < 3; i++) {
+                TestObject obj = local.borrow();
+                assertThat(obj.getTestData(), is("local:1"));
+                local.returnObject(obj);
+            }
+            assertThat(count(local, PoolMetrics.LOCAL_HOST_HITS), is(3L));
+        }
+
+        @Test
+        public void should_fall_back_to_any_object() {
+            assertThat(local.borrow().getTestData(), is("local:1"));
+            assertThat(local.borrow().getTestData(), is("remote:1"));
+            assertThat(count(local, PoolMetrics.LOCAL_MISSES), is(1L));
+            assertThat(local.getMetrics().getGauges().get(PoolMetrics.LOCAL_HIT_RATIO).getValue(), is(50L));
+        }
+
+        @After
+        public void after() {
+            local.shutdown();
+            remote.shutdown();
+        }
+    }
+
+    public static class WhenALocalObjectIsReturnedSoon {
+        private ZKObjectPool<TestObject> remote;
+        private ZKObjectPool<TestObject> local;
+        private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+        @Before
+        public void setup() {
+            local = create("local", new Config.Builder("locality-wait-test").initSize(1).size(4).preferLocal(true)
+                    .localityWait(5).storeType(StoreType.IN_MEMORY));
+            remote = create("remote", new Config.Builder("locality-wait-test").initSize(1).size(4)
+                    .storeType(StoreType.IN_MEMORY));
+        }
+
+        @Test
+        public void should_wait_for_it() {
+            final TestObject first = local.borrow();
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    local.returnObject(first);
+                }
+            }, 300, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            assertThat(local.borrow().getTestData(), is("local:1"));
+            assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), lessThan(5L));
+            assertThat(count(local, PoolMetrics.LOCAL_HOST_HITS), is(2L));
+            assertThat(count(local, PoolMetrics.LOCAL_MISSES), is(0L));
+        }
+
+        @After
+        public void after() {
+            executor.shutdownNow();
+            local.shutdown();
+            remote.shutdown();
+        }
+    }
+
+    public static class WhenRecordingLocality {
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create("local", new Config.Builder("locality-tags-test").initSize(2).size(2).preferLocal(true)
+                    .rack("rack-1").zkConnectString(ZkServer.connectString()));
+        }
+
+        @Test
+        public void should_tag_objects_with_the_host_and_rack() {
+            ZKPoolStore store = (ZKPoolStore) pool.getStore();
+            assertThat(store.getZk().getChildren(pool.getPaths().tag("host:" + Net.getAddress())).size(), is(2));
+            assertThat(store.getZk().getChildren(pool.getPaths().tag("rack:rack-1")).size(), is(2));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package org.mbellani;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+/**
+ * Pool participant run in its own JVM by {@link MappedPoolStoreTest}, borrows the requested number of objects and
+ * holds on to them until stdin is closed or it is killed.
+ */
+public class MappedPoolParticipant {
+
+    public static final String READY = "ready";
+
+    public static void main(String[] args) throws Exception {
+        String file = args[0];
+        int size = Integer.parseInt(args[1]);
+        int borrow = Integer.parseInt(args[2]);
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(config(file, size));
+        pool.setFactory(new TestObjectFactory());
+        pool.initialize();
+        for (int i = 0; i < borrow; i++) {
+            pool.borrow();
+        }
+        System.out.println(READY);
+        System.out.flush();
+        new BufferedReader(new InputStreamReader(System.in)).readLine();
+        pool.shutdown();
+    }
+
+    public static Config config(String file, int size) {
+        return new Config.Builder("mapped-test").initSize(size).size(size).storeType(StoreType.MAPPED_FILE)
+                .mappedFile(file).build();
+    }
+
+}
@@ -0,0 +1,202 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.TagQuery;
+import org.mbellani.pool.TaggedObjectFactory;
+import org.mbellani.pool.ZKObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@RunWith(Enclosed.class)
+public class MappedPoolStoreTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedPoolStoreTest.class);
+    private static final int SIZE = 5;
+
+    private static String file() throws Exception {
+        File f = File.createTempFile("mapped-pool", ".pool");
+        f.delete();
+        return f.getAbsolutePath();
+    }
+
+    private static ZKObjectPool<TestObject> create(String file) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(MappedPoolParticipant.config(file, SIZE));
+        pool.setFactory(new TestObjectFactory());
+        pool.initialize();
+        return pool;
+    }
+
+    public static class WhenParticipantsShareAFile {
+        private ZKObjectPool<TestObject> first;
+        private ZKObjectPool<TestObject> second;
+
+        @Before
+        public void setup() throws Exception {
+            String file = file();
+            first = create(file);
+            second = create(file);
+            first.borrow();
+            second.borrow();
+        }
+
+        @Test
+        public void should_see_each_others_borrows() {
+            assertThat(first.getUsed(), is(2));
+            assertThat(second.getUnused(), is(SIZE - 2));
+            assertThat(first.getParticipants().size(), is(2));
+        }
+
+        @Test
+        public void should_borrow_in_microseconds() {
+            int rounds = 10000;
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                first.returnObject(first.borrow());
+            }
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / rounds;
+            LOGGER.info("Average borrow and return took {} micros", micros);
+            assertThat(micros, lessThan(1000L));
+        }
+
+        @After
+        public void after() {
+            second.shutdown();
+            first.shutdown();
+        }
+    }
+
+    public static class WhenAskedForWhatSlotsCantKeep {
+        private ZKObjectPool<TestObject> pool;
+
+        @Test(expected = IllegalArgumentException.class)
+        public void should_refuse_tagged_factories_before_creating_objects() throws Exception {
+            new ZKObjectPool<TestObject>(MappedPoolParticipant.config(file(), SIZE)).setFactory(new TaggedFactory());
+        }
+
+        @Test(expected = IllegalStateException.class)
+        public void should_refuse_borrows_by_tags() throws Exception {
+            pool = create(file());
+            pool.borrow(TagQuery.allOf("gpu"));
+        }
+
+        private static class TaggedFactory extends TestObjectFactory implements TaggedObjectFactory<TestObject> {
+            @Override
+            public Set<String> tags(TestObject t) {
+                return Collections.singleton("gpu");
+            }
+        }
+
+        @After
+        public void after() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    public static class WhenAProcessDiesBeforeUpdatingACount {
+        // where the header keeps the count of used objects, ints in native order from offset 32 by area.
+        private static final int USED_COUNT = 32 + 4 * Area.USED.ordinal();
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() throws Exception {
+            String file = file();
+            pool = create(file);
+            pool.borrow();
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                MappedByteBuffer header = raf.getChannel().map(MapMode.READ_WRITE, 0, 128);
+                header.order(ByteOrder.nativeOrder()).putInt(USED_COUNT, 3);
+                header.force();
+            }
+            finally {
+                raf.close();
+            }
+        }
+
+        @Test
+        public void should_count_the_slots_again() throws Exception {
+            assertThat(pool.getStore().count(Area.USED), is(3));
+            Thread.sleep(3500);
+            assertThat(pool.getStore().count(Area.USED), is(1));
+            assertThat(pool.getStore().count(Area.UNUSED), is(SIZE - 1));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenAParticipantInAnotherJvmCrashes {
+        private static final int BORROWED = 2;
+        private ZKObjectPool<TestObject> survivor;
+        private Process participant;
+        private int usedBeforeCrash;
+        private int participantsBeforeCrash;
+
+        @Before
+        public void setup() throws Exception {
+            String file = file();
+            survivor = create(file);
+            participant = spawn(file);
+            usedBeforeCrash = survivor.getUsed();
+            participantsBeforeCrash = survivor.getParticipants().size();
+            participant.destroy();
+            participant.waitFor();
+            Thread.sleep(3000);
+        }
+
+        private Process spawn(String file) throws Exception {
+            String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+            Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    MappedPoolParticipant.class.getName(), file, String.valueOf(SIZE), String.valueOf(BORROWED))
+                    .redirectErrorStream(true).start();
+            BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream()));
+            String line;
+            while ((line = out.readLine()) != null && !line.equals(MappedPoolParticipant.READY)) {
+                LOGGER.info("participant: {}", line);
+            }
+            return p;
+        }
+
+        @Test
+        public void should_see_borrows_of_the_other_jvm() {
+            assertThat(usedBeforeCrash, is(BORROWED));
+            assertThat(participantsBeforeCrash, is(2));
+        }
+
+        @Test
+        public void should_restore_objects_held_by_crashed_jvm() {
+            assertThat(survivor.getUsed(), is(0));
+            assertThat(survivor.getUnused(), is(SIZE));
+            assertThat(survivor.getParticipants().size(), is(1));
+        }
+
+        @After
+        public void after() {
+            survivor.shutdown();
+        }
+    }
+
+}
@@ -18,6 +18,11 @@ public class PathTest {
     private static final String EXPECTED_SHUTDOWN_LOCK_PATH = BASE_PATH + "/shutdown-lock";
     private static final String EXPECTED_ZOMBIES_PATH = BASE_PATH + "/zombies";
     private static final String EXPECTED_EVICTION_LOCK_PATH = BASE_PATH + "/eviction-lock";
+    private static final String EXPECTED_CREATE_PERMITS_PATH = BASE_PATH + "/create-permits";
+    private static final String EXPECTED_CHUNKS_PATH = BASE_PATH + "/chunks";
+    private static final String EXPECTED_KEYS_PATH = BASE_PATH + "/keys";
+    private static final String EXPECTED_TAGS_PATH = BASE_PATH + "/tags";
+    private static final String EXPECTED_NODE_TAGS_PATH = BASE_PATH + "/node-tags";
 
     private PoolPaths paths = new PoolPaths(BASE);
 
@@ -60,4 +65,27 @@ public class PathTest {
     public void should_have_correct_eviction_lock_path() {
         assertThat(paths.evictionLock(), is(equalTo(EXPECTED_EVICTION_LOCK_PATH)));
     }
+
+    @Test
+    public void should_have_correct_create_permits_path() {
+        assertThat(paths.createPermits(), is(equalTo(EXPECTED_CREATE_PERMITS_PATH)));
+    }
+
+    @Test
+    public void should_have_correct_chunks_path() {
+        assertThat(paths.chunks(), is(equalTo(EXPECTED_CHUNKS_PATH)));
+    }
+
+    @Test
+    public void should_have_correct_tag_paths() {
+        assertThat(paths.tags(), is(equalTo(EXPECTED_TAGS_PATH)));
+        assertThat(paths.tag("gpu"), is(equalTo(EXPECTED_TAGS_PATH + "/gpu")));
+        assertThat(paths.nodeTags(), is(equalTo(EXPECTED_NODE_TAGS_PATH)));
+    }
+
+    @Test
+    public void should_have_correct_keys_path() {
+        assertThat(paths.keys(), is(equalTo(EXPECTED_KEYS_PATH)));
+        assertThat(new PoolPaths(paths.key("tenant-1")).base(), is(equalTo(EXPECTED_KEYS_PATH + "/tenant-1")));
+    }
 }
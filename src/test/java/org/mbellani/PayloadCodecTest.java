@@ -0,0 +1,175 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.codec.DeflateCodec;
+import org.mbellani.codec.Lz4Codec;
+import org.mbellani.codec.PayloadCodec;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+import org.mbellani.pool.ZKPoolStore;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+
+@RunWith(Enclosed.class)
+public class PayloadCodecTest {
+
+    /**
+     * Objects with large, repetitive payloads that deserialize to equal objects.
+     */
+    private static class LargeObjectFactory extends TestObjectFactory {
+        private final int size;
+
+        LargeObjectFactory(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public TestObject create() {
+            getCounts().created++;
+            return new TestObject(Strings.padEnd(getCounts().created + "-", size, 'x'));
+        }
+    }
+
+    private static byte[] payload(String text) {
+        return text.getBytes(Charsets.UTF_8);
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static void assertRoundTrip(PayloadCodec codec, byte[] data) {
+        assertThat(Arrays.equals(codec.decode(codec.encode(data)), data), is(true));
+    }
+
+    public static class WhenEncodingPayloads {
+        private String text = Strings.repeat("{\"host\":\"db-1.example.com\",\"port\":5432,\"user\":\"app\"}", 200);
+
+        @Test
+        public void should_decode_what_lz4_encoded() {
+            PayloadCodec codec = new Lz4Codec();
+            assertRoundTrip(codec, new byte[0]);
+            assertRoundTrip(codec, payload("short"));
+            assertRoundTrip(codec, payload(text));
+            assertRoundTrip(codec, random(100000));
+            assertRoundTrip(codec, new byte[70000]);
+        }
+
+        @Test
+        public void should_decode_what_deflate_encoded() {
+            PayloadCodec codec = new DeflateCodec();
+            assertRoundTrip(codec, new byte[0]);
+            assertRoundTrip(codec, payload(text));
+            assertRoundTrip(codec, random(100000));
+        }
+
+        @Test
+        public void should_shrink_repetitive_payloads() {
+            byte[] data = payload(text);
+            assertThat(new Lz4Codec().encode(data).length, lessThan(data.length / 10));
+            assertThat(new DeflateCodec().encode(data).length, lessThan(data.length / 10));
+        }
+    }
+
+    public static class WhenPayloadsAreAlike {
+        private byte[] dictionary = payload("{\"host\":\"db-0.example.com\",\"port\":5432,\"user\":\"app\",\"pool\":true}");
+        private byte[] data = payload("{\"host\":\"db-7.example.com\",\"port\":5432,\"user\":\"app\",\"pool\":true}");
+
+        @Test
+        public void should_compress_better_with_a_dictionary() {
+            PayloadCodec codec = new DeflateCodec(Deflater.DEFAULT_COMPRESSION, dictionary);
+            assertThat(codec.encode(data).length, lessThan(new DeflateCodec().encode(data).length / 2));
+            assertRoundTrip(codec, data);
+        }
+
+        @Test(expected = IllegalStateException.class)
+        public void should_not_decode_without_the_dictionary() {
+            byte[] encoded = new DeflateCodec(Deflater.DEFAULT_COMPRESSION, dictionary).encode(data);
+            new DeflateCodec().decode(encoded);
+        }
+    }
+
+    public static class WhenParticipantsConfigureDifferentCodecs {
+        private ZKObjectPool<TestObject> pool;
+        private ZKObjectPool<TestObject> other;
+
+        private ZKObjectPool<TestObject> create(PayloadCodec codec) {
+            return TestPools.create(new Config.Builder("codec-test").initSize(2).size(2)
+                    .storeType(StoreType.IN_MEMORY).codec(codec), new LargeObjectFactory(4096));
+        }
+
+        @Before
+        public void setup() {
+            pool = create(new Lz4Codec());
+            other = create(new DeflateCodec());
+        }
+
+        @Test
+        public void should_use_the_codec_the_pool_was_created_with() {
+            TestObject obj = other.borrow();
+            assertThat(obj.getTestData().length(), is(4096));
+        }
+
+        @Test
+        public void should_record_the_compression_ratio() {
+            long ratio = pool.getMetrics().getGauges().get(PoolMetrics.CODEC_RATIO).getValue();
+            assertThat(ratio, lessThan(10L));
+        }
+
+        @After
+        public void after() {
+            other.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenPayloadsAreLargerThanAChunk {
+        private ZKObjectPool<TestObject> pool;
+        private LargeObjectFactory factory = new LargeObjectFactory(3000);
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = TestPools.create(new Config.Builder("chunk-test").initSize(2).size(2).chunkSize(1024)
+                    .zkConnectString(ZkServer.connectString()), factory);
+        }
+
+        @Test
+        public void should_put_the_payload_back_together() {
+            TestObject obj = pool.borrow();
+            assertThat(obj.getTestData().length(), is(3000));
+            assertThat(obj.getTestData().startsWith("1-") || obj.getTestData().startsWith("2-"), is(true));
+        }
+
+        @Test
+        public void should_remove_the_chunks_with_the_object() {
+            ZKPoolStore store = (ZKPoolStore) pool.getStore();
+            assertThat(store.getZk().getChildren(pool.getPaths().chunks()).size(), is(2));
+            pool.invalidate(pool.borrow());
+            assertThat(store.getZk().getChildren(pool.getPaths().chunks()).size(), is(1));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,249 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.agent.PoolAgent;
+import org.mbellani.agent.PoolAgentClient;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.ZKObjectPool;
+
+@RunWith(Enclosed.class)
+public class PoolAgentTest {
+    private static final int SIZE = 5;
+
+    private abstract static class AgentFixture {
+        protected ZKObjectPool<TestObject> pool;
+        protected PoolAgent<TestObject> agent;
+        protected PoolAgentClient<TestObject> client;
+        protected TestObjectFactory factory = new TestObjectFactory();
+        private Thread agentThread;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            Config config = configure(new Config.Builder("agent-test").initSize(SIZE).size(SIZE)
+                    .zkConnectString(ZkServer.connectString())).build();
+            pool = new ZKObjectPool<TestObject>(config);
+            pool.setFactory(factory);
+            pool.initialize();
+            agent = new PoolAgent<TestObject>(pool, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    warmSize());
+            agentThread = agent.start();
+            client = new PoolAgentClient<TestObject>(agent.getAddress(), new TestObjectFactory());
+            exercise();
+        }
+
+        protected abstract int warmSize();
+
+        protected Config.Builder configure(Config.Builder cfg) {
+            return cfg;
+        }
+
+        protected abstract void exercise() throws Exception;
+
+        @After
+        public void after() throws Exception {
+            client.close();
+            agent.shutdown();
+            agentThread.join();
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenBorrowingThroughTheAgent extends AgentFixture {
+        private TestObject borrowed;
+
+        @Override
+        protected int warmSize() {
+            return 0;
+        }
+
+        @Override
+        protected void exercise() {
+            borrowed = client.borrow();
+        }
+
+        @Test
+        public void should_lend_an_object_of_the_pool() {
+            assertThat(borrowed, is(notNullValue()));
+            assertThat(pool.getUsed(), is(1));
+        }
+
+        @Test
+        public void should_return_the_object_to_the_pool() throws Exception {
+            client.returnObject(borrowed);
+            Thread.sleep(200);
+            assertThat(pool.getUsed(), is(0));
+            assertThat(pool.getUnused(), is(SIZE));
+        }
+
+        @Test
+        public void should_invalidate_the_object() {
+            assertThat(client.invalidate(borrowed), is(true));
+            assertThat(pool.getSize(), is(SIZE - 1));
+        }
+
+        @Test
+        public void should_report_pool_stats() {
+            assertThat(client.stats()[1], is(1));
+        }
+
+        @Test
+        public void should_pipeline_borrows_up_to_capacity() {
+            List<TestObject> rest = client.borrow(SIZE);
+            assertThat(rest.size(), is(SIZE - 1));
+        }
+
+        @Test
+        public void should_take_back_objects_of_closed_clients() throws Exception {
+            client.close();
+            client = new PoolAgentClient<TestObject>(agent.getAddress(), new TestObjectFactory());
+            Thread.sleep(200);
+            assertThat(pool.getUsed(), is(0));
+        }
+    }
+
+    public static class WhenObjectsAreReturnedToTheWarmTier extends AgentFixture {
+        private TestObject first;
+        private TestObject second;
+
+        @Override
+        protected int warmSize() {
+            return 2;
+        }
+
+        @Override
+        protected void exercise() {
+            first = client.borrow();
+            client.returnObject(first);
+            second = client.borrow();
+        }
+
+        @Test
+        public void should_keep_the_object_claimed() {
+            assertThat(pool.getUsed(), is(1));
+            assertThat(factory.getCounts().created, is(SIZE));
+        }
+
+        @Test
+        public void should_lend_the_warm_object_again() {
+            assertThat(second, is(first));
+            assertThat(second, is(not(sameInstance(first))));
+        }
+
+        @Test
+        public void should_give_warm_objects_back_on_shutdown() throws Exception {
+            client.returnObject(second);
+            agent.shutdown();
+            Thread.sleep(200);
+            assertThat(pool.getUsed(), is(0));
+        }
+    }
+
+    public static class WhenAWarmObjectFailsValidation extends AgentFixture {
+        private final RejectingFactory rejecting = new RejectingFactory();
+        private TestObject first;
+        private TestObject second;
+
+        public WhenAWarmObjectFailsValidation() {
+            factory = rejecting;
+        }
+
+        @Override
+        protected int warmSize() {
+            return 2;
+        }
+
+        @Override
+        protected void exercise() {
+            first = client.borrow();
+            client.returnObject(first);
+            rejecting.rejections.set(1);
+            second = client.borrow();
+        }
+
+        @Test
+        public void should_lend_another_object() {
+            assertThat(second, is(notNullValue()));
+            assertThat(second, is(not(first)));
+        }
+
+        @Test
+        public void should_destroy_the_invalid_object() {
+            assertThat(factory.getCounts().destroyed, is(1));
+            assertThat(pool.getUsed(), is(1));
+        }
+    }
+
+    public static class WhenWarmObjectsIdleTooLong extends AgentFixture {
+
+        @Override
+        protected int warmSize() {
+            return 2;
+        }
+
+        @Override
+        protected Config.Builder configure(Config.Builder cfg) {
+            return cfg.maxIdleIntrvl(1L);
+        }
+
+        @Override
+        protected void exercise() {
+            client.returnObject(client.borrow());
+        }
+
+        @Test
+        public void should_give_them_back_to_the_pool() throws Exception {
+            assertThat(pool.getUsed(), is(1));
+            Thread.sleep(2000);
+            assertThat(pool.getUsed(), is(0));
+        }
+    }
+
+    public static class WhenThePoolIsExhausted extends AgentFixture {
+        private List<TestObject> borrowed;
+        private TestObject extra;
+
+        @Override
+        protected int warmSize() {
+            return 0;
+        }
+
+        @Override
+        protected void exercise() {
+            borrowed = client.borrow(SIZE);
+            extra = client.borrow();
+        }
+
+        @Test
+        public void should_lend_nothing_more() {
+            assertThat(borrowed.size(), is(SIZE));
+            assertThat(extra, is(nullValue()));
+        }
+    }
+
+    private static class RejectingFactory extends TestObjectFactory {
+        private final AtomicInteger rejections = new AtomicInteger();
+
+        @Override
+        public boolean validate(TestObject t) {
+            return rejections.getAndDecrement() <= 0;
+        }
+    }
+
+}
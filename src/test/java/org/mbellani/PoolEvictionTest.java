@@ -13,6 +13,7 @@ import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
 import org.mbellani.pool.ZKObjectPool;
 
 @RunWith(Enclosed.class)
@@ -35,24 +36,27 @@ public class PoolEvictionTest {
         return ret;
     }
 
-    private static Config cfg() {
+    private static Config.Builder cfg() {
         return new Config.Builder(NAME).initSize(INITIAL_CAPACITY).size(MAX_CAPACITY)
-                .evictIntrvl(EVIC_INTRVL).intrvlUnit(INTRVL_UNIT).zkConnectString(ZkServer.connectString())
-                .numTestsPerEviction(TESTS_PER_EVICTION).maxIdleIntrvl(IDLE_INTRVL).build();
+                .evictIntrvl(EVIC_INTRVL).intrvlUnit(INTRVL_UNIT)
+                .numTestsPerEviction(TESTS_PER_EVICTION).maxIdleIntrvl(IDLE_INTRVL);
     }
 
-    public static class WhenNoObjectsAreInUse {
+    public static class WhenNoObjectsAreInUse extends BaseStoreTest {
         private ZKObjectPool<TestObject> pool;
         private TestObjectFactory factory = new TestObjectFactory();
 
+        public WhenNoObjectsAreInUse(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
-            ZkServer.start();
-            pool = create(1, cfg()).get(0);
+            pool = create(1, on(cfg()).build()).get(0);
             pool.setFactory(factory);
             pool.initialize();
-            // WAIT FOR CLEANUP TO OCCUR
-            Thread.sleep(INTRVL_UNIT.toMillis(EVIC_INTRVL * 2));
+            // WAIT FOR CLEANUP TO OCCUR, halfway between two runs so none is moving objects.
+            Thread.sleep(INTRVL_UNIT.toMillis(EVIC_INTRVL * 2) + INTRVL_UNIT.toMillis(EVIC_INTRVL) / 2);
         }
 
         @Test
@@ -77,20 +81,23 @@ public class PoolEvictionTest {
 
     }
 
-    public static class WhenSomeObjectsAreInUse {
+    public static class WhenSomeObjectsAreInUse extends BaseStoreTest {
         private ZKObjectPool<TestObject> pool;
         private TestObjectFactory factory = new TestObjectFactory();
 
+        public WhenSomeObjectsAreInUse(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
-            ZkServer.start();
-            pool = create(1, cfg()).get(0);
+            pool = create(1, on(cfg()).build()).get(0);
             pool.setFactory(factory);
             pool.initialize();
             pool.borrow();
             pool.borrow();
-            // WAIT FOR CLEANUP TO OCCUR
-            Thread.sleep(6000);
+            // WAIT FOR CLEANUP TO OCCUR, halfway between two runs so none is moving objects.
+            Thread.sleep(INTRVL_UNIT.toMillis(EVIC_INTRVL * 2) + INTRVL_UNIT.toMillis(EVIC_INTRVL) / 2);
 
         }
 
@@ -121,14 +128,17 @@ public class PoolEvictionTest {
 
     }
 
-    public static class WhenCleaningUpWithMultipleClients {
+    public static class WhenCleaningUpWithMultipleClients extends BaseStoreTest {
         private List<ZKObjectPool<TestObject>> pools;
         private int totalDestroyed = 0;
 
+        public WhenCleaningUpWithMultipleClients(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
-            ZkServer.start();
-            pools = create(2, cfg());
+            pools = create(2, on(cfg()).build());
             for (ZKObjectPool<TestObject> pool : pools) {
                 pool.setFactory(new TestObjectFactory());
                 pool.initialize();
@@ -18,9 +18,9 @@ import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import org.mbellani.pool.Config;
-import org.mbellani.pool.PoolPaths;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
 import org.mbellani.pool.ZKObjectPool;
-import org.mbellani.zk.ZKClient;
 
 import com.google.common.collect.Lists;
 
@@ -29,52 +29,63 @@ public class PoolInitializationTest {
 
     public static class WhenInitialCapacityNotSet extends BaseObjectPoolTest {
 
+        public WhenInitialCapacityNotSet(StoreType storeType) {
+            super(storeType);
+        }
+
         @Override
         public void exercisePool() {
             // Pool already initialized do nothing.
         }
 
         @Test
-        public void should_have_all_paths_in_zk() {
-            for (String path : paths.all()) {
-                assertThat(zkClient.exists(path), is(true));
+        public void should_have_all_paths_in_zk() throws Exception {
+            assertThat(exists(poolName), is(true));
+            if (onZookeeper()) {
+                for (String path : paths.all()) {
+                    assertThat(zk().exists(path), is(true));
+                }
             }
         }
 
         @Test
-        public void should_not_have_children_under_master_node() {
-            assertThat(zkClient.getChildren(paths.master()).size(), is(0));
+        public void should_not_have_children_under_master_node() throws Exception {
+            assertThat(count(Area.MASTER), is(0));
         }
 
         @Test
-        public void should_not_have_children_under_used_node() {
-            assertThat(zkClient.getChildren(paths.used()).size(), is(0));
+        public void should_not_have_children_under_used_node() throws Exception {
+            assertThat(count(Area.USED), is(0));
         }
 
         @Test
-        public void should_not_have_children_under_unused_node() {
-            assertThat(zkClient.getChildren(paths.unused()).size(), is(0));
+        public void should_not_have_children_under_unused_node() throws Exception {
+            assertThat(count(Area.UNUSED), is(0));
         }
 
         @Test
-        public void should_match_unused_size_with_zk() {
-            assertThat(pool.getUnused(), is(zkClient.getChildren(paths.unused()).size()));
+        public void should_match_unused_size_with_zk() throws Exception {
+            assertThat(pool.getUnused(), is(count(Area.UNUSED)));
         }
 
         @Test
-        public void should_match_pool_size_with_zk() {
-            assertThat(pool.getSize(), is(zkClient.getChildren(paths.master()).size()));
+        public void should_match_pool_size_with_zk() throws Exception {
+            assertThat(pool.getSize(), is(count(Area.MASTER)));
         }
 
         @Test
-        public void should_match_used_size_with_zk() {
-            assertThat(pool.getUsed(), is(zkClient.getChildren(paths.used()).size()));
+        public void should_match_used_size_with_zk() throws Exception {
+            assertThat(pool.getUsed(), is(count(Area.USED)));
         }
 
     }
 
     public static class WhenInitialCapacityIsSet extends BaseObjectPoolTest {
 
+        public WhenInitialCapacityIsSet(StoreType storeType) {
+            super(storeType);
+        }
+
         @Override
         @Before
         public void setUp() throws Exception {
@@ -87,44 +98,47 @@ public class PoolInitializationTest {
         }
 
         @Test
-        public void should_have_all_paths_in_zk() {
-            for (String path : paths.all()) {
-                assertThat(zkClient.exists(path), is(true));
+        public void should_have_all_paths_in_zk() throws Exception {
+            assertThat(exists(poolName), is(true));
+            if (onZookeeper()) {
+                for (String path : paths.all()) {
+                    assertThat(zk().exists(path), is(true));
+                }
             }
         }
 
         @Test
-        public void should_have_children_under_master_node() {
-            assertThat(zkClient.getChildren(paths.master()).size(), is(super.initialCapacity));
+        public void should_have_children_under_master_node() throws Exception {
+            assertThat(count(Area.MASTER), is(super.initialCapacity));
         }
 
         @Test
-        public void should_have_children_under_unused_node() {
-            assertThat(zkClient.getChildren(paths.unused()).size(), is(super.initialCapacity));
+        public void should_have_children_under_unused_node() throws Exception {
+            assertThat(count(Area.UNUSED), is(super.initialCapacity));
         }
 
         @Test
-        public void should_not_have_children_under_used_node() {
-            assertThat(zkClient.getChildren(paths.used()).size(), is(0));
+        public void should_not_have_children_under_used_node() throws Exception {
+            assertThat(count(Area.USED), is(0));
         }
 
         @Test
-        public void should_match_unused_size_with_zk() {
-            assertThat(pool.getUnused(), is(zkClient.getChildren(paths.unused()).size()));
+        public void should_match_unused_size_with_zk() throws Exception {
+            assertThat(pool.getUnused(), is(count(Area.UNUSED)));
         }
 
         @Test
-        public void should_match_pool_size_with_zk() {
-            assertThat(pool.getSize(), is(zkClient.getChildren(paths.master()).size()));
+        public void should_match_pool_size_with_zk() throws Exception {
+            assertThat(pool.getSize(), is(count(Area.MASTER)));
         }
 
         @Test
-        public void should_match_used_size_with_zk() {
-            assertThat(pool.getUsed(), is(zkClient.getChildren(paths.used()).size()));
+        public void should_match_used_size_with_zk() throws Exception {
+            assertThat(pool.getUsed(), is(count(Area.USED)));
         }
     }
 
-    public static class WhenMultipleClientsInitializePool {
+    public static class WhenMultipleClientsInitializePool extends BaseStoreTest {
 
         private static final String OBJECT_POOL_NAME = "test";
         private ZKObjectPool<TestObject> pool1;
@@ -132,14 +146,13 @@ public class PoolInitializationTest {
         private ExecutorService executroService;
         private int initialCapacity = 5;
         private int maxCapacity = 5;
-        private PoolPaths paths;
-        protected ZKClient zkClient;
+
+        public WhenMultipleClientsInitializePool(StoreType storeType) {
+            super(storeType);
+        }
 
         @Before
         public void setup() throws Exception {
-            zkClient = new ZKClient(ZkServer.connectString());
-
-            paths = new PoolPaths(OBJECT_POOL_NAME);
             List<Future<?>> futures = Lists.newArrayList();
             pool1 = newPoolInstance();
             pool2 = newPoolInstance();
@@ -152,9 +165,8 @@ public class PoolInitializationTest {
 
         }
 
-        private ZKObjectPool<TestObject> newPoolInstance() {
-            Config c = new Config.Builder(OBJECT_POOL_NAME).initSize(initialCapacity).size(maxCapacity)
-                    .zkConnectString(ZkServer.connectString()).build();
+        private ZKObjectPool<TestObject> newPoolInstance() throws Exception {
+            Config c = on(new Config.Builder(OBJECT_POOL_NAME).initSize(initialCapacity).size(maxCapacity)).build();
             ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(c);
             pool.setFactory(new TestObjectFactory());
             return pool;
@@ -174,7 +186,7 @@ public class PoolInitializationTest {
             pool1.shutdown();
             pool2.shutdown();
             Assert.assertFalse("I did not expect " + OBJECT_POOL_NAME
-                    + " in the zoo after the destroy has been invoked.", zkClient.exists(paths.base()));
+                    + " in the store after the destroy has been invoked.", exists(OBJECT_POOL_NAME));
             executroService.shutdown();
         }
 
@@ -190,30 +202,30 @@ public class PoolInitializationTest {
         }
 
         @Test
-        public void should_have_children_under_master_node() {
-            assertThat(zkClient.getChildren(paths.master()).size(), is(initialCapacity));
+        public void should_have_children_under_master_node() throws Exception {
+            assertThat(count(OBJECT_POOL_NAME, Area.MASTER), is(initialCapacity));
         }
 
         @Test
-        public void should_not_have_children_under_used_node() {
-            assertThat(zkClient.getChildren(paths.used()).size(), is(0));
+        public void should_not_have_children_under_used_node() throws Exception {
+            assertThat(count(OBJECT_POOL_NAME, Area.USED), is(0));
         }
 
         @Test
-        public void should_have_children_under_unused_node() {
-            assertThat(zkClient.getChildren(paths.unused()).size(), is(initialCapacity));
+        public void should_have_children_under_unused_node() throws Exception {
+            assertThat(count(OBJECT_POOL_NAME, Area.UNUSED), is(initialCapacity));
         }
 
         @Test
-        public void should_match_unused_size_with_zk() {
-            assertThat(pool1.getUnused(), is(zkClient.getChildren(paths.unused()).size()));
-            assertThat(pool2.getUnused(), is(zkClient.getChildren(paths.unused()).size()));
+        public void should_match_unused_size_with_zk() throws Exception {
+            assertThat(pool1.getUnused(), is(count(OBJECT_POOL_NAME, Area.UNUSED)));
+            assertThat(pool2.getUnused(), is(count(OBJECT_POOL_NAME, Area.UNUSED)));
         }
 
         @Test
-        public void should_match_pool_size_with_zk() {
-            assertThat(pool1.getSize(), is(zkClient.getChildren(paths.master()).size()));
-            assertThat(pool2.getSize(), is(zkClient.getChildren(paths.master()).size()));
+        public void should_match_pool_size_with_zk() throws Exception {
+            assertThat(pool1.getSize(), is(count(OBJECT_POOL_NAME, Area.MASTER)));
+            assertThat(pool2.getSize(), is(count(OBJECT_POOL_NAME, Area.MASTER)));
         }
 
         @Test
@@ -0,0 +1,153 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.Histogram;
+import org.mbellani.metrics.MetricsExporter;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+@RunWith(Enclosed.class)
+public class PoolMetricsTest {
+    private static final int SIZE = 5;
+
+    public static class WhenRecordingLatencies {
+        private Histogram histogram = new Histogram();
+
+        @Before
+        public void setup() {
+            for (long i = 1; i <= 100000; i++) {
+                histogram.record(i * 1000);
+            }
+        }
+
+        @Test
+        public void should_count_every_value() {
+            assertThat(histogram.getCount(), is(100000L));
+            assertThat(histogram.getMax(), is(100000000L));
+            assertThat(histogram.getMean(), is(closeTo(50000500.0, 1.0)));
+        }
+
+        @Test
+        public void should_report_percentiles_within_precision() {
+            assertThat((double) histogram.getValueAtPercentile(50), is(closeTo(50000000.0, 50000000.0 * 0.04)));
+            assertThat((double) histogram.getValueAtPercentile(99), is(closeTo(99000000.0, 99000000.0 * 0.04)));
+            assertThat(histogram.getValueAtPercentile(100), is(100000000L));
+        }
+
+        @Test
+        public void should_not_allocate_while_recording() {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                    .getThreadMXBean();
+            long tid = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(tid);
+            for (int i = 0; i < 100000; i++) {
+                histogram.recordSince(System.nanoTime() - i);
+            }
+            assertThat(threads.getThreadAllocatedBytes(tid) - before, is(lessThan(1024L)));
+        }
+    }
+
+    public static class WhenUsingAnInstrumentedPool {
+        private ZKObjectPool<TestObject> pool;
+        private AtomicInteger exports = new AtomicInteger();
+        private ObjectName mbean;
+
+        @Before
+        public void setup() {
+            Config cfg = new Config.Builder("metrics-test").initSize(SIZE).size(SIZE)
+                    .storeType(StoreType.IN_MEMORY).metricsExporter(new MetricsExporter() {
+                        @Override
+                        public void export(PoolMetrics metrics) {
+                            exports.incrementAndGet();
+                        }
+                    }).build();
+            pool = new ZKObjectPool<TestObject>(cfg);
+            pool.setFactory(new TestObjectFactory());
+            pool.initialize();
+            for (int i = 0; i < 3; i++) {
+                pool.returnObject(pool.borrow());
+            }
+            mbean = pool.getMetrics().getMBeanName();
+        }
+
+        @Test
+        public void should_time_borrows_and_returns() {
+            PoolMetrics metrics = pool.getMetrics();
+            assertThat(metrics.histogram(PoolMetrics.BORROW).getCount(), is(3L));
+            assertThat(metrics.histogram(PoolMetrics.RETURN).getCount(), is(3L));
+            assertThat(metrics.histogram(PoolMetrics.CREATE).getCount(), is((long) SIZE));
+            assertThat(metrics.histogram(PoolMetrics.BORROW).getMax(), is(greaterThan(0L)));
+        }
+
+        @Test
+        public void should_serve_gauges_from_local_state() {
+            TestObject obj = pool.borrow();
+            assertThat(pool.getMetrics().getGauges().get(PoolMetrics.BORROWED).getValue(), is(1L));
+            pool.returnObject(obj);
+        }
+
+        @Test
+        public void should_expose_metrics_over_jmx() throws Exception {
+            assertThat(mbean, is(notNullValue()));
+            Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(mbean, "borrow.count");
+            assertThat((Long) count, is(3L));
+        }
+
+        @Test
+        public void should_export_and_unregister_on_shutdown() {
+            pool.shutdown();
+            assertThat(exports.get(), is(1));
+            assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(mbean), is(false));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenMetricsAreDisabled {
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() {
+            Config cfg = new Config.Builder("metrics-off-test").initSize(SIZE).size(SIZE)
+                    .storeType(StoreType.IN_MEMORY).metricsEnabled(false).build();
+            pool = new ZKObjectPool<TestObject>(cfg);
+            pool.setFactory(new TestObjectFactory());
+            pool.initialize();
+            pool.returnObject(pool.borrow());
+        }
+
+        @Test
+        public void should_record_nothing() {
+            assertThat(pool.getMetrics().histogram(PoolMetrics.BORROW).getCount(), is(0L));
+            assertThat(pool.getMetrics().getMBeanName(), is(nullValue()));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -4,7 +4,6 @@ import static com.google.common.collect.Lists.newArrayList;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -17,8 +16,9 @@ import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import org.mbellani.pool.Config;
 import org.mbellani.pool.PoolPaths;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
 import org.mbellani.pool.ZKObjectPool;
-import org.mbellani.zk.ZKClient;
 
 @RunWith(Enclosed.class)
 public class PoolShutdownTest {
@@ -28,25 +28,25 @@ public class PoolShutdownTest {
     private static final int TOTAL_PARTICIPATNS = 3;
     private static final PoolPaths PATHS = new PoolPaths(NAME);
 
-    private static Config cfg() {
-        return new Config.Builder(NAME).initSize(INITIAL_CAPACITY).size(MAX_CAPACITY)
-                .zkConnectString(ZkServer.connectString()).build();
+    private static Config.Builder cfg() {
+        return new Config.Builder(NAME).initSize(INITIAL_CAPACITY).size(MAX_CAPACITY);
     }
 
-    private static List<ZKObjectPool<TestObject>> create(int numPools) {
+    private static List<ZKObjectPool<TestObject>> create(int numPools, Config cfg) {
         List<ZKObjectPool<TestObject>> ret = newArrayList();
         for (int i = 0; i < numPools; i++) {
-            ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg());
+            ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg);
             pool.setFactory(new TestObjectFactory());
             ret.add(pool);
         }
         return ret;
     }
 
-    private static List<ZKObjectPool<TestObject>> createWithFactory(int numPools, TestObjectFactory factory) {
+    private static List<ZKObjectPool<TestObject>> createWithFactory(int numPools, Config cfg,
+            TestObjectFactory factory) {
         List<ZKObjectPool<TestObject>> ret = newArrayList();
         for (int i = 0; i < numPools; i++) {
-            ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg());
+            ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg);
             pool.setFactory(factory);
             ret.add(pool);
         }
@@ -54,6 +54,11 @@ public class PoolShutdownTest {
     }
 
     public static class WhenAllObjectsAreReturnedToPool extends BaseObjectPoolTest {
+
+        public WhenAllObjectsAreReturnedToPool(StoreType storeType) {
+            super(storeType);
+        }
+
         @Override
         @Before
         public void setUp() throws Exception {
@@ -68,8 +73,8 @@ public class PoolShutdownTest {
         }
 
         @Test
-        public void zk_should_not_have_pool_node() {
-            assertThat(zkClient.exists(paths.base()), is(false));
+        public void zk_should_not_have_pool_node() throws Exception {
+            assertThat(exists(poolName), is(false));
         }
 
         @Test
@@ -91,6 +96,11 @@ public class PoolShutdownTest {
     }
 
     public static class WhenSomeObjectsAreUsed extends BaseObjectPoolTest {
+
+        public WhenSomeObjectsAreUsed(StoreType storeType) {
+            super(storeType);
+        }
+
         @Override
         @Before
         public void setUp() throws Exception {
@@ -108,8 +118,8 @@ public class PoolShutdownTest {
         }
 
         @Test
-        public void zk_should_not_have_pool_node() {
-            assertThat(zkClient.exists(paths.base()), is(false));
+        public void zk_should_not_have_pool_node() throws Exception {
+            assertThat(exists(poolName), is(false));
         }
 
         @Test
@@ -131,6 +141,11 @@ public class PoolShutdownTest {
     }
 
     public static class WhenThereAreNOObjectsInPool extends BaseObjectPoolTest {
+
+        public WhenThereAreNOObjectsInPool(StoreType storeType) {
+            super(storeType);
+        }
+
         @Override
         @Before
         public void setUp() throws Exception {
@@ -145,8 +160,8 @@ public class PoolShutdownTest {
         }
 
         @Test
-        public void zk_should_not_have_pool_node() {
-            assertThat(zkClient.exists(paths.base()), is(false));
+        public void zk_should_not_have_pool_node() throws Exception {
+            assertThat(exists(poolName), is(false));
         }
 
         @Test
@@ -167,51 +182,50 @@ public class PoolShutdownTest {
 
     }
 
-    public static class WhenOneOfTheParticipantsShutdown {
+    public static class WhenOneOfTheParticipantsShutdown extends BaseStoreTest {
 
-        private ZKClient zk;
         List<ZKObjectPool<TestObject>> participants;
 
+        public WhenOneOfTheParticipantsShutdown(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
-            ZkServer.start();
-            zk = getZk();
-            participants = create(TOTAL_PARTICIPATNS);
+            participants = create(TOTAL_PARTICIPATNS, on(cfg()).build());
             for (ZKObjectPool<TestObject> pool : participants) {
                 pool.initialize();
             }
-            assertThat(zk.getChildren(PATHS.participants()).size(), is(participants.size()));
+            assertThat(count(NAME, Area.PARTICIPANTS), is(participants.size()));
             shutdownOne();
         }
 
-        private ZKClient getZk() throws IOException, InterruptedException {
-            zk = new ZKClient(ZkServer.connectString());
-            return zk;
-        }
-
         private void shutdownOne() {
             participants.remove(0).shutdown();
         }
 
         @Test
-        public void should_have_1_less_participant() {
-            assertThat(zk.getChildren(PATHS.participants()).size(), is(TOTAL_PARTICIPATNS - 1));
+        public void should_have_1_less_participant() throws Exception {
+            assertThat(count(NAME, Area.PARTICIPANTS), is(TOTAL_PARTICIPATNS - 1));
         }
 
         @Test
-        public void should_have_correct_unused_objects() {
-            assertThat(zk.getChildren(PATHS.unused()).size(), is(INITIAL_CAPACITY));
+        public void should_have_correct_unused_objects() throws Exception {
+            assertThat(count(NAME, Area.UNUSED), is(INITIAL_CAPACITY));
         }
 
         @Test
-        public void should_have_correct_num_of_objects_in_master_list() {
-            assertThat(zk.getChildren(PATHS.master()).size(), is(INITIAL_CAPACITY));
+        public void should_have_correct_num_of_objects_in_master_list() throws Exception {
+            assertThat(count(NAME, Area.MASTER), is(INITIAL_CAPACITY));
         }
 
         @Test
-        public void should_not_remove_pool_nodes() {
-            for (String path : PATHS.all()) {
-                assertThat(path + " should have been there", zk.exists(path), is(true));
+        public void should_not_remove_pool_nodes() throws Exception {
+            assertThat(exists(NAME), is(true));
+            if (onZookeeper()) {
+                for (String path : PATHS.all()) {
+                    assertThat(path + " should have been there", zk().exists(path), is(true));
+                }
             }
         }
 
@@ -224,24 +238,23 @@ public class PoolShutdownTest {
 
     }
 
-    public static class WhenAllClientsShutdownConcurrently {
+    public static class WhenAllClientsShutdownConcurrently extends BaseStoreTest {
 
         private List<ZKObjectPool<TestObject>> pools;
-        private ZKClient zk;
-        private PoolPaths paths;
         private ExecutorService executor = Executors.newFixedThreadPool(2);
         private List<Future<?>> futures = newArrayList();
 
+        public WhenAllClientsShutdownConcurrently(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
-            ZkServer.start();
-            zk = getZk();
-            pools = createWithFactory(TOTAL_PARTICIPATNS, new TestObjectFactory());
+            pools = createWithFactory(TOTAL_PARTICIPATNS, on(cfg()).build(), new TestObjectFactory());
             for (ZKObjectPool<TestObject> pool : pools) {
                 pool.initialize();
             }
-            paths = pools.get(0).getPaths();
-            assertThat(zk.getChildren(PATHS.participants()).size(), is(pools.size()));
+            assertThat(count(NAME, Area.PARTICIPANTS), is(pools.size()));
             for (final ZKObjectPool<TestObject> pool : pools) {
                 futures.add(executor.submit(new Runnable() {
                     @Override
@@ -260,14 +273,9 @@ public class PoolShutdownTest {
             }
         }
 
-        private ZKClient getZk() throws IOException, InterruptedException {
-            zk = new ZKClient(ZkServer.connectString());
-            return zk;
-        }
-
         @Test
-        public void zk_should_not_have_pool_node() {
-            assertThat(zk.exists(paths.base()), is(false));
+        public void zk_should_not_have_pool_node() throws Exception {
+            assertThat(exists(NAME), is(false));
         }
 
         @Test
@@ -0,0 +1,131 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.PoolStats;
+import org.mbellani.pool.ZKObjectPool;
+
+@RunWith(Enclosed.class)
+public class PoolStatsTest {
+    private static final int SIZE = 5;
+
+    private static ZKObjectPool<TestObject> create(long staleness, TimeUnit unit) {
+        Config cfg = new Config.Builder("stats-test").initSize(SIZE).size(SIZE)
+                .zkConnectString(ZkServer.connectString()).statsMaxStaleness(staleness).intrvlUnit(unit).build();
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg);
+        pool.setFactory(new TestObjectFactory());
+        pool.initialize();
+        return pool;
+    }
+
+    public static class WhenNothingChanges {
+        private ZKObjectPool<TestObject> pool;
+        private PoolStats first;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create(60, TimeUnit.SECONDS);
+            first = pool.snapshot();
+        }
+
+        @Test
+        public void should_report_all_counts() {
+            assertThat(first.getSize(), is(SIZE));
+            assertThat(first.getUsed(), is(0));
+            assertThat(first.getUnused(), is(SIZE));
+            assertThat(first.getZombies(), is(0));
+        }
+
+        @Test
+        public void should_serve_snapshots_from_cache() {
+            assertThat(pool.snapshot(), is(sameInstance(first)));
+            assertThat(pool.getUnused(), is(SIZE));
+            assertThat(pool.snapshot(), is(sameInstance(first)));
+        }
+
+        @Test
+        public void should_read_again_when_forced() {
+            assertThat(pool.snapshot(true), is(not(sameInstance(first))));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenParticipantsChangeThePool {
+        private ZKObjectPool<TestObject> pool;
+        private ZKObjectPool<TestObject> other;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create(60, TimeUnit.SECONDS);
+            other = create(60, TimeUnit.SECONDS);
+            pool.snapshot();
+        }
+
+        @Test
+        public void should_see_its_own_changes_immediately() {
+            TestObject obj = pool.borrow();
+            assertThat(pool.getUsed(), is(1));
+            pool.returnObject(obj);
+            assertThat(pool.getUsed(), is(0));
+            assertThat(pool.getUnused(), is(SIZE));
+        }
+
+        @Test
+        public void should_see_changes_of_others_through_watches() throws Exception {
+            other.borrow();
+            Thread.sleep(200);
+            PoolStats stats = pool.snapshot();
+            assertThat(stats.getUsed(), is(1));
+            assertThat(stats.getUnused(), is(SIZE - 1));
+        }
+
+        @After
+        public void after() {
+            other.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenTheSnapshotIsStale {
+        private ZKObjectPool<TestObject> pool;
+        private PoolStats first;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create(50, TimeUnit.MILLISECONDS);
+            first = pool.snapshot();
+            Thread.sleep(100);
+        }
+
+        @Test
+        public void should_read_the_counts_again() {
+            PoolStats second = pool.snapshot();
+            assertThat(second, is(not(sameInstance(first))));
+            assertThat(second.getSize(), is(SIZE));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
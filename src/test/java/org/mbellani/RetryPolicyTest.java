@@ -0,0 +1,89 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.utils.RetryPolicy;
+import org.mbellani.utils.RetryPolicy.Retry;
+
+@RunWith(Enclosed.class)
+public class RetryPolicyTest {
+
+    private static RetryPolicy.Builder noDelay() {
+        return new RetryPolicy.Builder().baseDelay(0, TimeUnit.MILLISECONDS).maxDelay(0, TimeUnit.MILLISECONDS);
+    }
+
+    public static class WhenAnOperationKeepsFailing {
+
+        @Test
+        public void should_give_up_after_the_max_attempts() throws Exception {
+            Retry retry = noDelay().maxAttempts(3).build().start();
+            assertThat(retry.backoff(), is(true));
+            assertThat(retry.backoff(), is(true));
+            assertThat(retry.backoff(), is(false));
+            assertThat(retry.getRetries(), is(2));
+        }
+
+        @Test
+        public void should_give_up_after_the_max_elapsed_time() throws Exception {
+            Retry retry = new RetryPolicy.Builder().baseDelay(20, TimeUnit.MILLISECONDS)
+                    .maxDelay(20, TimeUnit.MILLISECONDS).maxElapsed(100, TimeUnit.MILLISECONDS).maxAttempts(1000)
+                    .build().start();
+            long start = System.nanoTime();
+            while (retry.backoff()) {
+                // keeps failing.
+            }
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(150L));
+        }
+
+        @Test
+        public void should_not_wait_longer_than_the_max_delay() throws Exception {
+            Retry retry = new RetryPolicy.Builder().baseDelay(10, TimeUnit.MILLISECONDS)
+                    .maxDelay(20, TimeUnit.MILLISECONDS).maxAttempts(6).build().start();
+            long start = System.nanoTime();
+            while (retry.backoff()) {
+                // keeps failing.
+            }
+            assertThat(retry.getRetries(), is(5));
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(10 + 4 * 20 + 50L));
+        }
+    }
+
+    public static class WhenManyOperationsRetryAtOnce {
+
+        @Test
+        public void should_share_the_budget() throws Exception {
+            RetryPolicy policy = noDelay().budget(2, 1, TimeUnit.MINUTES).build();
+            Retry one = policy.start();
+            Retry other = policy.start();
+            assertThat(one.backoff(), is(true));
+            assertThat(other.backoff(), is(true));
+            assertThat(one.backoff(), is(false));
+            assertThat(policy.start().backoff(), is(false));
+        }
+
+        @Test
+        public void should_refill_the_budget_every_window() throws Exception {
+            RetryPolicy policy = noDelay().budget(1, 50, TimeUnit.MILLISECONDS).build();
+            assertThat(policy.start().backoff(), is(true));
+            assertThat(policy.start().backoff(), is(false));
+            Thread.sleep(60);
+            assertThat(policy.start().backoff(), is(true));
+        }
+
+        @Test
+        public void should_not_limit_retries_without_a_budget() throws Exception {
+            RetryPolicy policy = noDelay().budget(0, 1, TimeUnit.MINUTES).maxAttempts(2).build();
+            for (int i = 0; i < 1000; i++) {
+                assertThat(policy.start().backoff(), is(true));
+            }
+        }
+    }
+
+}
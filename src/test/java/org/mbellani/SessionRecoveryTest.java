@@ -0,0 +1,208 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.ZKObjectPool;
+import org.mbellani.pool.ZKPoolStore;
+import org.mbellani.utils.RetryPolicy;
+import org.mbellani.zk.ZKClient;
+
+import com.google.common.base.Charsets;
+
+@RunWith(Enclosed.class)
+public class SessionRecoveryTest {
+    private static final long WAIT = TimeUnit.SECONDS.toMillis(15);
+
+    private static ZKObjectPool<TestObject> create(String name, int size) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(new Config.Builder(name).initSize(size)
+                .size(size).zkConnectString(ZkServer.connectString()).build());
+        pool.setFactory(new TestObjectFactory());
+        pool.initialize();
+        return pool;
+    }
+
+    private static ZKClient zk(ZKObjectPool<TestObject> pool) {
+        return ((ZKPoolStore) pool.getStore()).getZk();
+    }
+
+    private static long count(ZKObjectPool<TestObject> pool, String counter) {
+        return pool.getMetrics().counter(counter).getCount();
+    }
+
+    private static void awaitCount(ZKObjectPool<TestObject> pool, String counter, long expected) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (count(pool, counter) < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+    }
+
+    public static class WhenTheSessionOfABorrowerExpires {
+        private ZKObjectPool<TestObject> pool;
+        private TestObject borrowed;
+        private long session;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create("session-expiry-test", 3);
+            borrowed = pool.borrow();
+            session = zk(pool).getSessionId();
+            ZkServer.expireSession(session);
+            awaitCount(pool, PoolMetrics.CLAIMS_RECOVERED, 1);
+        }
+
+        @Test
+        public void should_claim_the_borrowed_object_again() {
+            assertThat(zk(pool).getSessionId() != session, is(true));
+            assertThat(count(pool, PoolMetrics.CLAIMS_RECOVERED), is(1L));
+            assertThat(pool.snapshot(true).getUsed(), is(1));
+            assertThat(pool.getUnused(), is(2));
+        }
+
+        @Test
+        public void should_not_lend_the_object_twice() {
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(pool.borrow() == null, is(true));
+        }
+
+        @Test
+        public void should_take_the_object_back() {
+            pool.returnObject(borrowed);
+            assertThat(pool.snapshot(true).getUsed(), is(0));
+            assertThat(pool.getUnused(), is(3));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenAnotherParticipantTookTheObjectMeanwhile {
+        private ZKObjectPool<TestObject> pool;
+        private ZKObjectPool<TestObject> other;
+        private TestObject taken;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create("session-conflict-test", 1);
+            other = create("session-conflict-test", 1);
+            pool.borrow();
+            ZKClient zk = zk(pool);
+            long session = zk.getSessionId();
+            // keeps the expired participant from reconnecting until the other one borrowed the object.
+            synchronized (zk) {
+                ZkServer.expireSession(session);
+                long deadline = System.currentTimeMillis() + WAIT;
+                while ((taken = other.borrow()) == null && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+            }
+            awaitCount(pool, PoolMetrics.CLAIMS_LOST, 1);
+        }
+
+        @Test
+        public void should_leave_the_object_with_the_other_participant() {
+            assertThat(taken != null, is(true));
+            assertThat(count(pool, PoolMetrics.CLAIMS_LOST), is(1L));
+            assertThat(count(pool, PoolMetrics.CLAIMS_RECOVERED), is(0L));
+            assertThat(other.snapshot(true).getUsed(), is(1));
+        }
+
+        @Test
+        public void should_not_give_the_object_back_for_the_other_participant() {
+            other.returnObject(taken);
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(other.borrow() == null, is(true));
+        }
+
+        @After
+        public void after() {
+            other.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenTheConnectionDropsBriefly {
+        private ZKObjectPool<TestObject> pool;
+        private long session;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create("session-disconnect-test", 2);
+            pool.borrow();
+            session = zk(pool).getSessionId();
+            ZkServer.dropConnections();
+            Thread.sleep(1000);
+        }
+
+        @Test
+        public void should_keep_the_session_and_its_claims() {
+            assertThat(zk(pool).getSessionId(), is(session));
+            assertThat(pool.snapshot(true).getUsed(), is(1));
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(pool.borrow() == null, is(true));
+            assertThat(count(pool, PoolMetrics.CLAIMS_RECOVERED), is(0L));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenTheServerIsBrieflyDown {
+        private static final String PATH = "/read-retry-test";
+        private ZKClient zk;
+        private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            zk = new ZKClient(ZkServer.connectString());
+            zk.setRetryPolicy(new RetryPolicy.Builder().baseDelay(100, TimeUnit.MILLISECONDS)
+                    .maxDelay(200, TimeUnit.MILLISECONDS).maxAttempts(100).build());
+            zk.create(PATH, "data".getBytes(Charsets.UTF_8));
+            zk.create(PATH + "/child");
+            ZkServer.shutdown();
+            executor.schedule(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    ZkServer.start();
+                    return null;
+                }
+            }, 500, TimeUnit.MILLISECONDS);
+        }
+
+        @Test
+        public void should_read_once_the_server_is_back() {
+            assertThat(zk.getChildren(PATH), is(Arrays.asList("child")));
+            assertThat(new String(zk.getData(PATH), Charsets.UTF_8), is("data"));
+        }
+
+        @After
+        public void after() throws Exception {
+            executor.shutdownNow();
+            zk.inTransaction().deleteRecursive(PATH).commit();
+            zk.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+import org.mbellani.pool.ZKPoolStore;
+
+@RunWith(Enclosed.class)
+public class SharedBorrowTest {
+
+    private static ZKObjectPool<TestObject> create(Config.Builder cfg) {
+        return TestPools.create(cfg, new TestObjectFactory());
+    }
+
+    public static class WhenSharingObjects {
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create(new Config.Builder("shared-test").initSize(2).size(2).maxSharers(2)
+                    .zkConnectString(ZkServer.connectString()));
+        }
+
+        @Test
+        public void should_lend_an_object_to_several_holders() {
+            TestObject a = pool.borrowShared();
+            TestObject b = pool.borrowShared();
+            assertThat(b.getTestData(), is(a.getTestData()));
+            ZKPoolStore store = (ZKPoolStore) pool.getStore();
+            String node = store.getZk().getChildren(pool.getPaths().shared()).get(0);
+            assertThat(store.getZk().getChildren(pool.getPaths().shared() + "/" + node).size(), is(2));
+            assertThat(pool.borrowShared().getTestData(), is(not(a.getTestData())));
+            assertThat(pool.getMetrics().getGauges().get(PoolMetrics.SHARED_HELD).getValue(), is(3L));
+        }
+
+        @Test
+        public void should_put_it_back_once_the_last_holder_left() {
+            TestObject a = pool.borrowShared();
+            TestObject b = pool.borrowShared();
+            pool.returnObject(a);
+            assertThat(pool.getStore().count(Area.SHARED), is(1));
+            pool.returnObject(b);
+            assertThat(pool.getStore().children(Area.SHARED), is(empty()));
+            assertThat(pool.getStore().count(Area.UNUSED), is(2));
+        }
+
+        @Test
+        public void should_join_the_least_loaded_object() {
+            TestObject a = pool.borrowShared();
+            pool.borrowShared();
+            pool.borrowShared();
+            pool.borrowShared();
+            pool.returnObject(a);
+            assertThat(pool.borrowShared().getTestData(), is(a.getTestData()));
+            assertThat(pool.borrowShared(), is(nullValue()));
+        }
+
+        @Test
+        public void should_keep_exclusive_borrows_off_shared_objects() {
+            pool.borrowShared();
+            pool.borrowShared();
+            pool.borrowShared();
+            assertThat(pool.borrow(), is(nullValue()));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenAllHoldersCrash {
+        private ZKObjectPool<TestObject> survivor;
+        private ZKObjectPool<TestObject> crashed;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            Config.Builder cfg = new Config.Builder("shared-crash-test").initSize(1).size(1).maxSharers(2)
+                    .zkConnectString(ZkServer.connectString());
+            survivor = create(cfg);
+            crashed = create(cfg);
+            crashed.borrowShared();
+            crashed.borrowShared();
+            ((ZKPoolStore) crashed.getStore()).getZk().shutdown();
+        }
+
+        @Test
+        public void should_restore_the_object_to_unused() throws Exception {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (survivor.getStore().count(Area.UNUSED) == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertThat(survivor.getStore().children(Area.SHARED), is(empty()));
+            assertThat(survivor.borrow() != null, is(true));
+        }
+
+        @After
+        public void after() {
+            try {
+                crashed.shutdown();
+            }
+            catch (RuntimeException e) {
+                // its session is gone already.
+            }
+            survivor.shutdown();
+        }
+    }
+
+    private abstract static class DrainingSharedObjects {
+        private ZKObjectPool<TestObject> pool;
+        private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+        abstract Config.Builder config() throws Exception;
+
+        @Before
+        public void setup() throws Exception {
+            pool = create(config().initSize(1).size(1).maxSharers(2).drainWait(5));
+        }
+
+        @Test
+        public void should_lend_the_object_once_the_holders_left() {
+            final TestObject shared = pool.borrowShared();
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    pool.returnObject(shared);
+                }
+            }, 300, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            TestObject exclusive = pool.borrow();
+            assertThat(exclusive.getTestData(), is(shared.getTestData()));
+            assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5, is(true));
+            assertThat(pool.getMetrics().counter(PoolMetrics.DRAINS).getCount(), is(1L));
+            assertThat(pool.borrowShared(), is(nullValue()));
+            pool.returnObject(exclusive);
+            assertThat(pool.borrowShared().getTestData(), is(shared.getTestData()));
+        }
+
+        @After
+        public void after() {
+            executor.shutdownNow();
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenDrainingOnZookeeper extends DrainingSharedObjects {
+        @Override
+        Config.Builder config() throws Exception {
+            ZkServer.start();
+            return new Config.Builder("drain-test").zkConnectString(ZkServer.connectString());
+        }
+    }
+
+    public static class WhenDrainingInMemory extends DrainingSharedObjects {
+        @Override
+        Config.Builder config() {
+            return new Config.Builder("drain-memory-test").storeType(StoreType.IN_MEMORY);
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+import org.mbellani.zk.ZKClient;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimaps;
+
+@RunWith(Enclosed.class)
+public class StrictCapacityTest {
+    private static final int SIZE = 5;
+    private static final int PARTICIPANTS = 3;
+    private static final int THREADS = 4;
+
+    /**
+     * Every thread of every participant borrows as much as it can at the same time, starting from an empty pool.
+     */
+    private static ListMultimap<ZKObjectPool<TestObject>, TestObject> borrowConcurrently(
+            List<ZKObjectPool<TestObject>> pools) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PARTICIPANTS * THREADS);
+        final CountDownLatch go = new CountDownLatch(1);
+        final ListMultimap<ZKObjectPool<TestObject>, TestObject> borrowed = Multimaps
+                .synchronizedListMultimap(ArrayListMultimap.<ZKObjectPool<TestObject>, TestObject> create());
+        List<Future<?>> futures = Lists.newArrayList();
+        for (final ZKObjectPool<TestObject> pool : pools) {
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        go.await();
+                        for (int j = 0; j < SIZE; j++) {
+                            TestObject obj = pool.borrow();
+                            if (obj != null) {
+                                borrowed.put(pool, obj);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+        }
+        go.countDown();
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+        return borrowed;
+    }
+
+    private static List<ZKObjectPool<TestObject>> create(Config.Builder cfg) {
+        List<ZKObjectPool<TestObject>> pools = Lists.newArrayList();
+        for (int i = 0; i < PARTICIPANTS; i++) {
+            ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg.build());
+            pool.setFactory(new TestObjectFactory());
+            pool.initialize();
+            pools.add(pool);
+        }
+        return pools;
+    }
+
+    private static int created(List<ZKObjectPool<TestObject>> pools) {
+        int created = 0;
+        for (ZKObjectPool<TestObject> pool : pools) {
+            created += ((TestObjectFactory) pool.getFactory()).getCounts().created
+                    - ((TestObjectFactory) pool.getFactory()).getCounts().destroyed;
+        }
+        return created;
+    }
+
+    private static void shutdown(List<ZKObjectPool<TestObject>> pools) {
+        for (ZKObjectPool<TestObject> pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenParticipantsGrowThePoolAtOnce {
+        private List<ZKObjectPool<TestObject>> pools;
+        private ZKClient zk;
+        private ListMultimap<ZKObjectPool<TestObject>, TestObject> borrowed;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            zk = new ZKClient(ZkServer.connectString());
+            pools = create(new Config.Builder("strict-capacity-test").initSize(0).size(SIZE)
+                    .zkConnectString(ZkServer.connectString()));
+            borrowed = borrowConcurrently(pools);
+        }
+
+        @Test
+        public void should_hand_out_exactly_the_size() {
+            assertThat(borrowed.size(), is(SIZE));
+        }
+
+        @Test
+        public void should_not_create_more_objects_than_the_size() {
+            assertThat(zk.getChildren(pools.get(0).getPaths().master()).size(), is(SIZE));
+            assertThat(zk.getChildren(pools.get(0).getPaths().used()).size(), is(SIZE));
+        }
+
+        @Test
+        public void should_destroy_objects_that_did_not_fit() {
+            assertThat(created(pools), is(SIZE));
+        }
+
+        @Test
+        public void should_make_room_when_objects_are_destroyed() {
+            ZKObjectPool<TestObject> pool = borrowed.keySet().iterator().next();
+            assertThat(pool.invalidate(borrowed.get(pool).get(0)), is(true));
+            assertThat(pool.borrow() != null, is(true));
+            assertThat(pool.borrow() == null, is(true));
+            assertThat(zk.getChildren(pool.getPaths().master()).size(), is(SIZE));
+        }
+
+        @After
+        public void after() throws Exception {
+            shutdown(pools);
+            zk.close();
+        }
+    }
+
+    public static class WhenParticipantsGrowAnInMemoryPoolAtOnce {
+        private List<ZKObjectPool<TestObject>> pools;
+        private ListMultimap<ZKObjectPool<TestObject>, TestObject> borrowed;
+
+        @Before
+        public void setup() throws Exception {
+            pools = create(new Config.Builder("strict-capacity-test").initSize(0).size(SIZE)
+                    .storeType(StoreType.IN_MEMORY));
+            borrowed = borrowConcurrently(pools);
+        }
+
+        @Test
+        public void should_hand_out_exactly_the_size() {
+            assertThat(borrowed.size(), is(SIZE));
+            assertThat(pools.get(0).getStore().count(Area.MASTER), is(SIZE));
+        }
+
+        @Test
+        public void should_destroy_objects_that_did_not_fit() {
+            assertThat(created(pools), is(SIZE));
+        }
+
+        @After
+        public void after() {
+            shutdown(pools);
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.TagQuery;
+import org.mbellani.pool.TaggedObjectFactory;
+import org.mbellani.pool.ZKObjectPool;
+import org.mbellani.pool.ZKPoolStore;
+
+import com.google.common.collect.ImmutableSet;
+
+@RunWith(Enclosed.class)
+public class TaggedBorrowTest {
+
+    /**
+     * Four objects, odd ones in us-east and even ones in eu-west, every object after the second has a gpu.
+     */
+    private static class RegionFactory extends TestObjectFactory implements TaggedObjectFactory<TestObject> {
+        @Override
+        public TestObject create() {
+            getCounts().created++;
+            return new TestObject(String.valueOf(getCounts().created));
+        }
+
+        @Override
+        public Set<String> tags(TestObject t) {
+            int n = Integer.parseInt(t.getTestData());
+            String region = n % 2 == 1 ? "us-east" : "eu-west";
+            return n > 2 ? ImmutableSet.of(region, "gpu") : ImmutableSet.of(region);
+        }
+    }
+
+    private static ZKObjectPool<TestObject> create(Config.Builder cfg) {
+        return TestPools.create(cfg.initSize(4).size(4), new RegionFactory());
+    }
+
+    public static class WhenBorrowingByTags {
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+            pool = create(new Config.Builder("tagged-test").zkConnectString(ZkServer.connectString()));
+        }
+
+        @Test
+        public void should_lend_an_object_with_the_tags() {
+            TestObject obj = pool.borrow(TagQuery.allOf("us-east"));
+            assertThat(Integer.parseInt(obj.getTestData()) % 2, is(1));
+        }
+
+        @Test
+        public void should_intersect_the_tags() {
+            assertThat(pool.borrow(TagQuery.allOf("eu-west", "gpu")).getTestData(), is("4"));
+            assertThat(pool.borrow(TagQuery.allOf("eu-west", "gpu")), is(nullValue()));
+            assertThat(pool.borrow(TagQuery.allOf("us-east").without("gpu")).getTestData(), is("1"));
+        }
+
+        @Test
+        public void should_lend_nothing_when_no_object_matches() {
+            assertThat(pool.borrow(TagQuery.allOf("ap-south")), is(nullValue()));
+            assertThat(pool.getUsed(), is(0));
+        }
+
+        @Test
+        public void should_keep_the_index_with_claims_and_returns() {
+            ZKPoolStore store = (ZKPoolStore) pool.getStore();
+            String gpu = pool.getPaths().tag("gpu");
+            assertThat(store.getZk().getChildren(gpu).size(), is(2));
+            TestObject obj = pool.borrow(TagQuery.allOf("gpu", "us-east"));
+            assertThat(store.getZk().getChildren(gpu).size(), is(1));
+            pool.returnObject(obj);
+            assertThat(store.getZk().getChildren(gpu).size(), is(2));
+        }
+
+        @Test
+        public void should_drop_invalidated_objects_from_the_index() {
+            ZKPoolStore store = (ZKPoolStore) pool.getStore();
+            pool.invalidate(pool.borrow(TagQuery.allOf("gpu", "us-east")));
+            assertThat(store.getZk().getChildren(pool.getPaths().nodeTags()).size(), is(3));
+            assertThat(store.getZk().getChildren(pool.getPaths().tag("gpu")).size(), is(1));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenBorrowingByTagsInMemory {
+        private ZKObjectPool<TestObject> pool;
+
+        @Before
+        public void setup() {
+            pool = create(new Config.Builder("tagged-memory-test").storeType(StoreType.IN_MEMORY));
+        }
+
+        @Test
+        public void should_lend_every_match_once() {
+            TestObject a = pool.borrow(TagQuery.allOf("gpu"));
+            TestObject b = pool.borrow(TagQuery.allOf("gpu"));
+            assertThat(ImmutableSet.of(a.getTestData(), b.getTestData()), containsInAnyOrder("3", "4"));
+            assertThat(pool.borrow(TagQuery.allOf("gpu")), is(nullValue()));
+            pool.returnObject(a);
+            assertThat(pool.borrow(TagQuery.allOf("gpu")).getTestData(), is(a.getTestData()));
+        }
+
+        @Test
+        public void should_leave_untagged_borrows_alone() {
+            for (int i = 0; i < 4; i++) {
+                pool.borrow();
+            }
+            assertThat(pool.borrow(TagQuery.allOf("us-east")), is(nullValue()));
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -2,6 +2,11 @@ package org.mbellani;
 
 import org.mbellani.pool.ObjectFactory;
 
+import com.google.common.base.Charsets;
+
+/**
+ * Test objects whose copies read back from the store equal the original.
+ */
 public class TestObjectFactory implements ObjectFactory<TestObject> {
 
     private int sequence;
@@ -20,12 +25,12 @@ public class TestObjectFactory implements ObjectFactory<TestObject> {
 
     @Override
     public byte[] serialize(TestObject t) {
-        return t.toString().getBytes();
+        return t.getTestData().getBytes(Charsets.UTF_8);
     }
 
     @Override
     public TestObject deserialize(byte[] bytes) {
-        return new TestObject(new String(bytes));
+        return new TestObject(new String(bytes, Charsets.UTF_8));
     }
 
     @Override
@@ -0,0 +1,22 @@
+package org.mbellani;
+
+import org.mbellani.pool.Config;
+import org.mbellani.pool.ObjectFactory;
+import org.mbellani.pool.ZKObjectPool;
+
+/**
+ * Builds pools of test objects and initializes them with the given factory.
+ */
+public final class TestPools {
+
+    private TestPools() {
+    }
+
+    public static ZKObjectPool<TestObject> create(Config.Builder cfg, ObjectFactory<TestObject> factory) {
+        ZKObjectPool<TestObject> pool = new ZKObjectPool<TestObject>(cfg.build());
+        pool.setFactory(factory);
+        pool.initialize();
+        return pool;
+    }
+
+}
@@ -0,0 +1,164 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+
+@RunWith(Enclosed.class)
+public class ValidationPolicyTest {
+    private static final String NAME = "validation-test";
+
+    private static class CountingFactory extends TestObjectFactory {
+        private AtomicInteger validations = new AtomicInteger();
+        private volatile boolean valid = true;
+
+        @Override
+        public boolean validate(TestObject t) {
+            validations.incrementAndGet();
+            return valid;
+        }
+    }
+
+    private static Config.Builder cfg(int size) {
+        return new Config.Builder(NAME).initSize(size).size(size).storeType(StoreType.IN_MEMORY)
+                .intrvlUnit(TimeUnit.MILLISECONDS);
+    }
+
+    private abstract static class PoolFixture {
+        protected ZKObjectPool<TestObject> pool;
+        protected CountingFactory factory = new CountingFactory();
+
+        protected void create(Config cfg) {
+            pool = new ZKObjectPool<TestObject>(cfg);
+            pool.setFactory(factory);
+            pool.initialize();
+        }
+
+        protected long timed(String histogram) {
+            return pool.getMetrics().histogram(histogram).getCount();
+        }
+
+        @After
+        public void after() {
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenTestingOnBorrowOnly extends PoolFixture {
+
+        @Test
+        public void should_validate_every_borrow() {
+            create(cfg(1).build());
+            pool.returnObject(pool.borrow());
+            pool.returnObject(pool.borrow());
+            assertThat(factory.validations.get(), is(2));
+            assertThat(timed(PoolMetrics.VALIDATE_ON_BORROW), is(2L));
+        }
+
+        @Test
+        public void should_not_validate_when_turned_off() {
+            create(cfg(1).testOnBorrow(false).build());
+            pool.returnObject(pool.borrow());
+            assertThat(factory.validations.get(), is(0));
+        }
+    }
+
+    public static class WhenTestingOnReturn extends PoolFixture {
+
+        @Test
+        public void should_put_valid_objects_back() {
+            create(cfg(2).testOnBorrow(false).testOnReturn(true).build());
+            pool.returnObject(pool.borrow());
+            assertThat(pool.getUnused(), is(2));
+            assertThat(timed(PoolMetrics.VALIDATE_ON_RETURN), is(1L));
+        }
+
+        @Test
+        public void should_destroy_invalid_objects() {
+            create(cfg(2).testOnBorrow(false).testOnReturn(true).build());
+            TestObject obj = pool.borrow();
+            factory.valid = false;
+            pool.returnObject(obj);
+            assertThat(pool.getSize(), is(1));
+            assertThat(pool.getUsed(), is(0));
+            assertThat(factory.getCounts().destroyed, is(1));
+        }
+    }
+
+    public static class WhenObjectsWereValidatedRecently extends PoolFixture {
+
+        @Test
+        public void should_skip_validation_within_ttl() {
+            create(cfg(1).validationTtl(60000).build());
+            pool.returnObject(pool.borrow());
+            pool.returnObject(pool.borrow());
+            assertThat(factory.validations.get(), is(1));
+            assertThat(pool.getMetrics().counter(PoolMetrics.VALIDATIONS_SKIPPED).getCount(), is(1L));
+        }
+
+        @Test
+        public void should_validate_again_once_ttl_passed() throws Exception {
+            create(cfg(1).validationTtl(50).build());
+            pool.returnObject(pool.borrow());
+            Thread.sleep(100);
+            pool.returnObject(pool.borrow());
+            assertThat(factory.validations.get(), is(2));
+        }
+    }
+
+    public static class WhenTestingWhileIdle extends PoolFixture {
+
+        @Test
+        public void should_remove_idle_objects_failing_validation() throws Exception {
+            create(cfg(3).evictIntrvl(100L).maxIdleIntrvl(60000L).numTestsPerEviction(3).testWhileIdle(true)
+                    .build());
+            factory.valid = false;
+            Thread.sleep(500);
+            assertThat(pool.getSize(), is(0));
+            assertThat(factory.getCounts().destroyed, is(3));
+            assertThat(timed(PoolMetrics.VALIDATE_WHILE_IDLE), is(greaterThan(0L)));
+        }
+
+        @Test
+        public void should_keep_valid_idle_objects() throws Exception {
+            create(cfg(3).evictIntrvl(100L).maxIdleIntrvl(60000L).numTestsPerEviction(3).testWhileIdle(true)
+                    .build());
+            Thread.sleep(500);
+            assertThat(pool.getSize(), is(3));
+            assertThat(pool.getUnused(), is(3));
+            assertThat(factory.validations.get(), is(greaterThan(2)));
+        }
+
+        @Test
+        public void should_still_evict_objects_idle_too_long() throws Exception {
+            create(cfg(3).evictIntrvl(100L).maxIdleIntrvl(600L).numTestsPerEviction(3).testWhileIdle(true)
+                    .build());
+            Thread.sleep(1500);
+            assertThat(factory.validations.get(), is(greaterThan(2)));
+            assertThat(pool.getSize(), is(0));
+        }
+
+        @Test
+        public void should_still_evict_objects_idle_too_long_in_zookeeper() throws Exception {
+            ZkServer.start();
+            create(cfg(3).storeType(StoreType.ZOOKEEPER).zkConnectString(ZkServer.connectString())
+                    .evictIntrvl(100L).maxIdleIntrvl(600L).numTestsPerEviction(3).testWhileIdle(true).build());
+            Thread.sleep(1500);
+            assertThat(factory.validations.get(), is(greaterThan(2)));
+            assertThat(pool.getSize(), is(0));
+        }
+    }
+
+}
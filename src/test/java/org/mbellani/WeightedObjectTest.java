@@ -0,0 +1,154 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.WeightedObjectFactory;
+import org.mbellani.pool.ZKObjectPool;
+
+@RunWith(Enclosed.class)
+public class WeightedObjectTest {
+
+    /**
+     * Objects weighing the given units in turn, the weight goes in front of the test data.
+     */
+    private static class SlotFactory extends TestObjectFactory implements WeightedObjectFactory<TestObject> {
+        private final int[] weights;
+
+        SlotFactory(int... weights) {
+            this.weights = weights;
+        }
+
+        @Override
+        public TestObject create() {
+            int n = getCounts().created++;
+            return new TestObject(weights[n % weights.length] + ":" + n);
+        }
+
+        @Override
+        public int weight(TestObject t) {
+            return weightOf(t);
+        }
+    }
+
+    private static int weightOf(TestObject t) {
+        return Integer.parseInt(t.getTestData().split(":")[0]);
+    }
+
+    private abstract static class WeightedFixture {
+        protected ZKObjectPool<TestObject> pool;
+
+        protected abstract Config.Builder config(String name);
+
+        protected ZKObjectPool<TestObject> create(String name, int initSize, int size, int... weights) {
+            return TestPools.create(config(name).initSize(initSize).size(size), new SlotFactory(weights));
+        }
+
+        @Test
+        public void should_fill_to_the_initial_size_in_weight_units() {
+            pool = create("weighted-fill-test", 8, 16, 4);
+            assertThat(pool.getSize(), is(2));
+            assertThat(pool.getStore().weight(Area.MASTER), is(8));
+        }
+
+        @Test
+        public void should_not_grow_past_the_weight_budget() {
+            pool = create("weighted-budget-test", 0, 10, 8, 2, 4);
+            assertThat(weightOf(pool.borrow()), is(8));
+            assertThat(weightOf(pool.borrow()), is(2));
+            assertThat(pool.borrow(), is(nullValue()));
+            // the budget is used up, no object is created to be turned away.
+            assertThat(((TestObjectFactory) pool.getFactory()).getCounts().created, is(2));
+            assertThat(pool.getMetrics().counter(PoolMetrics.CAPACITY_REJECTIONS).getCount(), is(0L));
+            assertThat(pool.getStore().weight(Area.USED), is(10));
+        }
+
+        @Test
+        public void should_free_the_weight_of_destroyed_objects() {
+            pool = create("weighted-free-test", 0, 10, 8);
+            pool.invalidate(pool.borrow());
+            assertThat(pool.getStore().weight(Area.MASTER), is(0));
+            assertThat(weightOf(pool.borrow()), is(8));
+            assertThat(pool.getStore().weight(Area.MASTER), is(8));
+        }
+
+        @Test
+        public void should_lend_objects_of_the_minimum_weight() {
+            pool = create("weighted-borrow-test", 11, 16, 1, 2, 8);
+            assertThat(weightOf(pool.borrow(3)), is(8));
+            assertThat(pool.borrow(3), is(nullValue()));
+            assertThat(weightOf(pool.borrow(2)), is(2));
+        }
+
+        @Test
+        public void should_find_weights_recorded_by_other_participants() {
+            pool = create("weighted-shared-test", 7, 8, 1, 6);
+            ZKObjectPool<TestObject> other = create("weighted-shared-test", 7, 8, 1);
+            try {
+                TestObject obj = other.borrow(5);
+                assertThat(weightOf(obj), is(6));
+                other.returnObject(obj);
+            }
+            finally {
+                other.shutdown();
+            }
+        }
+
+        @Test
+        public void should_destroy_objects_heavier_than_the_pool() {
+            pool = create("weighted-heavy-test", 0, 4, 5);
+            try {
+                pool.borrow();
+            }
+            catch (IllegalArgumentException expected) {
+            }
+            TestObjectFactory.Counts counts = ((TestObjectFactory) pool.getFactory()).getCounts();
+            assertThat(counts.created, is(1));
+            assertThat(counts.destroyed, is(1));
+            assertThat(pool.getStore().count(Area.MASTER), is(0));
+        }
+
+        @Test(expected = IllegalArgumentException.class)
+        public void should_reject_minimum_weights_below_a_unit() {
+            pool = create("weighted-reject-test", 1, 4, 1);
+            pool.borrow(0);
+        }
+
+        @After
+        public void after() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    public static class WhenWeightsAreInZookeeper extends WeightedFixture {
+        @Override
+        protected Config.Builder config(String name) {
+            return new Config.Builder(name).zkConnectString(ZkServer.connectString());
+        }
+
+        @Before
+        public void setup() throws Exception {
+            ZkServer.start();
+        }
+    }
+
+    public static class WhenWeightsAreInMemory extends WeightedFixture {
+        @Override
+        protected Config.Builder config(String name) {
+            return new Config.Builder(name).storeType(StoreType.IN_MEMORY);
+        }
+    }
+
+}
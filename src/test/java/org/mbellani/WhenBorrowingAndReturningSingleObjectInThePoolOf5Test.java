@@ -4,9 +4,15 @@ import static org.junit.Assert.assertEquals;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
 
 public class WhenBorrowingAndReturningSingleObjectInThePoolOf5Test extends BaseObjectPoolTest {
 
+	public WhenBorrowingAndReturningSingleObjectInThePoolOf5Test(StoreType storeType) {
+		super(storeType);
+	}
+
 	@Override
 	@Before
 	public void setUp() throws Exception {
@@ -15,21 +21,21 @@ public class WhenBorrowingAndReturningSingleObjectInThePoolOf5Test extends BaseO
 	}
 
 	@Test
-	public void zookeeper_should_not_contain_any_children_under_used_node() {
+	public void zookeeper_should_not_contain_any_children_under_used_node() throws Exception {
 		assertEquals(
 		    "used node in zookeeper should not contain any children after all the objects have been returned to the pool",
-		    0, zkClient.getChildren(paths.used()).size());
+		    0, count(Area.USED));
 	}
 
 	@Test
-	public void zookeeper_should_contain_5_children_under_unused_node() {
+	public void zookeeper_should_contain_5_children_under_unused_node() throws Exception {
 		assertEquals("unused node in zookeeper should contain 5 children since all the objects have been returned to pool",
-		    5, zkClient.getChildren(paths.unused()).size());
+		    5, count(Area.UNUSED));
 	}
 
 	@Test
-	public void zookeeper_should_contain_5_children_under_master_node() {
-		assertEquals("base object pool size should be unchanged ", 5, zkClient.getChildren(paths.master()).size());
+	public void zookeeper_should_contain_5_children_under_master_node() throws Exception {
+		assertEquals("base object pool size should be unchanged ", 5, count(Area.MASTER));
 	}
 
 	@Test
@@ -4,11 +4,17 @@ import junit.framework.Assert;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
 
 public class WhenBorrowingTokensFromPoolTest extends BaseObjectPoolTest {
 
 	private TestObject borrowedObject;
 
+	public WhenBorrowingTokensFromPoolTest(StoreType storeType) {
+		super(storeType);
+	}
+
 	@Override
 	@Before
 	public void setUp() throws Exception{
@@ -22,18 +28,18 @@ public class WhenBorrowingTokensFromPoolTest extends BaseObjectPoolTest {
 	}
 
 	@Test
-	public void zookeeper_should_contain_1_object_under_used_node() {
-		Assert.assertEquals(1, zkClient.getChildren(paths.used()).size());
+	public void zookeeper_should_contain_1_object_under_used_node() throws Exception {
+		Assert.assertEquals(1, count(Area.USED));
 	}
 
 	@Test
-	public void zookeeper_should_contain_4_objects_under_unused_node() {
-		Assert.assertEquals(4, zkClient.getChildren(paths.unused()).size());
+	public void zookeeper_should_contain_4_objects_under_unused_node() throws Exception {
+		Assert.assertEquals(4, count(Area.UNUSED));
 	}
 
 	@Test
-	public void should_not_impact_the_size_of_base_pool_node_in_zookeeper() {
-		Assert.assertEquals(5, zkClient.getChildren(paths.master()).size());
+	public void should_not_impact_the_size_of_base_pool_node_in_zookeeper() throws Exception {
+		Assert.assertEquals(5, count(Area.MASTER));
 	}
 
 	@Override
@@ -4,9 +4,15 @@ import static org.junit.Assert.assertEquals;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
 
 public class WhenInitialCapacityIsReachedButNotMaxCapacityTest extends BaseObjectPoolTest {
 
+    public WhenInitialCapacityIsReachedButNotMaxCapacityTest(StoreType storeType) {
+        super(storeType);
+    }
+
     @Override
     @Before
     public void setUp() throws Exception {
@@ -23,19 +29,18 @@ public class WhenInitialCapacityIsReachedButNotMaxCapacityTest extends BaseObjec
     }
 
     @Test
-    public void zookeeper_should_contain_6_objects_in_pool() {
-        assertEquals("Object pool should have been grown to 6 objects", 6, zkClient.getChildren(paths.master()).size());
+    public void zookeeper_should_contain_6_objects_in_pool() throws Exception {
+        assertEquals("Object pool should have been grown to 6 objects", 6, count(Area.MASTER));
     }
 
     @Test
-    public void zookeeper_should_contain_6_objects_in_used_pool() {
-        assertEquals("Used objects have been grown to 6 objects", 6, zkClient.getChildren(paths.used()).size());
+    public void zookeeper_should_contain_6_objects_in_used_pool() throws Exception {
+        assertEquals("Used objects have been grown to 6 objects", 6, count(Area.USED));
     }
 
     @Test
-    public void zookeeper_should_not_have_any_objects_in_unused_pool() {
-        assertEquals("There should not have been any used objects since everything is borrowed", 0, zkClient
-                .getChildren(paths.unused()).size());
+    public void zookeeper_should_not_have_any_objects_in_unused_pool() throws Exception {
+        assertEquals("There should not have been any used objects since everything is borrowed", 0, count(Area.UNUSED));
     }
 
     @Test
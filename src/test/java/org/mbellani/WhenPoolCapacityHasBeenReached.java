@@ -5,10 +5,16 @@ import static org.junit.Assert.assertNull;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
 
 public class WhenPoolCapacityHasBeenReached extends BaseObjectPoolTest {
     private TestObject borrowedObject;
 
+    public WhenPoolCapacityHasBeenReached(StoreType storeType) {
+        super(storeType);
+    }
+
     @Override
     @Before
     public void setUp() throws Exception {
@@ -28,15 +34,14 @@ public class WhenPoolCapacityHasBeenReached extends BaseObjectPoolTest {
     }
 
     @Test
-    public void zookeeper_should_not_have_more_nodes_under_used_pool_than_pool_capacity() {
+    public void zookeeper_should_not_have_more_nodes_under_used_pool_than_pool_capacity() throws Exception {
         assertEquals("Used node in zookeeper should not contain more objects than max capacity.", super.maxCapacity,
-                zkClient.getChildren(paths.used()).size());
+                count(Area.USED));
     }
 
     @Test
-    public void zookeeper_should_not_have_any_nodes_under_unused_pool() {
-        assertEquals("Unused node in zookeeper should have no children.", 0, zkClient.getChildren(paths.unused())
-                .size());
+    public void zookeeper_should_not_have_any_nodes_under_unused_pool() throws Exception {
+        assertEquals("Unused node in zookeeper should have no children.", 0, count(Area.UNUSED));
     }
 
     @Test
@@ -13,6 +13,7 @@ import org.slf4j.LoggerFactory;
 public class ZkServer {
     private static NIOServerCnxnFactory standaloneServerFactory;
     private static ZooKeeperServer server;
+    private static int port;
     private static final Logger LOGGER = LoggerFactory.getLogger(ZkServer.class);
 
     public static void start() throws Exception {
@@ -21,7 +22,10 @@ public class ZkServer {
             File dir = new File(dataDirectory, "zookeeper").getAbsoluteFile();
             server = new ZooKeeperServer(dir, dir, 2000);
             standaloneServerFactory = new NIOServerCnxnFactory();
-            int port = freePort();
+            // the same port after a shutdown, so clients connected before find the server again.
+            if (port == 0) {
+                port = freePort();
+            }
             LOGGER.info("Starting on port {}", port);
             standaloneServerFactory.configure((new InetSocketAddress(port)), 5000);
             standaloneServerFactory.startup(server); // start the server.
@@ -40,6 +44,20 @@ public class ZkServer {
         return String.format("127.0.0.1:%s", standaloneServerFactory.getLocalPort());
     }
 
+    /**
+     * Ends the session on the server side, its client finds out once it reconnects.
+     */
+    public static void expireSession(long sessionId) {
+        server.closeSession(sessionId);
+    }
+
+    /**
+     * Drops the connections of all clients, which then reconnect with their sessions.
+     */
+    public static void dropConnections() {
+        standaloneServerFactory.closeAll();
+    }
+
     public static void shutdown() {
         if (standaloneServerFactory != null) {
             standaloneServerFactory.shutdown();
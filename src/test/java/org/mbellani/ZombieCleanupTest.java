@@ -12,38 +12,40 @@ import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import org.mbellani.pool.Config;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
 import org.mbellani.pool.ZKObjectPool;
-import org.mbellani.zk.ZKClient;
 
 @RunWith(Enclosed.class)
 public class ZombieCleanupTest {
 
+    private static final String NAME = "test";
     private static final int SIZE = 5;
     private static final int EXPECTED_ZOMBIES = 2;
     private static final int INTRVL = 5;
 
-    private static Config config() {
-        return new Config.Builder("test").initSize(SIZE).size(SIZE).zkConnectString(ZkServer.connectString())
-                .zombieDetectionIntrvl(INTRVL).build();
+    private static Config.Builder config() {
+        return new Config.Builder(NAME).initSize(SIZE).size(SIZE).zombieDetectionIntrvl(INTRVL);
     }
 
-    public static class WhenZombieRevalidationSucceeds {
-        private ZKClient zk;
+    public static class WhenZombieRevalidationSucceeds extends BaseStoreTest {
         private ZKObjectPool<TestObject> pool;
 
+        public WhenZombieRevalidationSucceeds(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
-            ZkServer.start();
-            zk = new ZKClient(ZkServer.connectString());
             configurePool();
             pool.returnObject(pool.borrow());
             Thread.sleep(TimeUnit.SECONDS.toMillis(INTRVL + 5));
         }
 
-        private void configurePool() {
+        private void configurePool() throws Exception {
             ZombieObjectFactory factory = new ZombieObjectFactory();
             factory.zombieOnValidation().times(EXPECTED_ZOMBIES);
-            pool = new ZKObjectPool<TestObject>(config());
+            pool = new ZKObjectPool<TestObject>(on(config()).build());
             pool.setFactory(factory);
             pool.initialize();
         }
@@ -69,12 +71,12 @@ public class ZombieCleanupTest {
         }
 
         @Test
-        public void should_match_pool_sizes_with_zk() {
+        public void should_match_pool_sizes_with_zk() throws Exception {
             pool.borrow();
-            assertThat(pool.getZombies(), is(zk.getStat(pool.getPaths().zombies()).getNumChildren()));
-            assertThat(pool.getUsed(), is(zk.getStat(pool.getPaths().used()).getNumChildren()));
-            assertThat(pool.getSize(), is(zk.getStat(pool.getPaths().master()).getNumChildren()));
-            assertThat(pool.getUnused(), is(zk.getStat(pool.getPaths().unused()).getNumChildren()));
+            assertThat(pool.getZombies(), is(count(NAME, Area.ZOMBIES)));
+            assertThat(pool.getUsed(), is(count(NAME, Area.USED)));
+            assertThat(pool.getSize(), is(count(NAME, Area.MASTER)));
+            assertThat(pool.getUnused(), is(count(NAME, Area.UNUSED)));
         }
 
         @After
@@ -84,24 +86,25 @@ public class ZombieCleanupTest {
 
     }
 
-    public static class WhenObjectMarkedZombieAfterValidation {
-        private ZKClient zk;
+    public static class WhenObjectMarkedZombieAfterValidation extends BaseStoreTest {
         private ZKObjectPool<TestObject> pool;
 
+        public WhenObjectMarkedZombieAfterValidation(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
-            ZkServer.start();
-            zk = new ZKClient(ZkServer.connectString());
             configurePool();
             TestObject obj = pool.borrow();
             assertThat(obj, is(nullValue()));
             Thread.sleep(TimeUnit.SECONDS.toMillis(INTRVL + 5));
         }
 
-        private void configurePool() {
+        private void configurePool() throws Exception {
             ZombieObjectFactory factory = new ZombieObjectFactory();
             factory.zombieOnValidation().always();
-            pool = new ZKObjectPool<TestObject>(config());
+            pool = new ZKObjectPool<TestObject>(on(config()).build());
             pool.setFactory(factory);
             pool.initialize();
         }
@@ -127,12 +130,12 @@ public class ZombieCleanupTest {
         }
 
         @Test
-        public void should_match_pool_sizes_with_zk() {
+        public void should_match_pool_sizes_with_zk() throws Exception {
             pool.borrow();
-            assertThat(pool.getZombies(), is(zk.getStat(pool.getPaths().zombies()).getNumChildren()));
-            assertThat(pool.getUsed(), is(zk.getStat(pool.getPaths().used()).getNumChildren()));
-            assertThat(pool.getSize(), is(zk.getStat(pool.getPaths().master()).getNumChildren()));
-            assertThat(pool.getUnused(), is(zk.getStat(pool.getPaths().unused()).getNumChildren()));
+            assertThat(pool.getZombies(), is(count(NAME, Area.ZOMBIES)));
+            assertThat(pool.getUsed(), is(count(NAME, Area.USED)));
+            assertThat(pool.getSize(), is(count(NAME, Area.MASTER)));
+            assertThat(pool.getUnused(), is(count(NAME, Area.UNUSED)));
         }
 
         @After
@@ -141,15 +144,16 @@ public class ZombieCleanupTest {
         }
     }
 
-    public static class WhenObjectIsInvalidatedFromZombieState {
-        private ZKClient zk;
+    public static class WhenObjectIsInvalidatedFromZombieState extends BaseStoreTest {
         private ZKObjectPool<TestObject> pool;
         private ZombieObjectFactory factory = new ZombieObjectFactory();
 
+        public WhenObjectIsInvalidatedFromZombieState(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
-            ZkServer.start();
-            zk = new ZKClient(ZkServer.connectString());
             configurePool();
             TestObject obj = pool.borrow();
             assertThat(obj, is(nullValue()));
@@ -163,10 +167,10 @@ public class ZombieCleanupTest {
             pool.shutdown();
         }
 
-        private void configurePool() {
+        private void configurePool() throws Exception {
             factory = new ZombieObjectFactory();
             factory.zombieOnValidation().always();
-            pool = new ZKObjectPool<TestObject>(config());
+            pool = new ZKObjectPool<TestObject>(on(config()).build());
             pool.setFactory(factory);
             pool.initialize();
         }
@@ -192,12 +196,12 @@ public class ZombieCleanupTest {
         }
 
         @Test
-        public void should_match_pool_sizes_with_zk() {
+        public void should_match_pool_sizes_with_zk() throws Exception {
             pool.borrow();
-            assertThat(pool.getZombies(), is(zk.getStat(pool.getPaths().zombies()).getNumChildren()));
-            assertThat(pool.getUsed(), is(zk.getStat(pool.getPaths().used()).getNumChildren()));
-            assertThat(pool.getSize(), is(zk.getStat(pool.getPaths().master()).getNumChildren()));
-            assertThat(pool.getUnused(), is(zk.getStat(pool.getPaths().unused()).getNumChildren()));
+            assertThat(pool.getZombies(), is(count(NAME, Area.ZOMBIES)));
+            assertThat(pool.getUsed(), is(count(NAME, Area.USED)));
+            assertThat(pool.getSize(), is(count(NAME, Area.MASTER)));
+            assertThat(pool.getUnused(), is(count(NAME, Area.UNUSED)));
         }
 
     }
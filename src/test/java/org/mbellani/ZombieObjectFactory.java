@@ -47,7 +47,7 @@ public class ZombieObjectFactory extends TestObjectFactory {
 
         }
 
-        public boolean fail() {
+        public synchronized boolean fail() {
             return enabled && (always || failed++ < expected);
         }
 
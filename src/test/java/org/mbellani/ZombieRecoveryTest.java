@@ -0,0 +1,122 @@
+package org.mbellani;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.runners.Enclosed;
+import org.junit.runner.RunWith;
+import org.mbellani.metrics.PoolMetrics;
+import org.mbellani.pool.Config;
+import org.mbellani.pool.StoreType;
+import org.mbellani.pool.ZKObjectPool;
+import org.mbellani.pool.ZombieException;
+
+@RunWith(Enclosed.class)
+public class ZombieRecoveryTest {
+    private static final int SIZE = 4;
+
+    private static class OutageFactory extends TestObjectFactory {
+        private volatile boolean down = true;
+        private volatile long delay;
+        private AtomicInteger checks = new AtomicInteger();
+
+        @Override
+        public boolean validate(TestObject t) {
+            checks.incrementAndGet();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    throw new ZombieException("Interrupted");
+                }
+            }
+            if (down) {
+                throw new ZombieException("Backend is down");
+            }
+            return true;
+        }
+    }
+
+    // the periodic check is pushed out of the way, recovery has to come from the zombies watch.
+    private static Config.Builder cfg() {
+        return new Config.Builder("zombie-recovery-test").initSize(SIZE).size(SIZE).storeType(StoreType.IN_MEMORY)
+                .intrvlUnit(TimeUnit.MILLISECONDS).zombieDetectionIntrvl(60000).zombieValidationTimeout(1000)
+                .zombieBackoff(50);
+    }
+
+    private abstract static class OutageFixture {
+        protected ZKObjectPool<TestObject> pool;
+        protected OutageFactory factory = new OutageFactory();
+
+        protected void startOutage(Config cfg) {
+            pool = new ZKObjectPool<TestObject>(cfg);
+            pool.setFactory(factory);
+            pool.initialize();
+            assertThat(pool.borrow(), is(nullValue()));
+            factory.checks.set(0);
+        }
+
+        protected long count(String counter) {
+            return pool.getMetrics().counter(counter).getCount();
+        }
+
+        @After
+        public void after() {
+            factory.delay = 0;
+            pool.shutdown();
+        }
+    }
+
+    public static class WhenTheBackendComesBack extends OutageFixture {
+
+        @Test
+        public void should_revalidate_zombies_in_parallel() throws Exception {
+            startOutage(cfg().zombieValidationThreads(SIZE).build());
+            factory.delay = 300;
+            factory.down = false;
+            Thread.sleep(800);
+            assertThat(pool.getZombies(), is(0));
+            assertThat(pool.getUnused(), is(SIZE));
+            assertThat(pool.getMetrics().histogram(PoolMetrics.ZOMBIE_RECOVERY).getCount(), is((long) SIZE));
+        }
+    }
+
+    public static class WhenRevalidationHangs extends OutageFixture {
+
+        @Test
+        public void should_give_up_and_try_again_later() throws Exception {
+            startOutage(cfg().zombieValidationTimeout(100).build());
+            factory.delay = 10000;
+            factory.down = false;
+            Thread.sleep(400);
+            assertThat(count(PoolMetrics.ZOMBIE_CHECK_TIMEOUTS), is(greaterThanOrEqualTo((long) SIZE)));
+            assertThat(pool.getZombies(), is(SIZE));
+            factory.delay = 0;
+            Thread.sleep(1000);
+            assertThat(pool.getZombies(), is(0));
+        }
+    }
+
+    public static class WhenZombiesStayDead extends OutageFixture {
+
+        @Test
+        public void should_back_off() throws Exception {
+            startOutage(cfg().zombieMaxBackoff(200).build());
+            Thread.sleep(1000);
+            // 50ms apart without backing off would be 20 checks each.
+            assertThat(factory.checks.get(), is(greaterThan(SIZE)));
+            assertThat(factory.checks.get(), is(lessThan(SIZE * 10)));
+            assertThat(pool.getZombies(), is(SIZE));
+        }
+    }
+
+}
@@ -12,22 +12,25 @@ import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
 import org.mbellani.ZombieObjectFactory.FailureExpectaion;
 import org.mbellani.pool.Config;
+import org.mbellani.pool.PoolStore.Area;
+import org.mbellani.pool.StoreType;
 import org.mbellani.pool.ZKObjectPool;
-import org.mbellani.zk.ZKClient;
 
 @RunWith(Enclosed.class)
 public class ZombieTest {
+    private static final String NAME = "test";
     private static final int SIZE = 5;
 
-    public static class WhenAllMarkedZombiesDuringValidation {
-        private ZKClient zk;
+    public static class WhenAllMarkedZombiesDuringValidation extends BaseStoreTest {
         private ZKObjectPool<TestObject> pool;
 
+        public WhenAllMarkedZombiesDuringValidation(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
-            ZkServer.start();
-            zk = new ZKClient(ZkServer.connectString());
-            pool = new ZKObjectPool<TestObject>(config());
+            pool = new ZKObjectPool<TestObject>(on(config()).build());
             ZombieObjectFactory factory = new ZombieObjectFactory();
             factory.zombieOnValidation().always();
             pool.setFactory(factory);
@@ -65,12 +68,12 @@ public class ZombieTest {
         }
 
         @Test
-        public void should_match_pool_sizes_with_zk() {
+        public void should_match_pool_sizes_with_zk() throws Exception {
             pool.borrow();
-            assertThat(pool.getZombies(), is(zk.getStat(pool.getPaths().zombies()).getNumChildren()));
-            assertThat(pool.getUsed(), is(zk.getStat(pool.getPaths().used()).getNumChildren()));
-            assertThat(pool.getSize(), is(zk.getStat(pool.getPaths().master()).getNumChildren()));
-            assertThat(pool.getUnused(), is(zk.getStat(pool.getPaths().unused()).getNumChildren()));
+            assertThat(pool.getZombies(), is(count(NAME, Area.ZOMBIES)));
+            assertThat(pool.getUsed(), is(count(NAME, Area.USED)));
+            assertThat(pool.getSize(), is(count(NAME, Area.MASTER)));
+            assertThat(pool.getUnused(), is(count(NAME, Area.UNUSED)));
         }
 
         @After
@@ -80,20 +83,21 @@ public class ZombieTest {
 
     }
 
-    public static class WhenSomeMarkedZombiesDuringValidation {
+    public static class WhenSomeMarkedZombiesDuringValidation extends BaseStoreTest {
 
         private static final int SIZE = 5;
-        private ZKClient zk;
         private ZKObjectPool<TestObject> pool;
         private FailureExpectaion expectation;
 
+        public WhenSomeMarkedZombiesDuringValidation(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
             ZombieObjectFactory factory = new ZombieObjectFactory();
             expectation = factory.zombieOnValidation().times(2);
-            ZkServer.start();
-            zk = new ZKClient(ZkServer.connectString());
-            pool = new ZKObjectPool<TestObject>(config());
+            pool = new ZKObjectPool<TestObject>(on(config()).build());
             pool.setFactory(factory);
             pool.initialize();
 
@@ -130,12 +134,12 @@ public class ZombieTest {
         }
 
         @Test
-        public void should_match_pool_sizes_with_zk() {
+        public void should_match_pool_sizes_with_zk() throws Exception {
             pool.borrow();
-            assertThat(pool.getZombies(), is(zk.getStat(pool.getPaths().zombies()).getNumChildren()));
-            assertThat(pool.getUsed(), is(zk.getStat(pool.getPaths().used()).getNumChildren()));
-            assertThat(pool.getSize(), is(zk.getStat(pool.getPaths().master()).getNumChildren()));
-            assertThat(pool.getUnused(), is(zk.getStat(pool.getPaths().unused()).getNumChildren()));
+            assertThat(pool.getZombies(), is(count(NAME, Area.ZOMBIES)));
+            assertThat(pool.getUsed(), is(count(NAME, Area.USED)));
+            assertThat(pool.getSize(), is(count(NAME, Area.MASTER)));
+            assertThat(pool.getUnused(), is(count(NAME, Area.UNUSED)));
         }
 
         @After
@@ -145,17 +149,18 @@ public class ZombieTest {
 
     }
 
-    public static class WhenAllMarkedZombiesDuringDestroy {
-        private ZKClient zk;
+    public static class WhenAllMarkedZombiesDuringDestroy extends BaseStoreTest {
         private ZKObjectPool<TestObject> pool;
 
+        public WhenAllMarkedZombiesDuringDestroy(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
             ZombieObjectFactory factory = new ZombieObjectFactory();
             factory.zombieOnDestroy().times(SIZE);
-            ZkServer.start();
-            zk = new ZKClient(ZkServer.connectString());
-            pool = new ZKObjectPool<TestObject>(config());
+            pool = new ZKObjectPool<TestObject>(on(config()).build());
             pool.setFactory(factory);
             pool.initialize();
             destroyAllObjs();
@@ -189,11 +194,11 @@ public class ZombieTest {
         }
 
         @Test
-        public void should_match_pool_sizes_with_zk() {
-            assertThat(pool.getZombies(), is(zk.getStat(pool.getPaths().zombies()).getNumChildren()));
-            assertThat(pool.getUsed(), is(zk.getStat(pool.getPaths().used()).getNumChildren()));
-            assertThat(pool.getSize(), is(zk.getStat(pool.getPaths().master()).getNumChildren()));
-            assertThat(pool.getUnused(), is(zk.getStat(pool.getPaths().unused()).getNumChildren()));
+        public void should_match_pool_sizes_with_zk() throws Exception {
+            assertThat(pool.getZombies(), is(count(NAME, Area.ZOMBIES)));
+            assertThat(pool.getUsed(), is(count(NAME, Area.USED)));
+            assertThat(pool.getSize(), is(count(NAME, Area.MASTER)));
+            assertThat(pool.getUnused(), is(count(NAME, Area.UNUSED)));
         }
 
         @After
@@ -203,20 +208,21 @@ public class ZombieTest {
 
     }
 
-    public static class WhenSomeMarkedZombiesDuringDestroy {
+    public static class WhenSomeMarkedZombiesDuringDestroy extends BaseStoreTest {
 
         private static final int SIZE = 5;
-        private ZKClient zk;
         private ZKObjectPool<TestObject> pool;
         private FailureExpectaion expectation;
 
+        public WhenSomeMarkedZombiesDuringDestroy(StoreType storeType) {
+            super(storeType);
+        }
+
         @Before
         public void setup() throws Exception {
             ZombieObjectFactory factory = new ZombieObjectFactory();
             expectation = factory.zombieOnDestroy().times(SIZE);
-            ZkServer.start();
-            zk = new ZKClient(ZkServer.connectString());
-            pool = new ZKObjectPool<TestObject>(config());
+            pool = new ZKObjectPool<TestObject>(on(config()).build());
             pool.setFactory(factory);
             pool.initialize();
             destroyAllObjs();
@@ -250,11 +256,11 @@ public class ZombieTest {
         }
 
         @Test
-        public void should_match_pool_sizes_with_zk() {
-            assertThat(pool.getZombies(), is(zk.getStat(pool.getPaths().zombies()).getNumChildren()));
-            assertThat(pool.getUsed(), is(zk.getStat(pool.getPaths().used()).getNumChildren()));
-            assertThat(pool.getSize(), is(zk.getStat(pool.getPaths().master()).getNumChildren()));
-            assertThat(pool.getUnused(), is(zk.getStat(pool.getPaths().unused()).getNumChildren()));
+        public void should_match_pool_sizes_with_zk() throws Exception {
+            assertThat(pool.getZombies(), is(count(NAME, Area.ZOMBIES)));
+            assertThat(pool.getUsed(), is(count(NAME, Area.USED)));
+            assertThat(pool.getSize(), is(count(NAME, Area.MASTER)));
+            assertThat(pool.getUnused(), is(count(NAME, Area.UNUSED)));
         }
 
         @After
@@ -264,8 +270,8 @@ public class ZombieTest {
 
     }
 
-    private static Config config() {
-        return new Config.Builder("test").initSize(SIZE).size(5).zkConnectString(ZkServer.connectString()).build();
+    private static Config.Builder config() {
+        return new Config.Builder(NAME).initSize(SIZE).size(5);
     }
 
 }